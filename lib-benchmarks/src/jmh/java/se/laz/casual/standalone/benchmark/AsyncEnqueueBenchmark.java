@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.api.buffer.type.OctetBuffer;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.api.queue.QueueOptions;
+import se.laz.casual.standalone.outbound.Caller;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One producer thread enqueueing with a simulated round trip, blocking enqueue against keeping many messages in flight
+ * The window only applies to the batch benchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AsyncEnqueueBenchmark
+{
+    private static final String QUEUE_NAME = "benchmark.queue";
+    private static final int MESSAGES = 100;
+
+    @Param({"100"})
+    public long roundTripMicros;
+
+    @Param({"16", "128"})
+    public int window;
+
+    private ExecutorService replyExecutor;
+    private StubTransactionManager transactionManager;
+    private Caller caller;
+    private QueueInfo queueInfo;
+    private QueueMessage message;
+    private List<QueueMessage> batch;
+
+    @Setup
+    public void setup()
+    {
+        replyExecutor = Executors.newFixedThreadPool(4, BenchmarkThreads.daemon("stub-reply"));
+        transactionManager = StubTransactionManager.of();
+        caller = StubCallers.create(transactionManager, StubNetworkConnection.of(StubReplies.of(128), replyExecutor, Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros))));
+        queueInfo = QueueInfo.createBuilder()
+                             .withQueueName(QUEUE_NAME)
+                             .withOptions(QueueOptions.createBuilder().withBlock(false).build())
+                             .build();
+        message = QueueMessage.createBuilder()
+                              .withPayload(OctetBuffer.of(new byte[128]))
+                              .build();
+        batch = Collections.nCopies(MESSAGES, message);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        replyExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public EnqueueReturn enqueueBlocking()
+    {
+        EnqueueReturn last = null;
+        for(int i = 0; i < MESSAGES; ++i)
+        {
+            last = caller.enqueue(queueInfo, message);
+        }
+        return last;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public Object enqueueAsync()
+    {
+        return enqueueAllInFlight();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public Object enqueueAsyncTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return enqueueAllInFlight();
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public List<EnqueueReturn> enqueueBatchTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return caller.enqueueBatch(queueInfo, batch, window);
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+
+    private Object enqueueAllInFlight()
+    {
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[MESSAGES];
+        for(int i = 0; i < MESSAGES; ++i)
+        {
+            replies[i] = caller.enqueueAsync(queueInfo, message);
+        }
+        return CompletableFuture.allOf(replies).join();
+    }
+}
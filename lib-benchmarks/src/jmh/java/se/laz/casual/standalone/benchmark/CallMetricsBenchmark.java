@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.OctetBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.standalone.metrics.CallMetrics;
+import se.laz.casual.standalone.metrics.Operation;
+import se.laz.casual.standalone.metrics.Outcome;
+import se.laz.casual.standalone.metrics.PrometheusFormat;
+import se.laz.casual.standalone.outbound.Address;
+import se.laz.casual.standalone.outbound.Caller;
+
+/**
+ * Cost of recording call metrics, on its own and as part of a stubbed service call with metrics on and off
+ */
+@State(Scope.Benchmark)
+public class CallMetricsBenchmark
+{
+    private static final String SERVICE_NAME = "benchmark/echo";
+    private static final Flag<AtmiFlags> NO_TRAN = Flag.of(AtmiFlags.TPNOTRAN);
+    private static final int SERVICES = 100;
+
+    @Param({"false", "true"})
+    public boolean metricsEnabled;
+
+    private Caller caller;
+    private CasualBuffer buffer;
+    private CallMetrics callMetrics;
+    private long sequence;
+
+    @Setup
+    public void setup()
+    {
+        CallMetrics.setEnabled(metricsEnabled);
+        caller = StubCallers.create(StubTransactionManager.of(), StubNetworkConnection.of(StubReplies.of(128)));
+        buffer = OctetBuffer.of(new byte[128]);
+        callMetrics = CallMetrics.of(Address.of("benchmark.metrics", 0));
+        // a scrape of a realistic number of series
+        for(int i = 0; i < SERVICES; ++i)
+        {
+            callMetrics.record(Operation.TPCALL, SERVICE_NAME + i, Outcome.TPSUCCESS, 1_000_000 + i, 128, 128);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        CallMetrics.setEnabled(true);
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpcallNoTransaction()
+    {
+        return caller.tpcall(SERVICE_NAME, buffer, NO_TRAN);
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpacallNoTransaction()
+    {
+        return caller.tpacall(SERVICE_NAME, buffer, NO_TRAN).join();
+    }
+
+    @Benchmark
+    public long record()
+    {
+        // varying latencies spread the increments over the buckets
+        long latency = 100_000 + (++sequence & 0xffff);
+        callMetrics.record(Operation.TPCALL, SERVICE_NAME, Outcome.TPSUCCESS, latency, 128, 128);
+        return latency;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long recordContended()
+    {
+        long latency = 100_000 + (System.nanoTime() & 0xffff);
+        callMetrics.record(Operation.TPCALL, SERVICE_NAME, Outcome.TPSUCCESS, latency, 128, 128);
+        return latency;
+    }
+
+    @Benchmark
+    public String scrape()
+    {
+        return PrometheusFormat.format(callMetrics.getStatistics());
+    }
+}
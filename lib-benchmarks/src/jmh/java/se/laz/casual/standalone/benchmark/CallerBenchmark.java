@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.OctetBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.standalone.outbound.Caller;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Client side cost of a service call, the network is replaced by {@link StubNetworkConnection}
+ * Transactional variants include begin and commit since enlist, delist and completion is what we want to measure
+ */
+@State(Scope.Benchmark)
+public class CallerBenchmark
+{
+    private static final String SERVICE_NAME = "benchmark/echo";
+    private static final Flag<AtmiFlags> NO_TRAN = Flag.of(AtmiFlags.TPNOTRAN);
+    private static final Flag<AtmiFlags> NO_FLAG = Flag.of(AtmiFlags.NOFLAG);
+
+    @Param({"128", "4096"})
+    public int payloadSize;
+
+    // completing replies on another thread mimics the netty event loop
+    @Param({"false", "true"})
+    public boolean asyncReplies;
+
+    private ExecutorService replyExecutor;
+    private StubTransactionManager transactionManager;
+    private Caller caller;
+    private CasualBuffer buffer;
+
+    @Setup
+    public void setup()
+    {
+        replyExecutor = asyncReplies ? Executors.newFixedThreadPool(2, BenchmarkThreads.daemon("stub-reply")) : null;
+        transactionManager = StubTransactionManager.of();
+        caller = StubCallers.create(transactionManager, StubNetworkConnection.of(StubReplies.of(payloadSize), replyExecutor));
+        buffer = OctetBuffer.of(new byte[payloadSize]);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if(null != replyExecutor)
+        {
+            replyExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpcallNoTransaction()
+    {
+        return caller.tpcall(SERVICE_NAME, buffer, NO_TRAN);
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpacallNoTransaction()
+    {
+        return caller.tpacall(SERVICE_NAME, buffer, NO_TRAN).join();
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpcallTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return caller.tpcall(SERVICE_NAME, buffer, NO_FLAG);
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpacallTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return caller.tpacall(SERVICE_NAME, buffer, NO_FLAG).join();
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public boolean serviceExistsCached()
+    {
+        return caller.serviceExists(SERVICE_NAME);
+    }
+
+    @Benchmark
+    public boolean serviceExistsUnknown()
+    {
+        // answered from the negative entry of the discovery cache, a round trip only once per negative ttl
+        return caller.serviceExists(StubReplies.UNKNOWN_PREFIX + SERVICE_NAME);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.internal.network.NetworkConnection;
+import se.laz.casual.network.ProtocolVersion;
+import se.laz.casual.network.outbound.NetworkListener;
+import se.laz.casual.standalone.outbound.Address;
+import se.laz.casual.standalone.outbound.network.pool.NetworkConnectionPool;
+import se.laz.casual.standalone.outbound.network.pool.ReferenceCountedNetworkConnection;
+import se.laz.casual.standalone.outbound.network.pool.SelectionStrategies;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A caller binding to a full network connection pool and letting go of it again, which is where the
+ * selection strategy runs, once per bind under the pool lock, a bound caller sends all its requests on the
+ * connection it got
+ * The pool is filled up front by users that stay bound, so every bind selects among pool size connections
+ * ./gradlew :lib-benchmarks:jmh -PjmhInclude=ConnectionBindBenchmark
+ * ./gradlew :lib-benchmarks:jmhSweep -PjmhInclude=ConnectionBindBenchmark for the binds contending on the lock
+ */
+@State(Scope.Benchmark)
+public class ConnectionBindBenchmark
+{
+    private static final NetworkListener NO_LISTENER = exception -> {};
+
+    @Param({"ROUND_ROBIN", "POWER_OF_TWO_CHOICES", "RANDOM", "LEAST_IN_FLIGHT"})
+    public SelectionStrategies strategy;
+
+    @Param({"4", "16"})
+    public int poolSize;
+
+    @Param({"4"})
+    public int usersPerConnection;
+
+    private Address address;
+    private NetworkConnectionPool pool;
+    private final List<NetworkConnection> boundUsers = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        // a unique host per trial, the pools of different trials never share connections
+        address = Address.of(UUID.randomUUID().toString(), StubCallers.PORT);
+        StubReplies replies = StubReplies.of(0);
+        pool = NetworkConnectionPool.of("benchmark", address, poolSize,
+                (connectionAddress, protocolVersion, networkListener, closeListener, ownListener) -> ReferenceCountedNetworkConnection.of(StubNetworkConnection.of(replies), listener -> {}, closeListener),
+                strategy.create());
+        for(int i = 0; i < poolSize * usersPerConnection; ++i)
+        {
+            boundUsers.add(pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, NO_LISTENER));
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        boundUsers.forEach(NetworkConnection::close);
+        boundUsers.clear();
+    }
+
+    @Benchmark
+    public NetworkConnection bindAndRelease()
+    {
+        NetworkConnection connection = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, NO_LISTENER);
+        connection.close();
+        return connection;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.OctetBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.standalone.VirtualThreads;
+import se.laz.casual.standalone.outbound.Caller;
+import se.laz.casual.standalone.outbound.CallerProducerImpl;
+import se.laz.casual.standalone.testkit.FakeCasualDomain;
+import se.laz.casual.standalone.testkit.FakeDomainConfiguration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Same as {@link VirtualThreadTpcallBenchmark} but over a real socket, against the testkit domain on localhost
+ * Includes what the stub leaves out, netty encoding and decoding, the event loop and the correlator
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FakeDomainTpcallBenchmark
+{
+    private static final String SERVICE_NAME = "benchmark/echo";
+    private static final Flag<AtmiFlags> NO_FLAG = Flag.of(AtmiFlags.NOFLAG);
+    private static final int PLATFORM_THREADS = 256;
+
+    @Param({"virtual", "platform"})
+    public String threads;
+
+    @Param({"10000"})
+    public int calls;
+
+    @Param({"10"})
+    public long serviceLatencyMillis;
+
+    @Param({"false", "true"})
+    public boolean transactional;
+
+    private FakeCasualDomain domain;
+    private ExecutorService callerExecutor;
+    private StubTransactionManager transactionManager;
+    private Caller caller;
+    private CasualBuffer buffer;
+
+    @Setup
+    public void setup()
+    {
+        if("virtual".equals(threads) && !VirtualThreads.isEnabled())
+        {
+            throw new IllegalStateException("no virtual threads in this runtime, or " + VirtualThreads.VIRTUAL_THREADS_ENV + " is false");
+        }
+        domain = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder()
+                                                               .withServiceLatency(Duration.ofMillis(serviceLatencyMillis))
+                                                               .withReplySize(128)
+                                                               .build());
+        callerExecutor = "virtual".equals(threads) ? VirtualThreads.newThreadPerTaskExecutor("tpcall") : Executors.newFixedThreadPool(PLATFORM_THREADS, BenchmarkThreads.daemon("tpcall"));
+        transactionManager = StubTransactionManager.of();
+        caller = CallerProducerImpl.of().createCaller(transactionManager, "localhost", domain.getPort(), exception -> {});
+        buffer = OctetBuffer.of(new byte[128]);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        callerExecutor.shutdownNow();
+        caller.close();
+        domain.close();
+    }
+
+    /**
+     * Time until all calls have their reply
+     */
+    @Benchmark
+    public int concurrentTpcalls()
+    {
+        List<CompletableFuture<ServiceReturn<CasualBuffer>>> replies = new ArrayList<>(calls);
+        for(int i = 0; i < calls; ++i)
+        {
+            replies.add(CompletableFuture.supplyAsync(this::call, callerExecutor));
+        }
+        CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).join();
+        return replies.size();
+    }
+
+    private ServiceReturn<CasualBuffer> call()
+    {
+        if(!transactional)
+        {
+            return caller.tpcall(SERVICE_NAME, buffer, NO_FLAG);
+        }
+        try
+        {
+            transactionManager.begin();
+            try
+            {
+                return caller.tpcall(SERVICE_NAME, buffer, NO_FLAG);
+            }
+            finally
+            {
+                transactionManager.commit();
+            }
+        }
+        catch(Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.laz.casual.standalone.outbound.Address;
+import se.laz.casual.standalone.outbound.CallerProducer;
+import se.laz.casual.standalone.outbound.CasualManagedConnection;
+import se.laz.casual.standalone.outbound.ManagedConnectionPool;
+
+import javax.transaction.TransactionManager;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Borrow and return of a managed connection, as done once per request by a typical REST resource
+ */
+@State(Scope.Benchmark)
+public class ManagedConnectionPoolBenchmark
+{
+    private Address address;
+    private Supplier<TransactionManager> transactionManagerSupplier;
+    private CallerProducer callerProducer;
+
+    @Setup
+    public void setup()
+    {
+        // the pool is static, a unique host per trial keeps trials from seeing each others connections
+        address = Address.of(UUID.randomUUID().toString(), StubCallers.PORT);
+        TransactionManager transactionManager = StubTransactionManager.of();
+        transactionManagerSupplier = () -> transactionManager;
+        callerProducer = StubCallers.producer(StubReplies.of(0));
+    }
+
+    @Benchmark
+    public CasualManagedConnection borrowAndReturn()
+    {
+        try(CasualManagedConnection connection = ManagedConnectionPool.getConnection(address, transactionManagerSupplier, callerProducer))
+        {
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.laz.casual.api.buffer.type.OctetBuffer;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.api.queue.QueueOptions;
+import se.laz.casual.standalone.outbound.Caller;
+
+/**
+ * Client side cost of enqueue and dequeue, the network is replaced by {@link StubNetworkConnection}
+ */
+@State(Scope.Benchmark)
+public class QueueCallerBenchmark
+{
+    private static final String QUEUE_NAME = "benchmark.queue";
+
+    @Param({"128", "4096"})
+    public int payloadSize;
+
+    private StubTransactionManager transactionManager;
+    private Caller caller;
+    private QueueInfo queueInfo;
+    private QueueMessage message;
+    private MessageSelector selector;
+
+    @Setup
+    public void setup()
+    {
+        transactionManager = StubTransactionManager.of();
+        caller = StubCallers.create(transactionManager, StubNetworkConnection.of(StubReplies.of(payloadSize)));
+        queueInfo = QueueInfo.createBuilder()
+                             .withQueueName(QUEUE_NAME)
+                             .withOptions(QueueOptions.createBuilder().withBlock(false).build())
+                             .build();
+        message = QueueMessage.createBuilder()
+                              .withPayload(OctetBuffer.of(new byte[payloadSize]))
+                              .build();
+        selector = MessageSelector.of();
+    }
+
+    @Benchmark
+    public EnqueueReturn enqueueNoTransaction()
+    {
+        return caller.enqueue(queueInfo, message);
+    }
+
+    @Benchmark
+    public DequeueReturn dequeueNoTransaction()
+    {
+        return caller.dequeue(queueInfo, selector);
+    }
+
+    @Benchmark
+    public EnqueueReturn enqueueTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return caller.enqueue(queueInfo, message);
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public DequeueReturn dequeueTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return caller.dequeue(queueInfo, selector);
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import se.laz.casual.network.ProtocolVersion;
+import se.laz.casual.network.outbound.NetworkListener;
+import se.laz.casual.standalone.outbound.Caller;
+import se.laz.casual.standalone.outbound.CallerImpl;
+import se.laz.casual.standalone.outbound.CallerProducer;
+
+import javax.transaction.TransactionManager;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+public final class StubCallers
+{
+    public static final String HOST = "localhost";
+    public static final int PORT = 7772;
+    private static final int RESOURCE_MANAGER_ID = 42;
+
+    private StubCallers()
+    {}
+
+    public static Caller create(TransactionManager transactionManager, StubNetworkConnection networkConnection)
+    {
+        return create(transactionManager, networkConnection, exception -> {});
+    }
+
+    public static CallerProducer producer(StubReplies replies)
+    {
+        return (transactionManager, host, port, networkListener) -> create(transactionManager, StubNetworkConnection.of(replies), networkListener);
+    }
+
+    private static Caller create(TransactionManager transactionManager, StubNetworkConnection networkConnection, NetworkListener networkListener)
+    {
+        return CallerImpl.createBuilder()
+                         .withAddress(InetSocketAddress.createUnresolved(HOST, PORT))
+                         .withDomainId(UUID.randomUUID())
+                         .withDomainName("benchmark")
+                         .withNetworkListener(networkListener)
+                         .withProtocolVersion(ProtocolVersion.VERSION_1_0)
+                         .withResourceManagerId(RESOURCE_MANAGER_ID)
+                         .withTransactionManager(transactionManager)
+                         .withNetworkConnection(networkConnection)
+                         .build();
+    }
+}
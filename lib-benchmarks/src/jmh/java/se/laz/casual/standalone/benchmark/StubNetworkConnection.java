@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import se.laz.casual.api.conversation.ConversationClose;
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
+import se.laz.casual.internal.network.NetworkConnection;
+import se.laz.casual.jca.DomainId;
+import se.laz.casual.network.protocol.messages.CasualNWMessageImpl;
+import se.laz.casual.network.protocol.messages.conversation.Request;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NetworkConnection that never touches the network, every request is answered in-process
+ * Replies are completed either on the calling thread or, to mimic the netty event loop, on the supplied executor
+ * optionally after a simulated round trip time
+ */
+public class StubNetworkConnection implements NetworkConnection
+{
+    private final DomainId domainId = DomainId.of(UUID.randomUUID());
+    private final StubReplies replies;
+    private final Executor replyExecutor;
+    private volatile boolean active = true;
+
+    private StubNetworkConnection(StubReplies replies, Executor replyExecutor)
+    {
+        this.replies = replies;
+        this.replyExecutor = replyExecutor;
+    }
+
+    public static StubNetworkConnection of(StubReplies replies)
+    {
+        return of(replies, null);
+    }
+
+    public static StubNetworkConnection of(StubReplies replies, Executor replyExecutor)
+    {
+        Objects.requireNonNull(replies, "replies can not be null");
+        return new StubNetworkConnection(replies, replyExecutor);
+    }
+
+    public static StubNetworkConnection of(StubReplies replies, Executor replyExecutor, Duration roundTrip)
+    {
+        Objects.requireNonNull(replyExecutor, "replyExecutor can not be null");
+        Objects.requireNonNull(roundTrip, "roundTrip can not be null");
+        return of(replies, CompletableFuture.delayedExecutor(roundTrip.toNanos(), TimeUnit.NANOSECONDS, replyExecutor));
+    }
+
+    @Override
+    public <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> message)
+    {
+        if(null == replyExecutor)
+        {
+            return CompletableFuture.completedFuture(reply(message));
+        }
+        return CompletableFuture.supplyAsync(() -> reply(message), replyExecutor);
+    }
+
+    @Override
+    public <X extends CasualNetworkTransmittable> void send(CasualNWMessage<X> message)
+    {
+        // NOP
+    }
+
+    @Override
+    public CompletableFuture<CasualNWMessage<Request>> receive(UUID corrid)
+    {
+        return new CompletableFuture<>();
+    }
+
+    @Override
+    public ConversationClose getConversationClose()
+    {
+        return null;
+    }
+
+    @Override
+    public void close()
+    {
+        active = false;
+    }
+
+    @Override
+    public boolean isActive()
+    {
+        return active;
+    }
+
+    @Override
+    public DomainId getDomainId()
+    {
+        return domainId;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CasualNWMessage<T> reply(CasualNWMessage<X> message)
+    {
+        return CasualNWMessageImpl.of(message.getCorrelationId(), (T) replies.replyFor(message.getMessage()));
+    }
+}
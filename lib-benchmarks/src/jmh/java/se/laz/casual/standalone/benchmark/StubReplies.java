@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.api.service.TransactionType;
+import se.laz.casual.api.xa.XAReturnCode;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryReplyMessage;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryRequestMessage;
+import se.laz.casual.network.protocol.messages.domain.Queue;
+import se.laz.casual.network.protocol.messages.domain.Service;
+import se.laz.casual.network.protocol.messages.queue.CasualDequeueReplyMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualDequeueRequestMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualEnqueueReplyMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualEnqueueRequestMessage;
+import se.laz.casual.network.protocol.messages.queue.DequeueMessage;
+import se.laz.casual.network.protocol.messages.service.CasualServiceCallReplyMessage;
+import se.laz.casual.network.protocol.messages.service.CasualServiceCallRequestMessage;
+import se.laz.casual.network.protocol.messages.service.TransactionState;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceCommitReplyMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceCommitRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourcePrepareReplyMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourcePrepareRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackReplyMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackRequestMessage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Creates in-process replies for the request messages the library sends
+ * Every service and queue exists unless its name starts with {@link #UNKNOWN_PREFIX}
+ */
+public final class StubReplies
+{
+    public static final String UNKNOWN_PREFIX = "unknown";
+    private static final UUID DOMAIN_ID = UUID.randomUUID();
+    private static final String DOMAIN_NAME = "stub-domain";
+    private static final UUID QUEUE_MESSAGE_ID = UUID.randomUUID();
+    private final byte[] replyPayload;
+
+    private StubReplies(byte[] replyPayload)
+    {
+        this.replyPayload = replyPayload;
+    }
+
+    public static StubReplies of(int replySize)
+    {
+        return new StubReplies(new byte[replySize]);
+    }
+
+    public CasualNetworkTransmittable replyFor(CasualNetworkTransmittable request)
+    {
+        if(request instanceof CasualServiceCallRequestMessage)
+        {
+            return serviceCallReply((CasualServiceCallRequestMessage) request);
+        }
+        if(request instanceof CasualDomainDiscoveryRequestMessage)
+        {
+            return discoveryReply((CasualDomainDiscoveryRequestMessage) request);
+        }
+        if(request instanceof CasualEnqueueRequestMessage)
+        {
+            return CasualEnqueueReplyMessage.createBuilder()
+                                            .withExecution(((CasualEnqueueRequestMessage) request).getExecution())
+                                            .withId(UUID.randomUUID())
+                                            .build();
+        }
+        if(request instanceof CasualDequeueRequestMessage)
+        {
+            return CasualDequeueReplyMessage.createBuilder()
+                                            .withExecution(((CasualDequeueRequestMessage) request).getExecution())
+                                            .withMessages(dequeueMessages())
+                                            .build();
+        }
+        if(request instanceof CasualTransactionResourcePrepareRequestMessage)
+        {
+            CasualTransactionResourcePrepareRequestMessage prepare = (CasualTransactionResourcePrepareRequestMessage) request;
+            return CasualTransactionResourcePrepareReplyMessage.of(prepare.getExecution(), prepare.getXid(), prepare.getResourceId(), XAReturnCode.XA_OK);
+        }
+        if(request instanceof CasualTransactionResourceCommitRequestMessage)
+        {
+            CasualTransactionResourceCommitRequestMessage commit = (CasualTransactionResourceCommitRequestMessage) request;
+            return CasualTransactionResourceCommitReplyMessage.of(commit.getExecution(), commit.getXid(), commit.getResourceId(), XAReturnCode.XA_OK);
+        }
+        if(request instanceof CasualTransactionResourceRollbackRequestMessage)
+        {
+            CasualTransactionResourceRollbackRequestMessage rollback = (CasualTransactionResourceRollbackRequestMessage) request;
+            return CasualTransactionResourceRollbackReplyMessage.of(rollback.getExecution(), rollback.getXid(), rollback.getResourceId(), XAReturnCode.XA_OK);
+        }
+        throw new IllegalArgumentException("no stub reply for: " + request.getClass());
+    }
+
+    private CasualServiceCallReplyMessage serviceCallReply(CasualServiceCallRequestMessage request)
+    {
+        return CasualServiceCallReplyMessage.createBuilder()
+                                            .setExecution(request.getExecution())
+                                            .setXid(request.getXid())
+                                            .setError(ErrorState.OK)
+                                            .setTransactionState(TransactionState.TX_ACTIVE)
+                                            .setServiceBuffer(ServiceBuffer.of("X_OCTET", Collections.singletonList(replyPayload)))
+                                            .build();
+    }
+
+    private static CasualDomainDiscoveryReplyMessage discoveryReply(CasualDomainDiscoveryRequestMessage request)
+    {
+        List<Service> services = request.getServiceNames().stream()
+                                        .filter(StubReplies::exists)
+                                        .map(name -> Service.of(name, "", TransactionType.AUTOMATIC))
+                                        .collect(Collectors.toList());
+        List<Queue> queues = request.getQueueNames().stream()
+                                    .filter(StubReplies::exists)
+                                    .map(Queue::of)
+                                    .collect(Collectors.toList());
+        return CasualDomainDiscoveryReplyMessage.of(request.getExecution(), DOMAIN_ID, DOMAIN_NAME)
+                                                .setServices(services)
+                                                .setQueues(queues);
+    }
+
+    private List<DequeueMessage> dequeueMessages()
+    {
+        QueueMessage message = QueueMessage.createBuilder()
+                                           .withId(QUEUE_MESSAGE_ID)
+                                           .withPayload(ServiceBuffer.of("X_OCTET", Collections.singletonList(replyPayload)))
+                                           .build();
+        return Collections.singletonList(DequeueMessage.of(message));
+    }
+
+    private static boolean exists(String name)
+    {
+        return !name.startsWith(UNKNOWN_PREFIX);
+    }
+}
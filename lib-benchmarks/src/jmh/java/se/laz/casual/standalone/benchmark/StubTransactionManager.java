@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.InvalidTransactionException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal thread bound transaction manager, just enough of JTA to drive enlist, delist and completion
+ * It is not a real transaction manager - there is no logging and no recovery
+ */
+public class StubTransactionManager implements TransactionManager
+{
+    private final ThreadLocal<StubTransaction> current = new ThreadLocal<>();
+    private final AtomicLong transactionCounter = new AtomicLong();
+
+    public static StubTransactionManager of()
+    {
+        return new StubTransactionManager();
+    }
+
+    @Override
+    public void begin() throws NotSupportedException, SystemException
+    {
+        if(null != current.get())
+        {
+            throw new NotSupportedException("nested transactions not supported");
+        }
+        current.set(new StubTransaction(StubXid.of(transactionCounter.incrementAndGet())));
+    }
+
+    @Override
+    public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SystemException
+    {
+        StubTransaction transaction = getCurrent();
+        current.remove();
+        transaction.commit();
+    }
+
+    @Override
+    public void rollback() throws SystemException
+    {
+        StubTransaction transaction = getCurrent();
+        current.remove();
+        transaction.rollback();
+    }
+
+    @Override
+    public int getStatus() throws SystemException
+    {
+        StubTransaction transaction = current.get();
+        return null == transaction ? Status.STATUS_NO_TRANSACTION : transaction.getStatus();
+    }
+
+    @Override
+    public Transaction getTransaction()
+    {
+        return current.get();
+    }
+
+    @Override
+    public void resume(Transaction transaction) throws InvalidTransactionException, SystemException
+    {
+        current.set((StubTransaction) transaction);
+    }
+
+    @Override
+    public void setRollbackOnly() throws SystemException
+    {
+        getCurrent().setRollbackOnly();
+    }
+
+    @Override
+    public void setTransactionTimeout(int seconds)
+    {
+        // NOP
+    }
+
+    @Override
+    public Transaction suspend()
+    {
+        StubTransaction transaction = current.get();
+        current.remove();
+        return transaction;
+    }
+
+    private StubTransaction getCurrent() throws SystemException
+    {
+        StubTransaction transaction = current.get();
+        if(null == transaction)
+        {
+            throw new SystemException("no transaction");
+        }
+        return transaction;
+    }
+
+    private static final class StubTransaction implements Transaction
+    {
+        private final Xid xid;
+        private final List<XAResource> resources = new ArrayList<>();
+        private final List<Synchronization> synchronizations = new ArrayList<>();
+        private int status = Status.STATUS_ACTIVE;
+
+        private StubTransaction(Xid xid)
+        {
+            this.xid = xid;
+        }
+
+        @Override
+        public synchronized boolean enlistResource(XAResource xaResource) throws RollbackException, SystemException
+        {
+            try
+            {
+                boolean known = resources.contains(xaResource);
+                xaResource.start(xid, known ? XAResource.TMJOIN : XAResource.TMNOFLAGS);
+                if(!known)
+                {
+                    resources.add(xaResource);
+                }
+                return true;
+            }
+            catch (XAException e)
+            {
+                throw systemException(e);
+            }
+        }
+
+        @Override
+        public synchronized boolean delistResource(XAResource xaResource, int flag) throws SystemException
+        {
+            try
+            {
+                xaResource.end(xid, flag);
+                return true;
+            }
+            catch (XAException e)
+            {
+                throw systemException(e);
+            }
+        }
+
+        @Override
+        public void registerSynchronization(Synchronization synchronization)
+        {
+            synchronized (this)
+            {
+                synchronizations.add(synchronization);
+            }
+        }
+
+        @Override
+        public void commit() throws RollbackException, SystemException
+        {
+            if(status == Status.STATUS_MARKED_ROLLBACK)
+            {
+                rollback();
+                throw new RollbackException("marked rollback only");
+            }
+            synchronizations.forEach(Synchronization::beforeCompletion);
+            try
+            {
+                if(resources.size() == 1)
+                {
+                    resources.get(0).commit(xid, true);
+                }
+                else
+                {
+                    for(XAResource resource : resources)
+                    {
+                        resource.prepare(xid);
+                    }
+                    for(XAResource resource : resources)
+                    {
+                        resource.commit(xid, false);
+                    }
+                }
+                status = Status.STATUS_COMMITTED;
+            }
+            catch (XAException e)
+            {
+                status = Status.STATUS_UNKNOWN;
+                throw systemException(e);
+            }
+            finally
+            {
+                afterCompletion();
+            }
+        }
+
+        @Override
+        public void rollback() throws SystemException
+        {
+            try
+            {
+                for(XAResource resource : resources)
+                {
+                    resource.rollback(xid);
+                }
+                status = Status.STATUS_ROLLEDBACK;
+            }
+            catch (XAException e)
+            {
+                status = Status.STATUS_UNKNOWN;
+                throw systemException(e);
+            }
+            finally
+            {
+                afterCompletion();
+            }
+        }
+
+        @Override
+        public int getStatus()
+        {
+            return status;
+        }
+
+        @Override
+        public void setRollbackOnly()
+        {
+            status = Status.STATUS_MARKED_ROLLBACK;
+        }
+
+        private void afterCompletion()
+        {
+            synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+        }
+
+        private static SystemException systemException(XAException e)
+        {
+            SystemException systemException = new SystemException("XAException, errorCode: " + e.errorCode);
+            systemException.initCause(e);
+            return systemException;
+        }
+    }
+
+    private static final class StubXid implements Xid
+    {
+        private static final int FORMAT_ID = 4711;
+        private final byte[] globalTransactionId;
+        private final byte[] branchQualifier;
+
+        private StubXid(byte[] globalTransactionId, byte[] branchQualifier)
+        {
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+        }
+
+        static StubXid of(long id)
+        {
+            byte[] gtrid = ByteBuffer.allocate(Long.BYTES).putLong(id).array();
+            return new StubXid(gtrid, Arrays.copyOf(gtrid, gtrid.length));
+        }
+
+        @Override
+        public int getFormatId()
+        {
+            return FORMAT_ID;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId()
+        {
+            return globalTransactionId.clone();
+        }
+
+        @Override
+        public byte[] getBranchQualifier()
+        {
+            return branchQualifier.clone();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass())
+            {
+                return false;
+            }
+            StubXid stubXid = (StubXid) o;
+            return Arrays.equals(globalTransactionId, stubXid.globalTransactionId) && Arrays.equals(branchQualifier, stubXid.branchQualifier);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * Arrays.hashCode(globalTransactionId) + Arrays.hashCode(branchQualifier);
+        }
+    }
+}
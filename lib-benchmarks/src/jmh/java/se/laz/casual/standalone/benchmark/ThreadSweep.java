@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks matching the include pattern once per thread count
+ * args: [include pattern] [result directory]
+ */
+public final class ThreadSweep
+{
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+
+    private ThreadSweep()
+    {}
+
+    public static void main(String... args) throws RunnerException
+    {
+        String include = args.length > 0 ? args[0] : ".*";
+        File resultDirectory = new File(args.length > 1 ? args[1] : "build/results/jmh/sweep");
+        if(!resultDirectory.isDirectory() && !resultDirectory.mkdirs())
+        {
+            throw new IllegalStateException("could not create: " + resultDirectory);
+        }
+        for(int threads : THREAD_COUNTS)
+        {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .measurementIterations(5)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDirectory, "threads-" + threads + ".json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import se.laz.casual.standalone.TransactionWrapper;
+import se.laz.casual.standalone.outbound.Caller;
+
+import javax.transaction.xa.XAResource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enlist, work, delist - the work is a busy spin standing in for the network round trip
+ * With several threads this shows how much the wrapper serializes unrelated transactions
+ */
+@State(Scope.Benchmark)
+public class TransactionWrapperBenchmark
+{
+    // simulated round trip while the resource is enlisted
+    @Param({"0", "20"})
+    public long workMicros;
+
+    private StubTransactionManager transactionManager;
+    private TransactionWrapper transactionWrapper;
+    private XAResource xaResource;
+
+    @Setup
+    public void setup()
+    {
+        transactionManager = StubTransactionManager.of();
+        transactionWrapper = TransactionWrapper.of(transactionManager);
+        Caller caller = StubCallers.create(transactionManager, StubNetworkConnection.of(StubReplies.of(0)));
+        xaResource = caller.getXAResource();
+    }
+
+    @Benchmark
+    public Object executeTransactional() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return transactionWrapper.execute(this::work, xaResource);
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public Object executeNoTransaction()
+    {
+        return transactionWrapper.execute(this::work, xaResource);
+    }
+
+    private Object work()
+    {
+        if(workMicros > 0)
+        {
+            long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(workMicros);
+            while(System.nanoTime() < end)
+            {
+                Blackhole.consumeCPU(16);
+            }
+        }
+        return Boolean.TRUE;
+    }
+}
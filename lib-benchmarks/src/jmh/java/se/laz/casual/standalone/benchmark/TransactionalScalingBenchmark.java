@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.OctetBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.standalone.outbound.Caller;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactional tpcall throughput through one caller as the number of threads, each in its own transaction, grows
+ * Every reply takes a simulated round trip so any lock held across the call caps throughput at 1 / round trip
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionalScalingBenchmark
+{
+    private static final String SERVICE_NAME = "benchmark/echo";
+    private static final Flag<AtmiFlags> NO_FLAG = Flag.of(AtmiFlags.NOFLAG);
+
+    @Param({"100"})
+    public long roundTripMicros;
+
+    private ExecutorService replyExecutor;
+    private StubTransactionManager transactionManager;
+    private Caller caller;
+    private CasualBuffer buffer;
+
+    @Setup
+    public void setup()
+    {
+        replyExecutor = Executors.newFixedThreadPool(4, BenchmarkThreads.daemon("stub-reply"));
+        transactionManager = StubTransactionManager.of();
+        caller = StubCallers.create(transactionManager, StubNetworkConnection.of(StubReplies.of(128), replyExecutor, Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros))));
+        buffer = OctetBuffer.of(new byte[128]);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        replyExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ServiceReturn<CasualBuffer> threads001() throws Exception
+    {
+        return transactionalCall();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ServiceReturn<CasualBuffer> threads004() throws Exception
+    {
+        return transactionalCall();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public ServiceReturn<CasualBuffer> threads016() throws Exception
+    {
+        return transactionalCall();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public ServiceReturn<CasualBuffer> threads064() throws Exception
+    {
+        return transactionalCall();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public ServiceReturn<CasualBuffer> threads256() throws Exception
+    {
+        return transactionalCall();
+    }
+
+    private ServiceReturn<CasualBuffer> transactionalCall() throws Exception
+    {
+        transactionManager.begin();
+        try
+        {
+            return caller.tpcall(SERVICE_NAME, buffer, NO_FLAG);
+        }
+        finally
+        {
+            transactionManager.commit();
+        }
+    }
+}
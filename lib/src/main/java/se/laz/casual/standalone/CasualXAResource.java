@@ -9,6 +9,7 @@ package se.laz.casual.standalone;
 import se.laz.casual.api.flags.Flag;
 import se.laz.casual.api.flags.XAFlags;
 import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
 import se.laz.casual.api.util.PrettyPrinter;
 import se.laz.casual.api.xa.XAReturnCode;
 import se.laz.casual.api.xa.XID;
@@ -25,20 +26,39 @@ import se.laz.casual.standalone.outbound.CasualResourceManager;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+/**
+ * One instance is shared by all threads using the same caller, hence the branch association is kept per thread
+ * This way unrelated transactions can use the resource concurrently
+ */
 public class CasualXAResource implements XAResource
 {
     private static final Logger LOG = Logger.getLogger(CasualXAResource.class.getName());
     private static final Xid[] NO_XIDS = {};
     private final CasualConnection connection;
     private final int resourceManagerId;
-    private Xid currentXid = null;
-    private boolean readOnly = false;
+    private final ThreadLocal<Xid> associatedXid = new ThreadLocal<>();
+    // set by the transaction manager on the thread that then starts the branch, in seconds, 0 for none
+    private final ThreadLocal<Integer> transactionTimeout = ThreadLocal.withInitial(() -> 0);
+    private final Set<BranchKey> activeBranches = ConcurrentHashMap.newKeySet();
+    // when the transaction times out, per branch, from the timeout set when the branch was started
+    private final Map<BranchKey, Long> branchDeadlines = new ConcurrentHashMap<>();
+    // branches that vote read only on prepare, one branch being read only says nothing about the others
+    private final Set<BranchKey> readOnlyBranches = ConcurrentHashMap.newKeySet();
+    // branches that vote rollback, work may have been done for them that the caller has given up on
+    private final Set<BranchKey> rollbackOnlyBranches = ConcurrentHashMap.newKeySet();
 
     private CasualXAResource(final CasualConnection connection, int resourceManagerId)
     {
@@ -54,11 +74,20 @@ public class CasualXAResource implements XAResource
 
     public Xid getCurrentXid()
     {
+        Xid currentXid = getAssociatedXid();
         return (currentXid == null) ? XID.NULL_XID : currentXid;
     }
 
     @Override
     public void commit(Xid xid, boolean onePhaseCommit) throws XAException
+    {
+        await(commitAsync(xid, onePhaseCommit));
+    }
+
+    /**
+     * Non blocking {@link #commit(Xid, boolean)}, failures complete the future with an {@link XAException}
+     */
+    public CompletableFuture<Void> commitAsync(Xid xid, boolean onePhaseCommit)
     {
         Flag<XAFlags> flags = Flag.of(XAFlags.TMNOFLAGS);
         if (onePhaseCommit)
@@ -66,15 +95,21 @@ public class CasualXAResource implements XAResource
             flags = Flag.of(XAFlags.TMONEPHASE);
         }
         LOG.finest(() -> String.format("trying to commit, xid: %s ( %s ) onePhase?%b", PrettyPrinter.casualStringify(xid), xid, onePhaseCommit));
+        if(onePhaseCommit && isRollbackOnly(xid))
+        {
+            return rollbackInstead(xid);
+        }
+        forgetBranch(xid);
         CasualTransactionResourceCommitRequestMessage commitRequest =
                 CasualTransactionResourceCommitRequestMessage.of(UUID.randomUUID(), xid, resourceManagerId, flags);
         CasualNWMessage<CasualTransactionResourceCommitRequestMessage> requestEnvelope = CasualNWMessageImpl.of(UUID.randomUUID(), commitRequest);
-        CompletableFuture<CasualNWMessage<CasualTransactionResourceCommitReplyMessage>> replyEnvelopeFuture = connection.getNetworkConnection().request(requestEnvelope);
-
-        CasualNWMessage<CasualTransactionResourceCommitReplyMessage> replyEnvelope = replyEnvelopeFuture.join();
-        CasualTransactionResourceCommitReplyMessage replyMsg = replyEnvelope.getMessage();
-        throwWhenTransactionErrorCode(replyMsg.getTransactionReturnCode());
-        LOG.finest(() -> String.format("commited, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
+        CompletableFuture<CasualNWMessage<CasualTransactionResourceCommitReplyMessage>> replyEnvelopeFuture = request(requestEnvelope);
+        return onReply(replyEnvelopeFuture, replyEnvelope -> {
+            CasualTransactionResourceCommitReplyMessage replyMsg = replyEnvelope.getMessage();
+            throwWhenTransactionErrorCode(replyMsg.getTransactionReturnCode());
+            LOG.finest(() -> String.format("commited, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
+            return null;
+        });
     }
 
     /**
@@ -90,21 +125,21 @@ public class CasualXAResource implements XAResource
         LOG.finest(() -> "end, xid: " + PrettyPrinter.casualStringify(xid));
         if ((flag & (TMSUSPEND | TMFAIL)) != 0)
         {
-            // can only suspend the associated xid
-            if (!equals(currentXid, xid))
+            // can only suspend an associated xid
+            if (null == xid || !activeBranches.contains(BranchKey.of(xid)))
             {
                 throw new XAException(XAException.XAER_PROTO);
             }
             CasualResourceManager.getInstance().remove(xid);
-            disassociate();
+            disassociate(xid);
         }
         else if ((flag & TMSUCCESS) == TMSUCCESS)
         {
-            // disassociate if this is the current xid
-            if (equals(currentXid, xid))
+            // disassociate if the xid is associated
+            if (null != xid && activeBranches.contains(BranchKey.of(xid)))
             {
                 CasualResourceManager.getInstance().remove(xid);
-                disassociate();
+                disassociate(xid);
             }
         }
         else
@@ -143,7 +178,7 @@ public class CasualXAResource implements XAResource
     @Override
     public int getTransactionTimeout() throws XAException
     {
-        return connection.getTransactionTimeout();
+        return transactionTimeout.get();
     }
 
     @Override
@@ -167,25 +202,43 @@ public class CasualXAResource implements XAResource
     @Override
     public int prepare(Xid xid) throws XAException
     {
-        if (isReadOnly())
+        return await(prepareAsync(xid));
+    }
+
+    /**
+     * Non blocking {@link #prepare(Xid)}, failures complete the future with an {@link XAException}
+     */
+    public CompletableFuture<Integer> prepareAsync(Xid xid)
+    {
+        if (isRollbackOnly(xid))
         {
-            return XAResource.XA_RDONLY;
+            return rollbackInstead(xid);
+        }
+        if (isReadOnly(xid))
+        {
+            // neither commit nor rollback follows a read only vote
+            forgetBranch(xid);
+            return CompletableFuture.completedFuture(XAResource.XA_RDONLY);
         }
         if(null == xid)
         {
-            throw new XAException(XAException.XAER_PROTO);
+            return failed(new XAException(XAException.XAER_PROTO));
         }
         LOG.finest(() -> String.format("trying to prepare, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
         Flag<XAFlags> flags = Flag.of(XAFlags.TMNOFLAGS);
         CasualTransactionResourcePrepareRequestMessage prepareRequest = CasualTransactionResourcePrepareRequestMessage.of(UUID.randomUUID(), xid, resourceManagerId, flags);
         CasualNWMessage<CasualTransactionResourcePrepareRequestMessage> requestEnvelope = CasualNWMessageImpl.of(UUID.randomUUID(), prepareRequest);
-        CompletableFuture<CasualNWMessage<CasualTransactionResourcePrepareReplyMessage>> replyEnvelopeFuture = connection.getNetworkConnection().request(requestEnvelope);
-
-        CasualNWMessage<CasualTransactionResourcePrepareReplyMessage> replyEnvelope = replyEnvelopeFuture.join();
-        CasualTransactionResourcePrepareReplyMessage replyMsg = replyEnvelope.getMessage();
-        throwWhenTransactionErrorCode(replyMsg.getTransactionReturnCode());
-        LOG.finest(() -> String.format("prepared, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
-        return replyMsg.getTransactionReturnCode().getId();
+        CompletableFuture<CasualNWMessage<CasualTransactionResourcePrepareReplyMessage>> replyEnvelopeFuture = request(requestEnvelope);
+        return onReply(replyEnvelopeFuture, replyEnvelope -> {
+            CasualTransactionResourcePrepareReplyMessage replyMsg = replyEnvelope.getMessage();
+            throwWhenTransactionErrorCode(replyMsg.getTransactionReturnCode());
+            LOG.finest(() -> String.format("prepared, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
+            if(replyMsg.getTransactionReturnCode() == XAReturnCode.XA_RDONLY)
+            {
+                forgetBranch(xid);
+            }
+            return replyMsg.getTransactionReturnCode().getId();
+        });
     }
 
     @Override
@@ -196,24 +249,37 @@ public class CasualXAResource implements XAResource
 
     @Override
     public void rollback(Xid xid) throws XAException
+    {
+        await(rollbackAsync(xid));
+    }
+
+    /**
+     * Non blocking {@link #rollback(Xid)}, failures complete the future with an {@link XAException}
+     */
+    public CompletableFuture<Void> rollbackAsync(Xid xid)
     {
         LOG.finest(() -> String.format("trying to rollback, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
+        forgetBranch(xid);
         Flag<XAFlags> flags = Flag.of(XAFlags.TMNOFLAGS);
         CasualTransactionResourceRollbackRequestMessage request =
                     CasualTransactionResourceRollbackRequestMessage.of(UUID.randomUUID(), xid, resourceManagerId, flags);
         CasualNWMessage<CasualTransactionResourceRollbackRequestMessage> requestEnvelope = CasualNWMessageImpl.of(UUID.randomUUID(), request);
-        CompletableFuture<CasualNWMessage<CasualTransactionResourceRollbackReplyMessage>> replyEnvelopeFuture = connection.getNetworkConnection().request(requestEnvelope);
-
-        CasualNWMessage<CasualTransactionResourceRollbackReplyMessage> replyEnvelope = replyEnvelopeFuture.join();
-        CasualTransactionResourceRollbackReplyMessage replyMsg = replyEnvelope.getMessage();
-        throwWhenTransactionErrorCode(replyMsg.getTransactionReturnCode());
-        LOG.finest(() ->  String.format("rolled, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
+        CompletableFuture<CasualNWMessage<CasualTransactionResourceRollbackReplyMessage>> replyEnvelopeFuture = request(requestEnvelope);
+        return onReply(replyEnvelopeFuture, replyEnvelope -> {
+            CasualTransactionResourceRollbackReplyMessage replyMsg = replyEnvelope.getMessage();
+            throwWhenTransactionErrorCode(replyMsg.getTransactionReturnCode());
+            LOG.finest(() ->  String.format("rolled, xid: %s ( %s )", PrettyPrinter.casualStringify(xid), xid));
+            return null;
+        });
     }
 
+    /**
+     * Applies to the branches the calling thread starts from now on, other threads keep their own timeout
+     */
     @Override
     public boolean setTransactionTimeout(int i) throws XAException
     {
-        connection.setTransactionTimeout(i);
+        transactionTimeout.set(i);
         return true;
     }
 
@@ -226,22 +292,34 @@ public class CasualXAResource implements XAResource
             LOG.warning(()-> "start, xid is null!");
             throw new XAException(XAException.XAER_PROTO);
         }
+        Xid currentXid = getAssociatedXid();
         if(currentXid != null)
         {
             LOG.warning(()-> String.format("start, current xid is not null! xid: %s ( %s ) flag: %d ", PrettyPrinter.casualStringify(currentXid), currentXid, i));
             throw new XAException(XAException.XAER_PROTO);
         }
-        readOnly = false;
-        if(!(XAFlags.TMJOIN.getValue() == i || XAFlags.TMRESUME.getValue() == i) &&
-                CasualResourceManager.getInstance().isPending(xid))
+        boolean joining = XAFlags.TMJOIN.getValue() == i || XAFlags.TMRESUME.getValue() == i;
+        if(!joining && CasualResourceManager.getInstance().isPending(xid))
         {
             LOG.finest(()->"throwing XAException.XAER_DUPID");
             throw new XAException(XAException.XAER_DUPID);
         }
+        if(!joining)
+        {
+            // a new branch, not one that was read only or rollback only when the same xid was last used
+            readOnlyBranches.remove(BranchKey.of(xid));
+            rollbackOnlyBranches.remove(BranchKey.of(xid));
+        }
         associate(xid);
-        if(!CasualResourceManager.getInstance().isPending(currentXid))
+        int timeout = transactionTimeout.get();
+        if(timeout > 0)
         {
-            CasualResourceManager.getInstance().put(currentXid);
+            // joining or resuming keeps the deadline of the branch
+            branchDeadlines.putIfAbsent(BranchKey.of(xid), System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout));
+        }
+        if(!CasualResourceManager.getInstance().isPending(xid))
+        {
+            CasualResourceManager.getInstance().put(xid);
         }
     }
 
@@ -249,31 +327,150 @@ public class CasualXAResource implements XAResource
     public String toString()
     {
         return "CasualXAResource{" +
-                "currentXid=" + currentXid +
+                "currentXid=" + getAssociatedXid() +
+                ", activeBranches=" + activeBranches.size() +
                 '}';
     }
 
     private void associate(Xid xid)
     {
-        currentXid = xid;
+        associatedXid.set(xid);
+        activeBranches.add(BranchKey.of(xid));
+    }
+
+    /**
+     * The xid associated with the calling thread, null if none
+     * An association ended from another thread is dropped here
+     */
+    private Xid getAssociatedXid()
+    {
+        Xid xid = associatedXid.get();
+        if(null != xid && !activeBranches.contains(BranchKey.of(xid)))
+        {
+            associatedXid.remove();
+            return null;
+        }
+        return xid;
+    }
+
+    /**
+     * What is left of the transaction timeout for the branch associated with the calling thread
+     * Empty if there is no such branch or the transaction manager did not set a timeout
+     */
+    public Optional<Duration> getRemainingTransactionTime()
+    {
+        Xid xid = getAssociatedXid();
+        if(null == xid)
+        {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(branchDeadlines.get(BranchKey.of(xid)))
+                       .map(deadline -> Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+    }
+
+    private void forgetBranch(Xid xid)
+    {
+        if(null != xid)
+        {
+            branchDeadlines.remove(BranchKey.of(xid));
+            readOnlyBranches.remove(BranchKey.of(xid));
+            rollbackOnlyBranches.remove(BranchKey.of(xid));
+        }
+    }
+
+    /**
+     * Associates the calling thread with an already started branch without going through the TM
+     * Used when the resource stays enlisted for the whole transaction but calls are made from different threads
+     */
+    public void resumeAssociation(Xid xid) throws XAException
+    {
+        if(null == xid || !activeBranches.contains(BranchKey.of(xid)))
+        {
+            throw new XAException(XAException.XAER_NOTA);
+        }
+        associatedXid.set(xid);
+    }
+
+    /**
+     * Drops the association of the calling thread, the branch itself stays active
+     */
+    public void suspendAssociation()
+    {
+        associatedXid.remove();
     }
 
     public void disassociate()
     {
-        currentXid = null;
+        Xid xid = associatedXid.get();
+        if(null != xid)
+        {
+            disassociate(xid);
+        }
+    }
+
+    private void disassociate(Xid xid)
+    {
+        activeBranches.remove(BranchKey.of(xid));
+        if(equals(associatedXid.get(), xid))
+        {
+            associatedXid.remove();
+        }
     }
 
+    /**
+     * Makes the branch associated with the calling thread vote read only on prepare, other branches are not affected
+     * Nothing happens if the calling thread is not associated with a branch
+     */
     public void setReadOnly()
     {
-        readOnly = true;
+        Xid xid = getAssociatedXid();
+        if(null == xid)
+        {
+            LOG.fine(() -> "set read only ignored, no branch associated with the calling thread");
+            return;
+        }
+        readOnlyBranches.add(BranchKey.of(xid));
     }
 
+    /**
+     * @return true if the branch associated with the calling thread is read only
+     */
     public boolean isReadOnly()
     {
-        return readOnly;
+        return isReadOnly(getAssociatedXid());
+    }
+
+    public boolean isReadOnly(Xid xid)
+    {
+        return null != xid && readOnlyBranches.contains(BranchKey.of(xid));
     }
 
-    private void throwWhenTransactionErrorCode(final XAReturnCode transactionReturnCode) throws XAException
+    /**
+     * Makes an active branch vote rollback, on prepare or on a one phase commit the branch is rolled back
+     * and XA_RBROLLBACK is reported, nothing happens if xid is not an active branch
+     * Unlike {@link #setReadOnly()} any thread may call it, the branch need not be associated with the calling thread
+     */
+    public void setRollbackOnly(Xid xid)
+    {
+        if(null != xid && activeBranches.contains(BranchKey.of(xid)))
+        {
+            rollbackOnlyBranches.add(BranchKey.of(xid));
+            LOG.fine(() -> "branch marked rollback only, xid: " + PrettyPrinter.casualStringify(xid));
+        }
+    }
+
+    public boolean isRollbackOnly(Xid xid)
+    {
+        return null != xid && rollbackOnlyBranches.contains(BranchKey.of(xid));
+    }
+
+    // the transaction manager does not call rollback after an XA_RB* outcome, the branch is rolled back here
+    private <T> CompletableFuture<T> rollbackInstead(Xid xid)
+    {
+        return rollbackAsync(xid).thenCompose(rolledBack -> failed(new XAException(XAException.XA_RBROLLBACK)));
+    }
+
+    private static void throwWhenTransactionErrorCode(final XAReturnCode transactionReturnCode) throws XAException
     {
         LOG.finest(()->"XAReturnCode: " + transactionReturnCode);
         switch( transactionReturnCode )
@@ -286,5 +483,125 @@ public class CasualXAResource implements XAResource
                 throw new XAException( transactionReturnCode.getId());
         }
     }
-}
 
+    private static <R, T> CompletableFuture<T> onReply(CompletableFuture<R> replyFuture, ReplyHandler<R, T> handler)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        replyFuture.whenComplete((reply, throwable) -> {
+            if(null != throwable)
+            {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            try
+            {
+                result.complete(handler.apply(reply));
+            }
+            catch(XAException | RuntimeException e)
+            {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends the request, a failure to send or to get a reply completes the future with XAER_RMFAIL
+     */
+    private <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> requestEnvelope)
+    {
+        CompletableFuture<CasualNWMessage<T>> reply = new CompletableFuture<>();
+        try
+        {
+            connection.getNetworkConnection().<T, X>request(requestEnvelope).whenComplete((replyEnvelope, throwable) -> {
+                if(null != throwable)
+                {
+                    reply.completeExceptionally(resourceManagerFailure(throwable));
+                    return;
+                }
+                reply.complete(replyEnvelope);
+            });
+        }
+        catch(RuntimeException e)
+        {
+            reply.completeExceptionally(resourceManagerFailure(e));
+        }
+        return reply;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws XAException
+    {
+        try
+        {
+            return future.join();
+        }
+        catch(CompletionException e)
+        {
+            Throwable cause = null == e.getCause() ? e : e.getCause();
+            throw cause instanceof XAException ? (XAException) cause : resourceManagerFailure(cause);
+        }
+    }
+
+    private static XAException resourceManagerFailure(Throwable cause)
+    {
+        XAException xaException = new XAException(XAException.XAER_RMFAIL);
+        xaException.initCause(cause);
+        return xaException;
+    }
+
+    private static <T> CompletableFuture<T> failed(XAException e)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @FunctionalInterface
+    private interface ReplyHandler<R, T>
+    {
+        T apply(R reply) throws XAException;
+    }
+
+    // Xid implementations are not required to implement equals and hashCode
+    private static final class BranchKey
+    {
+        private final int formatId;
+        private final byte[] globalTransactionId;
+        private final byte[] branchQualifier;
+        private final int hash;
+
+        private BranchKey(int formatId, byte[] globalTransactionId, byte[] branchQualifier)
+        {
+            this.formatId = formatId;
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+            this.hash = 31 * (31 * formatId + Arrays.hashCode(globalTransactionId)) + Arrays.hashCode(branchQualifier);
+        }
+
+        static BranchKey of(Xid xid)
+        {
+            return new BranchKey(xid.getFormatId(), xid.getGlobalTransactionId(), xid.getBranchQualifier());
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass())
+            {
+                return false;
+            }
+            BranchKey that = (BranchKey) o;
+            return formatId == that.formatId && Arrays.equals(globalTransactionId, that.globalTransactionId) && Arrays.equals(branchQualifier, that.branchQualifier);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
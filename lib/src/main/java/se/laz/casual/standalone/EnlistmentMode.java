@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone;
+
+import java.util.Optional;
+
+public enum EnlistmentMode
+{
+    /**
+     * Enlist before and delist after every call
+     */
+    PER_CALL,
+    /**
+     * Enlist on first use in a transaction, delist in beforeCompletion
+     * Saves one start/end cycle per call for transactions doing many calls
+     */
+    PER_TRANSACTION;
+
+    public static final String ENLISTMENT_MODE_ENV = "CASUAL_ENLISTMENT_MODE";
+
+    public static EnlistmentMode fromEnvironment()
+    {
+        return Optional.ofNullable(System.getenv(ENLISTMENT_MODE_ENV))
+                       .map(String::trim)
+                       .map(EnlistmentMode::valueOf)
+                       .orElse(PER_CALL);
+    }
+}
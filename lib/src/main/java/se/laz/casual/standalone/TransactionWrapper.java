@@ -5,104 +5,382 @@
  */
 package se.laz.casual.standalone;
 
+import javax.transaction.RollbackException;
 import javax.transaction.Status;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static javax.transaction.xa.XAResource.TMFAIL;
 import static javax.transaction.xa.XAResource.TMSUCCESS;
 
+/**
+ * Enlists the resource around the call when there is a transaction, see {@link EnlistmentMode}
+ * The branch stays enlisted while any call in the transaction is waiting for its reply
+ * Enlisting and delisting is serialized per transaction, calls in different transactions never contend
+ */
 public class TransactionWrapper
 {
+    /**
+     * How long completion waits for calls in the transaction that are still waiting for replies
+     */
+    public static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(60);
     private static final Logger LOG = Logger.getLogger(TransactionWrapper.class.getName());
     private final TransactionManager transactionManager;
-    private final Object transactionLock = new Object();
+    private final EnlistmentMode enlistmentMode;
+    private final Map<Transaction, TransactionContext> transactions = new ConcurrentHashMap<>();
 
-    private TransactionWrapper(TransactionManager transactionManager)
+    private TransactionWrapper(TransactionManager transactionManager, EnlistmentMode enlistmentMode)
     {
         this.transactionManager = transactionManager;
+        this.enlistmentMode = enlistmentMode;
     }
 
     public static TransactionWrapper of(TransactionManager transactionManager)
+    {
+        return of(transactionManager, EnlistmentMode.PER_CALL);
+    }
+
+    public static TransactionWrapper of(TransactionManager transactionManager, EnlistmentMode enlistmentMode)
     {
         Objects.requireNonNull(transactionManager, "transactionManager can not be null");
-        return new TransactionWrapper(transactionManager);
+        Objects.requireNonNull(enlistmentMode, "enlistmentMode can not be null");
+        return new TransactionWrapper(transactionManager, enlistmentMode);
     }
 
     public <T> T execute(Supplier<T> supplier, XAResource xaResource)
     {
         try
         {
-            if( null == transactionManager.getTransaction() )
+            Transaction transaction = transactionManager.getTransaction();
+            if( null == transaction )
             {
                 return supplier.get();
             }
-            synchronized (transactionLock)
+            TransactionContext context = getTransactionContext(transaction, xaResource);
+            withLock(context, () -> beginCall(transaction, xaResource, context));
+            boolean success = false;
+            try
             {
-                if (!transactionManager.getTransaction().enlistResource(xaResource))
-                {
-                    throw new TransactionException("could not enlist resource!");
-                }
                 T answer = supplier.get();
-                if (!transactionManager.getTransaction().delistResource(xaResource, TMSUCCESS))
-                {
-                    throw new TransactionException("could not delist resource!");
-                }
+                success = true;
                 return answer;
             }
+            finally
+            {
+                boolean succeeded = success;
+                withLock(context, () -> endCall(transaction, xaResource, context, succeeded));
+            }
         }
         catch (Exception e)
         {
-            LOG.log(Level.WARNING, e, () -> "transaction exception - will try to set rollback only");
+            throw rollbackOnly(e);
+        }
+    }
+
+    /**
+     * As {@link #execute(Supplier, XAResource)} but the branch stays enlisted until the returned future completes
+     * Any number of calls in the transaction may be waiting for their replies,
+     * completion of the transaction waits for them at most {@link #DRAIN_TIMEOUT}
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> supplier, XAResource xaResource)
+    {
+        CompletableFuture<T> future;
+        Transaction transaction;
+        TransactionContext context;
+        try
+        {
+            transaction = transactionManager.getTransaction();
+            if( null == transaction )
+            {
+                return supplier.get();
+            }
+            context = getTransactionContext(transaction, xaResource);
+            withLock(context, () -> beginCall(transaction, xaResource, context));
             try
             {
-                transactionManager.setRollbackOnly();
-                throw new TransactionException(e);
+                future = supplier.get();
             }
-            catch (SystemException ex)
+            catch(RuntimeException e)
             {
-                throw new TransactionException("failed setRollbackOnly",e);
+                withLock(context, () -> endCall(transaction, xaResource, context, false));
+                throw e;
             }
+            // the request is sent, the branch belongs to the transaction and not to this thread
+            suspendAssociation(xaResource);
+        }
+        catch (Exception e)
+        {
+            throw rollbackOnly(e);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, throwable) -> completeAsync(transaction, xaResource, context, result, value, throwable));
+        return result;
+    }
+
+    /**
+     * @return true if the calling thread has a transaction
+     */
+    public boolean isInTransaction()
+    {
+        try
+        {
+            return null != transactionManager.getTransaction();
+        }
+        catch (SystemException e)
+        {
+            throw new TransactionException("could not get transaction", e);
+        }
+    }
+
+    public EnlistmentMode getEnlistmentMode()
+    {
+        return enlistmentMode;
+    }
+
+    // number of transactions currently tracked, the entries are removed on completion
+    int getActiveTransactions()
+    {
+        return transactions.size();
+    }
+
+    private TransactionException rollbackOnly(Exception e)
+    {
+        LOG.log(Level.WARNING, e, () -> "transaction exception - will try to set rollback only");
+        try
+        {
+            transactionManager.setRollbackOnly();
+            return new TransactionException(e);
+        }
+        catch (SystemException ex)
+        {
+            return new TransactionException("failed setRollbackOnly",e);
         }
     }
 
+    private <T> void completeAsync(Transaction transaction, XAResource xaResource, TransactionContext context, CompletableFuture<T> result, T value, Throwable throwable)
+    {
+        Throwable failure = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+        try
+        {
+            withLock(context, () -> endCall(transaction, xaResource, context, null == throwable));
+        }
+        catch(Exception e)
+        {
+            LOG.log(Level.WARNING, e, () -> "failed ending call for transaction: " + transaction);
+            failure = null == failure ? e : failure;
+        }
+        if(null == failure)
+        {
+            result.complete(value);
+            return;
+        }
+        LOG.log(Level.WARNING, failure, () -> "transaction exception - will try to set rollback only");
+        try
+        {
+            // not the thread of the transaction, the transaction manager can not be used
+            transaction.setRollbackOnly();
+            result.completeExceptionally(new TransactionException(failure));
+        }
+        catch (SystemException | RuntimeException e)
+        {
+            result.completeExceptionally(new TransactionException("failed setRollbackOnly", failure));
+        }
+    }
+
+    private static void withLock(TransactionContext context, TransactionAction action) throws RollbackException, SystemException, XAException
+    {
+        context.lock.lock();
+        try
+        {
+            action.run();
+        }
+        finally
+        {
+            context.lock.unlock();
+        }
+    }
+
+    // called holding the context lock
+    private static void beginCall(Transaction transaction, XAResource xaResource, TransactionContext context) throws RollbackException, SystemException, XAException
+    {
+        if(!context.enlisted)
+        {
+            if (!transaction.enlistResource(xaResource))
+            {
+                throw new TransactionException("could not enlist resource!");
+            }
+            context.enlisted = true;
+            context.xid = xaResource instanceof CasualXAResource ? ((CasualXAResource) xaResource).getCurrentXid() : null;
+        }
+        else if(xaResource instanceof CasualXAResource)
+        {
+            // enlisted by an earlier call, possibly from another thread
+            ((CasualXAResource) xaResource).resumeAssociation(context.xid);
+        }
+        ++context.inFlight;
+    }
+
+    // called holding the context lock
+    private void endCall(Transaction transaction, XAResource xaResource, TransactionContext context, boolean success) throws SystemException
+    {
+        suspendAssociation(xaResource);
+        if(--context.inFlight > 0)
+        {
+            return;
+        }
+        context.drained.signalAll();
+        if(enlistmentMode == EnlistmentMode.PER_CALL && context.enlisted)
+        {
+            context.enlisted = false;
+            if (!transaction.delistResource(xaResource, success ? TMSUCCESS : TMFAIL))
+            {
+                throw new TransactionException("could not delist resource!");
+            }
+        }
+    }
+
+    private static void suspendAssociation(XAResource xaResource)
+    {
+        if(xaResource instanceof CasualXAResource)
+        {
+            ((CasualXAResource) xaResource).suspendAssociation();
+        }
+    }
+
+    @FunctionalInterface
+    private interface TransactionAction
+    {
+        void run() throws RollbackException, SystemException, XAException;
+    }
+
+    private TransactionContext getTransactionContext(Transaction transaction, XAResource xaResource) throws RollbackException, SystemException
+    {
+        TransactionContext context = transactions.get(transaction);
+        if(null != context)
+        {
+            return context;
+        }
+        TransactionContext created = new TransactionContext();
+        TransactionContext existing = transactions.putIfAbsent(transaction, created);
+        if(null != existing)
+        {
+            return existing;
+        }
+        try
+        {
+            transaction.registerSynchronization(XASynchronization.of(transaction, xaResource, created, () -> transactions.remove(transaction)));
+        }
+        catch(RollbackException | SystemException | RuntimeException e)
+        {
+            transactions.remove(transaction);
+            throw e;
+        }
+        return created;
+    }
+
+    private static final class TransactionContext
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition drained = lock.newCondition();
+        // only touched while holding the lock
+        private boolean enlisted = false;
+        private int inFlight = 0;
+        private Xid xid;
+    }
+
     private static class XASynchronization implements Synchronization
     {
         private final Transaction transaction;
         private final XAResource xaResource;
-        private XASynchronization(Transaction transaction, XAResource xaResource)
+        private final TransactionContext context;
+        private final Runnable onCompletion;
+        private XASynchronization(Transaction transaction, XAResource xaResource, TransactionContext context, Runnable onCompletion)
         {
             this.transaction = transaction;
             this.xaResource = xaResource;
+            this.context = context;
+            this.onCompletion = onCompletion;
         }
-        public static XASynchronization of(Transaction transaction, XAResource xaResource)
+        public static XASynchronization of(Transaction transaction, XAResource xaResource, TransactionContext context, Runnable onCompletion)
         {
             Objects.requireNonNull(transaction, "transaction can not be null");
             Objects.requireNonNull(xaResource, "xaResource can not be null");
-            return new XASynchronization(transaction, xaResource);
+            Objects.requireNonNull(context, "context can not be null");
+            Objects.requireNonNull(onCompletion, "onCompletion can not be null");
+            return new XASynchronization(transaction, xaResource, context, onCompletion);
         }
 
         @Override
         public void beforeCompletion()
         {
-            // NOP
+            context.lock.lock();
+            try
+            {
+                awaitDrained();
+                if(!context.enlisted)
+                {
+                    return;
+                }
+                context.enlisted = false;
+                if (!transaction.delistResource(xaResource, TMSUCCESS))
+                {
+                    throw new TransactionException("could not delist resource!");
+                }
+            }
+            catch (SystemException | InterruptedException e)
+            {
+                if(e instanceof InterruptedException)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                // failing beforeCompletion makes the TM roll back
+                throw new TransactionException("could not delist resource!", e);
+            }
+            finally
+            {
+                context.lock.unlock();
+            }
+        }
+
+        // called holding the context lock
+        private void awaitDrained() throws InterruptedException
+        {
+            long remaining = DRAIN_TIMEOUT.toNanos();
+            while(context.inFlight > 0)
+            {
+                if(remaining <= 0)
+                {
+                    throw new TransactionException("calls still waiting for replies: " + context.inFlight + " transaction: " + transaction);
+                }
+                remaining = context.drained.awaitNanos(remaining);
+            }
         }
 
         @Override
         public void afterCompletion(int status)
         {
-            if( status == Status.STATUS_COMMITTED )
+            onCompletion.run();
+            // a rollback is an ordinary outcome, whoever rolled back knows why
+            if(status != Status.STATUS_COMMITTED)
             {
-                LOG.log(Level.INFO, () -> "afterCompletion: Status.STATUS_COMMITTED" );
-                return;
+                LOG.fine(() -> "transaction: " + transaction + " completed without commit, status: " + status);
             }
-            LOG.severe(() -> "Transaction: " + transaction + ", xaResource: " + xaResource + " NOT COMMITED, status: " + status);
         }
     }
 }
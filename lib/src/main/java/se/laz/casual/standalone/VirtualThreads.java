@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Virtual threads when the runtime has them, platform daemon threads otherwise
+ *
+ * The library is built for Java 11 so virtual threads are only reached through reflection. Blocking calls,
+ * tpcall, enqueue, dequeue and the XA calls, park the calling thread on a future and do not hold any monitor
+ * while waiting for the network, so they are cheap to run on virtual threads.
+ * Set CASUAL_VIRTUAL_THREADS to false to always use platform threads.
+ */
+public final class VirtualThreads
+{
+    private static final Logger LOG = Logger.getLogger(VirtualThreads.class.getName());
+    public static final String VIRTUAL_THREADS_ENV = "CASUAL_VIRTUAL_THREADS";
+    private static final boolean ENABLED = Optional.ofNullable(System.getenv(VIRTUAL_THREADS_ENV)).map(Boolean::parseBoolean).orElse(true);
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method IS_VIRTUAL = findMethod(Thread.class, "isVirtual");
+    private static final Method BUILDER_NAME = findMethod("java.lang.Thread$Builder", "name", String.class, long.class);
+    private static final Method BUILDER_FACTORY = findMethod("java.lang.Thread$Builder", "factory");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private VirtualThreads()
+    {}
+
+    /**
+     * @return true if the runtime has virtual threads, whether or not they are enabled
+     */
+    public static boolean isSupported()
+    {
+        return null != OF_VIRTUAL && null != IS_VIRTUAL && null != BUILDER_NAME && null != BUILDER_FACTORY && null != NEW_THREAD_PER_TASK_EXECUTOR;
+    }
+
+    /**
+     * @return true if threads created here are virtual
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED && isSupported();
+    }
+
+    public static boolean isVirtual(Thread thread)
+    {
+        Objects.requireNonNull(thread, "thread can not be null");
+        if(null == IS_VIRTUAL)
+        {
+            return false;
+        }
+        return (Boolean) invoke(IS_VIRTUAL, thread);
+    }
+
+    /**
+     * Threads named prefix-1, prefix-2 and so on, virtual if enabled else platform daemon threads
+     */
+    public static ThreadFactory threadFactory(String prefix)
+    {
+        Objects.requireNonNull(prefix, "prefix can not be null");
+        if(isEnabled())
+        {
+            Object builder = invoke(OF_VIRTUAL, null);
+            return (ThreadFactory) invoke(BUILDER_FACTORY, invoke(BUILDER_NAME, builder, prefix + "-", 1L));
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One new virtual thread per task if enabled, else a cached pool of platform daemon threads
+     * Either way, tasks never wait for a free thread
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix)
+    {
+        ThreadFactory threadFactory = threadFactory(prefix);
+        if(isEnabled())
+        {
+            return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null, threadFactory);
+        }
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args)
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Method findMethod(String className, String name, Class<?>... parameterTypes)
+    {
+        try
+        {
+            return findMethod(Class.forName(className), name, parameterTypes);
+        }
+        catch(ClassNotFoundException e)
+        {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes)
+    {
+        try
+        {
+            return type.getMethod(name, parameterTypes);
+        }
+        catch(NoSuchMethodException e)
+        {
+            LOG.log(Level.FINEST, e, () -> "no virtual threads, " + type.getName() + "." + name + " is missing");
+            return null;
+        }
+    }
+}
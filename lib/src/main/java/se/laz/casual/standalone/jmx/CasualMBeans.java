@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+import se.laz.casual.standalone.outbound.Address;
+import se.laz.casual.standalone.outbound.network.pool.NetworkConnectionPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registers the MBeans of the library with the platform MBean server, under se.laz.casual.standalone
+ *
+ * Pools register themselves as they are created, the runtime MBeans with the first pool.
+ * Set CASUAL_JMX_ENABLED to false to register nothing. Registration failures are logged, never thrown.
+ */
+public final class CasualMBeans
+{
+    private static final Logger LOG = Logger.getLogger(CasualMBeans.class.getName());
+    public static final String JMX_ENABLED_ENV = "CASUAL_JMX_ENABLED";
+    public static final String DOMAIN = "se.laz.casual.standalone";
+    private static final boolean ENABLED = Optional.ofNullable(System.getenv(JMX_ENABLED_ENV)).map(Boolean::parseBoolean).orElse(true);
+    private static final AtomicBoolean RUNTIME_REGISTERED = new AtomicBoolean();
+
+    private CasualMBeans()
+    {}
+
+    public static void registerNetworkConnectionPool(NetworkConnectionPool pool)
+    {
+        Objects.requireNonNull(pool, "pool can not be null");
+        registerRuntime();
+        register("NetworkConnectionPool", pool.getPoolName(), NetworkConnectionPoolMonitor.of(pool));
+    }
+
+    public static void registerManagedConnectionPool(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        registerRuntime();
+        register("ManagedConnectionPool", address.getHostName() + ":" + address.getPort(), ManagedConnectionPoolMonitor.of(address));
+    }
+
+    /**
+     * The resource manager and the call deadlines, once per process
+     */
+    public static void registerRuntime()
+    {
+        if(!RUNTIME_REGISTERED.compareAndSet(false, true))
+        {
+            return;
+        }
+        register("CasualResourceManager", "default", CasualResourceManagerMonitor.of());
+        register("Deadlines", "default", DeadlinesMonitor.of());
+    }
+
+    public static ObjectName getObjectName(String type, String name) throws JMException
+    {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    private static void register(String type, String name, Object mbean)
+    {
+        if(!ENABLED)
+        {
+            return;
+        }
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getObjectName(type, name);
+            // a pool created again under the same name replaces the old one
+            if(server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+            LOG.finest(() -> "registered mbean: " + objectName);
+        }
+        catch(JMException e)
+        {
+            LOG.log(Level.WARNING, e, () -> "could not register mbean of type: " + type + " name: " + name);
+        }
+    }
+}
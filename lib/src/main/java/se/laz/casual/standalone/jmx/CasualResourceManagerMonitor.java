@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+import se.laz.casual.standalone.outbound.CasualResourceManager;
+
+public final class CasualResourceManagerMonitor implements CasualResourceManagerMonitorMBean
+{
+    private CasualResourceManagerMonitor()
+    {}
+
+    public static CasualResourceManagerMonitor of()
+    {
+        return new CasualResourceManagerMonitor();
+    }
+
+    @Override
+    public int getPendingCount()
+    {
+        return CasualResourceManager.getInstance().getPendingCount();
+    }
+
+    @Override
+    public String[] getPendingXids()
+    {
+        return CasualResourceManager.getInstance().getPending().stream()
+                                    .map(String::valueOf)
+                                    .toArray(String[]::new);
+    }
+}
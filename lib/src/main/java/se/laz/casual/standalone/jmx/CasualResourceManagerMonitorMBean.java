@@ -0,0 +1,15 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+/**
+ * Transaction branches of this process that casual has been asked to prepare, commit or roll back and has not answered yet
+ */
+public interface CasualResourceManagerMonitorMBean
+{
+    int getPendingCount();
+    String[] getPendingXids();
+}
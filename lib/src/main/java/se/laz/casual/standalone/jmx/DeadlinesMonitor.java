@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+import se.laz.casual.standalone.outbound.Deadlines;
+import se.laz.casual.standalone.outbound.completion.CompletingNetworkConnection;
+
+import java.time.Duration;
+
+public final class DeadlinesMonitor implements DeadlinesMonitorMBean
+{
+    private DeadlinesMonitor()
+    {}
+
+    public static DeadlinesMonitor of()
+    {
+        return new DeadlinesMonitor();
+    }
+
+    @Override
+    public long getDefaultCallTimeoutMillis()
+    {
+        return Deadlines.getDefaultTimeout().map(Duration::toMillis).orElse(0L);
+    }
+
+    @Override
+    public void setDefaultCallTimeoutMillis(long defaultCallTimeoutMillis)
+    {
+        Deadlines.setDefaultTimeout(Duration.ofMillis(defaultCallTimeoutMillis));
+    }
+
+    @Override
+    public long getPendingDeadlines()
+    {
+        return Deadlines.getPending();
+    }
+
+    @Override
+    public long getExpiredCalls()
+    {
+        return Deadlines.getExpired();
+    }
+
+    @Override
+    public long getAbandonedRequests()
+    {
+        return CompletingNetworkConnection.getAbandonedRequests();
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+/**
+ * Call deadlines, the default timeout is writable and applies to calls made from then on
+ */
+public interface DeadlinesMonitorMBean
+{
+    /**
+     * Timeout of calls that do not ask for one, 0 for none, see CASUAL_CALL_TIMEOUT_MILLIS
+     */
+    long getDefaultCallTimeoutMillis();
+    void setDefaultCallTimeoutMillis(long defaultCallTimeoutMillis);
+    long getPendingDeadlines();
+    long getExpiredCalls();
+    /**
+     * Expired requests the domain has not answered yet, see CASUAL_MAX_ABANDONED_REQUESTS
+     */
+    long getAbandonedRequests();
+}
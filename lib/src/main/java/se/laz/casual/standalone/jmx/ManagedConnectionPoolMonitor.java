@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+import se.laz.casual.standalone.outbound.Address;
+import se.laz.casual.standalone.outbound.ManagedConnectionPool;
+import se.laz.casual.standalone.outbound.ManagedConnectionPoolConfiguration;
+import se.laz.casual.standalone.outbound.ManagedConnectionPoolStatistics;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+public final class ManagedConnectionPoolMonitor implements ManagedConnectionPoolMonitorMBean
+{
+    private final Address address;
+
+    private ManagedConnectionPoolMonitor(Address address)
+    {
+        this.address = address;
+    }
+
+    public static ManagedConnectionPoolMonitor of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return new ManagedConnectionPoolMonitor(address);
+    }
+
+    @Override
+    public String getAddress()
+    {
+        return address.toString();
+    }
+
+    @Override
+    public int getSize()
+    {
+        return statistics().getSize();
+    }
+
+    @Override
+    public int getIdle()
+    {
+        return statistics().getIdle();
+    }
+
+    @Override
+    public int getBorrowed()
+    {
+        return statistics().getBorrowed();
+    }
+
+    @Override
+    public int getWaiters()
+    {
+        return statistics().getWaiters();
+    }
+
+    @Override
+    public long getBorrows()
+    {
+        return statistics().getBorrows();
+    }
+
+    @Override
+    public long getBorrowTimeouts()
+    {
+        return statistics().getBorrowTimeouts();
+    }
+
+    @Override
+    public long getCreated()
+    {
+        return statistics().getCreated();
+    }
+
+    @Override
+    public long getEvicted()
+    {
+        return statistics().getEvicted();
+    }
+
+    @Override
+    public double getAverageBorrowWaitMillis()
+    {
+        ManagedConnectionPoolStatistics statistics = statistics();
+        return statistics.getBorrows() == 0 ? 0 : toMillis(statistics.getTotalBorrowWaitNanos()) / statistics.getBorrows();
+    }
+
+    @Override
+    public double getMaxBorrowWaitMillis()
+    {
+        return toMillis(statistics().getMaxBorrowWaitNanos());
+    }
+
+    @Override
+    public int getMinSize()
+    {
+        return configuration().getMinSize();
+    }
+
+    @Override
+    public void setMinSize(int minSize)
+    {
+        configure(builder().withMinSize(minSize));
+    }
+
+    @Override
+    public int getMaxSize()
+    {
+        return configuration().getMaxSize();
+    }
+
+    @Override
+    public void setMaxSize(int maxSize)
+    {
+        configure(builder().withMaxSize(maxSize));
+    }
+
+    @Override
+    public long getIdleTimeoutMillis()
+    {
+        return configuration().getIdleTimeout().toMillis();
+    }
+
+    @Override
+    public void setIdleTimeoutMillis(long idleTimeoutMillis)
+    {
+        configure(builder().withIdleTimeout(Duration.ofMillis(idleTimeoutMillis)));
+    }
+
+    @Override
+    public long getBorrowTimeoutMillis()
+    {
+        return configuration().getBorrowTimeout().toMillis();
+    }
+
+    @Override
+    public void setBorrowTimeoutMillis(long borrowTimeoutMillis)
+    {
+        configure(builder().withBorrowTimeout(Duration.ofMillis(borrowTimeoutMillis)));
+    }
+
+    private ManagedConnectionPoolStatistics statistics()
+    {
+        return ManagedConnectionPool.getStatistics(address)
+                                    .orElseThrow(() -> new IllegalStateException("no managed connection pool for: " + address));
+    }
+
+    private ManagedConnectionPoolConfiguration configuration()
+    {
+        return ManagedConnectionPool.getConfiguration(address);
+    }
+
+    // the current configuration, for one value to be changed
+    private ManagedConnectionPoolConfiguration.Builder builder()
+    {
+        ManagedConnectionPoolConfiguration current = configuration();
+        return ManagedConnectionPoolConfiguration.createBuilder()
+                                                 .withMinSize(current.getMinSize())
+                                                 .withMaxSize(current.getMaxSize())
+                                                 .withIdleTimeout(current.getIdleTimeout())
+                                                 .withBorrowTimeout(current.getBorrowTimeout());
+    }
+
+    private void configure(ManagedConnectionPoolConfiguration.Builder builder)
+    {
+        ManagedConnectionPool.configure(address, builder.build());
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+/**
+ * The managed connection pool of one address, sizes and timeouts are writable and apply immediately
+ */
+public interface ManagedConnectionPoolMonitorMBean
+{
+    String getAddress();
+    int getSize();
+    int getIdle();
+    int getBorrowed();
+    /**
+     * Threads waiting for a connection to be returned
+     */
+    int getWaiters();
+    long getBorrows();
+    long getBorrowTimeouts();
+    long getCreated();
+    long getEvicted();
+    double getAverageBorrowWaitMillis();
+    double getMaxBorrowWaitMillis();
+    int getMinSize();
+    void setMinSize(int minSize);
+    int getMaxSize();
+    void setMaxSize(int maxSize);
+    long getIdleTimeoutMillis();
+    void setIdleTimeoutMillis(long idleTimeoutMillis);
+    long getBorrowTimeoutMillis();
+    void setBorrowTimeoutMillis(long borrowTimeoutMillis);
+}
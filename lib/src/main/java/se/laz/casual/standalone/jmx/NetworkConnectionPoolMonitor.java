@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+import se.laz.casual.standalone.outbound.network.pool.NetworkConnectionPool;
+import se.laz.casual.standalone.outbound.network.pool.NetworkPoolHandler;
+
+import java.util.Objects;
+
+public final class NetworkConnectionPoolMonitor implements NetworkConnectionPoolMonitorMBean
+{
+    private final NetworkConnectionPool pool;
+
+    private NetworkConnectionPoolMonitor(NetworkConnectionPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public static NetworkConnectionPoolMonitor of(NetworkConnectionPool pool)
+    {
+        Objects.requireNonNull(pool, "pool can not be null");
+        return new NetworkConnectionPoolMonitor(pool);
+    }
+
+    @Override
+    public String getAddress()
+    {
+        return pool.getAddress().toString();
+    }
+
+    @Override
+    public String getPoolName()
+    {
+        return pool.getPoolName();
+    }
+
+    @Override
+    public int getConnectionCount()
+    {
+        return pool.getConnections().size();
+    }
+
+    @Override
+    public int getActiveConnectionCount()
+    {
+        return pool.getActiveCount();
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return pool.getInFlight();
+    }
+
+    @Override
+    public long getDisconnects()
+    {
+        return pool.getDisconnects();
+    }
+
+    @Override
+    public long getReconnects()
+    {
+        return pool.getReconnects();
+    }
+
+    @Override
+    public boolean isDisconnected()
+    {
+        return pool.isDisconnected();
+    }
+
+    @Override
+    public int getPoolSize()
+    {
+        return pool.getPoolSize();
+    }
+
+    @Override
+    public void setPoolSize(int poolSize)
+    {
+        pool.setPoolSize(poolSize);
+        // the handler remembers it for the address, for pools created later
+        NetworkPoolHandler.getInstance().setPoolSize(pool.getAddress(), poolSize);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.jmx;
+
+/**
+ * A pool of network connections to one address, shared by all callers of that address
+ */
+public interface NetworkConnectionPoolMonitorMBean
+{
+    String getAddress();
+    String getPoolName();
+    /**
+     * Connections in the pool, active or not yet reaped
+     */
+    int getConnectionCount();
+    int getActiveConnectionCount();
+    /**
+     * Requests waiting for replies, over all connections in the pool
+     */
+    int getInFlight();
+    long getDisconnects();
+    long getReconnects();
+    boolean isDisconnected();
+    int getPoolSize();
+    /**
+     * Applies to this address from now on, see CASUAL_NETWORK_POOL_SIZE
+     */
+    void setPoolSize(int poolSize);
+}
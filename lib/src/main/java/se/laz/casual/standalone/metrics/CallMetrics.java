@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.standalone.outbound.Address;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and payload sizes of the calls to one address, per operation, service or queue and outcome
+ *
+ * Recording is lock free, a map lookup and a few atomic adds, the histograms of an outcome are only
+ * allocated once it happens. Set CASUAL_METRICS_ENABLED to false, or call {@link #setEnabled(boolean)},
+ * to record nothing.
+ * The first address to be called starts the {@link MetricsEndpoint} if CASUAL_METRICS_PORT is set.
+ */
+public final class CallMetrics
+{
+    public static final String ENABLED_ENV = "CASUAL_METRICS_ENABLED";
+    private static final Map<Address, CallMetrics> REGISTRY = new ConcurrentHashMap<>();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+    private static final AtomicBoolean ENDPOINT_STARTED = new AtomicBoolean();
+    private static volatile boolean enabled = Optional.ofNullable(System.getenv(ENABLED_ENV)).map(Boolean::parseBoolean).orElse(true);
+    private final Address address;
+    private final Map<Operation, Map<String, Outcomes>> operations = new EnumMap<>(Operation.class);
+
+    private CallMetrics(Address address)
+    {
+        this.address = address;
+        for(Operation operation : Operation.values())
+        {
+            operations.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static CallMetrics of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        CallMetrics metrics = REGISTRY.computeIfAbsent(address, CallMetrics::new);
+        if(ENDPOINT_STARTED.compareAndSet(false, true))
+        {
+            MetricsEndpoint.startFromEnvironment();
+        }
+        return metrics;
+    }
+
+    // for tests, not registered
+    static CallMetrics create(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return new CallMetrics(address);
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Applies to calls made from now on, what is recorded is kept
+     */
+    public static void setEnabled(boolean value)
+    {
+        enabled = value;
+    }
+
+    /**
+     * Statistics of every address called so far
+     */
+    public static List<CallStatistics> getAllStatistics()
+    {
+        List<CallStatistics> statistics = new ArrayList<>();
+        REGISTRY.values().forEach(metrics -> statistics.addAll(metrics.getStatistics()));
+        return Collections.unmodifiableList(statistics);
+    }
+
+    /**
+     * @param nanos latency of the call
+     * @param requestBytes payload sent
+     * @param replyBytes payload received, 0 if none
+     */
+    public void record(Operation operation, String name, Outcome outcome, long nanos, long requestBytes, long replyBytes)
+    {
+        Objects.requireNonNull(operation, "operation can not be null");
+        Objects.requireNonNull(name, "name can not be null");
+        Objects.requireNonNull(outcome, "outcome can not be null");
+        operations.get(operation)
+                  .computeIfAbsent(name, key -> new Outcomes())
+                  .get(outcome)
+                  .record(nanos, requestBytes, replyBytes);
+    }
+
+    /**
+     * Snapshot of everything recorded for the address, one entry per operation, name and outcome seen
+     */
+    public List<CallStatistics> getStatistics()
+    {
+        List<CallStatistics> statistics = new ArrayList<>();
+        operations.forEach((operation, names) -> names.forEach((name, outcomes) -> {
+            for(Outcome outcome : OUTCOMES)
+            {
+                Series series = outcomes.series.get(outcome.ordinal());
+                if(null != series)
+                {
+                    statistics.add(CallStatistics.of(address, operation, name, outcome, series.latencies.copy(), series.requestBytes.sum(), series.replyBytes.sum()));
+                }
+            }
+        }));
+        return Collections.unmodifiableList(statistics);
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    /**
+     * Payload size of a buffer, 0 for none
+     */
+    public static long sizeOf(CasualBuffer buffer)
+    {
+        if(null == buffer)
+        {
+            return 0;
+        }
+        long size = 0;
+        for(byte[] bytes : buffer.getBytes())
+        {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    private static final class Outcomes
+    {
+        private final AtomicReferenceArray<Series> series = new AtomicReferenceArray<>(OUTCOMES.length);
+
+        private Series get(Outcome outcome)
+        {
+            int index = outcome.ordinal();
+            Series current = series.get(index);
+            if(null != current)
+            {
+                return current;
+            }
+            series.compareAndSet(index, null, new Series());
+            return series.get(index);
+        }
+    }
+
+    private static final class Series
+    {
+        private final LatencyHistogram latencies = LatencyHistogram.of();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder replyBytes = new LongAdder();
+
+        private void record(long nanos, long requestSize, long replySize)
+        {
+            latencies.record(nanos);
+            requestBytes.add(requestSize);
+            replyBytes.add(replySize);
+        }
+    }
+}
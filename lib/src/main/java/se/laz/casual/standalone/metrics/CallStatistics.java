@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import se.laz.casual.standalone.outbound.Address;
+
+import java.time.Duration;
+
+/**
+ * Point in time snapshot of the calls with one outcome of one operation on one service or queue
+ */
+public final class CallStatistics
+{
+    private final Address address;
+    private final Operation operation;
+    private final String name;
+    private final Outcome outcome;
+    private final LatencyHistogram latencies;
+    private final long requestBytes;
+    private final long replyBytes;
+
+    private CallStatistics(Address address, Operation operation, String name, Outcome outcome, LatencyHistogram latencies, long requestBytes, long replyBytes)
+    {
+        this.address = address;
+        this.operation = operation;
+        this.name = name;
+        this.outcome = outcome;
+        this.latencies = latencies;
+        this.requestBytes = requestBytes;
+        this.replyBytes = replyBytes;
+    }
+
+    static CallStatistics of(Address address, Operation operation, String name, Outcome outcome, LatencyHistogram latencies, long requestBytes, long replyBytes)
+    {
+        return new CallStatistics(address, operation, name, outcome, latencies, requestBytes, replyBytes);
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public Operation getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * Service or queue name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public Outcome getOutcome()
+    {
+        return outcome;
+    }
+
+    public long getCount()
+    {
+        return latencies.getCount();
+    }
+
+    public Duration getTotalLatency()
+    {
+        return Duration.ofNanos(latencies.getSum());
+    }
+
+    public Duration getMaxLatency()
+    {
+        return Duration.ofNanos(latencies.getMax());
+    }
+
+    /**
+     * @param percentile in (0, 1]
+     */
+    public Duration getLatencyAtPercentile(double percentile)
+    {
+        return Duration.ofNanos(latencies.getValueAtPercentile(percentile));
+    }
+
+    /**
+     * Payload bytes sent, the buffer of a service call or the message of an enqueue
+     */
+    public long getRequestBytes()
+    {
+        return requestBytes;
+    }
+
+    /**
+     * Payload bytes received, the reply buffer of a service call or the message of a dequeue
+     */
+    public long getReplyBytes()
+    {
+        return replyBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CallStatistics{" +
+                "address=" + address +
+                ", operation=" + operation +
+                ", name='" + name + '\'' +
+                ", outcome=" + outcome +
+                ", count=" + getCount() +
+                ", max=" + getMaxLatency() +
+                ", requestBytes=" + requestBytes +
+                ", replyBytes=" + replyBytes +
+                '}';
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies in nanoseconds, log linear buckets with 16 sub buckets per power of two
+ *
+ * Recording is a handful of uncontended atomic adds, percentiles are within about 6% of the recorded value.
+ * A decaying histogram halves all counts once decayAfter values are recorded, so that the percentiles follow
+ * the recent latencies, the others keep everything recorded since they were created.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR_BUCKETS + (Long.SIZE - 2 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final long NO_DECAY = Long.MAX_VALUE;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong sinceDecay = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicBoolean decaying = new AtomicBoolean();
+    private final long decayAfter;
+
+    private LatencyHistogram(long decayAfter)
+    {
+        this.decayAfter = decayAfter;
+    }
+
+    public static LatencyHistogram of()
+    {
+        return new LatencyHistogram(NO_DECAY);
+    }
+
+    public static LatencyHistogram of(long decayAfter)
+    {
+        if(decayAfter <= 0)
+        {
+            throw new IllegalArgumentException("decayAfter has to be positive, was: " + decayAfter);
+        }
+        return new LatencyHistogram(decayAfter);
+    }
+
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        // nearly every value is below the max, reading it keeps the cache line shared
+        if(value > max.get())
+        {
+            max.accumulateAndGet(value, (current, recorded) -> recorded > current ? recorded : current);
+        }
+        if(decayAfter != NO_DECAY && sinceDecay.incrementAndGet() >= decayAfter && decaying.compareAndSet(false, true))
+        {
+            try
+            {
+                decay();
+            }
+            finally
+            {
+                decaying.set(false);
+            }
+        }
+    }
+
+    /**
+     * The latency that percentile of the recorded values are at or below
+     * @param percentile in (0, 1]
+     * @return 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if(percentile <= 0 || percentile > 1)
+        {
+            throw new IllegalArgumentException("percentile has to be in (0, 1], was: " + percentile);
+        }
+        long total = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            total += counts.get(i);
+        }
+        if(total == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            seen += counts.get(i);
+            if(seen >= rank)
+            {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Number of values recorded, for a decaying histogram what is left of them after the last decay
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * Sum of the values recorded, halved along with the counts by a decay
+     */
+    public long getSum()
+    {
+        return sum.sum();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Copy of the histogram as it is now, values recorded meanwhile may or may not be in it
+     */
+    public LatencyHistogram copy()
+    {
+        LatencyHistogram copy = new LatencyHistogram(decayAfter);
+        long copied = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            long value = counts.get(i);
+            copy.counts.set(i, value);
+            copied += value;
+        }
+        copy.count.add(copied);
+        copy.sum.add(sum.sum());
+        copy.sinceDecay.set(sinceDecay.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    private void decay()
+    {
+        long remaining = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            remaining += counts.updateAndGet(i, value -> value >>> 1);
+        }
+        count.reset();
+        count.add(remaining);
+        long halved = sum.sumThenReset() >>> 1;
+        sum.add(halved);
+        sinceDecay.set(remaining);
+        max.set(upperBoundOf(highestNonEmptyBucket()));
+    }
+
+    private int highestNonEmptyBucket()
+    {
+        for(int i = BUCKETS - 1; i > 0; --i)
+        {
+            if(counts.get(i) > 0)
+            {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    static int indexOf(long value)
+    {
+        if(value < LINEAR_BUCKETS)
+        {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index)
+    {
+        if(index < LINEAR_BUCKETS)
+        {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = SUB_BUCKETS + (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
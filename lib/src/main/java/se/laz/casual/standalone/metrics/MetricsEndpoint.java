@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves {@link CallMetrics#getAllStatistics()} in the Prometheus text format at /metrics
+ *
+ * Uses the http server of the JDK, one daemon thread, nothing else. Not started unless asked for,
+ * either by {@link #start(InetSocketAddress)} or by setting CASUAL_METRICS_PORT.
+ */
+public final class MetricsEndpoint implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(MetricsEndpoint.class.getName());
+    public static final String PORT_ENV = "CASUAL_METRICS_PORT";
+    public static final String PATH = "/metrics";
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private MetricsEndpoint(HttpServer server, ExecutorService executor)
+    {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * @param address where to listen, port 0 for any free port
+     * @throws UncheckedIOException if the address can not be bound
+     */
+    public static MetricsEndpoint start(InetSocketAddress address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        HttpServer server;
+        try
+        {
+            server = HttpServer.create(address, 0);
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("could not bind metrics endpoint to: " + address, e);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "casual-metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext(PATH, MetricsEndpoint::handle);
+        server.setExecutor(executor);
+        startAsDaemon(server);
+        LOG.info(() -> "metrics endpoint listening at: " + server.getAddress() + PATH);
+        return new MetricsEndpoint(server, executor);
+    }
+
+    /**
+     * Starts the endpoint on all interfaces if CASUAL_METRICS_PORT is set
+     * @return empty if it is not set or the port could not be bound, the latter is logged
+     */
+    public static Optional<MetricsEndpoint> startFromEnvironment()
+    {
+        return Optional.ofNullable(System.getenv(PORT_ENV))
+                       .map(Integer::parseInt)
+                       .flatMap(port -> {
+                           try
+                           {
+                               return Optional.of(start(new InetSocketAddress(port)));
+                           }
+                           catch(UncheckedIOException e)
+                           {
+                               LOG.log(Level.WARNING, e, () -> "metrics endpoint not started");
+                               return Optional.empty();
+                           }
+                       });
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    // the dispatcher thread inherits being a daemon from the thread starting the server, it must not keep the JVM alive
+    private static void startAsDaemon(HttpServer server)
+    {
+        Thread starter = new Thread(server::start, "casual-metrics-endpoint-start");
+        starter.setDaemon(true);
+        starter.start();
+        try
+        {
+            starter.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String method = exchange.getRequestMethod();
+            if(!"GET".equals(method) && !"HEAD".equals(method))
+            {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = PrometheusFormat.format(CallMetrics.getAllStatistics()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PrometheusFormat.CONTENT_TYPE);
+            if("HEAD".equals(method))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+}
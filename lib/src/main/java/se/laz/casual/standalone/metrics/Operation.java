@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import java.util.Locale;
+
+public enum Operation
+{
+    TPCALL,
+    TPACALL,
+    ENQUEUE,
+    DEQUEUE;
+
+    /**
+     * The name used as label value, tpcall, tpacall, enqueue or dequeue
+     */
+    public String getLabel()
+    {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
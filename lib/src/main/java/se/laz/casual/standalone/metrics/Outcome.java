@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.ServiceReturnState;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakerOpenException;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * How a call ended, as far as the metrics are concerned
+ */
+public enum Outcome
+{
+    TPSUCCESS,
+    TPFAIL,
+    TPENOENT,
+    /**
+     * No reply, the call failed with an exception
+     */
+    CONNECTION_ERROR,
+    /**
+     * Not sent, the circuit of the service or queue was open
+     */
+    CIRCUIT_OPEN;
+
+    public static Outcome of(ServiceReturnState state, ErrorState errorState)
+    {
+        if(state == ServiceReturnState.TPSUCCESS)
+        {
+            return TPSUCCESS;
+        }
+        return errorState == ErrorState.TPENOENT ? TPENOENT : TPFAIL;
+    }
+
+    public static Outcome of(ErrorState errorState)
+    {
+        if(errorState == ErrorState.OK)
+        {
+            return TPSUCCESS;
+        }
+        return errorState == ErrorState.TPENOENT ? TPENOENT : TPFAIL;
+    }
+
+    /**
+     * Outcome of a call that failed with throwable instead of replying
+     */
+    public static Outcome of(Throwable throwable)
+    {
+        Throwable cause = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+        return cause instanceof CircuitBreakerOpenException ? CIRCUIT_OPEN : CONNECTION_ERROR;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.metrics;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Call statistics in the Prometheus text exposition format, version 0.0.4
+ *
+ * Latencies are a summary, casual_call_duration_seconds, with the quantiles computed from the histograms.
+ * Payload sizes are the counters casual_request_bytes_total and casual_reply_bytes_total.
+ * Every sample is labelled with address, operation, name and outcome.
+ */
+public final class PrometheusFormat
+{
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private PrometheusFormat()
+    {}
+
+    public static String format(List<CallStatistics> statistics)
+    {
+        Objects.requireNonNull(statistics, "statistics can not be null");
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP casual_call_duration_seconds Latency of calls to casual domains\n")
+            .append("# TYPE casual_call_duration_seconds summary\n");
+        for(CallStatistics entry : statistics)
+        {
+            String labels = labelsOf(entry);
+            for(double quantile : QUANTILES)
+            {
+                text.append("casual_call_duration_seconds{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(entry.getLatencyAtPercentile(quantile).toNanos())).append('\n');
+            }
+            text.append("casual_call_duration_seconds_sum{").append(labels).append("} ").append(seconds(entry.getTotalLatency().toNanos())).append('\n');
+            text.append("casual_call_duration_seconds_count{").append(labels).append("} ").append(entry.getCount()).append('\n');
+        }
+        text.append("# HELP casual_request_bytes_total Payload bytes sent to casual domains\n")
+            .append("# TYPE casual_request_bytes_total counter\n");
+        for(CallStatistics entry : statistics)
+        {
+            text.append("casual_request_bytes_total{").append(labelsOf(entry)).append("} ").append(entry.getRequestBytes()).append('\n');
+        }
+        text.append("# HELP casual_reply_bytes_total Payload bytes received from casual domains\n")
+            .append("# TYPE casual_reply_bytes_total counter\n");
+        for(CallStatistics entry : statistics)
+        {
+            text.append("casual_reply_bytes_total{").append(labelsOf(entry)).append("} ").append(entry.getReplyBytes()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String labelsOf(CallStatistics entry)
+    {
+        return "address=\"" + escape(entry.getAddress().getHostName() + ":" + entry.getAddress().getPort()) + "\"" +
+                ",operation=\"" + entry.getOperation().getLabel() + "\"" +
+                ",name=\"" + escape(entry.getName()) + "\"" +
+                ",outcome=\"" + entry.getOutcome() + "\"";
+    }
+
+    private static double seconds(long nanos)
+    {
+        return nanos / NANOS_PER_SECOND;
+    }
+
+    // label values may contain anything, the format only needs backslash, quote and newline escaped
+    static String escape(String value)
+    {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); ++i)
+        {
+            char c = value.charAt(i);
+            if(c == '\\')
+            {
+                escaped.append("\\\\");
+            }
+            else if(c == '"')
+            {
+                escaped.append("\\\"");
+            }
+            else if(c == '\n')
+            {
+                escaped.append("\\n");
+            }
+            else
+            {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakerOpenException;
+import se.laz.casual.standalone.outbound.replycache.ReplyCache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Service calls answered from the {@link ReplyCache} of the domain when it has the reply
+ * Sits in front of the circuit breaker and hedging, so cache hits neither count as calls to the domain nor get rejected by an open circuit
+ */
+final class CachingServiceCaller implements ServiceCaller
+{
+    private final ServiceCaller serviceCaller;
+    private final ReplyCache replyCache;
+
+    private CachingServiceCaller(ServiceCaller serviceCaller, ReplyCache replyCache)
+    {
+        this.serviceCaller = serviceCaller;
+        this.replyCache = replyCache;
+    }
+
+    static ServiceCaller of(ServiceCaller serviceCaller, ReplyCache replyCache)
+    {
+        Objects.requireNonNull(serviceCaller, "serviceCaller can not be null");
+        Objects.requireNonNull(replyCache, "replyCache can not be null");
+        return new CachingServiceCaller(serviceCaller, replyCache);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpcall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!replyCache.isCacheable(serviceName, flags))
+        {
+            return serviceCaller.tpcall(serviceName, data, flags, timeout);
+        }
+        try
+        {
+            return tpacall(serviceName, data, flags, timeout).join();
+        }
+        catch(CompletionException e)
+        {
+            // an open circuit is passed on as is, callers tell it apart from a lost connection
+            if(e.getCause() instanceof CircuitBreakerOpenException)
+            {
+                throw (CircuitBreakerOpenException) e.getCause();
+            }
+            throw new CasualConnectionException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpacall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!replyCache.isCacheable(serviceName, flags))
+        {
+            return serviceCaller.tpacall(serviceName, data, flags, timeout);
+        }
+        return replyCache.get(serviceName, data, () -> serviceCaller.tpacall(serviceName, data, flags, timeout));
+    }
+
+    @Override
+    public boolean serviceExists(String serviceName)
+    {
+        return serviceCaller.serviceExists(serviceName);
+    }
+
+    @Override
+    public List<ServiceDetails> serviceDetails(String serviceName)
+    {
+        return serviceCaller.serviceDetails(serviceName);
+    }
+}
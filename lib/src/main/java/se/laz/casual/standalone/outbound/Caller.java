@@ -8,12 +8,91 @@ package se.laz.casual.standalone.outbound;
 
 import se.laz.casual.api.CasualQueueApi;
 import se.laz.casual.api.CasualServiceApi;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
 
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface Caller extends CasualServiceApi, CasualQueueApi
 {
+    /**
+     * Non blocking {@link #enqueue(QueueInfo, QueueMessage)}, failures complete the future with the exception the blocking call throws
+     * In a transaction the branch stays enlisted until the reply has arrived
+     */
+    CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg);
+    /**
+     * Non blocking {@link #dequeue(QueueInfo, MessageSelector)}, failures complete the future with the exception the blocking call throws
+     * In a transaction the branch stays enlisted until the reply has arrived
+     */
+    CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector);
+    /**
+     * {@link #tpcall(String, CasualBuffer, Flag)} with a deadline, the reply is TPETIME unless it arrives within timeout
+     * With a null timeout the service timeout from discovery is used, else CASUAL_CALL_TIMEOUT_MILLIS
+     * In a transaction the deadline never reaches beyond the transaction timeout
+     */
+    ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout);
+    /**
+     * {@link #tpacall(String, CasualBuffer, Flag)} with a deadline
+     * @see #tpcall(String, CasualBuffer, Flag, Duration)
+     */
+    CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout);
+    /**
+     * {@link #enqueue(QueueInfo, QueueMessage)} with a deadline, the reply is TPETIME unless it arrives within timeout
+     * With a null timeout CASUAL_CALL_TIMEOUT_MILLIS is used, in a transaction never beyond the transaction timeout
+     */
+    EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout);
+    /**
+     * {@link #dequeue(QueueInfo, MessageSelector)} with a deadline, the reply is TPETIME unless it arrives within timeout
+     * Only an explicit timeout is enforced, a null timeout means no deadline, CASUAL_CALL_TIMEOUT_MILLIS does not apply.
+     * In a transaction the deadline never goes beyond the transaction timeout.
+     *
+     * The dequeue request carries no timeout to the domain, the domain keeps waiting for a message after the caller
+     * got TPETIME. A message arriving then is removed from the queue and its reply is dropped:
+     * without a transaction the message is lost, dequeue with a deadline is at most once.
+     * In a transaction the branch is marked rollback only, so the message goes back to the queue.
+     */
+    DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout);
+    /**
+     * {@link #enqueueAsync(QueueInfo, QueueMessage)} with a deadline
+     * @see #enqueue(QueueInfo, QueueMessage, Duration)
+     */
+    CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout);
+    /**
+     * {@link #dequeueAsync(QueueInfo, MessageSelector)} with a deadline
+     * @see #dequeue(QueueInfo, MessageSelector, Duration)
+     */
+    CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout);
+    /**
+     * Enqueues all messages, keeping at most {@link CallerImpl#DEFAULT_ENQUEUE_WINDOW} requests in flight
+     * @see #enqueueBatch(QueueInfo, List, int)
+     */
+    List<EnqueueReturn> enqueueBatch(QueueInfo qinfo, List<QueueMessage> messages);
+    /**
+     * Enqueues all messages without waiting for each reply before sending the next, at most window requests are in flight
+     * Outside a transaction a failed message does not stop the others, its reply carries the error state,
+     * TPESYSTEM if the call failed without a reply.
+     * In a transaction the batch uses one enlistment, if any message fails the transaction is marked rollback only
+     * and the exception names the first failed message
+     * @return one reply per message in the order of the messages
+     */
+    List<EnqueueReturn> enqueueBatch(QueueInfo qinfo, List<QueueMessage> messages, int window);
+    /**
+     * Discovers all the services and queues with one, or a few chunked, discovery requests
+     * and caches the result so that later existence checks do not need a round trip
+     */
+    void prewarm(Collection<String> serviceNames, Collection<String> queueNames);
     void close();
     boolean isDisconnected();
     XAResource getXAResource();
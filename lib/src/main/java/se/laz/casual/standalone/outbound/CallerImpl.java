@@ -22,114 +22,282 @@ import se.laz.casual.internal.network.NetworkConnection;
 import se.laz.casual.network.ProtocolVersion;
 import se.laz.casual.network.outbound.NetworkListener;
 import se.laz.casual.standalone.CasualXAResource;
+import se.laz.casual.standalone.EnlistmentMode;
 import se.laz.casual.standalone.TransactionWrapper;
+import se.laz.casual.standalone.metrics.CallMetrics;
+import se.laz.casual.standalone.metrics.Operation;
+import se.laz.casual.standalone.metrics.Outcome;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakers;
+import se.laz.casual.standalone.outbound.completion.CompletionMode;
+import se.laz.casual.standalone.outbound.discovery.DiscoveryCache;
+import se.laz.casual.standalone.outbound.hedging.HedgingPolicy;
 import se.laz.casual.standalone.outbound.network.pool.NetworkPoolHandler;
+import se.laz.casual.standalone.outbound.replycache.ReplyCache;
 
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.OptionalLong;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class CallerImpl implements Caller
 {
+    public static final int DEFAULT_ENQUEUE_WINDOW = 128;
     private static final Logger LOG = Logger.getLogger(CallerImpl.class.getName());
     private final CasualConnection casualConnection;
     private final ServiceCaller serviceCaller;
     private final QueueCaller queueCaller;
-    private final Set<String> serviceCache = new HashSet<>();
-    private final Set<String> queueCache = new HashSet<>();
+    private final DiscoveryCache discoveryCache;
+    private final CallMetrics callMetrics;
     private final NetworkListenerAdapter networkListenerAdapter;
     private TransactionWrapper transactionWrapper;
 
-    private CallerImpl(CasualConnection casualConnection, ServiceCaller serviceCaller, QueueCaller queueCaller, NetworkListenerAdapter networkListenerAdapter, TransactionManager transactionManager)
+    private CallerImpl(CasualConnection casualConnection, ServiceCaller serviceCaller, QueueCaller queueCaller, NetworkListenerAdapter networkListenerAdapter, DiscoveryCache discoveryCache, CallMetrics callMetrics, TransactionManager transactionManager, EnlistmentMode enlistmentMode)
     {
         this.casualConnection = casualConnection;
         this.serviceCaller = serviceCaller;
         this.queueCaller = queueCaller;
         this.networkListenerAdapter = networkListenerAdapter;
-        this.transactionWrapper = TransactionWrapper.of(transactionManager);
+        this.discoveryCache = discoveryCache;
+        this.callMetrics = callMetrics;
+        this.transactionWrapper = TransactionWrapper.of(transactionManager, enlistmentMode);
     }
 
-    private static Caller of(InetSocketAddress address, ProtocolVersion protocolVersion, UUID domainId, String domainName, NetworkListener networkListener, int resourceManagerId, TransactionManager transactionManager)
+    private static Caller of(InetSocketAddress address, ProtocolVersion protocolVersion, UUID domainId, String domainName, NetworkListener networkListener, int resourceManagerId, TransactionManager transactionManager, EnlistmentMode enlistmentMode, CompletionMode completionMode, NetworkConnection suppliedNetworkConnection)
     {
         Objects.requireNonNull(address, "address can not be null");
         Objects.requireNonNull(protocolVersion, "protocolVersion can not be null");
         Objects.requireNonNull(domainId, "domainId can not be null");
         Objects.requireNonNull(domainName, "domainName can not be null");
         Objects.requireNonNull(networkListener, "networkListener can not be null");
-        NetworkConnection networkConnection = NetworkPoolHandler.getInstance()
-                                                                .getOrCreate(
-                                  String.format("%s:%s", address.getHostName(), address.getPort()),
-                                  Address.of(address.getHostName(), address.getPort()),
+        Objects.requireNonNull(enlistmentMode, "enlistmentMode can not be null");
+        Objects.requireNonNull(completionMode, "completionMode can not be null");
+        Address domainAddress = Address.of(address.getHostName(), address.getPort());
+        NetworkListenerAdapter proxyNetworkListener = NetworkListenerAdapter.of(networkListener);
+        NetworkConnection networkConnection = null != suppliedNetworkConnection ? suppliedNetworkConnection :
+                NetworkPoolHandler.getInstance()
+                                  .getOrCreate(
+                                  NetworkPoolHandler.getPoolName(domainAddress),
+                                  domainAddress,
                                   protocolVersion,
-                                  networkListener,
-                                  1);
-        CasualConnection casualConnection = CasualConnection.of(networkConnection);
+                                  proxyNetworkListener,
+                                  NetworkPoolHandler.getInstance().getPoolSize(domainAddress));
+        CasualConnection casualConnection = CasualConnection.of(networkConnection, completionMode);
         CasualXAResource casualXAResource = CasualXAResource.of(casualConnection, resourceManagerId);
         casualConnection.setCasualXAResource(casualXAResource);
-        NetworkListenerAdapter proxyNetworkListener = NetworkListenerAdapter.of(networkListener);
-        return new CallerImpl(casualConnection, ServiceCallerImpl.of(casualConnection), QueueCallerImpl.of(casualConnection), proxyNetworkListener, transactionManager);
+        CircuitBreakers circuitBreakers = CircuitBreakers.of(domainAddress);
+        ServiceCaller breakingServiceCaller = CircuitBreakingServiceCaller.of(ServiceCallerImpl.of(casualConnection), circuitBreakers);
+        ServiceCaller cachingServiceCaller = CachingServiceCaller.of(HedgingServiceCaller.of(breakingServiceCaller, HedgingPolicy.of(domainAddress)), ReplyCache.of(domainAddress));
+        CallMetrics callMetrics = CallMetrics.of(domainAddress);
+        ServiceCaller serviceCaller = MeteredServiceCaller.of(cachingServiceCaller, callMetrics);
+        QueueCaller queueCaller = MeteredQueueCaller.of(CircuitBreakingQueueCaller.of(QueueCallerImpl.of(casualConnection), circuitBreakers), callMetrics);
+        return new CallerImpl(casualConnection, serviceCaller, queueCaller, proxyNetworkListener, DiscoveryCache.of(domainAddress), callMetrics, transactionManager, enlistmentMode);
     }
 
     @Override
     public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg)
     {
+        return enqueue(qinfo, msg, null);
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        long start = System.nanoTime();
         if(!queueExists(qinfo))
         {
+            recordNoEntry(Operation.ENQUEUE, qinfo.getQueueName(), start);
             return EnqueueReturn.createBuilder()
                                 .withErrorState(ErrorState.TPENOENT)
                                 .build();
         }
-        return transactionWrapper.execute(() -> validateReply(queueCaller.enqueue(qinfo, msg)), casualConnection.getCasualXAResource());
+        return transactionWrapper.execute(() -> validateReply(queueCaller.enqueue(qinfo, msg, timeout)), casualConnection.getCasualXAResource());
     }
 
     @Override
     public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector)
     {
+        return dequeue(qinfo, selector, null);
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        long start = System.nanoTime();
         if(!queueExists(qinfo))
         {
+            recordNoEntry(Operation.DEQUEUE, qinfo.getQueueName(), start);
             return DequeueReturn.createBuilder()
                                 .withErrorState(ErrorState.TPENOENT)
                                 .build();
         }
-        return transactionWrapper.execute(() -> validateReply(queueCaller.dequeue(qinfo, selector)), casualConnection.getCasualXAResource());
+        return transactionWrapper.execute(() -> validateReply(queueCaller.dequeue(qinfo, selector, timeout)), casualConnection.getCasualXAResource());
     }
 
     @Override
-    public boolean queueExists(QueueInfo qinfo)
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueueAsync(qinfo, msg, null);
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout)
     {
-        if(queueCache.contains(qinfo.getQueueName()))
+        long start = System.nanoTime();
+        if(!queueExists(qinfo))
         {
-            return true;
+            recordNoEntry(Operation.ENQUEUE, qinfo.getQueueName(), start);
+            return CompletableFuture.completedFuture(EnqueueReturn.createBuilder()
+                                                                  .withErrorState(ErrorState.TPENOENT)
+                                                                  .build());
         }
-        if(queueCaller.queueExists(qinfo))
+        return transactionWrapper.executeAsync(() -> queueCaller.enqueueAsync(qinfo, msg, timeout).thenApply(this::validateReply), casualConnection.getCasualXAResource());
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeueAsync(qinfo, selector, null);
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        long start = System.nanoTime();
+        if(!queueExists(qinfo))
         {
-            queueCache.add(qinfo.getQueueName());
-            return true;
+            recordNoEntry(Operation.DEQUEUE, qinfo.getQueueName(), start);
+            return CompletableFuture.completedFuture(DequeueReturn.createBuilder()
+                                                                  .withErrorState(ErrorState.TPENOENT)
+                                                                  .build());
         }
-        return false;
+        return transactionWrapper.executeAsync(() -> queueCaller.dequeueAsync(qinfo, selector, timeout).thenApply(this::validateReply), casualConnection.getCasualXAResource());
+    }
+
+    @Override
+    public List<EnqueueReturn> enqueueBatch(QueueInfo qinfo, List<QueueMessage> messages)
+    {
+        return enqueueBatch(qinfo, messages, DEFAULT_ENQUEUE_WINDOW);
+    }
+
+    @Override
+    public List<EnqueueReturn> enqueueBatch(QueueInfo qinfo, List<QueueMessage> messages, int window)
+    {
+        Objects.requireNonNull(qinfo, "qinfo can not be null");
+        Objects.requireNonNull(messages, "messages can not be null");
+        if(window <= 0)
+        {
+            throw new IllegalArgumentException("window has to be positive, was: " + window);
+        }
+        if(messages.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        if(!queueExists(qinfo))
+        {
+            EnqueueReturn noEntry = EnqueueReturn.createBuilder()
+                                                 .withErrorState(ErrorState.TPENOENT)
+                                                 .build();
+            return Collections.nCopies(messages.size(), noEntry);
+        }
+        return transactionWrapper.execute(() -> pipelinedEnqueue(qinfo, messages, window), casualConnection.getCasualXAResource());
+    }
+
+    private List<EnqueueReturn> pipelinedEnqueue(QueueInfo qinfo, List<QueueMessage> messages, int window)
+    {
+        boolean transactional = transactionWrapper.isInTransaction();
+        Semaphore inFlight = new Semaphore(window);
+        List<CompletableFuture<EnqueueReturn>> replies = new ArrayList<>(messages.size());
+        try
+        {
+            for(QueueMessage message : messages)
+            {
+                inFlight.acquire();
+                CompletableFuture<EnqueueReturn> reply = queueCaller.enqueueAsync(qinfo, message);
+                reply.whenComplete((value, throwable) -> inFlight.release());
+                replies.add(reply);
+            }
+            // every reply has to arrive before the branch can be delisted, also when some have failed
+            inFlight.acquire(window);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new QueueOperationFailedException("interrupted enqueueing batch, sent: " + replies.size() + " of: " + messages.size(), e);
+        }
+        List<EnqueueReturn> answers = new ArrayList<>(replies.size());
+        for(CompletableFuture<EnqueueReturn> reply : replies)
+        {
+            EnqueueReturn answer;
+            try
+            {
+                answer = reply.join();
+            }
+            catch(CompletionException e)
+            {
+                if(transactional)
+                {
+                    throw new QueueOperationFailedException("enqueue failed for message: " + answers.size() + " of: " + messages.size(), e.getCause());
+                }
+                int index = answers.size();
+                LOG.log(Level.WARNING, e.getCause(), () -> "enqueue failed for message: " + index + " of: " + messages.size());
+                answer = EnqueueReturn.createBuilder()
+                                      .withErrorState(Deadlines.isExpired(e) ? ErrorState.TPETIME : ErrorState.TPESYSTEM)
+                                      .build();
+            }
+            // the transaction has to roll back, outside one the caller sees what was enqueued and what was not
+            if(transactional && answer.getErrorState() != ErrorState.OK)
+            {
+                throw new QueueOperationFailedException("enqueue failed for message: " + answers.size() + " of: " + messages.size() + " error: " + answer.getErrorState());
+            }
+            answers.add(answer);
+        }
+        LOG.finest(() -> "enqueued batch of: " + answers.size() + " to: " + qinfo.getQueueName());
+        return answers;
+    }
+
+    @Override
+    public boolean queueExists(QueueInfo qinfo)
+    {
+        return discoveryCache.queueExists(qinfo.getQueueName(), queueName -> queueCaller.queueExists(qinfo));
     }
 
     @Override
     public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
     {
+        return tpcall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        long start = System.nanoTime();
         if(!serviceExists(serviceName))
         {
+            recordNoEntry(Operation.TPCALL, serviceName, start);
             return createTPENOENTReply(serviceName);
         }
+        Duration serviceTimeout = null != timeout ? timeout : getServiceTimeout(serviceName);
         if(flags.isSet(AtmiFlags.TPNOTRAN))
         {
             LOG.finest(() -> "tpcall TPNOTRAN " + serviceName);
-            return serviceCaller.tpcall(serviceName, data, flags);
+            return serviceCaller.tpcall(serviceName, data, flags, serviceTimeout);
         }
         LOG.finest(() -> "tpcall " + serviceName);
-        return transactionWrapper.execute(() -> validateReply(serviceCaller.tpcall(serviceName, data, flags)), casualConnection.getCasualXAResource());
+        return transactionWrapper.execute(() -> validateReply(serviceCaller.tpcall(serviceName, data, flags, serviceTimeout)), casualConnection.getCasualXAResource());
     }
 
 
@@ -143,40 +311,83 @@ public class CallerImpl implements Caller
     @Override
     public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
     {
+        return tpacall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        long start = System.nanoTime();
         if(!serviceExists(serviceName))
         {
+            recordNoEntry(Operation.TPACALL, serviceName, start);
             CompletableFuture<ServiceReturn<CasualBuffer>> future = new CompletableFuture<>();
             future.complete(createTPENOENTReply(serviceName));
             return future;
         }
+        Duration serviceTimeout = null != timeout ? timeout : getServiceTimeout(serviceName);
         if(flags.isSet(AtmiFlags.TPNOTRAN))
         {
             LOG.finest(() -> "tpacall TPNOTRAN " + serviceName);
-            return serviceCaller.tpacall(serviceName, data, flags);
+            return serviceCaller.tpacall(serviceName, data, flags, serviceTimeout);
         }
         LOG.finest(() -> "tpacall " + serviceName);
-        return transactionWrapper.execute(() -> serviceCaller.tpacall(serviceName, data, flags), casualConnection.getCasualXAResource());
+        return transactionWrapper.executeAsync(() -> serviceCaller.tpacall(serviceName, data, flags, serviceTimeout), casualConnection.getCasualXAResource());
     }
 
-    @Override
-    public boolean serviceExists(String serviceName)
+    // unknown to the discovery cache, the call never reaches the metered callers
+    private void recordNoEntry(Operation operation, String name, long start)
     {
-        if(serviceCache.contains(serviceName))
-        {
-            return true;
-        }
-        if(serviceCaller.serviceExists(serviceName))
+        if(CallMetrics.isEnabled())
         {
-            serviceCache.add(serviceName);
-            return true;
+            callMetrics.record(operation, name, Outcome.TPENOENT, System.nanoTime() - start, 0, 0);
         }
-        return false;
+    }
+
+    // the timeout the domain advertised for the service, in nanoseconds, null if it has none
+    private Duration getServiceTimeout(String serviceName)
+    {
+        OptionalLong timeout = serviceDetails(serviceName).stream()
+                                                          .mapToLong(ServiceDetails::getTimeout)
+                                                          .filter(nanos -> nanos > 0)
+                                                          .min();
+        return timeout.isPresent() ? Duration.ofNanos(timeout.getAsLong()) : null;
+    }
+
+    @Override
+    public boolean serviceExists(String serviceName)
+    {
+        return discoveryCache.serviceExists(serviceName, this::discoverService);
     }
 
     @Override
     public List<ServiceDetails> serviceDetails(String serviceName)
     {
-        return serviceCaller.serviceDetails(serviceName);
+        return discoveryCache.serviceDetails(serviceName, this::discoverService);
+    }
+
+    private List<ServiceDetails> discoverService(String serviceName)
+    {
+        return serviceCaller.serviceDetails(serviceName).stream()
+                            .filter(details -> details.getName().equals(serviceName))
+                            .collect(Collectors.toList());
+    }
+
+    @Override
+    public void prewarm(Collection<String> serviceNames, Collection<String> queueNames)
+    {
+        Objects.requireNonNull(serviceNames, "serviceNames can not be null");
+        Objects.requireNonNull(queueNames, "queueNames can not be null");
+        List<String> services = new ArrayList<>(new LinkedHashSet<>(serviceNames));
+        List<String> queues = new ArrayList<>(new LinkedHashSet<>(queueNames));
+        if(services.isEmpty() && queues.isEmpty())
+        {
+            return;
+        }
+        DomainDiscovery.Result result = DomainDiscovery.of(casualConnection).discover(services, queues);
+        services.forEach(serviceName -> discoveryCache.putService(serviceName, result.getServiceDetails(serviceName)));
+        queues.forEach(queueName -> discoveryCache.putQueue(queueName, result.queueExists(queueName)));
+        LOG.info(() -> "prewarmed discovery cache, services: " + services.size() + " queues: " + queues.size());
     }
 
     public static Builder createBuilder()
@@ -211,6 +422,9 @@ public class CallerImpl implements Caller
         private NetworkListener networkListener;
         private int resourceManagerId;
         private TransactionManager transactionManager;
+        private EnlistmentMode enlistmentMode = EnlistmentMode.PER_CALL;
+        private CompletionMode completionMode = CompletionMode.fromEnvironment();
+        private NetworkConnection networkConnection;
 
         private Builder()
         {}
@@ -257,9 +471,35 @@ public class CallerImpl implements Caller
             return this;
         }
 
+        public Builder withEnlistmentMode(EnlistmentMode enlistmentMode)
+        {
+            this.enlistmentMode = enlistmentMode;
+            return this;
+        }
+
+        /**
+         * Where replies are completed, and continuations chained on the returned futures run
+         * Defaults to CASUAL_COMPLETION_MODE, or {@link CompletionMode#DIRECT}
+         */
+        public Builder withCompletionMode(CompletionMode completionMode)
+        {
+            this.completionMode = completionMode;
+            return this;
+        }
+
+        /**
+         * Use the supplied network connection instead of one from the {@link NetworkPoolHandler}
+         * Mainly intended for benchmarks and tests where the network is stubbed out
+         */
+        public Builder withNetworkConnection(NetworkConnection networkConnection)
+        {
+            this.networkConnection = networkConnection;
+            return this;
+        }
+
         public Caller build()
         {
-            return CallerImpl.of(address, protocolVersion, domainId, domainName,  networkListener, resourceManagerId, transactionManager);
+            return CallerImpl.of(address, protocolVersion, domainId, domainName,  networkListener, resourceManagerId, transactionManager, enlistmentMode, completionMode, networkConnection);
         }
     }
 
@@ -293,7 +533,7 @@ public class CallerImpl implements Caller
     private static class NetworkListenerAdapter implements NetworkListener
     {
         private final NetworkListener networkListener;
-        private boolean disconnected = false;
+        private volatile boolean disconnected = false;
         private NetworkListenerAdapter(NetworkListener networkListener)
         {
             this.networkListener = networkListener;
@@ -308,7 +548,7 @@ public class CallerImpl implements Caller
         @Override
         public void disconnected(Exception exception)
         {
-            disconnected = false;
+            disconnected = true;
             networkListener.disconnected(exception);
         }
 
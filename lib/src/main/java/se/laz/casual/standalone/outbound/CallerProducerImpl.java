@@ -8,6 +8,7 @@ package se.laz.casual.standalone.outbound;
 
 import se.laz.casual.network.ProtocolVersion;
 import se.laz.casual.network.outbound.NetworkListener;
+import se.laz.casual.standalone.EnlistmentMode;
 
 import javax.transaction.TransactionManager;
 import java.net.InetSocketAddress;
@@ -18,6 +19,7 @@ public class CallerProducerImpl implements CallerProducer
 {
     private static final String DOMAIN_NAME = getDomainName();
     private static final int RESOURCE_MANAGER_ID = 42;
+    private static final EnlistmentMode ENLISTMENT_MODE = EnlistmentMode.fromEnvironment();
 
     private CallerProducerImpl()
     {}
@@ -38,6 +40,7 @@ public class CallerProducerImpl implements CallerProducer
                          .withProtocolVersion(ProtocolVersion.VERSION_1_0)
                          .withResourceManagerId(RESOURCE_MANAGER_ID)
                          .withTransactionManager(transactionManager)
+                         .withEnlistmentMode(ENLISTMENT_MODE)
                          .build();
     }
 
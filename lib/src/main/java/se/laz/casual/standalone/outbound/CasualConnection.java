@@ -6,21 +6,28 @@
 
 package se.laz.casual.standalone.outbound;
 
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
 import se.laz.casual.internal.network.NetworkConnection;
 import se.laz.casual.jca.DomainId;
 import se.laz.casual.standalone.CasualXAResource;
+import se.laz.casual.standalone.outbound.completion.CompletingNetworkConnection;
+import se.laz.casual.standalone.outbound.completion.CompletionMode;
 
 import javax.transaction.xa.Xid;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class CasualConnection
 {
-    private final NetworkConnection networkConnection;
+    private final CompletingNetworkConnection networkConnection;
     private final DomainId id;
     private CasualXAResource casualXAResource;
     private int timeout;
 
-    private CasualConnection(NetworkConnection networkConnection)
+    private CasualConnection(CompletingNetworkConnection networkConnection)
     {
         this.networkConnection = networkConnection;
         this.id = networkConnection.getDomainId();
@@ -39,9 +46,17 @@ public class CasualConnection
     }
 
     public static CasualConnection of(NetworkConnection networkConnection)
+    {
+        return of(networkConnection, CompletionMode.DIRECT);
+    }
+
+    /**
+     * Replies, to all requests made through this connection, are completed according to completionMode
+     */
+    public static CasualConnection of(NetworkConnection networkConnection, CompletionMode completionMode)
     {
         Objects.requireNonNull(networkConnection, "networkConnection can not be null");
-        return new CasualConnection(networkConnection);
+        return new CasualConnection(CompletingNetworkConnection.of(networkConnection, completionMode));
     }
 
     public NetworkConnection getNetworkConnection()
@@ -49,11 +64,36 @@ public class CasualConnection
         return networkConnection;
     }
 
+    /**
+     * Sends the request, the reply future fails with a {@link java.util.concurrent.TimeoutException} unless the reply
+     * arrives within timeout
+     */
+    public <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> message, Duration timeout)
+    {
+        return networkConnection.request(message, timeout);
+    }
+
+    /**
+     * What is left of the transaction of the calling thread, if it is in one with a timeout
+     */
+    public Optional<Duration> getRemainingTransactionTime()
+    {
+        return null == casualXAResource ? Optional.empty() : casualXAResource.getRemainingTransactionTime();
+    }
+
+    /**
+     * @deprecated not used, the timeout is kept per thread by {@link CasualXAResource#setTransactionTimeout(int)}
+     */
+    @Deprecated
     public void setTransactionTimeout(int timeout)
     {
         this.timeout = timeout;
     }
 
+    /**
+     * @deprecated not used, see {@link CasualXAResource#getTransactionTimeout()}
+     */
+    @Deprecated
     public int getTransactionTimeout()
     {
         return timeout;
@@ -64,6 +104,17 @@ public class CasualConnection
         return casualXAResource.getCurrentXid();
     }
 
+    /**
+     * The branch of xid votes rollback, nothing happens if xid is not an active branch of this connection
+     */
+    public void setRollbackOnly(Xid xid)
+    {
+        if(null != casualXAResource)
+        {
+            casualXAResource.setRollbackOnly(xid);
+        }
+    }
+
     public DomainId getId()
     {
         return id;
@@ -9,10 +9,9 @@ package se.laz.casual.standalone.outbound;
 import se.laz.casual.network.outbound.NetworkListener;
 
 import javax.transaction.TransactionManager;
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 public class CasualManagedConnectionImpl implements CasualManagedConnection, NetworkListener, ReconnectAble
@@ -21,46 +20,61 @@ public class CasualManagedConnectionImpl implements CasualManagedConnection, Net
     private final String host;
     private int port;
     private Caller caller;
-    private Object disconnectLock = new Object();
+    private final ReentrantLock disconnectLock = new ReentrantLock();
     private boolean closed = true;
     TransactionManager transactionManager;
+    private final CallerProducer callerProducer;
 
     private CasualManagedConnectionImpl(TransactionManager transactionManager,
                                         String host,
-                                        int port)
+                                        int port,
+                                        CallerProducer callerProducer)
     {
         this.host = host;
         this.port = port;
         this.transactionManager = transactionManager;
-        caller = CallerProducerImpl.of().createCaller(transactionManager, this.host, this.port, this);
+        this.callerProducer = callerProducer;
+        caller = callerProducer.createCaller(transactionManager, this.host, this.port, this);
         connect();
     }
 
     public static CasualManagedConnection of(TransactionManager transactionManager,
                                              String host,
                                              int port)
+    {
+        return of(transactionManager, host, port, CallerProducerImpl.of());
+    }
+
+    public static CasualManagedConnection of(TransactionManager transactionManager,
+                                             String host,
+                                             int port,
+                                             CallerProducer callerProducer)
     {
         Objects.requireNonNull(transactionManager, "transactionManager can not be null");
         Objects.requireNonNull(host, "host can not be null");
-        return new CasualManagedConnectionImpl(transactionManager, host, port);
+        Objects.requireNonNull(callerProducer, "callerProducer can not be null");
+        return new CasualManagedConnectionImpl(transactionManager, host, port, callerProducer);
     }
 
     @Override
     public void disconnected(Exception exception)
     {
-        synchronized (disconnectLock)
+        disconnectLock.lock();
+        try
         {
             LOG.warning(() -> String.format("%s:%d disconnected -> %s", host, port, exception));
             caller = null;
-            AutoReconnect.of(this,
-                    host,
-                    port,
-                    transactionManager,
-                    StaggeredOptions.of(Duration.of(500, ChronoUnit.MILLIS),
-                            Duration.of(1000, ChronoUnit.MILLIS),
-                            2),
-                    this,
-                    CallerProducerImpl.of());
+            if(closed)
+            {
+                // nobody is going to use it again
+                return;
+            }
+            ReconnectScheduler.of(Address.of(host, port))
+                              .reconnect(this, () -> callerProducer.createCaller(transactionManager, host, port, this));
+        }
+        finally
+        {
+            disconnectLock.unlock();
         }
     }
 
@@ -74,7 +88,16 @@ public class CasualManagedConnectionImpl implements CasualManagedConnection, Net
     public void close()
     {
         //getCaller().ifPresent(Caller::close);
-        closed = true;
+        disconnectLock.lock();
+        try
+        {
+            closed = true;
+            ReconnectScheduler.of(Address.of(host, port)).cancel(this);
+        }
+        finally
+        {
+            disconnectLock.unlock();
+        }
         // TODO:
         // Should only ever happen after current transaction is finished?
         //LOG.info(() -> "close?" + closed);
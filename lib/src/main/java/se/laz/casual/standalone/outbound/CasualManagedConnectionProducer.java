@@ -19,6 +19,13 @@ public class CasualManagedConnectionProducer
     {
         Objects.requireNonNull(transactionManagerSupplier, "transactionManagerSupplier can not be null");
         Objects.requireNonNull(host, "host can not be null");
-        return CasualManagedConnectionImpl.of(transactionManagerSupplier.get(), host, port);
+        return create(transactionManagerSupplier, host, port, CallerProducerImpl.of());
+    }
+
+    public static CasualManagedConnection create(Supplier<TransactionManager> transactionManagerSupplier, String host, int port, CallerProducer callerProducer)
+    {
+        Objects.requireNonNull(transactionManagerSupplier, "transactionManagerSupplier can not be null");
+        Objects.requireNonNull(host, "host can not be null");
+        return CasualManagedConnectionImpl.of(transactionManagerSupplier.get(), host, port, callerProducer);
     }
 }
@@ -11,6 +11,8 @@ import se.laz.casual.api.xa.XID;
 import se.laz.casual.jca.CasualResourceAdapterException;
 
 import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -47,6 +49,16 @@ public final class CasualResourceManager
         return pendingRequests.containsKey(xid);
     }
 
+    public int getPendingCount()
+    {
+        return pendingRequests.size();
+    }
+
+    public List<Xid> getPending()
+    {
+        return new ArrayList<>(pendingRequests.keySet());
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreaker;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakerOpenException;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakers;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Queue calls through the circuit breaker of the domain
+ * An open circuit fails calls fast with {@link CircuitBreakerOpenException}, never with a reply, so that it can not be
+ * taken for an error state of the domain
+ */
+final class CircuitBreakingQueueCaller implements QueueCaller
+{
+    private static final Logger LOG = Logger.getLogger(CircuitBreakingQueueCaller.class.getName());
+    private final QueueCaller queueCaller;
+    private final CircuitBreakers circuitBreakers;
+
+    private CircuitBreakingQueueCaller(QueueCaller queueCaller, CircuitBreakers circuitBreakers)
+    {
+        this.queueCaller = queueCaller;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    static QueueCaller of(QueueCaller queueCaller, CircuitBreakers circuitBreakers)
+    {
+        Objects.requireNonNull(queueCaller, "queueCaller can not be null");
+        Objects.requireNonNull(circuitBreakers, "circuitBreakers can not be null");
+        return new CircuitBreakingQueueCaller(queueCaller, circuitBreakers);
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueue(qinfo, msg, null);
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return queueCaller.enqueue(qinfo, msg, timeout);
+        }
+        return circuitBreakers.forName(qinfo.getQueueName())
+                              .call(() -> queueCaller.enqueue(qinfo, msg, timeout), CircuitBreakingQueueCaller::isEnqueueTimedOut, () -> open(qinfo));
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeue(qinfo, selector, null);
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return queueCaller.dequeue(qinfo, selector, timeout);
+        }
+        CircuitBreaker circuitBreaker = circuitBreakers.forName(qinfo.getQueueName());
+        if(isWaiting(qinfo))
+        {
+            return circuitBreaker.callWaiting(() -> queueCaller.dequeue(qinfo, selector, timeout), reply -> false, () -> open(qinfo));
+        }
+        return circuitBreaker.call(() -> queueCaller.dequeue(qinfo, selector, timeout), CircuitBreakingQueueCaller::isDequeueTimedOut, () -> open(qinfo));
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueueAsync(qinfo, msg, null);
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return queueCaller.enqueueAsync(qinfo, msg, timeout);
+        }
+        return circuitBreakers.forName(qinfo.getQueueName())
+                              .callAsync(() -> queueCaller.enqueueAsync(qinfo, msg, timeout), CircuitBreakingQueueCaller::isEnqueueTimedOut, () -> open(qinfo));
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeueAsync(qinfo, selector, null);
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return queueCaller.dequeueAsync(qinfo, selector, timeout);
+        }
+        CircuitBreaker circuitBreaker = circuitBreakers.forName(qinfo.getQueueName());
+        if(isWaiting(qinfo))
+        {
+            return circuitBreaker.callAsyncWaiting(() -> queueCaller.dequeueAsync(qinfo, selector, timeout), reply -> false, () -> open(qinfo));
+        }
+        return circuitBreaker.callAsync(() -> queueCaller.dequeueAsync(qinfo, selector, timeout), CircuitBreakingQueueCaller::isDequeueTimedOut, () -> open(qinfo));
+    }
+
+    @Override
+    public boolean queueExists(QueueInfo qinfo)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return queueCaller.queueExists(qinfo);
+        }
+        return circuitBreakers.forName(qinfo.getQueueName())
+                              .call(() -> queueCaller.queueExists(qinfo), exists -> false, () -> open(qinfo));
+    }
+
+    // the queue protocol has no error states of its own yet, only an expired deadline says something about the domain
+    private static boolean isEnqueueTimedOut(EnqueueReturn reply)
+    {
+        return reply.getErrorState() == ErrorState.TPETIME;
+    }
+
+    private static boolean isDequeueTimedOut(DequeueReturn reply)
+    {
+        return reply.getErrorState() == ErrorState.TPETIME;
+    }
+
+    // a blocking dequeue waits for a message, on an idle queue until its deadline, neither the wait nor TPETIME says anything about the domain
+    private static boolean isWaiting(QueueInfo qinfo)
+    {
+        return qinfo.getOptions().isBlocking();
+    }
+
+    private <T> T open(QueueInfo qinfo)
+    {
+        LOG.finest(() -> "circuit open, failing fast: " + qinfo.getQueueName());
+        throw new CircuitBreakerOpenException("circuit open for: " + qinfo.getQueueName() + " at: " + circuitBreakers.getAddress());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakerOpenException;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakers;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Service calls through the circuit breaker of the domain
+ * An open circuit fails calls fast with {@link CircuitBreakerOpenException}, never with a reply, so that it can not be
+ * taken for an error state of the domain
+ * Only transport level errors and exceptions count as failures, not a service failing, crashing or timing out
+ */
+final class CircuitBreakingServiceCaller implements ServiceCaller
+{
+    private static final Logger LOG = Logger.getLogger(CircuitBreakingServiceCaller.class.getName());
+    private static final Set<ErrorState> DOMAIN_ERRORS = EnumSet.of(ErrorState.TPESYSTEM, ErrorState.TPEOS, ErrorState.TPEPROTO);
+    private final ServiceCaller serviceCaller;
+    private final CircuitBreakers circuitBreakers;
+
+    private CircuitBreakingServiceCaller(ServiceCaller serviceCaller, CircuitBreakers circuitBreakers)
+    {
+        this.serviceCaller = serviceCaller;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    static ServiceCaller of(ServiceCaller serviceCaller, CircuitBreakers circuitBreakers)
+    {
+        Objects.requireNonNull(serviceCaller, "serviceCaller can not be null");
+        Objects.requireNonNull(circuitBreakers, "circuitBreakers can not be null");
+        return new CircuitBreakingServiceCaller(serviceCaller, circuitBreakers);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpcall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return serviceCaller.tpcall(serviceName, data, flags, timeout);
+        }
+        return circuitBreakers.forName(serviceName)
+                              .call(() -> serviceCaller.tpcall(serviceName, data, flags, timeout), CircuitBreakingServiceCaller::isDomainError, () -> open(serviceName));
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpacall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return serviceCaller.tpacall(serviceName, data, flags, timeout);
+        }
+        return circuitBreakers.forName(serviceName)
+                              .callAsync(() -> serviceCaller.tpacall(serviceName, data, flags, timeout), CircuitBreakingServiceCaller::isDomainError, () -> open(serviceName));
+    }
+
+    @Override
+    public boolean serviceExists(String serviceName)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return serviceCaller.serviceExists(serviceName);
+        }
+        return circuitBreakers.forName(serviceName)
+                              .call(() -> serviceCaller.serviceExists(serviceName), exists -> false, () -> open(serviceName));
+    }
+
+    @Override
+    public List<ServiceDetails> serviceDetails(String serviceName)
+    {
+        if(!circuitBreakers.isEnabled())
+        {
+            return serviceCaller.serviceDetails(serviceName);
+        }
+        return circuitBreakers.forName(serviceName)
+                              .call(() -> serviceCaller.serviceDetails(serviceName), details -> false, () -> open(serviceName));
+    }
+
+    private static boolean isDomainError(ServiceReturn<CasualBuffer> reply)
+    {
+        return DOMAIN_ERRORS.contains(reply.getErrorState());
+    }
+
+    private <T> T open(String serviceName)
+    {
+        LOG.finest(() -> "circuit open, failing fast: " + serviceName);
+        throw new CircuitBreakerOpenException("circuit open for: " + serviceName + " at: " + circuitBreakers.getAddress());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deadlines of pending requests, all of them tracked by one hashed wheel timer
+ *
+ * Arming and cancelling a deadline is constant time whatever the number of pending requests, the price is
+ * that a deadline fires up to one tick, CASUAL_DEADLINE_TICK_MILLIS, late.
+ * An expired request completes with a {@link TimeoutException}, the callers turn that into TPETIME.
+ */
+public final class Deadlines
+{
+    public static final String DEFAULT_TIMEOUT_ENV = "CASUAL_CALL_TIMEOUT_MILLIS";
+    public static final String TICK_ENV = "CASUAL_DEADLINE_TICK_MILLIS";
+    private static final long TICK_MILLIS = Optional.ofNullable(System.getenv(TICK_ENV)).map(Long::parseLong).orElse(10L);
+    private static final int TICKS_PER_WHEEL = 512;
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(runnable -> {
+        Thread thread = new Thread(runnable, "casual-deadline-timer");
+        thread.setDaemon(true);
+        return thread;
+    }, TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+    private static final LongAdder EXPIRED = new LongAdder();
+    private static volatile Optional<Duration> defaultTimeout = Optional.ofNullable(System.getenv(DEFAULT_TIMEOUT_ENV))
+                                                                       .map(Long::parseLong)
+                                                                       .filter(millis -> millis > 0)
+                                                                       .map(Duration::ofMillis);
+
+    private Deadlines()
+    {}
+
+    /**
+     * The timeout a call gets
+     * The requested timeout, or CASUAL_CALL_TIMEOUT_MILLIS if none, but never beyond what is left of the transaction
+     * @param requested the timeout asked for, null if none
+     * @return empty if the call has no deadline
+     */
+    public static Optional<Duration> resolve(Duration requested, Optional<Duration> remainingTransactionTime)
+    {
+        Objects.requireNonNull(remainingTransactionTime, "remainingTransactionTime can not be null");
+        Optional<Duration> timeout = null == requested ? defaultTimeout : Optional.of(requested);
+        if(remainingTransactionTime.isEmpty())
+        {
+            return timeout;
+        }
+        return timeout.filter(value -> value.compareTo(remainingTransactionTime.get()) < 0)
+                      .or(() -> remainingTransactionTime);
+    }
+
+    /**
+     * The timeout of calls that do not ask for one, CASUAL_CALL_TIMEOUT_MILLIS until changed
+     * @return empty if those calls have no deadline
+     */
+    public static Optional<Duration> getDefaultTimeout()
+    {
+        return defaultTimeout;
+    }
+
+    /**
+     * Applies to calls made from now on
+     * @param timeout null, zero or negative for no deadline
+     */
+    public static void setDefaultTimeout(Duration timeout)
+    {
+        defaultTimeout = Optional.ofNullable(timeout).filter(value -> !value.isNegative() && !value.isZero());
+    }
+
+    /**
+     * Completes pending with a {@link TimeoutException} unless it completes within timeout
+     * The deadline is dropped as soon as pending completes
+     * @return pending
+     */
+    public static <T> CompletableFuture<T> expireAfter(CompletableFuture<T> pending, Duration timeout)
+    {
+        Objects.requireNonNull(pending, "pending can not be null");
+        Objects.requireNonNull(timeout, "timeout can not be null");
+        if(pending.isDone())
+        {
+            return pending;
+        }
+        Timeout deadline = TIMER.newTimeout(expired -> {
+            if(pending.completeExceptionally(new TimeoutException("no reply within: " + timeout)))
+            {
+                EXPIRED.increment();
+            }
+        }, Math.max(0, timeout.toNanos()), TimeUnit.NANOSECONDS);
+        pending.whenComplete((value, throwable) -> deadline.cancel());
+        return pending;
+    }
+
+    /**
+     * A future completing once delay has passed, on the timer thread
+     * Cancelling it drops the timer
+     */
+    public static CompletableFuture<Void> after(Duration delay)
+    {
+        Objects.requireNonNull(delay, "delay can not be null");
+        CompletableFuture<Void> elapsed = new CompletableFuture<>();
+        Timeout timer = TIMER.newTimeout(expired -> elapsed.complete(null), Math.max(0, delay.toNanos()), TimeUnit.NANOSECONDS);
+        elapsed.whenComplete((value, throwable) -> timer.cancel());
+        return elapsed;
+    }
+
+    /**
+     * True if the deadline has already passed, the call must not be sent
+     * The domain reads a timeout of zero as none, it would run a call the caller has already given up on
+     */
+    public static boolean isExhausted(Optional<Duration> deadline)
+    {
+        Objects.requireNonNull(deadline, "deadline can not be null");
+        return deadline.map(value -> value.isZero() || value.isNegative()).orElse(false);
+    }
+
+    public static boolean isExpired(Throwable throwable)
+    {
+        Throwable cause = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+        return cause instanceof TimeoutException;
+    }
+
+    /**
+     * Deadlines armed but neither expired nor cancelled yet
+     */
+    public static long getPending()
+    {
+        return TIMER.pendingTimeouts();
+    }
+
+    /**
+     * Requests that expired since start
+     */
+    public static long getExpired()
+    {
+        return EXPIRED.sum();
+    }
+}
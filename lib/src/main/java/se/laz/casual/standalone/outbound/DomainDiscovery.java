@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.api.util.PrettyPrinter;
+import se.laz.casual.config.ConfigurationService;
+import se.laz.casual.config.Domain;
+import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.network.protocol.messages.CasualNWMessageImpl;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryReplyMessage;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryRequestMessage;
+import se.laz.casual.network.protocol.messages.domain.Queue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * Discovers many services and queues with as few round trips as possible
+ * Names are sent in chunks, all chunks are in flight at the same time
+ * Each chunk has CASUAL_DISCOVERY_TIMEOUT_MILLIS to be answered, default 30s, counted from when it is sent
+ */
+final class DomainDiscovery
+{
+    private static final Logger LOG = Logger.getLogger(DomainDiscovery.class.getName());
+    static final int DEFAULT_CHUNK_SIZE = 500;
+    static final String TIMEOUT_ENV = "CASUAL_DISCOVERY_TIMEOUT_MILLIS";
+    static final Duration DEFAULT_TIMEOUT = Optional.ofNullable(System.getenv(TIMEOUT_ENV)).map(Long::parseLong).map(Duration::ofMillis).orElse(Duration.ofSeconds(30));
+    private final CasualConnection connection;
+    private final int chunkSize;
+    private final Duration timeout;
+
+    private DomainDiscovery(CasualConnection connection, int chunkSize, Duration timeout)
+    {
+        this.connection = connection;
+        this.chunkSize = chunkSize;
+        this.timeout = timeout;
+    }
+
+    static DomainDiscovery of(CasualConnection connection)
+    {
+        return of(connection, DEFAULT_CHUNK_SIZE, DEFAULT_TIMEOUT);
+    }
+
+    static DomainDiscovery of(CasualConnection connection, int chunkSize, Duration timeout)
+    {
+        Objects.requireNonNull(connection, "connection can not be null");
+        Objects.requireNonNull(timeout, "timeout can not be null");
+        if(chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("chunkSize has to be positive, was: " + chunkSize);
+        }
+        return new DomainDiscovery(connection, chunkSize, timeout);
+    }
+
+    Result discover(List<String> serviceNames, List<String> queueNames)
+    {
+        List<CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>>> replies = new ArrayList<>();
+        int total = Math.max(serviceNames.size(), queueNames.size());
+        for(int start = 0; start < total; start += chunkSize)
+        {
+            replies.add(Deadlines.expireAfter(request(chunk(serviceNames, start), chunk(queueNames, start)), timeout));
+        }
+        Map<String, List<ServiceDetails>> services = new HashMap<>();
+        Set<String> queues = new HashSet<>();
+        try
+        {
+            for(CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>> reply : replies)
+            {
+                CasualDomainDiscoveryReplyMessage message = reply.join().getMessage();
+                message.getServices().forEach(service -> services.computeIfAbsent(service.getName(), name -> new ArrayList<>()).add(
+                        ServiceDetails.createBuilder()
+                                      .withName(service.getName())
+                                      .withCategory(service.getCategory())
+                                      .withTransactionType(service.getTransactionType())
+                                      .withTimeout(service.getTimeout())
+                                      .withHops(service.getHops()).build()));
+                message.getQueues().stream().map(Queue::getName).forEach(queues::add);
+            }
+        }
+        catch(CompletionException e)
+        {
+            // an unanswered chunk surfaces as its TimeoutException
+            throw new CasualConnectionException(null == e.getCause() ? e : e.getCause());
+        }
+        catch(Exception e)
+        {
+            throw new CasualConnectionException(e);
+        }
+        LOG.finest(() -> "bulk discovery, requests: " + replies.size() + " services found: " + services.size() + "/" + serviceNames.size() + " queues found: " + queues.size() + "/" + queueNames.size());
+        return new Result(services, queues);
+    }
+
+    private List<String> chunk(List<String> names, int start)
+    {
+        if(start >= names.size())
+        {
+            return Collections.emptyList();
+        }
+        return names.subList(start, Math.min(names.size(), start + chunkSize));
+    }
+
+    private CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>> request(List<String> serviceNames, List<String> queueNames)
+    {
+        UUID corrid = UUID.randomUUID();
+        LOG.finest(() -> "issuing bulk domain discovery, corrid: " + PrettyPrinter.casualStringify(corrid) + " services: " + serviceNames.size() + " queues: " + queueNames.size());
+        Domain domain = ConfigurationService.getInstance().getConfiguration().getDomain();
+        CasualDomainDiscoveryRequestMessage requestMsg = CasualDomainDiscoveryRequestMessage.createBuilder()
+                                                                                            .setExecution(UUID.randomUUID())
+                                                                                            .setDomainId(domain.getId())
+                                                                                            .setDomainName(domain.getName())
+                                                                                            .setServiceNames(new ArrayList<>(serviceNames))
+                                                                                            .setQueueNames(new ArrayList<>(queueNames))
+                                                                                            .build();
+        CasualNWMessage<CasualDomainDiscoveryRequestMessage> msg = CasualNWMessageImpl.of(corrid, requestMsg);
+        return connection.getNetworkConnection().request(msg);
+    }
+
+    static final class Result
+    {
+        private final Map<String, List<ServiceDetails>> services;
+        private final Set<String> queues;
+
+        private Result(Map<String, List<ServiceDetails>> services, Set<String> queues)
+        {
+            this.services = services;
+            this.queues = queues;
+        }
+
+        /**
+         * @return the details of the service, empty if it was not found
+         */
+        List<ServiceDetails> getServiceDetails(String serviceName)
+        {
+            return services.getOrDefault(serviceName, Collections.emptyList());
+        }
+
+        boolean queueExists(String queueName)
+        {
+            return queues.contains(queueName);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakerOpenException;
+import se.laz.casual.standalone.outbound.hedging.HedgingPolicy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Service calls hedged by the {@link HedgingPolicy} of the domain, calls the policy does not cover go straight through
+ * The duplicate gets what is left of the timeout given for the call, so hedging never extends that deadline
+ */
+final class HedgingServiceCaller implements ServiceCaller
+{
+    private final ServiceCaller serviceCaller;
+    private final HedgingPolicy hedgingPolicy;
+
+    private HedgingServiceCaller(ServiceCaller serviceCaller, HedgingPolicy hedgingPolicy)
+    {
+        this.serviceCaller = serviceCaller;
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    static ServiceCaller of(ServiceCaller serviceCaller, HedgingPolicy hedgingPolicy)
+    {
+        Objects.requireNonNull(serviceCaller, "serviceCaller can not be null");
+        Objects.requireNonNull(hedgingPolicy, "hedgingPolicy can not be null");
+        return new HedgingServiceCaller(serviceCaller, hedgingPolicy);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpcall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!hedgingPolicy.isHedgeable(serviceName, flags))
+        {
+            return serviceCaller.tpcall(serviceName, data, flags, timeout);
+        }
+        try
+        {
+            return tpacall(serviceName, data, flags, timeout).join();
+        }
+        catch(CompletionException e)
+        {
+            // an open circuit is passed on as is, callers tell it apart from a lost connection
+            if(e.getCause() instanceof CircuitBreakerOpenException)
+            {
+                throw (CircuitBreakerOpenException) e.getCause();
+            }
+            throw new CasualConnectionException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpacall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!hedgingPolicy.isHedgeable(serviceName, flags))
+        {
+            return serviceCaller.tpacall(serviceName, data, flags, timeout);
+        }
+        long start = System.nanoTime();
+        return hedgingPolicy.call(serviceName, () -> serviceCaller.tpacall(serviceName, data, flags, remaining(timeout, start)));
+    }
+
+    @Override
+    public boolean serviceExists(String serviceName)
+    {
+        return serviceCaller.serviceExists(serviceName);
+    }
+
+    @Override
+    public List<ServiceDetails> serviceDetails(String serviceName)
+    {
+        return serviceCaller.serviceDetails(serviceName);
+    }
+
+    private static Duration remaining(Duration timeout, long start)
+    {
+        if(null == timeout)
+        {
+            return null;
+        }
+        Duration left = timeout.minusNanos(System.nanoTime() - start);
+        return left.isNegative() ? Duration.ZERO : left;
+    }
+}
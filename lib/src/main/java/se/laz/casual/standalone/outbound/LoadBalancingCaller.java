@@ -0,0 +1,621 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.network.outbound.NetworkListener;
+import se.laz.casual.standalone.TransactionException;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * A caller fronting several casual domains offering the same services and queues
+ *
+ * Every call goes to a connected domain that has the service, or queue. Domains reporting fewer hops are preferred,
+ * among those the one with the lowest latency, an exponentially weighted moving average, times requests in flight.
+ * Disconnected domains are skipped until they have reconnected.
+ * All calls within one transaction go to the domain of the first call so that only one domain is enlisted,
+ * TPNOTRAN calls are routed freely.
+ */
+public class LoadBalancingCaller implements Caller
+{
+    private static final Logger LOG = Logger.getLogger(LoadBalancingCaller.class.getName());
+    // weight of the latest sample in the latency average
+    private static final double LATENCY_WEIGHT = 0.2;
+    private final List<DomainEntry> domains;
+    private final TransactionManager transactionManager;
+    private final Map<Transaction, DomainEntry> transactionAffinity = new ConcurrentHashMap<>();
+
+    private LoadBalancingCaller(List<DomainEntry> domains, TransactionManager transactionManager)
+    {
+        this.domains = domains;
+        this.transactionManager = transactionManager;
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg)
+    {
+        return selectForQueue(qinfo).call(caller -> caller.enqueue(qinfo, msg));
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector)
+    {
+        return selectForQueue(qinfo).call(caller -> caller.dequeue(qinfo, selector));
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg)
+    {
+        return selectForQueue(qinfo).callAsync(caller -> caller.enqueueAsync(qinfo, msg));
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector)
+    {
+        return selectForQueue(qinfo).callAsync(caller -> caller.dequeueAsync(qinfo, selector));
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        return selectForQueue(qinfo).call(caller -> caller.enqueue(qinfo, msg, timeout));
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        return selectForQueue(qinfo).call(caller -> caller.dequeue(qinfo, selector, timeout));
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        return selectForQueue(qinfo).callAsync(caller -> caller.enqueueAsync(qinfo, msg, timeout));
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        return selectForQueue(qinfo).callAsync(caller -> caller.dequeueAsync(qinfo, selector, timeout));
+    }
+
+    @Override
+    public List<EnqueueReturn> enqueueBatch(QueueInfo qinfo, List<QueueMessage> messages)
+    {
+        return selectForQueue(qinfo).call(caller -> caller.enqueueBatch(qinfo, messages));
+    }
+
+    @Override
+    public List<EnqueueReturn> enqueueBatch(QueueInfo qinfo, List<QueueMessage> messages, int window)
+    {
+        return selectForQueue(qinfo).call(caller -> caller.enqueueBatch(qinfo, messages, window));
+    }
+
+    @Override
+    public boolean queueExists(QueueInfo qinfo)
+    {
+        return connectedCallers().stream().anyMatch(caller -> caller.queueExists(qinfo));
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return selectForService(serviceName, flags).call(caller -> caller.tpcall(serviceName, data, flags));
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return selectForService(serviceName, flags).callAsync(caller -> caller.tpacall(serviceName, data, flags));
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        return selectForService(serviceName, flags).call(caller -> caller.tpcall(serviceName, data, flags, timeout));
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        return selectForService(serviceName, flags).callAsync(caller -> caller.tpacall(serviceName, data, flags, timeout));
+    }
+
+    @Override
+    public boolean serviceExists(String serviceName)
+    {
+        return connectedCallers().stream().anyMatch(caller -> caller.serviceExists(serviceName));
+    }
+
+    /**
+     * The service details of every connected domain
+     */
+    @Override
+    public List<ServiceDetails> serviceDetails(String serviceName)
+    {
+        return connectedCallers().stream()
+                                 .flatMap(caller -> caller.serviceDetails(serviceName).stream())
+                                 .collect(Collectors.toList());
+    }
+
+    @Override
+    public void prewarm(Collection<String> serviceNames, Collection<String> queueNames)
+    {
+        Objects.requireNonNull(serviceNames, "serviceNames can not be null");
+        Objects.requireNonNull(queueNames, "queueNames can not be null");
+        for(DomainEntry domain : domains)
+        {
+            domain.getCaller().ifPresent(caller -> {
+                try
+                {
+                    caller.prewarm(serviceNames, queueNames);
+                }
+                catch(RuntimeException e)
+                {
+                    LOG.log(Level.WARNING, e, () -> "prewarm failed for: " + domain.getAddress());
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        domains.forEach(DomainEntry::close);
+    }
+
+    /**
+     * Disconnected when none of the domains is connected
+     */
+    @Override
+    public boolean isDisconnected()
+    {
+        return connectedCallers().isEmpty();
+    }
+
+    /**
+     * The resource of the domain the current transaction is bound to, without one the resource of any connected domain
+     */
+    @Override
+    public XAResource getXAResource()
+    {
+        DomainEntry domain = currentTransaction().map(transactionAffinity::get)
+                                                 .orElseGet(() -> selectDomain(caller -> OptionalLong.of(0)));
+        return domain.getConnectedCaller().getXAResource();
+    }
+
+    public List<Address> getAddresses()
+    {
+        return domains.stream().map(DomainEntry::getAddress).collect(Collectors.toList());
+    }
+
+    private DomainEntry selectForService(String serviceName, Flag<AtmiFlags> flags)
+    {
+        return select(!flags.isSet(AtmiFlags.TPNOTRAN), caller -> minimumHops(caller, serviceName));
+    }
+
+    private DomainEntry selectForQueue(QueueInfo qinfo)
+    {
+        return select(true, caller -> caller.queueExists(qinfo) ? OptionalLong.of(0) : OptionalLong.empty());
+    }
+
+    private static OptionalLong minimumHops(Caller caller, String serviceName)
+    {
+        return caller.serviceDetails(serviceName).stream()
+                     .mapToLong(ServiceDetails::getHops)
+                     .min();
+    }
+
+    private DomainEntry select(boolean transactional, Function<Caller, OptionalLong> distance)
+    {
+        Optional<Transaction> transaction = transactional ? currentTransaction() : Optional.empty();
+        if(transaction.isEmpty())
+        {
+            return selectDomain(distance);
+        }
+        DomainEntry bound = transactionAffinity.get(transaction.get());
+        if(null != bound)
+        {
+            return bound;
+        }
+        DomainEntry selected = selectDomain(distance);
+        DomainEntry previous = transactionAffinity.putIfAbsent(transaction.get(), selected);
+        if(null != previous)
+        {
+            return previous;
+        }
+        bind(transaction.get(), selected);
+        return selected;
+    }
+
+    /**
+     * The connected domain with the fewest hops to the resource, on a tie the one with the lowest score
+     * When no domain knows about the resource any connected domain is used, so that the reply is the usual TPENOENT
+     */
+    private DomainEntry selectDomain(Function<Caller, OptionalLong> distance)
+    {
+        DomainEntry best = null;
+        DomainEntry anyConnected = null;
+        long bestDistance = Long.MAX_VALUE;
+        long bestScore = Long.MAX_VALUE;
+        // random start so that equal domains share the load
+        int offset = ThreadLocalRandom.current().nextInt(domains.size());
+        for(int i = 0; i < domains.size(); ++i)
+        {
+            DomainEntry domain = domains.get((offset + i) % domains.size());
+            Optional<Caller> caller = domain.getCaller();
+            if(caller.isEmpty())
+            {
+                continue;
+            }
+            anyConnected = null == anyConnected ? domain : anyConnected;
+            OptionalLong domainDistance = domain.distance(caller.get(), distance);
+            if(domainDistance.isEmpty())
+            {
+                continue;
+            }
+            long score = domain.score();
+            if(domainDistance.getAsLong() < bestDistance || (domainDistance.getAsLong() == bestDistance && score < bestScore))
+            {
+                best = domain;
+                bestDistance = domainDistance.getAsLong();
+                bestScore = score;
+            }
+        }
+        if(null != best)
+        {
+            return best;
+        }
+        if(null != anyConnected)
+        {
+            return anyConnected;
+        }
+        throw new CasualConnectionException("no connected domain among: " + getAddresses());
+    }
+
+    private Optional<Transaction> currentTransaction()
+    {
+        try
+        {
+            Transaction transaction = transactionManager.getTransaction();
+            return null != transaction && transaction.getStatus() == Status.STATUS_ACTIVE ? Optional.of(transaction) : Optional.empty();
+        }
+        catch(SystemException e)
+        {
+            throw new TransactionException("failed getting the current transaction", e);
+        }
+    }
+
+    private void bind(Transaction transaction, DomainEntry domain)
+    {
+        try
+        {
+            transaction.registerSynchronization(new Synchronization()
+            {
+                @Override
+                public void beforeCompletion()
+                {
+                    // nothing to do
+                }
+
+                @Override
+                public void afterCompletion(int status)
+                {
+                    transactionAffinity.remove(transaction);
+                }
+            });
+            LOG.finest(() -> "transaction: " + transaction + " bound to: " + domain.getAddress());
+        }
+        catch(RollbackException | SystemException e)
+        {
+            transactionAffinity.remove(transaction);
+            throw new TransactionException("failed binding transaction to: " + domain.getAddress(), e);
+        }
+    }
+
+    private List<Caller> connectedCallers()
+    {
+        List<Caller> callers = new ArrayList<>(domains.size());
+        domains.forEach(domain -> domain.getCaller().ifPresent(callers::add));
+        return callers;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoadBalancingCaller{" +
+                "domains=" + domains +
+                '}';
+    }
+
+    private static final class DomainEntry implements NetworkListener, ReconnectAble
+    {
+        private final Address address;
+        private final TransactionManager transactionManager;
+        private final CallerProducer callerProducer;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong latencyNanos = new AtomicLong();
+        private final ReentrantLock reconnectLock = new ReentrantLock();
+        private volatile Caller caller;
+        private boolean closed;
+
+        private DomainEntry(Address address, TransactionManager transactionManager, CallerProducer callerProducer)
+        {
+            this.address = address;
+            this.transactionManager = transactionManager;
+            this.callerProducer = callerProducer;
+        }
+
+        static DomainEntry connect(Address address, TransactionManager transactionManager, CallerProducer callerProducer)
+        {
+            DomainEntry domain = new DomainEntry(address, transactionManager, callerProducer);
+            try
+            {
+                domain.caller = callerProducer.createCaller(transactionManager, address.getHostName(), address.getPort(), domain);
+            }
+            catch(RuntimeException e)
+            {
+                LOG.warning(() -> "could not connect to: " + address + ", will retry: " + e);
+                domain.reconnect();
+            }
+            return domain;
+        }
+
+        Address getAddress()
+        {
+            return address;
+        }
+
+        Optional<Caller> getCaller()
+        {
+            Caller current = caller;
+            return null == current || current.isDisconnected() ? Optional.empty() : Optional.of(current);
+        }
+
+        Caller getConnectedCaller()
+        {
+            return getCaller().orElseThrow(() -> new CasualConnectionException("domain: " + address + " is disconnected"));
+        }
+
+        // lower is better
+        long score()
+        {
+            return (latencyNanos.get() + 1) * (inFlight.get() + 1);
+        }
+
+        OptionalLong distance(Caller current, Function<Caller, OptionalLong> distance)
+        {
+            try
+            {
+                return distance.apply(current);
+            }
+            catch(RuntimeException e)
+            {
+                LOG.finest(() -> "skipping: " + address + " discovery failed: " + e);
+                return OptionalLong.empty();
+            }
+        }
+
+        <T> T call(Function<Caller, T> call)
+        {
+            Caller current = getConnectedCaller();
+            long start = begin();
+            try
+            {
+                return call.apply(current);
+            }
+            finally
+            {
+                end(start);
+            }
+        }
+
+        <T> CompletableFuture<T> callAsync(Function<Caller, CompletableFuture<T>> call)
+        {
+            Caller current = getConnectedCaller();
+            long start = begin();
+            try
+            {
+                return call.apply(current).whenComplete((result, failure) -> end(start));
+            }
+            catch(RuntimeException e)
+            {
+                end(start);
+                throw e;
+            }
+        }
+
+        private long begin()
+        {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        private void end(long start)
+        {
+            inFlight.decrementAndGet();
+            long sample = System.nanoTime() - start;
+            latencyNanos.accumulateAndGet(sample, (average, latest) -> 0 == average ? latest : average + Math.round((latest - average) * LATENCY_WEIGHT));
+        }
+
+        void close()
+        {
+            reconnectLock.lock();
+            try
+            {
+                closed = true;
+                ReconnectScheduler.of(address).cancel(this);
+                Optional.ofNullable(caller).ifPresent(Caller::close);
+                caller = null;
+            }
+            finally
+            {
+                reconnectLock.unlock();
+            }
+        }
+
+        @Override
+        public void disconnected(Exception exception)
+        {
+            LOG.warning(() -> "domain: " + address + " disconnected -> " + exception);
+            reconnectLock.lock();
+            try
+            {
+                caller = null;
+                reconnect();
+            }
+            finally
+            {
+                reconnectLock.unlock();
+            }
+        }
+
+        @Override
+        public void setCaller(Caller caller)
+        {
+            reconnectLock.lock();
+            try
+            {
+                if(closed)
+                {
+                    caller.close();
+                    return;
+                }
+                LOG.info(() -> "domain: " + address + " reconnected");
+                this.caller = caller;
+            }
+            finally
+            {
+                reconnectLock.unlock();
+            }
+        }
+
+        // the pooled connection notifies every user, the scheduler ignores repeated requests
+        private void reconnect()
+        {
+            reconnectLock.lock();
+            try
+            {
+                if(closed)
+                {
+                    return;
+                }
+                ReconnectScheduler.of(address)
+                                  .reconnect(this, () -> callerProducer.createCaller(transactionManager, address.getHostName(), address.getPort(), this));
+            }
+            finally
+            {
+                reconnectLock.unlock();
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "DomainEntry{" +
+                    "address=" + address +
+                    ", connected=" + getCaller().isPresent() +
+                    ", inFlight=" + inFlight +
+                    ", latencyNanos=" + latencyNanos +
+                    '}';
+        }
+    }
+
+    public static final class Builder
+    {
+        private final Collection<Address> addresses = new LinkedHashSet<>();
+        private TransactionManager transactionManager;
+        private CallerProducer callerProducer = CallerProducerImpl.of();
+
+        private Builder()
+        {}
+
+        public Builder withAddress(Address address)
+        {
+            addresses.add(Objects.requireNonNull(address, "address can not be null"));
+            return this;
+        }
+
+        public Builder withAddresses(Collection<Address> addresses)
+        {
+            Objects.requireNonNull(addresses, "addresses can not be null");
+            addresses.forEach(this::withAddress);
+            return this;
+        }
+
+        public Builder withTransactionManager(TransactionManager transactionManager)
+        {
+            this.transactionManager = transactionManager;
+            return this;
+        }
+
+        public Builder withCallerProducer(CallerProducer callerProducer)
+        {
+            this.callerProducer = callerProducer;
+            return this;
+        }
+
+        /**
+         * Connects to every domain, a domain that can not be reached is retried in the background
+         */
+        public LoadBalancingCaller build()
+        {
+            Objects.requireNonNull(transactionManager, "transactionManager can not be null");
+            Objects.requireNonNull(callerProducer, "callerProducer can not be null");
+            if(addresses.isEmpty())
+            {
+                throw new IllegalArgumentException("at least one address is needed");
+            }
+            List<DomainEntry> domains = addresses.stream()
+                                                 .map(address -> DomainEntry.connect(address, transactionManager, callerProducer))
+                                                 .collect(Collectors.toList());
+            LOG.info(() -> "load balancing over: " + addresses);
+            return new LoadBalancingCaller(Collections.unmodifiableList(domains), transactionManager);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.CasualRuntimeException;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Concurrent bag of managed connections for one address
+ *
+ * Borrowing first tries the connection the thread used last, then scans the shared list, claiming by compare and set.
+ * If nothing is free and the pool is below max size a new connection is created, otherwise the thread waits on a
+ * hand-off queue for a returned connection, scanning the shared list again between polls - at most borrow timeout.
+ * Returning a connection never waits for a waiter to take it.
+ */
+final class ManagedConnectionBag
+{
+    private static final Logger LOG = Logger.getLogger(ManagedConnectionBag.class.getName());
+    // bounds the wait for a connection returned between a waiter's scan and its poll
+    private static final long RESCAN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final Address address;
+    private final List<PooledManagedConnection> connections = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<WeakReference<PooledManagedConnection>> lastUsed = new ThreadLocal<>();
+    private final SynchronousQueue<PooledManagedConnection> handoffQueue = new SynchronousQueue<>(true);
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong requites = new AtomicLong();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder totalBorrowWaitNanos = new LongAdder();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private volatile ManagedConnectionPoolConfiguration configuration;
+    private volatile Supplier<CasualManagedConnection> lastFactory;
+
+    private ManagedConnectionBag(Address address, ManagedConnectionPoolConfiguration configuration)
+    {
+        this.address = address;
+        this.configuration = configuration;
+    }
+
+    static ManagedConnectionBag of(Address address, ManagedConnectionPoolConfiguration configuration)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        return new ManagedConnectionBag(address, configuration);
+    }
+
+    CasualManagedConnection borrow(Supplier<CasualManagedConnection> factory)
+    {
+        long start = System.nanoTime();
+        lastFactory = factory;
+        PooledManagedConnection connection = tryClaim();
+        if(null == connection)
+        {
+            connection = tryCreate(factory);
+        }
+        if(null == connection)
+        {
+            connection = awaitReturned(factory, start);
+        }
+        recordBorrow(System.nanoTime() - start);
+        return connection;
+    }
+
+    void requite(PooledManagedConnection connection)
+    {
+        // the connection is already free in the shared list, offering it only spares a polling waiter the scan
+        // offer never blocks, a waiter that is not polling right now finds the connection when it scans again
+        if(waiters.get() > 0 && connection.isNotInUse())
+        {
+            requites.incrementAndGet();
+            if(handoffQueue.offer(connection))
+            {
+                return;
+            }
+        }
+        lastUsed.set(new WeakReference<>(connection));
+    }
+
+    /**
+     * Evicts connections idle for longer than the idle timeout, never going below min size,
+     * and then creates connections up to min size
+     */
+    void housekeep()
+    {
+        ManagedConnectionPoolConfiguration current = configuration;
+        long now = System.nanoTime();
+        long idleTimeoutNanos = current.getIdleTimeout().toNanos();
+        for(PooledManagedConnection connection : connections)
+        {
+            if(size.get() <= current.getMinSize())
+            {
+                break;
+            }
+            if(now - connection.getLastReturnedNanos() > idleTimeoutNanos && connection.reserveForRemoval())
+            {
+                remove(connection);
+                evicted.increment();
+            }
+        }
+        fillToMinSize(current.getMinSize());
+    }
+
+    /**
+     * Creates, in parallel on executor, managed connections until there are count of them, at most max size
+     * They are returned to the bag right away, ready to be borrowed
+     * @return the number of connections created
+     */
+    int prewarm(int count, Supplier<CasualManagedConnection> factory, Executor executor)
+    {
+        lastFactory = factory;
+        int missing = Math.min(count, configuration.getMaxSize()) - size.get();
+        List<CompletableFuture<Boolean>> creations = new ArrayList<>();
+        for(int i = 0; i < missing; ++i)
+        {
+            creations.add(CompletableFuture.supplyAsync(() -> {
+                PooledManagedConnection connection = tryCreate(factory);
+                if(null == connection)
+                {
+                    return false;
+                }
+                connection.close();
+                return true;
+            }, executor));
+        }
+        CompletableFuture.allOf(creations.toArray(new CompletableFuture<?>[0])).join();
+        return (int) creations.stream().filter(CompletableFuture::join).count();
+    }
+
+    void setConfiguration(ManagedConnectionPoolConfiguration configuration)
+    {
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        LOG.info(() -> "new configuration for managed connection pool: " + address + " " + configuration);
+        this.configuration = configuration;
+    }
+
+    ManagedConnectionPoolConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    ManagedConnectionPoolStatistics getStatistics()
+    {
+        int idle = (int) connections.stream().filter(PooledManagedConnection::isNotInUse).count();
+        return ManagedConnectionPoolStatistics.of(address, connections.size(), idle, waiters.get(), borrows.sum(), borrowTimeouts.sum(), created.sum(), evicted.sum(), totalBorrowWaitNanos.sum(), maxBorrowWaitNanos.get());
+    }
+
+    private PooledManagedConnection tryClaim()
+    {
+        WeakReference<PooledManagedConnection> reference = lastUsed.get();
+        if(null != reference)
+        {
+            PooledManagedConnection connection = reference.get();
+            if(null != connection && connection.claim())
+            {
+                return connection;
+            }
+        }
+        for(PooledManagedConnection connection : connections)
+        {
+            if(connection.claim())
+            {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private PooledManagedConnection tryCreate(Supplier<CasualManagedConnection> factory)
+    {
+        while(true)
+        {
+            int current = size.get();
+            if(current >= configuration.getMaxSize())
+            {
+                return null;
+            }
+            if(size.compareAndSet(current, current + 1))
+            {
+                break;
+            }
+        }
+        try
+        {
+            PooledManagedConnection connection = PooledManagedConnection.of(factory.get(), this);
+            connections.add(connection);
+            created.increment();
+            LOG.info(() -> "# of managed connections for address: " + address + " => " + size.get());
+            return connection;
+        }
+        catch(RuntimeException e)
+        {
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private PooledManagedConnection awaitReturned(Supplier<CasualManagedConnection> factory, long start)
+    {
+        Duration borrowTimeout = configuration.getBorrowTimeout();
+        long deadline = start + borrowTimeout.toNanos();
+        waiters.incrementAndGet();
+        try
+        {
+            while(true)
+            {
+                long requited = requites.get();
+                // anything returned or evicted before we started waiting, or since the last scan
+                PooledManagedConnection connection = tryClaim();
+                if(null == connection)
+                {
+                    connection = tryCreate(factory);
+                }
+                if(null != connection)
+                {
+                    return connection;
+                }
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                {
+                    break;
+                }
+                if(requites.get() != requited)
+                {
+                    continue;
+                }
+                connection = handoffQueue.poll(Math.min(remaining, RESCAN_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+                if(null != connection && connection.claim())
+                {
+                    return connection;
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CasualRuntimeException("interrupted while waiting for a managed connection, pool: " + address, e);
+        }
+        finally
+        {
+            waiters.decrementAndGet();
+        }
+        borrowTimeouts.increment();
+        throw new CasualRuntimeException("timed out after " + borrowTimeout + " waiting for a managed connection, pool: " + address + " max size: " + configuration.getMaxSize());
+    }
+
+    private void fillToMinSize(int minSize)
+    {
+        Supplier<CasualManagedConnection> factory = lastFactory;
+        if(null == factory)
+        {
+            return;
+        }
+        try
+        {
+            while(size.get() < minSize)
+            {
+                PooledManagedConnection connection = tryCreate(factory);
+                if(null == connection)
+                {
+                    return;
+                }
+                connection.close();
+            }
+        }
+        catch(RuntimeException e)
+        {
+            LOG.log(Level.WARNING, e, () -> "failed filling managed connection pool: " + address + " to min size: " + minSize);
+        }
+    }
+
+    private void remove(PooledManagedConnection connection)
+    {
+        connections.remove(connection);
+        size.decrementAndGet();
+        connection.destroy();
+        LOG.finest(() -> "removed: " + connection + " from managed connection pool: " + address);
+    }
+
+    private void recordBorrow(long waitNanos)
+    {
+        borrows.increment();
+        totalBorrowWaitNanos.add(waitNanos);
+        maxBorrowWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+}
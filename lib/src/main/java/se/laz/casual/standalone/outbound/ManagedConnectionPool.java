@@ -1,62 +1,168 @@
 package se.laz.casual.standalone.outbound;
 
 import se.laz.casual.api.CasualRuntimeException;
+import se.laz.casual.network.ProtocolVersion;
+import se.laz.casual.standalone.jmx.CasualMBeans;
+import se.laz.casual.standalone.outbound.network.pool.NetworkPoolHandler;
 
 import javax.transaction.TransactionManager;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 // Appserver kinda pool logic
 
 public class ManagedConnectionPool
 {
     private static final Logger LOG = Logger.getLogger(ManagedConnectionPool.class.getName());
-    private static final Map<Address, List<CasualManagedConnection>> POOL = new ConcurrentHashMap<>();
-    private static final int POOL_SIZE = 1000;
-    private static final Object connectionCreateLock = new Object();
+    private static final Map<Address, ManagedConnectionBag> POOL = new ConcurrentHashMap<>();
+    private static final Map<Address, ManagedConnectionPoolConfiguration> CONFIGURATIONS = new ConcurrentHashMap<>();
+    private static final Duration MAX_HOUSEKEEPING_INTERVAL = Duration.ofSeconds(30);
+    private static final int PREWARM_THREADS = 16;
+    private static final ScheduledExecutorService HOUSEKEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "casual-managed-connection-pool-housekeeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ManagedConnectionPool()
+    {}
 
     public static CasualManagedConnection getConnection(Address address, Supplier<TransactionManager> transactionManagerSupplier)
     {
-        Optional<CasualManagedConnection> pooledConnection = findPooledConnection(address);
-        //LOG.info(() -> "found?" + pooledConnection);
-        return pooledConnection.orElseGet(() -> createNewManagedConnection(address, transactionManagerSupplier));
+        return getConnection(address, transactionManagerSupplier, CallerProducerImpl.of());
     }
 
-    private static Optional<CasualManagedConnection> findPooledConnection(Address address)
+    /**
+     * Borrows a managed connection, closing it returns it to the pool
+     * If the pool is at max size this waits at most the configured borrow timeout for a connection to be returned
+     */
+    public static CasualManagedConnection getConnection(Address address, Supplier<TransactionManager> transactionManagerSupplier, CallerProducer callerProducer)
     {
-        List<CasualManagedConnection> connections = POOL.get(address);
-        if(null == connections)
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(transactionManagerSupplier, "transactionManagerSupplier can not be null");
+        Objects.requireNonNull(callerProducer, "callerProducer can not be null");
+        return getBag(address).borrow(() -> CasualManagedConnectionProducer.create(transactionManagerSupplier, address.getHostName(), address.getPort(), callerProducer));
+    }
+
+    public static ManagedConnectionPoolStatistics prewarm(Address address, int managedConnections, int networkConnections, Supplier<TransactionManager> transactionManagerSupplier)
+    {
+        return prewarm(address, managedConnections, networkConnections, transactionManagerSupplier, CallerProducerImpl.of());
+    }
+
+    /**
+     * Connects before the first request needs it, meant to be called before readiness is reported
+     * First opens networkConnections network connections, in parallel, raising the network pool size if needed.
+     * Then creates managedConnections managed connections, in parallel, which share those network connections.
+     * Both are capped by the configured maximum sizes.
+     * @return the statistics of the managed connection pool once warm
+     * @throws CasualRuntimeException if any of the connections could not be established, the ones that could are kept
+     */
+    public static ManagedConnectionPoolStatistics prewarm(Address address, int managedConnections, int networkConnections, Supplier<TransactionManager> transactionManagerSupplier, CallerProducer callerProducer)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(transactionManagerSupplier, "transactionManagerSupplier can not be null");
+        Objects.requireNonNull(callerProducer, "callerProducer can not be null");
+        if(managedConnections < 0 || networkConnections < 0)
+        {
+            throw new IllegalArgumentException("connection counts can not be negative, managedConnections: " + managedConnections + " networkConnections: " + networkConnections);
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(PREWARM_THREADS, Math.max(managedConnections, networkConnections))), runnable -> {
+            Thread thread = new Thread(runnable, "casual-managed-connection-pool-prewarm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
         {
-            return Optional.empty();
+            int networkOpened = networkConnections > 0 ? NetworkPoolHandler.getInstance().prewarm(address, ProtocolVersion.VERSION_1_0, networkConnections, executor) : 0;
+            ManagedConnectionBag bag = getBag(address);
+            int managedCreated = bag.prewarm(managedConnections, () -> CasualManagedConnectionProducer.create(transactionManagerSupplier, address.getHostName(), address.getPort(), callerProducer), executor);
+            LOG.info(() -> "prewarmed: " + address + " network connections opened: " + networkOpened + " managed connections created: " + managedCreated + " in: " + Duration.ofNanos(System.nanoTime() - start));
+            return bag.getStatistics();
         }
-        return connections.stream()
-                          .map( connection -> (CasualManagedConnectionImpl) connection)
-                          .filter(connection -> connection.isClosed())
-                          .map(connection -> {
-                              connection.connect();
-                              return (CasualManagedConnection) connection;
-                          })
-                          .findFirst();
+        catch(CompletionException e)
+        {
+            throw new CasualRuntimeException("prewarm failed for: " + address, e.getCause());
+        }
+        catch(RuntimeException e)
+        {
+            throw new CasualRuntimeException("prewarm failed for: " + address, e);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Configuration for the pool of the address, applies immediately if the pool already exists
+     * Addresses without configuration use {@link ManagedConnectionPoolConfiguration#fromEnvironment()}
+     */
+    public static void configure(Address address, ManagedConnectionPoolConfiguration configuration)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        CONFIGURATIONS.put(address, configuration);
+        Optional.ofNullable(POOL.get(address)).ifPresent(bag -> bag.setConfiguration(configuration));
+    }
+
+    public static ManagedConnectionPoolConfiguration getConfiguration(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return CONFIGURATIONS.computeIfAbsent(address, key -> ManagedConnectionPoolConfiguration.fromEnvironment());
+    }
+
+    public static Optional<ManagedConnectionPoolStatistics> getStatistics(Address address)
+    {
+        return Optional.ofNullable(POOL.get(address)).map(ManagedConnectionBag::getStatistics);
+    }
+
+    public static List<ManagedConnectionPoolStatistics> getStatistics()
+    {
+        return POOL.values().stream()
+                   .map(ManagedConnectionBag::getStatistics)
+                   .collect(Collectors.toList());
+    }
+
+    private static ManagedConnectionBag getBag(Address address)
+    {
+        return POOL.computeIfAbsent(address, ManagedConnectionPool::createBag);
+    }
+
+    private static ManagedConnectionBag createBag(Address address)
+    {
+        ManagedConnectionPoolConfiguration configuration = CONFIGURATIONS.computeIfAbsent(address, key -> ManagedConnectionPoolConfiguration.fromEnvironment());
+        ManagedConnectionBag bag = ManagedConnectionBag.of(address, configuration);
+        long interval = Math.min(configuration.getIdleTimeout().toMillis(), MAX_HOUSEKEEPING_INTERVAL.toMillis());
+        HOUSEKEEPER.scheduleWithFixedDelay(() -> housekeep(bag), interval, interval, TimeUnit.MILLISECONDS);
+        CasualMBeans.registerManagedConnectionPool(address);
+        LOG.info(() -> "new managed connection pool for address: " + address + " " + configuration);
+        return bag;
     }
 
-    private static CasualManagedConnection createNewManagedConnection(Address address, Supplier<TransactionManager> transactionManagerSupplier)
+    private static void housekeep(ManagedConnectionBag bag)
     {
-        List<CasualManagedConnection> pooledConnections = POOL.computeIfAbsent(address, key -> new ArrayList<>());
-        if(pooledConnections.size() == POOL_SIZE)
+        try
         {
-            throw new CasualRuntimeException("Already at max pool size: " + POOL_SIZE + " for pool: " + address);
+            bag.housekeep();
         }
-        synchronized (connectionCreateLock)
+        catch(Exception e)
         {
-            CasualManagedConnection managedConnection = CasualManagedConnectionProducer.create(transactionManagerSupplier, address.getHostName(), address.getPort());
-            pooledConnections.add(managedConnection);
-            LOG.info(() -> "# of managed connections for address: " + address + " => " + pooledConnections.size());
-            return managedConnection;
+            // never let an exception cancel the scheduled housekeeping
+            LOG.log(Level.WARNING, e, () -> "managed connection pool housekeeping failed");
         }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+public final class ManagedConnectionPoolConfiguration
+{
+    public static final String MIN_SIZE_ENV = "CASUAL_MANAGED_POOL_MIN_SIZE";
+    public static final String MAX_SIZE_ENV = "CASUAL_MANAGED_POOL_MAX_SIZE";
+    public static final String IDLE_TIMEOUT_ENV = "CASUAL_MANAGED_POOL_IDLE_TIMEOUT_MILLIS";
+    public static final String BORROW_TIMEOUT_ENV = "CASUAL_MANAGED_POOL_BORROW_TIMEOUT_MILLIS";
+    private static final int DEFAULT_MIN_SIZE = 0;
+    private static final int DEFAULT_MAX_SIZE = 1000;
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+    private static final Duration DEFAULT_BORROW_TIMEOUT = Duration.ofSeconds(30);
+    private final int minSize;
+    private final int maxSize;
+    private final Duration idleTimeout;
+    private final Duration borrowTimeout;
+
+    private ManagedConnectionPoolConfiguration(int minSize, int maxSize, Duration idleTimeout, Duration borrowTimeout)
+    {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Defaults, overridden by any of the CASUAL_MANAGED_POOL_* environment variables
+     */
+    public static ManagedConnectionPoolConfiguration fromEnvironment()
+    {
+        return createBuilder()
+                .withMinSize(getEnv(MIN_SIZE_ENV).map(Integer::parseInt).orElse(DEFAULT_MIN_SIZE))
+                .withMaxSize(getEnv(MAX_SIZE_ENV).map(Integer::parseInt).orElse(DEFAULT_MAX_SIZE))
+                .withIdleTimeout(getEnv(IDLE_TIMEOUT_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_IDLE_TIMEOUT))
+                .withBorrowTimeout(getEnv(BORROW_TIMEOUT_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_BORROW_TIMEOUT))
+                .build();
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    public int getMinSize()
+    {
+        return minSize;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public Duration getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public Duration getBorrowTimeout()
+    {
+        return borrowTimeout;
+    }
+
+    private static Optional<String> getEnv(String name)
+    {
+        return Optional.ofNullable(System.getenv(name));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ManagedConnectionPoolConfiguration{" +
+                "minSize=" + minSize +
+                ", maxSize=" + maxSize +
+                ", idleTimeout=" + idleTimeout +
+                ", borrowTimeout=" + borrowTimeout +
+                '}';
+    }
+
+    public static final class Builder
+    {
+        private int minSize = DEFAULT_MIN_SIZE;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        private Duration borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+
+        private Builder()
+        {}
+
+        public Builder withMinSize(int minSize)
+        {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public Builder withMaxSize(int maxSize)
+        {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder withIdleTimeout(Duration idleTimeout)
+        {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder withBorrowTimeout(Duration borrowTimeout)
+        {
+            this.borrowTimeout = borrowTimeout;
+            return this;
+        }
+
+        public ManagedConnectionPoolConfiguration build()
+        {
+            Objects.requireNonNull(idleTimeout, "idleTimeout can not be null");
+            Objects.requireNonNull(borrowTimeout, "borrowTimeout can not be null");
+            if(minSize < 0 || maxSize <= 0 || minSize > maxSize)
+            {
+                throw new IllegalArgumentException("invalid pool sizes, min: " + minSize + " max: " + maxSize);
+            }
+            if(idleTimeout.isNegative() || idleTimeout.isZero() || borrowTimeout.isNegative())
+            {
+                throw new IllegalArgumentException("invalid timeouts, idle: " + idleTimeout + " borrow: " + borrowTimeout);
+            }
+            return new ManagedConnectionPoolConfiguration(minSize, maxSize, idleTimeout, borrowTimeout);
+        }
+    }
+}
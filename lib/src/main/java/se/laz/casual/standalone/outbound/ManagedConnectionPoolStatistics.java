@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+/**
+ * Point in time snapshot of a managed connection pool for one address
+ */
+public final class ManagedConnectionPoolStatistics
+{
+    private final Address address;
+    private final int size;
+    private final int idle;
+    private final int waiters;
+    private final long borrows;
+    private final long borrowTimeouts;
+    private final long created;
+    private final long evicted;
+    private final long totalBorrowWaitNanos;
+    private final long maxBorrowWaitNanos;
+
+    private ManagedConnectionPoolStatistics(Address address, int size, int idle, int waiters, long borrows, long borrowTimeouts, long created, long evicted, long totalBorrowWaitNanos, long maxBorrowWaitNanos)
+    {
+        this.address = address;
+        this.size = size;
+        this.idle = idle;
+        this.waiters = waiters;
+        this.borrows = borrows;
+        this.borrowTimeouts = borrowTimeouts;
+        this.created = created;
+        this.evicted = evicted;
+        this.totalBorrowWaitNanos = totalBorrowWaitNanos;
+        this.maxBorrowWaitNanos = maxBorrowWaitNanos;
+    }
+
+    static ManagedConnectionPoolStatistics of(Address address, int size, int idle, int waiters, long borrows, long borrowTimeouts, long created, long evicted, long totalBorrowWaitNanos, long maxBorrowWaitNanos)
+    {
+        return new ManagedConnectionPoolStatistics(address, size, idle, waiters, borrows, borrowTimeouts, created, evicted, totalBorrowWaitNanos, maxBorrowWaitNanos);
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public int getIdle()
+    {
+        return idle;
+    }
+
+    public int getBorrowed()
+    {
+        return size - idle;
+    }
+
+    public int getWaiters()
+    {
+        return waiters;
+    }
+
+    public long getBorrows()
+    {
+        return borrows;
+    }
+
+    public long getBorrowTimeouts()
+    {
+        return borrowTimeouts;
+    }
+
+    public long getCreated()
+    {
+        return created;
+    }
+
+    public long getEvicted()
+    {
+        return evicted;
+    }
+
+    public long getTotalBorrowWaitNanos()
+    {
+        return totalBorrowWaitNanos;
+    }
+
+    public long getMaxBorrowWaitNanos()
+    {
+        return maxBorrowWaitNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ManagedConnectionPoolStatistics{" +
+                "address=" + address +
+                ", size=" + size +
+                ", idle=" + idle +
+                ", waiters=" + waiters +
+                ", borrows=" + borrows +
+                ", borrowTimeouts=" + borrowTimeouts +
+                ", created=" + created +
+                ", evicted=" + evicted +
+                ", totalBorrowWaitNanos=" + totalBorrowWaitNanos +
+                ", maxBorrowWaitNanos=" + maxBorrowWaitNanos +
+                '}';
+    }
+}
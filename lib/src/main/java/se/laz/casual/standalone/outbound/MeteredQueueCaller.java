@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.standalone.metrics.CallMetrics;
+import se.laz.casual.standalone.metrics.Operation;
+import se.laz.casual.standalone.metrics.Outcome;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Records the latency, outcome and message sizes of every enqueue and dequeue in the {@link CallMetrics} of the domain
+ */
+final class MeteredQueueCaller implements QueueCaller
+{
+    private final QueueCaller queueCaller;
+    private final CallMetrics callMetrics;
+
+    private MeteredQueueCaller(QueueCaller queueCaller, CallMetrics callMetrics)
+    {
+        this.queueCaller = queueCaller;
+        this.callMetrics = callMetrics;
+    }
+
+    static QueueCaller of(QueueCaller queueCaller, CallMetrics callMetrics)
+    {
+        Objects.requireNonNull(queueCaller, "queueCaller can not be null");
+        Objects.requireNonNull(callMetrics, "callMetrics can not be null");
+        return new MeteredQueueCaller(queueCaller, callMetrics);
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueue(qinfo, msg, null);
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        if(!CallMetrics.isEnabled())
+        {
+            return queueCaller.enqueue(qinfo, msg, timeout);
+        }
+        long start = System.nanoTime();
+        long requestBytes = CallMetrics.sizeOf(msg.getPayload());
+        EnqueueReturn reply = metered(Operation.ENQUEUE, qinfo, start, requestBytes, () -> queueCaller.enqueue(qinfo, msg, timeout));
+        callMetrics.record(Operation.ENQUEUE, qinfo.getQueueName(), Outcome.of(reply.getErrorState()), System.nanoTime() - start, requestBytes, 0);
+        return reply;
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeue(qinfo, selector, null);
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        if(!CallMetrics.isEnabled())
+        {
+            return queueCaller.dequeue(qinfo, selector, timeout);
+        }
+        long start = System.nanoTime();
+        DequeueReturn reply = metered(Operation.DEQUEUE, qinfo, start, 0, () -> queueCaller.dequeue(qinfo, selector, timeout));
+        recordDequeue(qinfo, start, reply);
+        return reply;
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueueAsync(qinfo, msg, null);
+    }
+
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        if(!CallMetrics.isEnabled())
+        {
+            return queueCaller.enqueueAsync(qinfo, msg, timeout);
+        }
+        long start = System.nanoTime();
+        long requestBytes = CallMetrics.sizeOf(msg.getPayload());
+        CompletableFuture<EnqueueReturn> reply = metered(Operation.ENQUEUE, qinfo, start, requestBytes, () -> queueCaller.enqueueAsync(qinfo, msg, timeout));
+        reply.whenComplete((value, throwable) -> {
+            if(null == throwable)
+            {
+                callMetrics.record(Operation.ENQUEUE, qinfo.getQueueName(), Outcome.of(value.getErrorState()), System.nanoTime() - start, requestBytes, 0);
+            }
+            else if(!MeteredServiceCaller.isCancelled(throwable))
+            {
+                callMetrics.record(Operation.ENQUEUE, qinfo.getQueueName(), Outcome.of(throwable), System.nanoTime() - start, requestBytes, 0);
+            }
+        });
+        return reply;
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeueAsync(qinfo, selector, null);
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        if(!CallMetrics.isEnabled())
+        {
+            return queueCaller.dequeueAsync(qinfo, selector, timeout);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<DequeueReturn> reply = metered(Operation.DEQUEUE, qinfo, start, 0, () -> queueCaller.dequeueAsync(qinfo, selector, timeout));
+        reply.whenComplete((value, throwable) -> {
+            if(null == throwable)
+            {
+                recordDequeue(qinfo, start, value);
+            }
+            else if(!MeteredServiceCaller.isCancelled(throwable))
+            {
+                callMetrics.record(Operation.DEQUEUE, qinfo.getQueueName(), Outcome.of(throwable), System.nanoTime() - start, 0, 0);
+            }
+        });
+        return reply;
+    }
+
+    @Override
+    public boolean queueExists(QueueInfo qinfo)
+    {
+        return queueCaller.queueExists(qinfo);
+    }
+
+    // a call that throws instead of replying is recorded as a connection error, or as rejected by an open circuit
+    private <T> T metered(Operation operation, QueueInfo qinfo, long start, long requestBytes, Supplier<T> call)
+    {
+        try
+        {
+            return call.get();
+        }
+        catch(RuntimeException e)
+        {
+            callMetrics.record(operation, qinfo.getQueueName(), Outcome.of(e), System.nanoTime() - start, requestBytes, 0);
+            throw e;
+        }
+    }
+
+    private void recordDequeue(QueueInfo qinfo, long start, DequeueReturn reply)
+    {
+        long replyBytes = reply.getQueueMessage().map(message -> CallMetrics.sizeOf(message.getPayload())).orElse(0L);
+        callMetrics.record(Operation.DEQUEUE, qinfo.getQueueName(), Outcome.of(reply.getErrorState()), System.nanoTime() - start, 0, replyBytes);
+    }
+}
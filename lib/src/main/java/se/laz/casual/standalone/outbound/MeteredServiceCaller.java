@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.standalone.metrics.CallMetrics;
+import se.laz.casual.standalone.metrics.Operation;
+import se.laz.casual.standalone.metrics.Outcome;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Records the latency, outcome and payload sizes of every service call in the {@link CallMetrics} of the domain
+ * Outermost of the service callers, so what is recorded is what the caller saw, cached replies included
+ */
+final class MeteredServiceCaller implements ServiceCaller
+{
+    private final ServiceCaller serviceCaller;
+    private final CallMetrics callMetrics;
+
+    private MeteredServiceCaller(ServiceCaller serviceCaller, CallMetrics callMetrics)
+    {
+        this.serviceCaller = serviceCaller;
+        this.callMetrics = callMetrics;
+    }
+
+    static ServiceCaller of(ServiceCaller serviceCaller, CallMetrics callMetrics)
+    {
+        Objects.requireNonNull(serviceCaller, "serviceCaller can not be null");
+        Objects.requireNonNull(callMetrics, "callMetrics can not be null");
+        return new MeteredServiceCaller(serviceCaller, callMetrics);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpcall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!CallMetrics.isEnabled())
+        {
+            return serviceCaller.tpcall(serviceName, data, flags, timeout);
+        }
+        long start = System.nanoTime();
+        try
+        {
+            ServiceReturn<CasualBuffer> reply = serviceCaller.tpcall(serviceName, data, flags, timeout);
+            record(Operation.TPCALL, serviceName, start, CallMetrics.sizeOf(data), reply);
+            return reply;
+        }
+        catch(RuntimeException e)
+        {
+            callMetrics.record(Operation.TPCALL, serviceName, Outcome.of(e), System.nanoTime() - start, CallMetrics.sizeOf(data), 0);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpacall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
+    {
+        if(!CallMetrics.isEnabled())
+        {
+            return serviceCaller.tpacall(serviceName, data, flags, timeout);
+        }
+        long start = System.nanoTime();
+        // sized now, the caller is free to reuse its buffer once the call returns
+        long requestBytes = CallMetrics.sizeOf(data);
+        CompletableFuture<ServiceReturn<CasualBuffer>> reply;
+        try
+        {
+            reply = serviceCaller.tpacall(serviceName, data, flags, timeout);
+        }
+        catch(RuntimeException e)
+        {
+            callMetrics.record(Operation.TPACALL, serviceName, Outcome.of(e), System.nanoTime() - start, requestBytes, 0);
+            throw e;
+        }
+        reply.whenComplete((value, throwable) -> {
+            if(null == throwable)
+            {
+                record(Operation.TPACALL, serviceName, start, requestBytes, value);
+            }
+            else if(!isCancelled(throwable))
+            {
+                callMetrics.record(Operation.TPACALL, serviceName, Outcome.of(throwable), System.nanoTime() - start, requestBytes, 0);
+            }
+        });
+        return reply;
+    }
+
+    @Override
+    public boolean serviceExists(String serviceName)
+    {
+        return serviceCaller.serviceExists(serviceName);
+    }
+
+    @Override
+    public List<ServiceDetails> serviceDetails(String serviceName)
+    {
+        return serviceCaller.serviceDetails(serviceName);
+    }
+
+    private void record(Operation operation, String serviceName, long start, long requestBytes, ServiceReturn<CasualBuffer> reply)
+    {
+        Outcome outcome = Outcome.of(reply.getServiceReturnState(), reply.getErrorState());
+        callMetrics.record(operation, serviceName, outcome, System.nanoTime() - start, requestBytes, CallMetrics.sizeOf(reply.getReplyBuffer()));
+    }
+
+    // the caller gave up on the reply, there is no latency to record
+    static boolean isCancelled(Throwable throwable)
+    {
+        Throwable cause = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+        return cause instanceof CancellationException;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What {@link ManagedConnectionPool} hands out, closing it returns it to the pool
+ * Ownership is decided by compare and set on the state so a connection can never be borrowed twice
+ */
+final class PooledManagedConnection implements CasualManagedConnection
+{
+    static final int STATE_REMOVED = -1;
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+    private final CasualManagedConnection managedConnection;
+    private final ManagedConnectionBag bag;
+    private volatile long lastReturnedNanos = System.nanoTime();
+
+    private PooledManagedConnection(CasualManagedConnection managedConnection, ManagedConnectionBag bag)
+    {
+        this.managedConnection = managedConnection;
+        this.bag = bag;
+    }
+
+    static PooledManagedConnection of(CasualManagedConnection managedConnection, ManagedConnectionBag bag)
+    {
+        return new PooledManagedConnection(managedConnection, bag);
+    }
+
+    @Override
+    public Optional<Caller> getCaller()
+    {
+        return managedConnection.getCaller();
+    }
+
+    @Override
+    public void close()
+    {
+        if(release())
+        {
+            bag.requite(this);
+        }
+    }
+
+    boolean claim()
+    {
+        return state.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE);
+    }
+
+    boolean reserveForRemoval()
+    {
+        return state.compareAndSet(STATE_NOT_IN_USE, STATE_REMOVED);
+    }
+
+    boolean isNotInUse()
+    {
+        return state.get() == STATE_NOT_IN_USE;
+    }
+
+    long getLastReturnedNanos()
+    {
+        return lastReturnedNanos;
+    }
+
+    void destroy()
+    {
+        // closed first, also stops any reconnect, so that closing the caller is not taken for a lost connection
+        managedConnection.close();
+        getCaller().ifPresent(Caller::close);
+    }
+
+    private boolean release()
+    {
+        lastReturnedNanos = System.nanoTime();
+        return state.compareAndSet(STATE_IN_USE, STATE_NOT_IN_USE);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PooledManagedConnection{" +
+                "state=" + state +
+                ", managedConnection=" + managedConnection +
+                '}';
+    }
+}
@@ -6,6 +6,28 @@
 package se.laz.casual.standalone.outbound;
 
 import se.laz.casual.api.CasualQueueApi;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public interface QueueCaller extends CasualQueueApi
-{}
+{
+    CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg);
+    CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector);
+    /**
+     * enqueue that replies TPETIME unless the reply arrives within timeout, null for the default timeout
+     */
+    EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout);
+    /**
+     * dequeue that replies TPETIME unless the reply arrives within timeout, null for no deadline
+     * @see Caller#dequeue(QueueInfo, MessageSelector, Duration)
+     */
+    DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout);
+    CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout);
+    CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout);
+}
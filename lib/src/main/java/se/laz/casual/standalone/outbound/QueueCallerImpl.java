@@ -7,6 +7,7 @@ package se.laz.casual.standalone.outbound;
 
 import se.laz.casual.api.flags.ErrorState;
 import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
 import se.laz.casual.api.queue.DequeueReturn;
 import se.laz.casual.api.queue.EnqueueReturn;
 import se.laz.casual.api.queue.MessageSelector;
@@ -25,11 +26,16 @@ import se.laz.casual.network.protocol.messages.queue.CasualEnqueueReplyMessage;
 import se.laz.casual.network.protocol.messages.queue.CasualEnqueueRequestMessage;
 import se.laz.casual.network.protocol.messages.queue.EnqueueMessage;
 
+import javax.transaction.xa.Xid;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class QueueCallerImpl implements QueueCaller
@@ -50,36 +56,90 @@ public class QueueCallerImpl implements QueueCaller
 
     @Override
     public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueue(qinfo, msg, null);
+    }
+
+    @Override
+    public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg, Duration timeout)
     {
         try
         {
-            // Always setting error state OK for now. In the future when error state is handled in the casual queue
-            // protocol any error state supplied from casual should be used (same with dequeue)
-            return EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(makeEnqueueCall(UUID.randomUUID(), qinfo, msg)).build();
+            return enqueueAsync(qinfo, msg, timeout).join();
         }
-        catch(Exception e)
+        catch(CompletionException e)
         {
-            throw new CasualConnectionException(e);
+            throw toCasualConnectionException(e);
         }
     }
 
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg)
+    {
+        return enqueueAsync(qinfo, msg, null);
+    }
 
+    @Override
+    public CompletableFuture<EnqueueReturn> enqueueAsync(QueueInfo qinfo, QueueMessage msg, Duration timeout)
+    {
+        // Always setting error state OK for now. In the future when error state is handled in the casual queue
+        // protocol any error state supplied from casual should be used (same with dequeue)
+        Optional<Duration> deadline = Deadlines.resolve(timeout, connection.getRemainingTransactionTime());
+        if(Deadlines.isExhausted(deadline))
+        {
+            return CompletableFuture.completedFuture(EnqueueReturn.createBuilder().withErrorState(ErrorState.TPETIME).build());
+        }
+        return mapFailure(() -> makeEnqueueCall(UUID.randomUUID(), qinfo, msg, deadline)
+                .thenApply(id -> EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(id).build()),
+                () -> EnqueueReturn.createBuilder().withErrorState(ErrorState.TPETIME).build());
+    }
 
     @Override
     public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeue(qinfo, selector, null);
+    }
+
+    @Override
+    public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector, Duration timeout)
     {
         try
         {
-            // Always setting error state OK for now. In the future when error state is handled in the casual queue
-            // protocol any error state supplied from casual should be used (same with enqueue)
-            return DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(makeDequeueCall(UUID.randomUUID(), qinfo, selector)).build();
+            return dequeueAsync(qinfo, selector, timeout).join();
         }
-        catch(Exception e)
+        catch(CompletionException e)
         {
-            throw new CasualConnectionException(e);
+            throw toCasualConnectionException(e);
         }
     }
 
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector)
+    {
+        return dequeueAsync(qinfo, selector, null);
+    }
+
+    @Override
+    public CompletableFuture<DequeueReturn> dequeueAsync(QueueInfo qinfo, MessageSelector selector, Duration timeout)
+    {
+        // Always setting error state OK for now. In the future when error state is handled in the casual queue
+        // protocol any error state supplied from casual should be used (same with enqueue)
+        // the request carries no timeout to the domain, so only a deadline the caller asked for is enforced
+        Optional<Duration> deadline = null == timeout ? Optional.empty() : Deadlines.resolve(timeout, connection.getRemainingTransactionTime());
+        if(Deadlines.isExhausted(deadline))
+        {
+            return CompletableFuture.completedFuture(DequeueReturn.createBuilder().withErrorState(ErrorState.TPETIME).build());
+        }
+        Xid xid = connection.getCurrentXid();
+        return mapFailure(() -> makeDequeueCall(UUID.randomUUID(), xid, qinfo, selector, deadline)
+                .thenApply(message -> DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(message).build()),
+                () -> {
+                    // the domain may still remove a message for the abandoned request, the branch must not commit it
+                    connection.setRollbackOnly(xid);
+                    return DequeueReturn.createBuilder().withErrorState(ErrorState.TPETIME).build();
+                });
+    }
+
     @Override
     public boolean queueExists(QueueInfo qinfo)
     {
@@ -93,7 +153,41 @@ public class QueueCallerImpl implements QueueCaller
         }
     }
 
-    private UUID makeEnqueueCall(UUID corrid, QueueInfo qinfo, QueueMessage msg)
+    // failures, also when sending, complete the future with CasualConnectionException as the blocking calls throw
+    // an expired deadline is not a failure, it is a TPETIME reply
+    private static <T> CompletableFuture<T> mapFailure(Supplier<CompletableFuture<T>> call, Supplier<T> whenExpired)
+    {
+        CompletableFuture<T> mapped = new CompletableFuture<>();
+        try
+        {
+            call.get().whenComplete((value, throwable) -> {
+                if(null != throwable && Deadlines.isExpired(throwable))
+                {
+                    mapped.complete(whenExpired.get());
+                    return;
+                }
+                if(null != throwable)
+                {
+                    mapped.completeExceptionally(toCasualConnectionException(throwable));
+                    return;
+                }
+                mapped.complete(value);
+            });
+        }
+        catch(Exception e)
+        {
+            mapped.completeExceptionally(toCasualConnectionException(e));
+        }
+        return mapped;
+    }
+
+    private static CasualConnectionException toCasualConnectionException(Throwable t)
+    {
+        Throwable cause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+        return cause instanceof CasualConnectionException ? (CasualConnectionException) cause : new CasualConnectionException(cause);
+    }
+
+    private CompletableFuture<UUID> makeEnqueueCall(UUID corrid, QueueInfo qinfo, QueueMessage msg, Optional<Duration> deadline)
     {
         CasualEnqueueRequestMessage requestMessage = CasualEnqueueRequestMessage.createBuilder()
                                                                                 .withExecution(UUID.randomUUID())
@@ -102,33 +196,36 @@ public class QueueCallerImpl implements QueueCaller
                                                                                 .withMessage(EnqueueMessage.of(msg))
                                                                                 .build();
         CasualNWMessage<CasualEnqueueRequestMessage> networkRequestMessage = CasualNWMessageImpl.of(corrid, requestMessage);
-        CompletableFuture<CasualNWMessage<CasualEnqueueReplyMessage>> networkReplyMessageFuture = connection.getNetworkConnection().request(networkRequestMessage);
-
-        CasualNWMessage<CasualEnqueueReplyMessage> networkReplyMessage = networkReplyMessageFuture.join();
-        CasualEnqueueReplyMessage replyMessage = networkReplyMessage.getMessage();
-        return replyMessage.getId();
+        CompletableFuture<CasualNWMessage<CasualEnqueueReplyMessage>> networkReplyMessageFuture = request(networkRequestMessage, deadline);
+        return networkReplyMessageFuture.thenApply(networkReplyMessage -> networkReplyMessage.getMessage().getId());
     }
 
-    private QueueMessage makeDequeueCall(UUID corrid, QueueInfo qinfo, MessageSelector selector)
+    private CompletableFuture<QueueMessage> makeDequeueCall(UUID corrid, Xid xid, QueueInfo qinfo, MessageSelector selector, Optional<Duration> deadline)
     {
         CasualDequeueRequestMessage requestMessage = CasualDequeueRequestMessage.createBuilder()
                                                                                 .withExecution(UUID.randomUUID())
-                                                                                .withXid(connection.getCurrentXid())
+                                                                                .withXid(xid)
                                                                                 .withQueueName(qinfo.getQueueName())
                                                                                 .withSelectorProperties(selector.getSelector())
                                                                                 .withSelectorUUID(selector.getSelectorId())
                                                                                 .withBlock(qinfo.getOptions().isBlocking())
                                                                                 .build();
         CasualNWMessage<CasualDequeueRequestMessage> networkRequestMessage = CasualNWMessageImpl.of(corrid, requestMessage);
-        CompletableFuture<CasualNWMessage<CasualDequeueReplyMessage>> networkReplyMessageFuture = connection.getNetworkConnection().request(networkRequestMessage);
+        CompletableFuture<CasualNWMessage<CasualDequeueReplyMessage>> networkReplyMessageFuture = request(networkRequestMessage, deadline);
+        return networkReplyMessageFuture.thenApply(networkReplyMessage -> toQueueMessage(networkReplyMessage.getMessage()));
+    }
 
-        CasualNWMessage<CasualDequeueReplyMessage> networkReplyMessage = networkReplyMessageFuture.join();
-        CasualDequeueReplyMessage replyMessage = networkReplyMessage.getMessage();
-        LOG.info(() -> "replyMessages?" + !replyMessage.getMessages().isEmpty());
-        if(!replyMessage.getMessages().isEmpty())
+    private <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> message, Optional<Duration> deadline)
+    {
+        if(deadline.isPresent())
         {
-            LOG.info(() -> "payload: " + new String(replyMessage.getMessages().get(0).getPayload().getPayload().get(0)));
+            return connection.<T, X>request(message, deadline.get());
         }
+        return connection.getNetworkConnection().<T, X>request(message);
+    }
+
+    private static QueueMessage toQueueMessage(CasualDequeueReplyMessage replyMessage)
+    {
         List<QueueMessage> messages = Transformer.transform(replyMessage.getMessages());
         return messages.isEmpty() ? null : messages.get(0);
     }
@@ -143,7 +240,8 @@ public class QueueCallerImpl implements QueueCaller
                                                                                             .setQueueNames(Arrays.asList(queueName))
                                                                                             .build();
         CasualNWMessage<CasualDomainDiscoveryRequestMessage> msg = CasualNWMessageImpl.of(corrid, requestMsg);
-        CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>> replyMsgFuture = connection.getNetworkConnection().request(msg);
+        // discovery also runs on the refresher of the discovery cache, it must not wait forever for a lost reply
+        CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>> replyMsgFuture = Deadlines.expireAfter(connection.getNetworkConnection().request(msg), DomainDiscovery.DEFAULT_TIMEOUT);
 
         CasualNWMessage<CasualDomainDiscoveryReplyMessage> replyMsg = replyMsgFuture.join();
         return replyMsg.getMessage().getQueues().stream()
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.standalone.VirtualThreads;
+
+import javax.transaction.TransactionManager;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the messages of a queue, each subscriber is an independent, competing, consumer
+ *
+ * Without a transaction manager messages are dequeued ahead of demand, at most prefetch messages
+ * and at most maxPrefetchBytes of payload are held per subscriber (the byte budget is soft,
+ * requests already in flight when it is reached are still buffered). A dequeued message is removed
+ * from the queue, prefetched messages are lost if the subscriber cancels or the process dies.
+ * A subscriber that throws from onNext is considered to have cancelled, reactive streams rule 2.13,
+ * the message it threw on and the prefetched ones are lost.
+ *
+ * With a transaction manager every message is dequeued in its own transaction when there is demand
+ * and onNext is called within that transaction. Returning normally from onNext commits, throwing
+ * rolls back so that the message goes back to the queue. Nothing is prefetched in this mode and the
+ * executor thread blocks for the round trip, use an executor sized for the number of subscribers.
+ *
+ * An empty queue is polled again after the poll interval.
+ */
+public final class QueueConsumer implements Flow.Publisher<QueueMessage>
+{
+    private static final Logger LOG = Logger.getLogger(QueueConsumer.class.getName());
+    private static final int DEFAULT_PREFETCH = 16;
+    private static final long DEFAULT_MAX_PREFETCH_BYTES = 16L * 1024 * 1024;
+    private static final Duration DEFAULT_POLL_INTERVAL = Duration.ofMillis(500);
+    // blocks for the round trip in transactional mode, virtual threads make that cheap when available
+    private static final ExecutorService DEFAULT_EXECUTOR = VirtualThreads.newThreadPerTaskExecutor("casual-queue-consumer");
+    private static final ScheduledExecutorService POLLER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "casual-queue-consumer-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Caller caller;
+    private final QueueInfo queueInfo;
+    private final MessageSelector selector;
+    private final int prefetch;
+    private final long maxPrefetchBytes;
+    private final Duration pollInterval;
+    private final TransactionManager transactionManager;
+    private final Executor executor;
+
+    private QueueConsumer(Builder builder)
+    {
+        this.caller = builder.caller;
+        this.queueInfo = builder.queueInfo;
+        this.selector = builder.selector;
+        this.prefetch = builder.prefetch;
+        this.maxPrefetchBytes = builder.maxPrefetchBytes;
+        this.pollInterval = builder.pollInterval;
+        this.transactionManager = builder.transactionManager;
+        this.executor = builder.executor;
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super QueueMessage> subscriber)
+    {
+        Objects.requireNonNull(subscriber, "subscriber can not be null");
+        QueueSubscription subscription = new QueueSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    public boolean isTransactional()
+    {
+        return null != transactionManager;
+    }
+
+    private static long sizeOf(QueueMessage message)
+    {
+        return null == message.getPayload() ? 0 : message.getPayload().getBytes().stream().mapToLong(bytes -> bytes.length).sum();
+    }
+
+    private final class QueueSubscription implements Flow.Subscription
+    {
+        private final Flow.Subscriber<? super QueueMessage> subscriber;
+        private final Queue<QueueMessage> prefetched = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicLong prefetchedBytes = new AtomicLong();
+        private final AtomicInteger pendingDequeues = new AtomicInteger();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile boolean idle = false;
+        private volatile Throwable failure;
+        // only touched by the draining thread
+        private boolean terminated = false;
+
+        private QueueSubscription(Flow.Subscriber<? super QueueMessage> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if(n <= 0)
+            {
+                fail(new IllegalArgumentException("request has to be positive, was: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            schedule();
+        }
+
+        private void fail(Throwable throwable)
+        {
+            if(null == failure)
+            {
+                failure = throwable;
+            }
+            schedule();
+        }
+
+        // signals to the subscriber are only made from drain, and drain never runs concurrently with itself
+        private void schedule()
+        {
+            if(wip.getAndIncrement() != 0)
+            {
+                return;
+            }
+            try
+            {
+                executor.execute(this::drain);
+            }
+            catch(RejectedExecutionException e)
+            {
+                LOG.log(Level.WARNING, e, () -> "queue consumer executor rejected drain for queue: " + queueInfo.getQueueName());
+                wip.set(0);
+            }
+        }
+
+        private void drain()
+        {
+            int missed = 1;
+            do
+            {
+                if(isTransactional())
+                {
+                    drainTransactional();
+                }
+                else
+                {
+                    drainPrefetched();
+                }
+                missed = wip.addAndGet(-missed);
+            } while(missed != 0);
+        }
+
+        private boolean terminateIfCancelled()
+        {
+            if(terminated)
+            {
+                return true;
+            }
+            if(cancelled)
+            {
+                terminated = true;
+                prefetched.clear();
+                prefetchedBytes.set(0);
+                return true;
+            }
+            return false;
+        }
+
+        private void drainPrefetched()
+        {
+            if(terminateIfCancelled())
+            {
+                return;
+            }
+            QueueMessage message;
+            while(demand.get() > 0 && null != (message = prefetched.poll()))
+            {
+                prefetchedBytes.addAndGet(-sizeOf(message));
+                demand.decrementAndGet();
+                deliver(message);
+                if(terminateIfCancelled())
+                {
+                    return;
+                }
+            }
+            if(null != failure)
+            {
+                terminate();
+                return;
+            }
+            fetchAhead();
+        }
+
+        private void fetchAhead()
+        {
+            while(!idle && !cancelled && null == failure &&
+                  prefetched.size() + pendingDequeues.get() < prefetch &&
+                  prefetchedBytes.get() < maxPrefetchBytes)
+            {
+                pendingDequeues.incrementAndGet();
+                caller.dequeueAsync(queueInfo, selector).whenComplete(this::onDequeued);
+            }
+        }
+
+        // called on the network thread, only buffers and reschedules the drain
+        private void onDequeued(DequeueReturn reply, Throwable throwable)
+        {
+            pendingDequeues.decrementAndGet();
+            if(null != throwable)
+            {
+                fail(throwable);
+                return;
+            }
+            if(reply.getErrorState() != ErrorState.OK)
+            {
+                fail(new QueueOperationFailedException("dequeue failed: " + reply.getErrorState() + " queue: " + queueInfo.getQueueName()));
+                return;
+            }
+            Optional<QueueMessage> message = reply.getQueueMessage();
+            if(message.isPresent())
+            {
+                prefetchedBytes.addAndGet(sizeOf(message.get()));
+                prefetched.add(message.get());
+            }
+            else
+            {
+                pollLater();
+            }
+            schedule();
+        }
+
+        private void pollLater()
+        {
+            if(idle)
+            {
+                return;
+            }
+            idle = true;
+            POLLER.schedule(() -> {
+                idle = false;
+                schedule();
+            }, pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        private void drainTransactional()
+        {
+            while(!terminateIfCancelled() && demand.get() > 0 && !idle)
+            {
+                if(null != failure)
+                {
+                    terminate();
+                    return;
+                }
+                consumeInTransaction();
+            }
+            if(null != failure && !terminated)
+            {
+                terminate();
+            }
+        }
+
+        private void consumeInTransaction()
+        {
+            try
+            {
+                transactionManager.begin();
+            }
+            catch(Exception e)
+            {
+                fail(e);
+                return;
+            }
+            boolean commit = false;
+            try
+            {
+                DequeueReturn reply = caller.dequeue(queueInfo, selector);
+                if(reply.getErrorState() != ErrorState.OK)
+                {
+                    throw new QueueOperationFailedException("dequeue failed: " + reply.getErrorState() + " queue: " + queueInfo.getQueueName());
+                }
+                Optional<QueueMessage> message = reply.getQueueMessage();
+                if(!message.isPresent())
+                {
+                    commit = true;
+                    pollLater();
+                    return;
+                }
+                demand.decrementAndGet();
+                commit = deliver(message.get());
+            }
+            catch(RuntimeException e)
+            {
+                fail(e);
+            }
+            finally
+            {
+                completeTransaction(commit);
+            }
+        }
+
+        private void completeTransaction(boolean commit)
+        {
+            try
+            {
+                if(commit)
+                {
+                    transactionManager.commit();
+                }
+                else
+                {
+                    transactionManager.rollback();
+                }
+            }
+            catch(Exception e)
+            {
+                // a message that was not committed is still on the queue and will be delivered again
+                LOG.log(Level.WARNING, e, () -> "failed completing transaction for queue: " + queueInfo.getQueueName() + " commit?" + commit);
+            }
+        }
+
+        /**
+         * @return false if the subscriber threw
+         */
+        private boolean deliver(QueueMessage message)
+        {
+            try
+            {
+                subscriber.onNext(message);
+                return true;
+            }
+            catch(RuntimeException e)
+            {
+                if(isTransactional())
+                {
+                    LOG.log(Level.WARNING, e, () -> "subscriber failed processing message from queue: " + queueInfo.getQueueName() + ", rolling back");
+                    return false;
+                }
+                // rule 2.13, the subscription is cancelled and the subscriber is not signalled again
+                LOG.log(Level.WARNING, e, () -> "subscriber failed processing message from queue: " + queueInfo.getQueueName() + ", cancelling the subscription, messages lost: " + (1 + prefetched.size()));
+                cancelled = true;
+                return false;
+            }
+        }
+
+        private void terminate()
+        {
+            terminated = true;
+            prefetched.clear();
+            prefetchedBytes.set(0);
+            subscriber.onError(failure);
+        }
+    }
+
+    public static final class Builder
+    {
+        private Caller caller;
+        private QueueInfo queueInfo;
+        private MessageSelector selector = MessageSelector.of();
+        private int prefetch = DEFAULT_PREFETCH;
+        private long maxPrefetchBytes = DEFAULT_MAX_PREFETCH_BYTES;
+        private Duration pollInterval = DEFAULT_POLL_INTERVAL;
+        private TransactionManager transactionManager;
+        private Executor executor = DEFAULT_EXECUTOR;
+
+        private Builder()
+        {}
+
+        public Builder withCaller(Caller caller)
+        {
+            this.caller = caller;
+            return this;
+        }
+
+        public Builder withQueueInfo(QueueInfo queueInfo)
+        {
+            this.queueInfo = queueInfo;
+            return this;
+        }
+
+        public Builder withSelector(MessageSelector selector)
+        {
+            this.selector = selector;
+            return this;
+        }
+
+        /**
+         * Messages dequeued ahead of demand, per subscriber
+         */
+        public Builder withPrefetch(int prefetch)
+        {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        /**
+         * Payload bytes held ahead of demand, per subscriber
+         */
+        public Builder withMaxPrefetchBytes(long maxPrefetchBytes)
+        {
+            this.maxPrefetchBytes = maxPrefetchBytes;
+            return this;
+        }
+
+        public Builder withPollInterval(Duration pollInterval)
+        {
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        /**
+         * Makes the consumer transactional, each message is dequeued and processed in its own transaction
+         */
+        public Builder withTransactionManager(TransactionManager transactionManager)
+        {
+            this.transactionManager = transactionManager;
+            return this;
+        }
+
+        /**
+         * Where the subscriber is signalled, and in transactional mode where dequeue blocks
+         */
+        public Builder withExecutor(Executor executor)
+        {
+            this.executor = executor;
+            return this;
+        }
+
+        public QueueConsumer build()
+        {
+            Objects.requireNonNull(caller, "caller can not be null");
+            Objects.requireNonNull(queueInfo, "queueInfo can not be null");
+            Objects.requireNonNull(selector, "selector can not be null");
+            Objects.requireNonNull(pollInterval, "pollInterval can not be null");
+            Objects.requireNonNull(executor, "executor can not be null");
+            if(prefetch <= 0 || maxPrefetchBytes <= 0)
+            {
+                throw new IllegalArgumentException("prefetch and maxPrefetchBytes have to be positive, prefetch: " + prefetch + " maxPrefetchBytes: " + maxPrefetchBytes);
+            }
+            if(pollInterval.isNegative() || pollInterval.isZero())
+            {
+                throw new IllegalArgumentException("pollInterval has to be positive, was: " + pollInterval);
+            }
+            return new QueueConsumer(this);
+        }
+    }
+}
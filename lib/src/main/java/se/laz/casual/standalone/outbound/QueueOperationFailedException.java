@@ -12,4 +12,9 @@ public class QueueOperationFailedException extends RuntimeException
     {
         super(s);
     }
+
+    public QueueOperationFailedException(String s, Throwable t)
+    {
+        super(s, t);
+    }
 }
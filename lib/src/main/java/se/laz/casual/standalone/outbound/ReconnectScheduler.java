@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Reconnects everything that lost its connection to one address
+ *
+ * However many connections are waiting, only one of them tries to reconnect at a time, backing off exponentially up
+ * to a cap with jitter so that many clients do not retry in lockstep. Once that attempt succeeds the domain is
+ * back and all the others are reconnected right away.
+ * All addresses share a couple of daemon threads.
+ */
+public final class ReconnectScheduler
+{
+    private static final Logger LOG = Logger.getLogger(ReconnectScheduler.class.getName());
+    public static final String INITIAL_DELAY_ENV = "CASUAL_RECONNECT_INITIAL_DELAY_MILLIS";
+    public static final String MAX_DELAY_ENV = "CASUAL_RECONNECT_MAX_DELAY_MILLIS";
+    private static final Duration INITIAL_DELAY = getEnvDuration(INITIAL_DELAY_ENV).orElse(Duration.ofMillis(500));
+    private static final Duration MAX_DELAY = getEnvDuration(MAX_DELAY_ENV).orElse(Duration.ofSeconds(30));
+    private static final int BACKOFF_FACTOR = 2;
+    private static final Map<Address, ReconnectScheduler> SCHEDULERS = new ConcurrentHashMap<>();
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "casual-reconnect-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Address address;
+    private final ScheduledExecutorService executor;
+    private final Supplier<StaggeredOptions> backoffFactory;
+    private final Object lock = new Object();
+    // insertion ordered so that the longest waiting is the one to probe
+    private final Map<ReconnectAble, Supplier<Caller>> waiting = new LinkedHashMap<>();
+    private StaggeredOptions backoff;
+    private boolean scheduled;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private ReconnectScheduler(Address address, ScheduledExecutorService executor, Supplier<StaggeredOptions> backoffFactory)
+    {
+        this.address = address;
+        this.executor = executor;
+        this.backoffFactory = backoffFactory;
+    }
+
+    public static ReconnectScheduler of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return SCHEDULERS.computeIfAbsent(address, key -> new ReconnectScheduler(key, EXECUTOR, ReconnectScheduler::defaultBackoff));
+    }
+
+    // not shared, for tests
+    static ReconnectScheduler create(Address address, ScheduledExecutorService executor, Supplier<StaggeredOptions> backoffFactory)
+    {
+        return new ReconnectScheduler(address, executor, backoffFactory);
+    }
+
+    /**
+     * Have reconnectAble get a new caller, from connect, once the address can be reached again
+     * Asking again while already waiting changes nothing
+     */
+    public void reconnect(ReconnectAble reconnectAble, Supplier<Caller> connect)
+    {
+        Objects.requireNonNull(reconnectAble, "reconnectAble can not be null");
+        Objects.requireNonNull(connect, "connect can not be null");
+        synchronized (lock)
+        {
+            if(null != waiting.putIfAbsent(reconnectAble, connect))
+            {
+                return;
+            }
+            if(!scheduled)
+            {
+                backoff = backoffFactory.get();
+                scheduleAttempt();
+            }
+        }
+    }
+
+    /**
+     * Stop trying to reconnect reconnectAble, for instance because it has been closed
+     */
+    public void cancel(ReconnectAble reconnectAble)
+    {
+        synchronized (lock)
+        {
+            waiting.remove(reconnectAble);
+        }
+    }
+
+    public int getWaiting()
+    {
+        synchronized (lock)
+        {
+            return waiting.size();
+        }
+    }
+
+    /**
+     * Number of reconnect attempts that went out on the network, successful or not
+     */
+    public int getAttempts()
+    {
+        return attempts.get();
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    private void scheduleAttempt()
+    {
+        scheduled = true;
+        long delay = withJitter(backoff.getNext().toMillis());
+        LOG.finest(() -> "next reconnect attempt to: " + address + " in: " + delay + " ms");
+        executor.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt()
+    {
+        Map.Entry<ReconnectAble, Supplier<Caller>> probe;
+        synchronized (lock)
+        {
+            if(waiting.isEmpty())
+            {
+                scheduled = false;
+                return;
+            }
+            Map.Entry<ReconnectAble, Supplier<Caller>> first = waiting.entrySet().iterator().next();
+            probe = Map.entry(first.getKey(), first.getValue());
+        }
+        if(!connect(probe))
+        {
+            synchronized (lock)
+            {
+                scheduleAttempt();
+            }
+            return;
+        }
+        LOG.info(() -> "reconnected to: " + address + ", reconnecting the other " + getWaiting() + " waiting");
+        // the domain is back, no need to back off for the rest
+        List<Map.Entry<ReconnectAble, Supplier<Caller>>> others;
+        synchronized (lock)
+        {
+            others = waiting.entrySet().stream()
+                            .map(entry -> Map.entry(entry.getKey(), entry.getValue()))
+                            .collect(Collectors.toList());
+        }
+        for(Map.Entry<ReconnectAble, Supplier<Caller>> other : others)
+        {
+            if(!connect(other))
+            {
+                break;
+            }
+        }
+        synchronized (lock)
+        {
+            if(waiting.isEmpty())
+            {
+                scheduled = false;
+                backoff = null;
+                return;
+            }
+            backoff = backoffFactory.get();
+            scheduleAttempt();
+        }
+    }
+
+    private boolean connect(Map.Entry<ReconnectAble, Supplier<Caller>> entry)
+    {
+        attempts.incrementAndGet();
+        Caller caller;
+        try
+        {
+            caller = entry.getValue().get();
+        }
+        catch(RuntimeException e)
+        {
+            LOG.log(Level.FINE, e, () -> "reconnect to: " + address + " failed");
+            return false;
+        }
+        boolean cancelled;
+        synchronized (lock)
+        {
+            cancelled = null == waiting.remove(entry.getKey());
+        }
+        if(cancelled)
+        {
+            caller.close();
+            return true;
+        }
+        try
+        {
+            entry.getKey().setCaller(caller);
+        }
+        catch(RuntimeException e)
+        {
+            LOG.log(Level.WARNING, e, () -> "failed handing over new caller for: " + address);
+        }
+        return true;
+    }
+
+    // equal jitter, somewhere between half the delay and the delay
+    private static long withJitter(long delay)
+    {
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    private static StaggeredOptions defaultBackoff()
+    {
+        return StaggeredOptions.of(INITIAL_DELAY, INITIAL_DELAY, BACKOFF_FACTOR, MAX_DELAY.compareTo(INITIAL_DELAY) < 0 ? INITIAL_DELAY : MAX_DELAY);
+    }
+
+    private static Optional<Duration> getEnvDuration(String name)
+    {
+        return Optional.ofNullable(System.getenv(name)).map(Long::parseLong).map(Duration::ofMillis);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReconnectScheduler{" +
+                "address=" + address +
+                ", waiting=" + getWaiting() +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
@@ -6,6 +6,22 @@
 package se.laz.casual.standalone.outbound;
 
 import se.laz.casual.api.CasualServiceApi;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public interface ServiceCaller extends CasualServiceApi
-{}
+{
+    /**
+     * tpcall that replies TPETIME unless the reply arrives within timeout, null for the default timeout
+     */
+    ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout);
+    /**
+     * tpacall that replies TPETIME unless the reply arrives within timeout, null for the default timeout
+     */
+    CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout);
+}
@@ -26,11 +26,11 @@ import se.laz.casual.network.protocol.messages.service.CasualServiceCallReplyMes
 import se.laz.casual.network.protocol.messages.service.CasualServiceCallRequestMessage;
 
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
@@ -55,10 +55,16 @@ public class ServiceCallerImpl implements ServiceCaller
 
     @Override
     public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpcall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
     {
         try
         {
-            return tpacall(serviceName, data, flags).join();
+            return tpacall(serviceName, data, flags, timeout).join();
         }
         catch (Exception e)
         {
@@ -68,12 +74,31 @@ public class ServiceCallerImpl implements ServiceCaller
 
     @Override
     public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        return tpacall(serviceName, data, flags, null);
+    }
+
+    @Override
+    public CompletableFuture<ServiceReturn<CasualBuffer>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Duration timeout)
     {
         CompletableFuture<ServiceReturn<CasualBuffer>> f = new CompletableFuture<>();
         UUID corrId = UUID.randomUUID();
-        CompletableFuture<CasualNWMessage<CasualServiceCallReplyMessage>> ff = makeServiceCall(corrId, serviceName, data, flags);
+        Optional<Duration> deadline = Deadlines.resolve(timeout, connection.getRemainingTransactionTime());
+        if(Deadlines.isExhausted(deadline))
+        {
+            LOG.warning(() -> "service call not sent, no time left, serviceName: " + serviceName);
+            f.complete(new ServiceReturn<>(null, ServiceReturnState.TPFAIL, ErrorState.TPETIME, 0));
+            return f;
+        }
+        CompletableFuture<CasualNWMessage<CasualServiceCallReplyMessage>> ff = makeServiceCall(corrId, serviceName, data, flags, deadline);
         ff.whenComplete((v, e) ->
         {
+            if (null != e && Deadlines.isExpired(e))
+            {
+                LOG.warning(() -> "service call timed out for corrid: " + PrettyPrinter.casualStringify(corrId) + SERVICE_NAME_LITERAL + serviceName + " after: " + deadline.orElse(Duration.ZERO));
+                f.complete(new ServiceReturn<>(null, ServiceReturnState.TPFAIL, ErrorState.TPETIME, 0));
+                return;
+            }
             if (null != e)
             {
                 LOG.finest(() -> "service call request failed for corrid: " + PrettyPrinter.casualStringify(corrId) + SERVICE_NAME_LITERAL + serviceName);
@@ -114,9 +139,10 @@ public class ServiceCallerImpl implements ServiceCaller
         return serviceDetailsList;
     }
 
-    private CompletableFuture<CasualNWMessage<CasualServiceCallReplyMessage>> makeServiceCall(UUID corrid, String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    private CompletableFuture<CasualNWMessage<CasualServiceCallReplyMessage>> makeServiceCall(UUID corrid, String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, Optional<Duration> deadline)
     {
-        Duration timeout = Duration.of(connection.getTransactionTimeout(), ChronoUnit.SECONDS);
+        // the domain gets the same deadline, zero meaning none
+        Duration timeout = deadline.orElse(Duration.ZERO);
         CasualServiceCallRequestMessage serviceRequestMessage = CasualServiceCallRequestMessage.createBuilder()
                                                                                                .setExecution(UUID.randomUUID())
                                                                                                .setServiceBuffer(ServiceBuffer.of(data))
@@ -126,7 +152,7 @@ public class ServiceCallerImpl implements ServiceCaller
                                                                                                .setXatmiFlags(flags).build();
         CasualNWMessage<CasualServiceCallRequestMessage> serviceRequestNetworkMessage = CasualNWMessageImpl.of(corrid, serviceRequestMessage);
         LOG.finest(() -> "issuing service call reequest, corrid: " + PrettyPrinter.casualStringify(corrid) + SERVICE_NAME_LITERAL + serviceName);
-        return connection.getNetworkConnection().request(serviceRequestNetworkMessage);
+        return deadline.isPresent() ? connection.request(serviceRequestNetworkMessage, deadline.get()) : connection.getNetworkConnection().request(serviceRequestNetworkMessage);
     }
 
     private CasualNWMessage<CasualDomainDiscoveryReplyMessage> serviceDiscovery(UUID corrid, String serviceName)
@@ -140,7 +166,8 @@ public class ServiceCallerImpl implements ServiceCaller
                                                                                             .setServiceNames(Arrays.asList(serviceName))
                                                                                             .build();
         CasualNWMessage<CasualDomainDiscoveryRequestMessage> msg = CasualNWMessageImpl.of(corrid, requestMsg);
-        CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>> replyMsgFuture = connection.getNetworkConnection().request(msg);
+        // discovery also runs on the refresher of the discovery cache, it must not wait forever for a lost reply
+        CompletableFuture<CasualNWMessage<CasualDomainDiscoveryReplyMessage>> replyMsgFuture = Deadlines.expireAfter(connection.getNetworkConnection().request(msg), DomainDiscovery.DEFAULT_TIMEOUT);
 
         CasualNWMessage<CasualDomainDiscoveryReplyMessage> replyMsg = replyMsgFuture.join();
         LOG.finest(() -> "domain discovery ok for corrid: " + PrettyPrinter.casualStringify(corrid) + SERVICE_NAME_LITERAL + serviceName);
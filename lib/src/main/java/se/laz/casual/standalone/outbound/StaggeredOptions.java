@@ -15,16 +15,26 @@ public class StaggeredOptions
     private final Duration initialDelay;
     private Duration subsequentDelay;
     private int staggerFactor;
+    private final Duration maxDelay;
     private boolean initial = true;
 
-    private StaggeredOptions(Duration initialDelay, Duration subsequentDelay, int staggerFactor)
+    private StaggeredOptions(Duration initialDelay, Duration subsequentDelay, int staggerFactor, Duration maxDelay)
     {
         this.initialDelay = initialDelay;
         this.subsequentDelay = subsequentDelay;
         this.staggerFactor = staggerFactor;
+        this.maxDelay = maxDelay;
     }
 
     public static StaggeredOptions of(Duration initialDelay, Duration subsequentDelay, int staggerFactor)
+    {
+        return of(initialDelay, subsequentDelay, staggerFactor, null);
+    }
+
+    /**
+     * @param maxDelay no delay is ever longer, null for no limit
+     */
+    public static StaggeredOptions of(Duration initialDelay, Duration subsequentDelay, int staggerFactor, Duration maxDelay)
     {
         Objects.requireNonNull(initialDelay, "initialDelay can not be null");
         Objects.requireNonNull(subsequentDelay, "subsequentDelay can not be null");
@@ -32,7 +42,11 @@ public class StaggeredOptions
         {
             throw new IllegalArgumentException("staggerFactor equal to or below zero is not supported");
         }
-        return new StaggeredOptions(initialDelay, subsequentDelay,staggerFactor);
+        if(null != maxDelay && (maxDelay.compareTo(initialDelay) < 0 || maxDelay.compareTo(subsequentDelay) < 0))
+        {
+            throw new IllegalArgumentException("maxDelay: " + maxDelay + " can not be shorter than initialDelay: " + initialDelay + " or subsequentDelay: " + subsequentDelay);
+        }
+        return new StaggeredOptions(initialDelay, subsequentDelay, staggerFactor, maxDelay);
     }
 
     public Duration getNext()
@@ -43,6 +57,10 @@ public class StaggeredOptions
             return initialDelay;
         }
         subsequentDelay = Duration.ofMillis(subsequentDelay.toMillis() * staggerFactor);
+        if(null != maxDelay && subsequentDelay.compareTo(maxDelay) > 0)
+        {
+            subsequentDelay = maxDelay;
+        }
         LOG.finest(() -> " delay: " + subsequentDelay);
         return subsequentDelay;
     }
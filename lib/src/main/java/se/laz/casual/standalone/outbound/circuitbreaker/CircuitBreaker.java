@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.circuitbreaker;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Closed, open and half open circuit driven by the failure rate and the slow call rate of the most recent calls
+ * While closed, neither the state check nor recording an outcome locks, only state transitions and the outcomes of
+ * half open probes do
+ */
+public final class CircuitBreaker
+{
+    private static final Logger LOG = Logger.getLogger(CircuitBreaker.class.getName());
+    private static final int FAILED = 1;
+    private static final int SLOW = 2;
+    private final String name;
+    private final CircuitBreakerConfiguration configuration;
+    private final LongSupplier clock;
+    private final boolean countSlowCalls;
+    private final Object lock = new Object();
+    private final LongAdder rejected = new LongAdder();
+    // replaced, not cleared, when the circuit closes so that late recordings can not mix with the new window
+    private volatile Window window;
+    private long openedAt;
+    private long halfOpenedAt;
+    private int probesLeft;
+    private int probesSucceeded;
+    private volatile CircuitState state = CircuitState.CLOSED;
+
+    private CircuitBreaker(String name, CircuitBreakerConfiguration configuration, LongSupplier clock, boolean countSlowCalls)
+    {
+        this.name = name;
+        this.configuration = configuration;
+        this.clock = clock;
+        this.countSlowCalls = countSlowCalls;
+        this.window = new Window(configuration.getWindowSize());
+    }
+
+    public static CircuitBreaker of(String name, CircuitBreakerConfiguration configuration)
+    {
+        return of(name, configuration, System::nanoTime);
+    }
+
+    // clock in nanos, for tests
+    static CircuitBreaker of(String name, CircuitBreakerConfiguration configuration, LongSupplier clock)
+    {
+        return of(name, configuration, clock, true);
+    }
+
+    // without countSlowCalls only failures trip the circuit
+    static CircuitBreaker of(String name, CircuitBreakerConfiguration configuration, LongSupplier clock, boolean countSlowCalls)
+    {
+        Objects.requireNonNull(name, "name can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        Objects.requireNonNull(clock, "clock can not be null");
+        return new CircuitBreaker(name, configuration, clock, countSlowCalls);
+    }
+
+    /**
+     * Runs the call unless the circuit is open
+     * @param isFailure replies that count as failures, exceptions always do
+     * @param whenOpen the reply when the circuit is open, may throw
+     */
+    public <T> T call(Supplier<T> call, Predicate<T> isFailure, Supplier<T> whenOpen)
+    {
+        return call(call, isFailure, whenOpen, true);
+    }
+
+    /**
+     * {@link #call(Supplier, Predicate, Supplier)} for a call that waits by design, such as a blocking dequeue
+     * Only its failures count, never its duration
+     */
+    public <T> T callWaiting(Supplier<T> call, Predicate<T> isFailure, Supplier<T> whenOpen)
+    {
+        return call(call, isFailure, whenOpen, false);
+    }
+
+    /**
+     * Asynchronous {@link #call(Supplier, Predicate, Supplier)}, the outcome is recorded when the future completes
+     * If whenOpen throws, the returned future fails with what it threw
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call, Predicate<T> isFailure, Supplier<T> whenOpen)
+    {
+        return callAsync(call, isFailure, whenOpen, true);
+    }
+
+    /**
+     * Asynchronous {@link #callWaiting(Supplier, Predicate, Supplier)}
+     */
+    public <T> CompletableFuture<T> callAsyncWaiting(Supplier<CompletableFuture<T>> call, Predicate<T> isFailure, Supplier<T> whenOpen)
+    {
+        return callAsync(call, isFailure, whenOpen, false);
+    }
+
+    private <T> T call(Supplier<T> call, Predicate<T> isFailure, Supplier<T> whenOpen, boolean timed)
+    {
+        if(!tryAcquire())
+        {
+            return whenOpen.get();
+        }
+        long start = clock.getAsLong();
+        try
+        {
+            T reply = call.get();
+            onResult(durationSince(start, timed), isFailure.test(reply));
+            return reply;
+        }
+        catch(RuntimeException e)
+        {
+            onResult(durationSince(start, timed), true);
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call, Predicate<T> isFailure, Supplier<T> whenOpen, boolean timed)
+    {
+        if(!tryAcquire())
+        {
+            try
+            {
+                return CompletableFuture.completedFuture(whenOpen.get());
+            }
+            catch(RuntimeException e)
+            {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        long start = clock.getAsLong();
+        try
+        {
+            return call.get().whenComplete((reply, failure) -> onResult(durationSince(start, timed), null != failure || isFailure.test(reply)));
+        }
+        catch(RuntimeException e)
+        {
+            onResult(durationSince(start, timed), true);
+            throw e;
+        }
+    }
+
+    // an untimed call never counts as slow
+    private long durationSince(long start, boolean timed)
+    {
+        return timed ? clock.getAsLong() - start : 0;
+    }
+
+    /**
+     * @return true if a call may go ahead, it then has to be followed by {@link #onResult(long, boolean)}
+     */
+    public boolean tryAcquire()
+    {
+        if(state == CircuitState.CLOSED)
+        {
+            return true;
+        }
+        synchronized (lock)
+        {
+            if(state == CircuitState.OPEN)
+            {
+                if(clock.getAsLong() - openedAt < configuration.getOpenDuration().toNanos())
+                {
+                    rejected.increment();
+                    return false;
+                }
+                transitionTo(CircuitState.HALF_OPEN);
+            }
+            if(state == CircuitState.HALF_OPEN)
+            {
+                if(probesLeft <= 0)
+                {
+                    // a probe whose reply is lost never reports back, past the open duration it counts as failed
+                    if(clock.getAsLong() - halfOpenedAt >= configuration.getOpenDuration().toNanos())
+                    {
+                        LOG.warning(() -> "circuit: " + name + " probes unanswered for: " + configuration.getOpenDuration());
+                        transitionTo(CircuitState.OPEN);
+                    }
+                    rejected.increment();
+                    return false;
+                }
+                --probesLeft;
+            }
+            return true;
+        }
+    }
+
+    public void onResult(long durationNanos, boolean failed)
+    {
+        boolean slow = countSlowCalls && durationNanos >= configuration.getSlowCallDuration().toNanos();
+        if(state == CircuitState.CLOSED)
+        {
+            Window current = window;
+            current.record(failed, slow);
+            if(current.isTripped(configuration))
+            {
+                trip(current);
+            }
+            return;
+        }
+        synchronized (lock)
+        {
+            // late replies to calls made before the circuit opened are not counted while it is open
+            if(state == CircuitState.HALF_OPEN)
+            {
+                if(failed || slow)
+                {
+                    transitionTo(CircuitState.OPEN);
+                }
+                else if(++probesSucceeded >= configuration.getHalfOpenCalls())
+                {
+                    transitionTo(CircuitState.CLOSED);
+                }
+            }
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public CircuitState getState()
+    {
+        return state;
+    }
+
+    public CircuitBreakerConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    public double getFailureRate()
+    {
+        return window.getFailureRate();
+    }
+
+    public double getSlowCallRate()
+    {
+        return window.getSlowCallRate();
+    }
+
+    /**
+     * Calls that failed fast because the circuit was open
+     */
+    public long getRejectedCalls()
+    {
+        return rejected.sum();
+    }
+
+    private void trip(Window tripped)
+    {
+        synchronized (lock)
+        {
+            // several calls may see the same window trip, only the first one opens the circuit
+            if(state == CircuitState.CLOSED && window == tripped)
+            {
+                transitionTo(CircuitState.OPEN);
+            }
+        }
+    }
+
+    private void transitionTo(CircuitState newState)
+    {
+        CircuitState oldState = state;
+        switch(newState)
+        {
+            case OPEN:
+                openedAt = clock.getAsLong();
+                break;
+            case HALF_OPEN:
+                halfOpenedAt = clock.getAsLong();
+                probesLeft = configuration.getHalfOpenCalls();
+                probesSucceeded = 0;
+                break;
+            default:
+                window = new Window(configuration.getWindowSize());
+                break;
+        }
+        state = newState;
+        LOG.info(() -> "circuit: " + name + " " + oldState + " -> " + newState);
+    }
+
+    /**
+     * Ring of the outcomes of the most recent calls with running counts of the failed and the slow ones
+     * Each slot is swapped atomically and the counts are adjusted by what the swap replaced, so they always agree with
+     * the ring. Under concurrent recording the rates may briefly include a slot that is claimed but not yet written.
+     */
+    private static final class Window
+    {
+        private final AtomicIntegerArray outcomes;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger slowCalls = new AtomicInteger();
+
+        private Window(int size)
+        {
+            outcomes = new AtomicIntegerArray(size);
+        }
+
+        private void record(boolean failed, boolean slow)
+        {
+            int outcome = (failed ? FAILED : 0) | (slow ? SLOW : 0);
+            int slot = (int) (calls.getAndIncrement() % outcomes.length());
+            int replaced = outcomes.getAndSet(slot, outcome);
+            if(outcome == replaced)
+            {
+                return;
+            }
+            failures.addAndGet((outcome & FAILED) - (replaced & FAILED));
+            slowCalls.addAndGet(((outcome & SLOW) - (replaced & SLOW)) / SLOW);
+        }
+
+        private int getRecorded()
+        {
+            return (int) Math.min(calls.get(), outcomes.length());
+        }
+
+        private boolean isTripped(CircuitBreakerConfiguration configuration)
+        {
+            int recorded = getRecorded();
+            return recorded >= configuration.getMinimumCalls() &&
+                    ((double) failures.get() / recorded >= configuration.getFailureRateThreshold() ||
+                     (double) slowCalls.get() / recorded >= configuration.getSlowCallRateThreshold());
+        }
+
+        private double getFailureRate()
+        {
+            int recorded = getRecorded();
+            return 0 == recorded ? 0.0 : (double) failures.get() / recorded;
+        }
+
+        private double getSlowCallRate()
+        {
+            int recorded = getRecorded();
+            return 0 == recorded ? 0.0 : (double) slowCalls.get() / recorded;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CircuitBreaker{" +
+                "name='" + name + '\'' +
+                ", state=" + state +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.circuitbreaker;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+public final class CircuitBreakerConfiguration
+{
+    public static final String ENABLED_ENV = "CASUAL_CIRCUIT_BREAKER_ENABLED";
+    public static final String FAILURE_RATE_ENV = "CASUAL_CIRCUIT_BREAKER_FAILURE_RATE";
+    public static final String SLOW_CALL_RATE_ENV = "CASUAL_CIRCUIT_BREAKER_SLOW_CALL_RATE";
+    public static final String SLOW_CALL_DURATION_ENV = "CASUAL_CIRCUIT_BREAKER_SLOW_CALL_MILLIS";
+    public static final String WINDOW_SIZE_ENV = "CASUAL_CIRCUIT_BREAKER_WINDOW_SIZE";
+    public static final String MINIMUM_CALLS_ENV = "CASUAL_CIRCUIT_BREAKER_MINIMUM_CALLS";
+    public static final String OPEN_DURATION_ENV = "CASUAL_CIRCUIT_BREAKER_OPEN_MILLIS";
+    public static final String HALF_OPEN_CALLS_ENV = "CASUAL_CIRCUIT_BREAKER_HALF_OPEN_CALLS";
+    public static final String PER_SERVICE_ENV = "CASUAL_CIRCUIT_BREAKER_PER_SERVICE";
+    private static final double DEFAULT_FAILURE_RATE = 0.5;
+    private static final double DEFAULT_SLOW_CALL_RATE = 0.8;
+    private static final Duration DEFAULT_SLOW_CALL_DURATION = Duration.ofSeconds(10);
+    private static final int DEFAULT_WINDOW_SIZE = 50;
+    private static final int DEFAULT_MINIMUM_CALLS = 20;
+    private static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+    private static final int DEFAULT_HALF_OPEN_CALLS = 3;
+    private final boolean enabled;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final Duration slowCallDuration;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final Duration openDuration;
+    private final int halfOpenCalls;
+    private final boolean perService;
+
+    private CircuitBreakerConfiguration(Builder builder)
+    {
+        this.enabled = builder.enabled;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDuration = builder.slowCallDuration;
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = builder.minimumCalls;
+        this.openDuration = builder.openDuration;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.perService = builder.perService;
+    }
+
+    /**
+     * Defaults, overridden by any of the CASUAL_CIRCUIT_BREAKER_* environment variables
+     * Disabled unless CASUAL_CIRCUIT_BREAKER_ENABLED is true
+     */
+    public static CircuitBreakerConfiguration fromEnvironment()
+    {
+        return createBuilder()
+                .withEnabled(getEnv(ENABLED_ENV).map(Boolean::parseBoolean).orElse(false))
+                .withFailureRateThreshold(getEnv(FAILURE_RATE_ENV).map(Double::parseDouble).orElse(DEFAULT_FAILURE_RATE))
+                .withSlowCallRateThreshold(getEnv(SLOW_CALL_RATE_ENV).map(Double::parseDouble).orElse(DEFAULT_SLOW_CALL_RATE))
+                .withSlowCallDuration(getEnv(SLOW_CALL_DURATION_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_SLOW_CALL_DURATION))
+                .withWindowSize(getEnv(WINDOW_SIZE_ENV).map(Integer::parseInt).orElse(DEFAULT_WINDOW_SIZE))
+                .withMinimumCalls(getEnv(MINIMUM_CALLS_ENV).map(Integer::parseInt).orElse(DEFAULT_MINIMUM_CALLS))
+                .withOpenDuration(getEnv(OPEN_DURATION_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_OPEN_DURATION))
+                .withHalfOpenCalls(getEnv(HALF_OPEN_CALLS_ENV).map(Integer::parseInt).orElse(DEFAULT_HALF_OPEN_CALLS))
+                .withPerService(getEnv(PER_SERVICE_ENV).map(Boolean::parseBoolean).orElse(false))
+                .build();
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * The circuit opens when at least this share of the calls in the window failed
+     */
+    public double getFailureRateThreshold()
+    {
+        return failureRateThreshold;
+    }
+
+    /**
+     * The circuit opens when at least this share of the calls in the window were slow
+     */
+    public double getSlowCallRateThreshold()
+    {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * A call taking at least this long is slow
+     */
+    public Duration getSlowCallDuration()
+    {
+        return slowCallDuration;
+    }
+
+    /**
+     * Number of most recent calls the rates are computed over
+     */
+    public int getWindowSize()
+    {
+        return windowSize;
+    }
+
+    /**
+     * The rates are not acted on until the window holds this many calls
+     */
+    public int getMinimumCalls()
+    {
+        return minimumCalls;
+    }
+
+    /**
+     * How long an open circuit fails fast before letting probe calls through
+     */
+    public Duration getOpenDuration()
+    {
+        return openDuration;
+    }
+
+    /**
+     * Number of successful probe calls that close a half open circuit, a single failed probe opens it again
+     */
+    public int getHalfOpenCalls()
+    {
+        return halfOpenCalls;
+    }
+
+    /**
+     * One circuit per service, and queue, instead of one for the whole domain
+     * The circuit of the whole domain only counts failures, slow calls of a single service say nothing about the domain
+     */
+    public boolean isPerService()
+    {
+        return perService;
+    }
+
+    private static Optional<String> getEnv(String name)
+    {
+        return Optional.ofNullable(System.getenv(name));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CircuitBreakerConfiguration{" +
+                "enabled=" + enabled +
+                ", failureRateThreshold=" + failureRateThreshold +
+                ", slowCallRateThreshold=" + slowCallRateThreshold +
+                ", slowCallDuration=" + slowCallDuration +
+                ", windowSize=" + windowSize +
+                ", minimumCalls=" + minimumCalls +
+                ", openDuration=" + openDuration +
+                ", halfOpenCalls=" + halfOpenCalls +
+                ", perService=" + perService +
+                '}';
+    }
+
+    public static final class Builder
+    {
+        private boolean enabled = true;
+        private double failureRateThreshold = DEFAULT_FAILURE_RATE;
+        private double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE;
+        private Duration slowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+        private int windowSize = DEFAULT_WINDOW_SIZE;
+        private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+        private Duration openDuration = DEFAULT_OPEN_DURATION;
+        private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+        private boolean perService = false;
+
+        private Builder()
+        {}
+
+        public Builder withEnabled(boolean enabled)
+        {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Builder withFailureRateThreshold(double failureRateThreshold)
+        {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        public Builder withSlowCallRateThreshold(double slowCallRateThreshold)
+        {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        public Builder withSlowCallDuration(Duration slowCallDuration)
+        {
+            this.slowCallDuration = slowCallDuration;
+            return this;
+        }
+
+        public Builder withWindowSize(int windowSize)
+        {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        public Builder withMinimumCalls(int minimumCalls)
+        {
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        public Builder withOpenDuration(Duration openDuration)
+        {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        public Builder withHalfOpenCalls(int halfOpenCalls)
+        {
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public Builder withPerService(boolean perService)
+        {
+            this.perService = perService;
+            return this;
+        }
+
+        public CircuitBreakerConfiguration build()
+        {
+            Objects.requireNonNull(slowCallDuration, "slowCallDuration can not be null");
+            Objects.requireNonNull(openDuration, "openDuration can not be null");
+            if(failureRateThreshold <= 0 || failureRateThreshold > 1 || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1)
+            {
+                throw new IllegalArgumentException("thresholds have to be in (0, 1], failureRateThreshold: " + failureRateThreshold + " slowCallRateThreshold: " + slowCallRateThreshold);
+            }
+            if(windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize || halfOpenCalls <= 0)
+            {
+                throw new IllegalArgumentException("need 0 < minimumCalls <= windowSize and halfOpenCalls > 0, windowSize: " + windowSize + " minimumCalls: " + minimumCalls + " halfOpenCalls: " + halfOpenCalls);
+            }
+            if(slowCallDuration.isNegative() || slowCallDuration.isZero() || openDuration.isNegative())
+            {
+                throw new IllegalArgumentException("slowCallDuration has to be positive and openDuration can not be negative, slowCallDuration: " + slowCallDuration + " openDuration: " + openDuration);
+            }
+            return new CircuitBreakerConfiguration(this);
+        }
+    }
+}
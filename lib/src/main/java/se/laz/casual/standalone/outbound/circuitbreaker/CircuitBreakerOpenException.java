@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.circuitbreaker;
+
+import se.laz.casual.network.connection.CasualConnectionException;
+
+/**
+ * Thrown instead of calling out when the circuit is open, also for calls that have a reply, so that an open circuit
+ * is never taken for an error state of the domain
+ */
+public class CircuitBreakerOpenException extends CasualConnectionException
+{
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakerOpenException(String message)
+    {
+        super(message);
+    }
+}
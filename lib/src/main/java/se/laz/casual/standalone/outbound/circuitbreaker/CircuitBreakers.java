@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.circuitbreaker;
+
+import se.laz.casual.standalone.outbound.Address;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The circuit breakers of one address, shared by all callers of that address
+ * One circuit for the whole domain, or with {@link CircuitBreakerConfiguration#isPerService()} one per service and queue
+ */
+public final class CircuitBreakers
+{
+    private static final String DOMAIN_CIRCUIT = "*";
+    private static final Map<Address, CircuitBreakers> REGISTRY = new ConcurrentHashMap<>();
+    private static final Map<Address, CircuitBreakerConfiguration> CONFIGURATIONS = new ConcurrentHashMap<>();
+    private final Address address;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile CircuitBreakerConfiguration configuration;
+
+    private CircuitBreakers(Address address, CircuitBreakerConfiguration configuration)
+    {
+        this.address = address;
+        this.configuration = configuration;
+    }
+
+    public static CircuitBreakers of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return REGISTRY.computeIfAbsent(address, key -> new CircuitBreakers(key, CONFIGURATIONS.computeIfAbsent(key, k -> CircuitBreakerConfiguration.fromEnvironment())));
+    }
+
+    /**
+     * Configuration for the circuits of the address, existing circuits start over closed
+     * Addresses without configuration use {@link CircuitBreakerConfiguration#fromEnvironment()}
+     */
+    public static void configure(Address address, CircuitBreakerConfiguration configuration)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        CONFIGURATIONS.put(address, configuration);
+        Optional.ofNullable(REGISTRY.get(address)).ifPresent(circuitBreakers -> {
+            circuitBreakers.configuration = configuration;
+            circuitBreakers.breakers.clear();
+        });
+    }
+
+    public static List<CircuitBreaker> getAllCircuitBreakers()
+    {
+        return REGISTRY.values().stream()
+                       .flatMap(circuitBreakers -> circuitBreakers.getCircuitBreakers().stream())
+                       .collect(Collectors.toList());
+    }
+
+    public boolean isEnabled()
+    {
+        return configuration.isEnabled();
+    }
+
+    /**
+     * The circuit guarding calls to the service, or queue, with the name
+     */
+    public CircuitBreaker forName(String name)
+    {
+        CircuitBreakerConfiguration current = configuration;
+        if(!current.isPerService())
+        {
+            return breakers.computeIfAbsent(DOMAIN_CIRCUIT, k -> CircuitBreaker.of(address + "/" + k, current, System::nanoTime, false));
+        }
+        return breakers.computeIfAbsent(name, k -> CircuitBreaker.of(address + "/" + k, current));
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public List<CircuitBreaker> getCircuitBreakers()
+    {
+        return new ArrayList<>(breakers.values());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CircuitBreakers{" +
+                "address=" + address +
+                ", configuration=" + configuration +
+                ", breakers=" + breakers.values() +
+                '}';
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.circuitbreaker;
+
+public enum CircuitState
+{
+    /**
+     * Calls go through, outcomes are recorded
+     */
+    CLOSED,
+    /**
+     * Calls fail fast without touching the network
+     */
+    OPEN,
+    /**
+     * A few probe calls go through, their outcome decides between closed and open
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.completion;
+
+import se.laz.casual.api.conversation.ConversationClose;
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
+import se.laz.casual.internal.network.NetworkConnection;
+import se.laz.casual.jca.DomainId;
+import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.network.protocol.messages.conversation.Request;
+import se.laz.casual.standalone.outbound.Deadlines;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Completes the reply futures of the network connection according to the completion mode
+ * All callers, service, queue and XA, get their replies through here
+ *
+ * In direct mode the time spent completing, that is running whatever the users chained on the reply,
+ * is measured since it is spent on the thread that received the reply, see {@link #getStatistics()}
+ *
+ * A request whose deadline expired is abandoned, not forgotten: the network connection keeps its correlation entry
+ * until the domain answers or the connection is lost, and there is no way to remove it from here.
+ * Abandoned requests are counted, see {@link #getAbandonedRequests()}, and at most CASUAL_MAX_ABANDONED_REQUESTS,
+ * default 1000, are allowed per connection, beyond that requests with a deadline are refused.
+ */
+public final class CompletingNetworkConnection implements NetworkConnection
+{
+    private static final Logger LOG = Logger.getLogger(CompletingNetworkConnection.class.getName());
+    public static final String MAX_ABANDONED_ENV = "CASUAL_MAX_ABANDONED_REQUESTS";
+    private static final LongAdder DIRECT_COMPLETIONS = new LongAdder();
+    private static final LongAdder DIRECT_CALLBACK_NANOS = new LongAdder();
+    private static final AtomicLong MAX_DIRECT_CALLBACK_NANOS = new AtomicLong();
+    private static final LongAdder DISPATCHED_COMPLETIONS = new LongAdder();
+    private static final LongAdder ABANDONED = new LongAdder();
+    private static final int MAX_ABANDONED = Optional.ofNullable(System.getenv(MAX_ABANDONED_ENV)).map(Integer::parseInt).orElse(1000);
+    private final NetworkConnection networkConnection;
+    private final CompletionMode completionMode;
+    private final Executor executor;
+    private final AtomicInteger abandoned = new AtomicInteger();
+
+    private CompletingNetworkConnection(NetworkConnection networkConnection, CompletionMode completionMode)
+    {
+        this.networkConnection = networkConnection;
+        this.completionMode = completionMode;
+        this.executor = completionMode.getExecutor();
+    }
+
+    public static CompletingNetworkConnection of(NetworkConnection networkConnection, CompletionMode completionMode)
+    {
+        Objects.requireNonNull(networkConnection, "networkConnection can not be null");
+        Objects.requireNonNull(completionMode, "completionMode can not be null");
+        return new CompletingNetworkConnection(networkConnection, completionMode);
+    }
+
+    /**
+     * Completions of all connections since start
+     */
+    public static CompletionStatistics getStatistics()
+    {
+        return CompletionStatistics.of(DIRECT_COMPLETIONS.sum(), DIRECT_CALLBACK_NANOS.sum(), MAX_DIRECT_CALLBACK_NANOS.get(), DISPATCHED_COMPLETIONS.sum());
+    }
+
+    /**
+     * Requests, over all connections, whose deadline expired while the domain has not answered them yet
+     */
+    public static long getAbandonedRequests()
+    {
+        return ABANDONED.sum();
+    }
+
+    public int getAbandoned()
+    {
+        return abandoned.get();
+    }
+
+    public CompletionMode getCompletionMode()
+    {
+        return completionMode;
+    }
+
+    public NetworkConnection getNetworkConnection()
+    {
+        return networkConnection;
+    }
+
+    @Override
+    public <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> message)
+    {
+        return complete(networkConnection.<T, X>request(message));
+    }
+
+    /**
+     * {@link #request(CasualNWMessage)} that fails with a {@link java.util.concurrent.TimeoutException} unless the reply
+     * arrives within timeout
+     * The request stays in flight on the network connection until the domain answers, an expired one is abandoned
+     * The request is not sent, the future fails with a {@link CasualConnectionException}, if the connection already has
+     * CASUAL_MAX_ABANDONED_REQUESTS abandoned requests
+     */
+    public <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> message, Duration timeout)
+    {
+        if(abandoned.get() >= MAX_ABANDONED)
+        {
+            CompletableFuture<CasualNWMessage<T>> refused = new CompletableFuture<>();
+            refused.completeExceptionally(new CasualConnectionException("requests abandoned on connection: " + abandoned.get() + " limit: " + MAX_ABANDONED + " connection: " + networkConnection));
+            return refused;
+        }
+        CompletableFuture<CasualNWMessage<T>> sent = networkConnection.request(message);
+        // expiring a copy leaves the future of the network connection to the reply, so that a late reply can be seen
+        CompletableFuture<CasualNWMessage<T>> pending = new CompletableFuture<>();
+        sent.whenComplete((value, throwable) -> forward(pending, value, throwable));
+        // the caller sees the expiry only once the request is counted as abandoned
+        return complete(Deadlines.expireAfter(pending, timeout).whenComplete((value, throwable) -> {
+            if(null != throwable && Deadlines.isExpired(throwable) && !sent.isDone())
+            {
+                abandon(sent);
+            }
+        }));
+    }
+
+    @Override
+    public <X extends CasualNetworkTransmittable> void send(CasualNWMessage<X> message)
+    {
+        networkConnection.send(message);
+    }
+
+    @Override
+    public CompletableFuture<CasualNWMessage<Request>> receive(UUID corrid)
+    {
+        return complete(networkConnection.receive(corrid));
+    }
+
+    @Override
+    public ConversationClose getConversationClose()
+    {
+        return networkConnection.getConversationClose();
+    }
+
+    @Override
+    public void close()
+    {
+        networkConnection.close();
+    }
+
+    @Override
+    public boolean isActive()
+    {
+        return networkConnection.isActive();
+    }
+
+    @Override
+    public DomainId getDomainId()
+    {
+        return networkConnection.getDomainId();
+    }
+
+    private <T> CompletableFuture<T> complete(CompletableFuture<T> reply)
+    {
+        CompletableFuture<T> completed = new CompletableFuture<>();
+        if(completionMode == CompletionMode.DIRECT)
+        {
+            reply.whenComplete((value, throwable) -> {
+                long start = System.nanoTime();
+                forward(completed, value, throwable);
+                recordDirect(System.nanoTime() - start);
+            });
+            return completed;
+        }
+        reply.whenComplete((value, throwable) -> {
+            try
+            {
+                executor.execute(() -> forward(completed, value, throwable));
+                DISPATCHED_COMPLETIONS.increment();
+            }
+            catch(RejectedExecutionException e)
+            {
+                // the shared pool is at its maximum, better late on this thread than never
+                forward(completed, value, throwable);
+            }
+        });
+        return completed;
+    }
+
+    private static <T> void forward(CompletableFuture<T> completed, T value, Throwable throwable)
+    {
+        if(null != throwable)
+        {
+            completed.completeExceptionally(throwable);
+            return;
+        }
+        completed.complete(value);
+    }
+
+    private void abandon(CompletableFuture<?> sent)
+    {
+        int count = abandoned.incrementAndGet();
+        ABANDONED.increment();
+        if(count == MAX_ABANDONED)
+        {
+            LOG.warning(() -> "abandoned requests reached the limit: " + MAX_ABANDONED + ", refusing requests with a deadline on: " + networkConnection);
+        }
+        // a late reply or the loss of the connection releases the correlation entry
+        sent.whenComplete((value, throwable) -> {
+            abandoned.decrementAndGet();
+            ABANDONED.decrement();
+        });
+    }
+
+    private static void recordDirect(long nanos)
+    {
+        DIRECT_COMPLETIONS.increment();
+        DIRECT_CALLBACK_NANOS.add(nanos);
+        MAX_DIRECT_CALLBACK_NANOS.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompletingNetworkConnection{" +
+                "networkConnection=" + networkConnection +
+                ", completionMode=" + completionMode +
+                '}';
+    }
+}
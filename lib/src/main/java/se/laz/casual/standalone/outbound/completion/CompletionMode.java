@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.completion;
+
+import se.laz.casual.standalone.VirtualThreads;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where reply futures are completed, and therefore where continuations chained on them run
+ */
+public enum CompletionMode
+{
+    /**
+     * On the thread that received the reply, usually the netty event loop
+     * Cheapest, but a slow continuation holds up every other reply on that connection
+     */
+    DIRECT
+    {
+        @Override
+        Executor getExecutor()
+        {
+            return Runnable::run;
+        }
+    },
+    /**
+     * On a pool shared by all callers, CASUAL_COMPLETION_POOL_SIZE threads or one per processor
+     *
+     * Continuations may make blocking calls, a tpcall or an XA commit from a callback, whose replies need a pool
+     * thread in turn. So when every thread is busy the pool does not queue, it starts another thread, up to
+     * CASUAL_COMPLETION_POOL_MAX_SIZE, by default 256 or four per core thread. The extra threads end after a
+     * minute idle. Beyond that maximum replies are completed on the thread that received them, as in {@link #DIRECT},
+     * where a continuation that blocks waiting for a reply can hang the connection.
+     */
+    SHARED_POOL
+    {
+        @Override
+        Executor getExecutor()
+        {
+            return SharedPool.EXECUTOR;
+        }
+    },
+    /**
+     * On a new virtual thread per reply, on a shared cached pool if the runtime has no virtual threads
+     */
+    VIRTUAL_THREAD_PER_TASK
+    {
+        @Override
+        Executor getExecutor()
+        {
+            return VirtualThreadPerTask.EXECUTOR;
+        }
+    };
+
+    public static final String COMPLETION_MODE_ENV = "CASUAL_COMPLETION_MODE";
+    public static final String POOL_SIZE_ENV = "CASUAL_COMPLETION_POOL_SIZE";
+    public static final String POOL_MAX_SIZE_ENV = "CASUAL_COMPLETION_POOL_MAX_SIZE";
+
+    abstract Executor getExecutor();
+
+    public static CompletionMode fromEnvironment()
+    {
+        return Optional.ofNullable(System.getenv(COMPLETION_MODE_ENV))
+                       .map(String::trim)
+                       .map(CompletionMode::valueOf)
+                       .orElse(DIRECT);
+    }
+
+    // threads kept while idle, the pool grows beyond them when they are all busy
+    static int getSharedPoolSize()
+    {
+        return SharedPool.SIZE;
+    }
+
+    static int getSharedPoolMaxSize()
+    {
+        return SharedPool.MAX_SIZE;
+    }
+
+    // created on first use only
+    private static final class SharedPool
+    {
+        private static final int SIZE = Optional.ofNullable(System.getenv(POOL_SIZE_ENV)).map(Integer::parseInt).orElse(Runtime.getRuntime().availableProcessors());
+        private static final int MAX_SIZE = Math.max(SIZE, Optional.ofNullable(System.getenv(POOL_MAX_SIZE_ENV)).map(Integer::parseInt).orElse(Math.max(256, 4 * SIZE)));
+        private static final long KEEP_ALIVE_SECONDS = 60;
+        private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+        // no queue, a reply waiting behind continuations blocked on other replies could wait forever
+        private static final Executor EXECUTOR = new ThreadPoolExecutor(SIZE, MAX_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "casual-completion-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class VirtualThreadPerTask
+    {
+        private static final Executor EXECUTOR = VirtualThreads.newThreadPerTaskExecutor("casual-completion-virtual");
+    }
+}
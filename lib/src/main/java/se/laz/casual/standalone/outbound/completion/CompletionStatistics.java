@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.completion;
+
+/**
+ * Point in time snapshot of how replies have been completed
+ */
+public final class CompletionStatistics
+{
+    private final long directCompletions;
+    private final long directCallbackNanos;
+    private final long maxDirectCallbackNanos;
+    private final long dispatchedCompletions;
+
+    private CompletionStatistics(long directCompletions, long directCallbackNanos, long maxDirectCallbackNanos, long dispatchedCompletions)
+    {
+        this.directCompletions = directCompletions;
+        this.directCallbackNanos = directCallbackNanos;
+        this.maxDirectCallbackNanos = maxDirectCallbackNanos;
+        this.dispatchedCompletions = dispatchedCompletions;
+    }
+
+    static CompletionStatistics of(long directCompletions, long directCallbackNanos, long maxDirectCallbackNanos, long dispatchedCompletions)
+    {
+        return new CompletionStatistics(directCompletions, directCallbackNanos, maxDirectCallbackNanos, dispatchedCompletions);
+    }
+
+    /**
+     * Replies completed in {@link CompletionMode#DIRECT} mode, on the thread that received them
+     */
+    public long getDirectCompletions()
+    {
+        return directCompletions;
+    }
+
+    /**
+     * Total time spent running the continuations of direct completions, time the receiving thread, usually
+     * the netty event loop, could not spend on other replies
+     */
+    public long getDirectCallbackNanos()
+    {
+        return directCallbackNanos;
+    }
+
+    public long getMaxDirectCallbackNanos()
+    {
+        return maxDirectCallbackNanos;
+    }
+
+    public long getAverageDirectCallbackNanos()
+    {
+        return 0 == directCompletions ? 0 : directCallbackNanos / directCompletions;
+    }
+
+    /**
+     * Replies handed over to a completion executor
+     */
+    public long getDispatchedCompletions()
+    {
+        return dispatchedCompletions;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompletionStatistics{" +
+                "directCompletions=" + directCompletions +
+                ", directCallbackNanos=" + directCallbackNanos +
+                ", maxDirectCallbackNanos=" + maxDirectCallbackNanos +
+                ", dispatchedCompletions=" + dispatchedCompletions +
+                '}';
+    }
+}
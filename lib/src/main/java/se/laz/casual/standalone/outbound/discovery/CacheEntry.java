@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.discovery;
+
+final class CacheEntry<T>
+{
+    private final T value;
+    private final boolean positive;
+    private final long expiresAtNanos;
+    private final long refreshAtNanos;
+    private final boolean refreshable;
+
+    private CacheEntry(T value, boolean positive, long expiresAtNanos, long refreshAtNanos, boolean refreshable)
+    {
+        this.value = value;
+        this.positive = positive;
+        this.expiresAtNanos = expiresAtNanos;
+        this.refreshAtNanos = refreshAtNanos;
+        this.refreshable = refreshable;
+    }
+
+    static <T> CacheEntry<T> of(T value, boolean positive, long nowNanos, DiscoveryCacheConfiguration configuration)
+    {
+        long ttl = positive ? configuration.getPositiveTtl().toNanos() : configuration.getNegativeTtl().toNanos();
+        long refreshAhead = configuration.getRefreshAhead().toNanos();
+        // only positive entries are refreshed ahead, negative ones are cheap to rediscover and should expire
+        boolean refreshable = positive && refreshAhead > 0;
+        return new CacheEntry<>(value, positive, nowNanos + ttl, nowNanos + ttl - refreshAhead, refreshable);
+    }
+
+    T getValue()
+    {
+        return value;
+    }
+
+    boolean isPositive()
+    {
+        return positive;
+    }
+
+    boolean isExpired(long nowNanos)
+    {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+
+    boolean shouldRefresh(long nowNanos)
+    {
+        return refreshable && nowNanos - refreshAtNanos >= 0;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.discovery;
+
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.standalone.outbound.Address;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Discovery results for one casual domain, shared by every caller connected to the same address
+ *
+ * Both found and missing services and queues are cached, with separate ttls.
+ * A found entry that is used close to its expiry is rediscovered in the background
+ * so that callers of frequently used services never wait for discovery.
+ * Each address refreshes on its own thread, one refresh at a time.
+ */
+public final class DiscoveryCache
+{
+    private static final Logger LOG = Logger.getLogger(DiscoveryCache.class.getName());
+    private static final Map<Address, DiscoveryCache> CACHES = new ConcurrentHashMap<>();
+    private static final Map<Address, DiscoveryCacheConfiguration> CONFIGURATIONS = new ConcurrentHashMap<>();
+    private static final int MAX_PENDING_REFRESHES = 1000;
+    private final Address address;
+    private final LongSupplier clock;
+    private final Executor refresher;
+    private final Map<String, CacheEntry<List<ServiceDetails>>> services = new ConcurrentHashMap<>();
+    private final Map<String, CacheEntry<Boolean>> queues = new ConcurrentHashMap<>();
+    private final Set<String> refreshingServices = ConcurrentHashMap.newKeySet();
+    private final Set<String> refreshingQueues = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private volatile DiscoveryCacheConfiguration configuration;
+
+    private DiscoveryCache(Address address, DiscoveryCacheConfiguration configuration, LongSupplier clock, Executor refresher)
+    {
+        this.address = address;
+        this.configuration = configuration;
+        this.clock = clock;
+        this.refresher = refresher;
+    }
+
+    public static DiscoveryCache of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return CACHES.computeIfAbsent(address, key -> new DiscoveryCache(key, CONFIGURATIONS.computeIfAbsent(key, k -> DiscoveryCacheConfiguration.fromEnvironment()), System::nanoTime, newRefresher(key)));
+    }
+
+    // not shared, for tests
+    static DiscoveryCache create(Address address, DiscoveryCacheConfiguration configuration, LongSupplier clock, Executor refresher)
+    {
+        return new DiscoveryCache(address, configuration, clock, refresher);
+    }
+
+    /**
+     * Configuration for the cache of the address, applies to entries cached from now on
+     * Addresses without configuration use {@link DiscoveryCacheConfiguration#fromEnvironment()}
+     */
+    public static void configure(Address address, DiscoveryCacheConfiguration configuration)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        CONFIGURATIONS.put(address, configuration);
+        Optional.ofNullable(CACHES.get(address)).ifPresent(cache -> cache.configuration = configuration);
+    }
+
+    public static Optional<DiscoveryCacheStatistics> getStatistics(Address address)
+    {
+        return Optional.ofNullable(CACHES.get(address)).map(DiscoveryCache::getStatistics);
+    }
+
+    public static List<DiscoveryCacheStatistics> getAllStatistics()
+    {
+        return CACHES.values().stream()
+                     .map(DiscoveryCache::getStatistics)
+                     .collect(Collectors.toList());
+    }
+
+    /**
+     * @param discovery called on a miss, and in the background for refresh-ahead, returns an empty list if the service does not exist
+     * @return the details of the service, empty if it does not exist
+     */
+    public List<ServiceDetails> serviceDetails(String serviceName, Function<String, List<ServiceDetails>> discovery)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        Objects.requireNonNull(discovery, "discovery can not be null");
+        return lookup(services, refreshingServices, serviceName, name -> Collections.unmodifiableList(discovery.apply(name)), details -> !details.isEmpty());
+    }
+
+    public boolean serviceExists(String serviceName, Function<String, List<ServiceDetails>> discovery)
+    {
+        return !serviceDetails(serviceName, discovery).isEmpty();
+    }
+
+    public boolean queueExists(String queueName, Predicate<String> discovery)
+    {
+        Objects.requireNonNull(queueName, "queueName can not be null");
+        Objects.requireNonNull(discovery, "discovery can not be null");
+        return lookup(queues, refreshingQueues, queueName, discovery::test, Boolean::booleanValue);
+    }
+
+    /**
+     * Caches a discovery result obtained elsewhere, an empty list caches the service as missing
+     */
+    public void putService(String serviceName, List<ServiceDetails> details)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        Objects.requireNonNull(details, "details can not be null");
+        services.put(serviceName, CacheEntry.of(Collections.unmodifiableList(details), !details.isEmpty(), clock.getAsLong(), configuration));
+    }
+
+    public void putQueue(String queueName, boolean exists)
+    {
+        Objects.requireNonNull(queueName, "queueName can not be null");
+        queues.put(queueName, CacheEntry.of(exists, exists, clock.getAsLong(), configuration));
+    }
+
+    public void invalidate()
+    {
+        services.clear();
+        queues.clear();
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public DiscoveryCacheConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    public DiscoveryCacheStatistics getStatistics()
+    {
+        return DiscoveryCacheStatistics.of(address, services.size(), queues.size(), hits.sum(), negativeHits.sum(), misses.sum(), refreshes.sum(), refreshFailures.sum());
+    }
+
+    // a thread per address, so that a slow domain only holds up its own refreshes, it goes away when idle
+    private static Executor newRefresher(Address address)
+    {
+        return new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_PENDING_REFRESHES), runnable -> {
+            Thread thread = new Thread(runnable, "casual-discovery-cache-refresher-" + address.getHostName() + ":" + address.getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private <T> T lookup(Map<String, CacheEntry<T>> entries, Set<String> refreshing, String name, Function<String, T> discovery, Predicate<T> isPositive)
+    {
+        long now = clock.getAsLong();
+        CacheEntry<T> entry = entries.get(name);
+        if(null != entry && !entry.isExpired(now))
+        {
+            hits.increment();
+            if(!entry.isPositive())
+            {
+                negativeHits.increment();
+            }
+            else if(entry.shouldRefresh(now))
+            {
+                refreshAhead(entries, refreshing, name, discovery, isPositive);
+            }
+            return entry.getValue();
+        }
+        // concurrent misses for the same name may all go to the domain, the last answer wins
+        misses.increment();
+        T value = discovery.apply(name);
+        entries.put(name, CacheEntry.of(value, isPositive.test(value), clock.getAsLong(), configuration));
+        return value;
+    }
+
+    private <T> void refreshAhead(Map<String, CacheEntry<T>> entries, Set<String> refreshing, String name, Function<String, T> discovery, Predicate<T> isPositive)
+    {
+        if(!refreshing.add(name))
+        {
+            return;
+        }
+        try
+        {
+            refresher.execute(() -> refresh(entries, refreshing, name, discovery, isPositive));
+        }
+        catch(RejectedExecutionException e)
+        {
+            refreshing.remove(name);
+            LOG.log(Level.FINE, e, () -> "discovery refresh rejected for: " + name);
+        }
+    }
+
+    private <T> void refresh(Map<String, CacheEntry<T>> entries, Set<String> refreshing, String name, Function<String, T> discovery, Predicate<T> isPositive)
+    {
+        try
+        {
+            T value = discovery.apply(name);
+            entries.put(name, CacheEntry.of(value, isPositive.test(value), clock.getAsLong(), configuration));
+            refreshes.increment();
+        }
+        catch(Exception e)
+        {
+            // the old entry stays until it expires, the next use after that rediscovers synchronously
+            refreshFailures.increment();
+            LOG.log(Level.FINE, e, () -> "discovery refresh failed for: " + name + " address: " + address);
+        }
+        finally
+        {
+            refreshing.remove(name);
+        }
+    }
+}
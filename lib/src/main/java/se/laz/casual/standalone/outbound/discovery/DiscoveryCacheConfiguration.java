@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.discovery;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+public final class DiscoveryCacheConfiguration
+{
+    public static final String POSITIVE_TTL_ENV = "CASUAL_DISCOVERY_POSITIVE_TTL_MILLIS";
+    public static final String NEGATIVE_TTL_ENV = "CASUAL_DISCOVERY_NEGATIVE_TTL_MILLIS";
+    public static final String REFRESH_AHEAD_ENV = "CASUAL_DISCOVERY_REFRESH_AHEAD_MILLIS";
+    private static final Duration DEFAULT_POSITIVE_TTL = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofSeconds(30);
+    private final Duration positiveTtl;
+    private final Duration negativeTtl;
+    private final Duration refreshAhead;
+
+    private DiscoveryCacheConfiguration(Duration positiveTtl, Duration negativeTtl, Duration refreshAhead)
+    {
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * Defaults, overridden by any of the CASUAL_DISCOVERY_* environment variables
+     */
+    public static DiscoveryCacheConfiguration fromEnvironment()
+    {
+        return createBuilder()
+                .withPositiveTtl(getEnv(POSITIVE_TTL_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_POSITIVE_TTL))
+                .withNegativeTtl(getEnv(NEGATIVE_TTL_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_NEGATIVE_TTL))
+                .withRefreshAhead(getEnv(REFRESH_AHEAD_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_REFRESH_AHEAD))
+                .build();
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * How long a found service or queue is trusted
+     */
+    public Duration getPositiveTtl()
+    {
+        return positiveTtl;
+    }
+
+    /**
+     * How long a missing service or queue is remembered as missing
+     */
+    public Duration getNegativeTtl()
+    {
+        return negativeTtl;
+    }
+
+    /**
+     * A positive entry used within this long of its expiry is refreshed in the background
+     * Zero disables refresh-ahead
+     */
+    public Duration getRefreshAhead()
+    {
+        return refreshAhead;
+    }
+
+    private static Optional<String> getEnv(String name)
+    {
+        return Optional.ofNullable(System.getenv(name));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DiscoveryCacheConfiguration{" +
+                "positiveTtl=" + positiveTtl +
+                ", negativeTtl=" + negativeTtl +
+                ", refreshAhead=" + refreshAhead +
+                '}';
+    }
+
+    public static final class Builder
+    {
+        private Duration positiveTtl = DEFAULT_POSITIVE_TTL;
+        private Duration negativeTtl = DEFAULT_NEGATIVE_TTL;
+        private Duration refreshAhead = DEFAULT_REFRESH_AHEAD;
+
+        private Builder()
+        {}
+
+        public Builder withPositiveTtl(Duration positiveTtl)
+        {
+            this.positiveTtl = positiveTtl;
+            return this;
+        }
+
+        public Builder withNegativeTtl(Duration negativeTtl)
+        {
+            this.negativeTtl = negativeTtl;
+            return this;
+        }
+
+        public Builder withRefreshAhead(Duration refreshAhead)
+        {
+            this.refreshAhead = refreshAhead;
+            return this;
+        }
+
+        public DiscoveryCacheConfiguration build()
+        {
+            Objects.requireNonNull(positiveTtl, "positiveTtl can not be null");
+            Objects.requireNonNull(negativeTtl, "negativeTtl can not be null");
+            Objects.requireNonNull(refreshAhead, "refreshAhead can not be null");
+            if(positiveTtl.isNegative() || negativeTtl.isNegative() || refreshAhead.isNegative())
+            {
+                throw new IllegalArgumentException("durations can not be negative, positiveTtl: " + positiveTtl + " negativeTtl: " + negativeTtl + " refreshAhead: " + refreshAhead);
+            }
+            if(refreshAhead.compareTo(positiveTtl) > 0)
+            {
+                throw new IllegalArgumentException("refreshAhead: " + refreshAhead + " can not be longer than positiveTtl: " + positiveTtl);
+            }
+            return new DiscoveryCacheConfiguration(positiveTtl, negativeTtl, refreshAhead);
+        }
+    }
+}
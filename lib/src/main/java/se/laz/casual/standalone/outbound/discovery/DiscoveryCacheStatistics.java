@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.discovery;
+
+import se.laz.casual.standalone.outbound.Address;
+
+/**
+ * Point in time snapshot of the discovery cache for one address
+ */
+public final class DiscoveryCacheStatistics
+{
+    private final Address address;
+    private final int services;
+    private final int queues;
+    private final long hits;
+    private final long negativeHits;
+    private final long misses;
+    private final long refreshes;
+    private final long refreshFailures;
+
+    private DiscoveryCacheStatistics(Address address, int services, int queues, long hits, long negativeHits, long misses, long refreshes, long refreshFailures)
+    {
+        this.address = address;
+        this.services = services;
+        this.queues = queues;
+        this.hits = hits;
+        this.negativeHits = negativeHits;
+        this.misses = misses;
+        this.refreshes = refreshes;
+        this.refreshFailures = refreshFailures;
+    }
+
+    static DiscoveryCacheStatistics of(Address address, int services, int queues, long hits, long negativeHits, long misses, long refreshes, long refreshFailures)
+    {
+        return new DiscoveryCacheStatistics(address, services, queues, hits, negativeHits, misses, refreshes, refreshFailures);
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public int getServices()
+    {
+        return services;
+    }
+
+    public int getQueues()
+    {
+        return queues;
+    }
+
+    /**
+     * Lookups answered from the cache, including negative hits
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Lookups answered from the cache with "does not exist"
+     */
+    public long getNegativeHits()
+    {
+        return negativeHits;
+    }
+
+    /**
+     * Lookups that needed a discovery round trip
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    public long getRefreshes()
+    {
+        return refreshes;
+    }
+
+    public long getRefreshFailures()
+    {
+        return refreshFailures;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DiscoveryCacheStatistics{" +
+                "address=" + address +
+                ", services=" + services +
+                ", queues=" + queues +
+                ", hits=" + hits +
+                ", negativeHits=" + negativeHits +
+                ", misses=" + misses +
+                ", refreshes=" + refreshes +
+                ", refreshFailures=" + refreshFailures +
+                '}';
+    }
+}
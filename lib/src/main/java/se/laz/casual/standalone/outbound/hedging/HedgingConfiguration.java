@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.hedging;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public final class HedgingConfiguration
+{
+    public static final String ENABLED_ENV = "CASUAL_HEDGING_ENABLED";
+    public static final String PERCENTILE_ENV = "CASUAL_HEDGING_PERCENTILE";
+    public static final String MIN_DELAY_ENV = "CASUAL_HEDGING_MIN_DELAY_MILLIS";
+    public static final String BUDGET_ENV = "CASUAL_HEDGING_BUDGET";
+    public static final String MINIMUM_SAMPLES_ENV = "CASUAL_HEDGING_MINIMUM_SAMPLES";
+    public static final String SERVICES_ENV = "CASUAL_HEDGING_SERVICES";
+    private static final double DEFAULT_PERCENTILE = 0.95;
+    private static final Duration DEFAULT_MIN_DELAY = Duration.ofMillis(5);
+    private static final double DEFAULT_BUDGET = 0.05;
+    private static final int DEFAULT_MINIMUM_SAMPLES = 100;
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final double budget;
+    private final int minimumSamples;
+    private final Set<String> services;
+
+    private HedgingConfiguration(Builder builder)
+    {
+        this.enabled = builder.enabled;
+        this.percentile = builder.percentile;
+        this.minDelay = builder.minDelay;
+        this.budget = builder.budget;
+        this.minimumSamples = builder.minimumSamples;
+        this.services = Collections.unmodifiableSet(new HashSet<>(builder.services));
+    }
+
+    /**
+     * Defaults, overridden by any of the CASUAL_HEDGING_* environment variables
+     * Hedging is off unless CASUAL_HEDGING_ENABLED is true, CASUAL_HEDGING_SERVICES is a comma separated list
+     */
+    public static HedgingConfiguration fromEnvironment()
+    {
+        return createBuilder()
+                .withEnabled(getEnv(ENABLED_ENV).map(Boolean::parseBoolean).orElse(false))
+                .withPercentile(getEnv(PERCENTILE_ENV).map(Double::parseDouble).orElse(DEFAULT_PERCENTILE))
+                .withMinDelay(getEnv(MIN_DELAY_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_MIN_DELAY))
+                .withBudget(getEnv(BUDGET_ENV).map(Double::parseDouble).orElse(DEFAULT_BUDGET))
+                .withMinimumSamples(getEnv(MINIMUM_SAMPLES_ENV).map(Integer::parseInt).orElse(DEFAULT_MINIMUM_SAMPLES))
+                .withServices(getEnv(SERVICES_ENV).map(HedgingConfiguration::parseServices).orElse(Collections.emptySet()))
+                .build();
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * A duplicate is sent once the call has been pending longer than this percentile of the latencies of the service
+     */
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    /**
+     * A duplicate is never sent sooner than this
+     */
+    public Duration getMinDelay()
+    {
+        return minDelay;
+    }
+
+    /**
+     * Duplicates as a share of the calls, 0.05 is at most 5% extra load on the domain
+     */
+    public double getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * No duplicates for a service until this many latencies of it are recorded
+     */
+    public int getMinimumSamples()
+    {
+        return minimumSamples;
+    }
+
+    /**
+     * The services that may be hedged, empty for every service called with TPNOTRAN
+     */
+    public Set<String> getServices()
+    {
+        return services;
+    }
+
+    private static Set<String> parseServices(String services)
+    {
+        return Arrays.stream(services.split(","))
+                     .map(String::trim)
+                     .filter(name -> !name.isEmpty())
+                     .collect(Collectors.toSet());
+    }
+
+    private static Optional<String> getEnv(String name)
+    {
+        return Optional.ofNullable(System.getenv(name));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HedgingConfiguration{" +
+                "enabled=" + enabled +
+                ", percentile=" + percentile +
+                ", minDelay=" + minDelay +
+                ", budget=" + budget +
+                ", minimumSamples=" + minimumSamples +
+                ", services=" + services +
+                '}';
+    }
+
+    public static final class Builder
+    {
+        private boolean enabled = true;
+        private double percentile = DEFAULT_PERCENTILE;
+        private Duration minDelay = DEFAULT_MIN_DELAY;
+        private double budget = DEFAULT_BUDGET;
+        private int minimumSamples = DEFAULT_MINIMUM_SAMPLES;
+        private Set<String> services = Collections.emptySet();
+
+        private Builder()
+        {}
+
+        public Builder withEnabled(boolean enabled)
+        {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Builder withPercentile(double percentile)
+        {
+            this.percentile = percentile;
+            return this;
+        }
+
+        public Builder withMinDelay(Duration minDelay)
+        {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        public Builder withBudget(double budget)
+        {
+            this.budget = budget;
+            return this;
+        }
+
+        public Builder withMinimumSamples(int minimumSamples)
+        {
+            this.minimumSamples = minimumSamples;
+            return this;
+        }
+
+        public Builder withServices(Set<String> services)
+        {
+            this.services = services;
+            return this;
+        }
+
+        public HedgingConfiguration build()
+        {
+            Objects.requireNonNull(minDelay, "minDelay can not be null");
+            Objects.requireNonNull(services, "services can not be null");
+            if(percentile <= 0 || percentile > 1 || budget < 0 || budget > 1)
+            {
+                throw new IllegalArgumentException("percentile has to be in (0, 1] and budget in [0, 1], percentile: " + percentile + " budget: " + budget);
+            }
+            if(minDelay.isNegative() || minimumSamples <= 0)
+            {
+                throw new IllegalArgumentException("minDelay can not be negative and minimumSamples has to be positive, minDelay: " + minDelay + " minimumSamples: " + minimumSamples);
+            }
+            return new HedgingConfiguration(this);
+        }
+    }
+}
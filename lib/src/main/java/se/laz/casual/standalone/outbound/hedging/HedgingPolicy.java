@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.hedging;
+
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.standalone.metrics.LatencyHistogram;
+import se.laz.casual.standalone.outbound.Address;
+import se.laz.casual.standalone.outbound.Deadlines;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hedged service calls to one address, shared by all callers of that address
+ *
+ * A call that has no reply once it has been pending longer than the configured percentile of the latencies of
+ * the service is sent once more, the first reply wins and the other call is cancelled.
+ * Every hedgeable call earns the budget share of a duplicate and every duplicate spends a whole one, so
+ * duplicates never exceed that share of the calls, apart from a small burst.
+ * Only services called with TPNOTRAN are hedged, the service has to be idempotent since both calls may execute.
+ */
+public final class HedgingPolicy
+{
+    private static final Logger LOG = Logger.getLogger(HedgingPolicy.class.getName());
+    private static final Map<Address, HedgingPolicy> REGISTRY = new ConcurrentHashMap<>();
+    private static final Map<Address, HedgingConfiguration> CONFIGURATIONS = new ConcurrentHashMap<>();
+    private static final double MAX_BURST = 10;
+    private static final long DECAY_AFTER = 10_000;
+    private final Address address;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final LongAdder hedgeableCalls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder deniedByBudget = new LongAdder();
+    private double tokens;
+    private volatile HedgingConfiguration configuration;
+
+    private HedgingPolicy(Address address, HedgingConfiguration configuration)
+    {
+        this.address = address;
+        this.configuration = configuration;
+    }
+
+    public static HedgingPolicy of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return REGISTRY.computeIfAbsent(address, key -> new HedgingPolicy(key, CONFIGURATIONS.computeIfAbsent(key, k -> HedgingConfiguration.fromEnvironment())));
+    }
+
+    /**
+     * Configuration for the hedging of calls to the address, recorded latencies and the budget start over
+     * Addresses without configuration use {@link HedgingConfiguration#fromEnvironment()}
+     */
+    public static void configure(Address address, HedgingConfiguration configuration)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        CONFIGURATIONS.put(address, configuration);
+        Optional.ofNullable(REGISTRY.get(address)).ifPresent(policy -> {
+            policy.configuration = configuration;
+            policy.latencies.clear();
+            synchronized (policy.lock)
+            {
+                policy.tokens = 0;
+            }
+        });
+    }
+
+    public static List<HedgingPolicy> getAllHedgingPolicies()
+    {
+        return new ArrayList<>(REGISTRY.values());
+    }
+
+    /**
+     * @return true if a call to the service with these flags is hedged
+     */
+    public boolean isHedgeable(String serviceName, Flag<AtmiFlags> flags)
+    {
+        HedgingConfiguration current = configuration;
+        return current.isEnabled() &&
+               flags.isSet(AtmiFlags.TPNOTRAN) &&
+               (current.getServices().isEmpty() || current.getServices().contains(serviceName));
+    }
+
+    /**
+     * Issues the call, and a duplicate of it if it is slow and the budget allows
+     * @param attempt issues the call, invoked a second time for the duplicate
+     * @return the first reply
+     */
+    public <T> CompletableFuture<T> call(String serviceName, Supplier<CompletableFuture<T>> attempt)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        Objects.requireNonNull(attempt, "attempt can not be null");
+        HedgingConfiguration current = configuration;
+        LatencyHistogram histogram = latencies.computeIfAbsent(serviceName, key -> LatencyHistogram.of(Math.max(DECAY_AFTER, 2L * current.getMinimumSamples())));
+        hedgeableCalls.increment();
+        deposit(current.getBudget());
+        CompletableFuture<T> primary = timed(attempt, histogram);
+        if(histogram.getCount() < current.getMinimumSamples())
+        {
+            return primary;
+        }
+        Duration delay = getDelay(histogram, current);
+        CompletableFuture<T> reply = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> duplicate = new AtomicReference<>();
+        CompletableFuture<Void> timer = Deadlines.after(delay);
+        primary.whenComplete((value, throwable) -> complete(reply, value, throwable));
+        timer.thenRun(() -> hedge(serviceName, attempt, histogram, reply, duplicate));
+        reply.whenComplete((value, throwable) -> {
+            timer.cancel(false);
+            primary.cancel(false);
+            Optional.ofNullable(duplicate.get()).ifPresent(loser -> loser.cancel(false));
+        });
+        return reply;
+    }
+
+    private <T> void hedge(String serviceName, Supplier<CompletableFuture<T>> attempt, LatencyHistogram histogram, CompletableFuture<T> reply, AtomicReference<CompletableFuture<T>> duplicate)
+    {
+        if(reply.isDone())
+        {
+            return;
+        }
+        if(!withdraw())
+        {
+            deniedByBudget.increment();
+            return;
+        }
+        hedges.increment();
+        LOG.finest(() -> "hedging call to: " + serviceName + " at: " + address);
+        try
+        {
+            CompletableFuture<T> hedged = timed(attempt, histogram);
+            duplicate.set(hedged);
+            hedged.whenComplete((value, throwable) -> {
+                if(complete(reply, value, throwable))
+                {
+                    hedgeWins.increment();
+                }
+            });
+            if(reply.isDone())
+            {
+                hedged.cancel(false);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            // the original call is still pending, it gets to reply
+            LOG.log(Level.FINE, e, () -> "could not hedge call to: " + serviceName + " at: " + address);
+        }
+    }
+
+    private static <T> CompletableFuture<T> timed(Supplier<CompletableFuture<T>> attempt, LatencyHistogram histogram)
+    {
+        long start = System.nanoTime();
+        CompletableFuture<T> pending = attempt.get();
+        pending.whenComplete((value, throwable) -> {
+            // cancelled losers did not reply, their latency is unknown
+            if(null == throwable)
+            {
+                histogram.record(System.nanoTime() - start);
+            }
+        });
+        return pending;
+    }
+
+    private static <T> boolean complete(CompletableFuture<T> reply, T value, Throwable throwable)
+    {
+        return null == throwable ? reply.complete(value) : reply.completeExceptionally(throwable);
+    }
+
+    private static Duration getDelay(LatencyHistogram histogram, HedgingConfiguration current)
+    {
+        Duration atPercentile = Duration.ofNanos(histogram.getValueAtPercentile(current.getPercentile()));
+        return atPercentile.compareTo(current.getMinDelay()) > 0 ? atPercentile : current.getMinDelay();
+    }
+
+    private void deposit(double amount)
+    {
+        synchronized (lock)
+        {
+            tokens = Math.min(MAX_BURST, tokens + amount);
+        }
+    }
+
+    private boolean withdraw()
+    {
+        synchronized (lock)
+        {
+            if(tokens < 1)
+            {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    /**
+     * The delay after which a call to the service is hedged, empty while too few latencies are recorded
+     */
+    public Optional<Duration> getDelay(String serviceName)
+    {
+        HedgingConfiguration current = configuration;
+        return Optional.ofNullable(latencies.get(serviceName))
+                       .filter(histogram -> histogram.getCount() >= current.getMinimumSamples())
+                       .map(histogram -> getDelay(histogram, current));
+    }
+
+    public HedgingStatistics getStatistics()
+    {
+        return HedgingStatistics.of(hedgeableCalls.sum(), hedges.sum(), hedgeWins.sum(), deniedByBudget.sum());
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public HedgingConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HedgingPolicy{" +
+                "address=" + address +
+                ", configuration=" + configuration +
+                ", statistics=" + getStatistics() +
+                '}';
+    }
+}
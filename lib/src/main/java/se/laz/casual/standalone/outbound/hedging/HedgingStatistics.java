@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.hedging;
+
+/**
+ * Snapshot of the hedging of the calls to one address
+ */
+public final class HedgingStatistics
+{
+    private final long hedgeableCalls;
+    private final long hedges;
+    private final long hedgeWins;
+    private final long deniedByBudget;
+
+    private HedgingStatistics(long hedgeableCalls, long hedges, long hedgeWins, long deniedByBudget)
+    {
+        this.hedgeableCalls = hedgeableCalls;
+        this.hedges = hedges;
+        this.hedgeWins = hedgeWins;
+        this.deniedByBudget = deniedByBudget;
+    }
+
+    public static HedgingStatistics of(long hedgeableCalls, long hedges, long hedgeWins, long deniedByBudget)
+    {
+        return new HedgingStatistics(hedgeableCalls, hedges, hedgeWins, deniedByBudget);
+    }
+
+    /**
+     * Calls that would have been hedged had they been slow
+     */
+    public long getHedgeableCalls()
+    {
+        return hedgeableCalls;
+    }
+
+    /**
+     * Duplicates sent
+     */
+    public long getHedges()
+    {
+        return hedges;
+    }
+
+    /**
+     * Duplicates that replied before the original call
+     */
+    public long getHedgeWins()
+    {
+        return hedgeWins;
+    }
+
+    /**
+     * Duplicates not sent since the budget was used up
+     */
+    public long getDeniedByBudget()
+    {
+        return deniedByBudget;
+    }
+
+    /**
+     * Duplicates as a share of the hedgeable calls, the extra load put on the domain
+     */
+    public double getExtraLoad()
+    {
+        return hedgeableCalls == 0 ? 0 : (double) hedges / hedgeableCalls;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HedgingStatistics{" +
+                "hedgeableCalls=" + hedgeableCalls +
+                ", hedges=" + hedges +
+                ", hedgeWins=" + hedgeWins +
+                ", deniedByBudget=" + deniedByBudget +
+                '}';
+    }
+}
@@ -5,72 +5,157 @@
  */
 package se.laz.casual.standalone.outbound.network.pool;
 
+import se.laz.casual.network.connection.CasualConnectionException;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Copy on write, adding and removing connections replaces the list
+ *
+ * A connection is selected once per caller bind, not per request: {@link NetworkConnectionPool#getOrCreateConnection}
+ * calls get, holding its own lock, when the pool is full and a caller binds to it, the caller then sends all its
+ * requests on that connection. The strategy balances callers over the connections by their load at bind time.
+ * Copy on write keeps the readers outside that lock, activeCount, getConnections and the JMX view of the pool,
+ * from ever waiting on a bind that is opening a connection.
+ */
 public class ConnectionContainer
 {
-    private final List<ReferenceCountedNetworkConnection> connections = new ArrayList<>();
-    private final Object lock = new Object();
+    private final AtomicReference<List<ReferenceCountedNetworkConnection>> connections = new AtomicReference<>(Collections.emptyList());
+    private final SelectionStrategy selectionStrategy;
 
+    private ConnectionContainer(SelectionStrategy selectionStrategy)
+    {
+        this.selectionStrategy = selectionStrategy;
+    }
 
     public static ConnectionContainer of()
     {
-        return new ConnectionContainer();
+        return of(SelectionStrategies.LEAST_IN_FLIGHT.create());
+    }
+
+    public static ConnectionContainer of(SelectionStrategy selectionStrategy)
+    {
+        Objects.requireNonNull(selectionStrategy, "selectionStrategy can not be null");
+        return new ConnectionContainer(selectionStrategy);
     }
 
     public int size()
     {
-        synchronized (lock)
-        {
-            return connections.size();
-        }
+        return connections.get().size();
     }
 
     public void addConnection(ReferenceCountedNetworkConnection connection)
     {
-        synchronized (lock)
-        {
-            connections.add(connection);
-        }
+        connections.updateAndGet(current -> {
+            List<ReferenceCountedNetworkConnection> updated = new ArrayList<>(current);
+            updated.add(connection);
+            return Collections.unmodifiableList(updated);
+        });
     }
 
     public void removeConnection(ReferenceCountedNetworkConnection connection)
     {
-        synchronized (lock)
+        connections.updateAndGet(current -> {
+            List<ReferenceCountedNetworkConnection> updated = new ArrayList<>(current);
+            updated.remove(connection);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    public int activeCount()
+    {
+        int active = 0;
+        for(ReferenceCountedNetworkConnection connection : connections.get())
         {
-            connections.remove(connection);
+            active += connection.isActive() ? 1 : 0;
         }
+        return active;
     }
 
+    /**
+     * One of the active connections, as picked by the selection strategy, for a caller binding to the pool
+     * @throws IllegalStateException if there are no connections
+     * @throws CasualConnectionException if none of the connections is active
+     */
     public ReferenceCountedNetworkConnection get()
     {
-        synchronized (lock)
+        List<ReferenceCountedNetworkConnection> snapshot = connections.get();
+        if(snapshot.isEmpty())
+        {
+            throw new IllegalStateException("no connections in: " + this);
+        }
+        List<ReferenceCountedNetworkConnection> active = active(snapshot);
+        if(active.isEmpty())
+        {
+            throw new CasualConnectionException("no active connections in: " + this);
+        }
+        return active.size() == 1 ? active.get(0) : selectionStrategy.select(active);
+    }
+
+    /**
+     * Removes every connection that is no longer active
+     * @return the removed connections
+     */
+    public List<ReferenceCountedNetworkConnection> removeInactive()
+    {
+        List<ReferenceCountedNetworkConnection> removed = new ArrayList<>();
+        connections.updateAndGet(current -> {
+            removed.clear();
+            List<ReferenceCountedNetworkConnection> updated = new ArrayList<>(current.size());
+            for(ReferenceCountedNetworkConnection connection : current)
+            {
+                if(connection.isActive())
+                {
+                    updated.add(connection);
+                }
+                else
+                {
+                    removed.add(connection);
+                }
+            }
+            return removed.isEmpty() ? current : Collections.unmodifiableList(updated);
+        });
+        return removed;
+    }
+
+    public List<ReferenceCountedNetworkConnection> getConnections()
+    {
+        return connections.get();
+    }
+
+    // the common case, all connections active, does not allocate
+    private static List<ReferenceCountedNetworkConnection> active(List<ReferenceCountedNetworkConnection> snapshot)
+    {
+        int firstInactive = 0;
+        while(firstInactive < snapshot.size() && snapshot.get(firstInactive).isActive())
+        {
+            ++firstInactive;
+        }
+        if(firstInactive == snapshot.size())
+        {
+            return snapshot;
+        }
+        List<ReferenceCountedNetworkConnection> active = new ArrayList<>(snapshot.subList(0, firstInactive));
+        for(int i = firstInactive + 1; i < snapshot.size(); ++i)
         {
-            if(connections.size() == 1)
+            if(snapshot.get(i).isActive())
             {
-                return connections.get(0);
+                active.add(snapshot.get(i));
             }
-            return connections.get(getRandomNumber(0, connections.size()));
         }
+        return active;
     }
 
     @Override
     public String toString()
     {
         return "ConnectionContainer{" +
-                "connections=" + connections +
-                ", lock=" + lock +
+                "connections=" + connections.get() +
+                ", selectionStrategy=" + selectionStrategy +
                 '}';
     }
-
-    // pseudorandom is good enough here
-    @SuppressWarnings("java:S2245")
-    // max - exclusive upper limit
-    private static int getRandomNumber(int min, int max)
-    {
-        return ThreadLocalRandom.current().nextInt(min, max);
-    }
-
 }
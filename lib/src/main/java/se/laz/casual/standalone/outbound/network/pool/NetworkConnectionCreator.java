@@ -12,5 +12,9 @@ import se.laz.casual.standalone.outbound.Address;
 @FunctionalInterface
 public interface NetworkConnectionCreator
 {
+    /**
+     * @param networkListener the listener of the first user, null for a spare that no user has taken yet
+     * @param ownListener the pool itself, it has to be registered exactly once per connection
+     */
     ReferenceCountedNetworkConnection createNetworkConnection(Address address, ProtocolVersion protocolVersion, NetworkListener networkListener, ReferenceCountedNetworkCloseListener referenceCountedNetworkCloseListener, NetworkListener ownListener);
 }
@@ -16,23 +16,58 @@ import se.laz.casual.network.outbound.NetworkListener;
 import se.laz.casual.standalone.outbound.Address;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Up to pool size network connections to one address, shared by all callers of that address
+ *
+ * Dead connections are removed by a reaper, which runs every CASUAL_NETWORK_POOL_REAP_INTERVAL_MILLIS and right
+ * after a disconnect. For every removed connection that still had users a replacement is opened, it is kept as
+ * a spare until the next user arrives, usually one of the old users reconnecting.
+ * A disconnect does not make the pool unusable, the next user or the reaper opens a new connection.
+ */
 public class NetworkConnectionPool implements ReferenceCountedNetworkCloseListener, NetworkListener
 {
     private static final Logger LOG = Logger.getLogger(NetworkConnectionPool.class.getName());
+    public static final String REAP_INTERVAL_ENV = "CASUAL_NETWORK_POOL_REAP_INTERVAL_MILLIS";
+    private static final long REAP_INTERVAL_MILLIS = Optional.ofNullable(System.getenv(REAP_INTERVAL_ENV)).map(Long::parseLong).orElse(5000L);
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "casual-network-pool-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final Address address;
-    private final ConnectionContainer connections = ConnectionContainer.of();
+    private final ConnectionContainer connections;
     private final String poolName;
-    private int poolSize;
-    private final Object getOrCreateLock = new Object();
+    private volatile int poolSize;
+    // not a monitor, connecting while holding it must not pin a virtual thread to its carrier
+    private final ReentrantLock getOrCreateLock = new ReentrantLock();
     private final NetworkConnectionCreator networkConnectionCreator;
-    private final AtomicBoolean disconnected = new AtomicBoolean(false);
+    private final Queue<ReferenceCountedNetworkConnection> spares = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger replacementsOwed = new AtomicInteger();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private volatile ProtocolVersion protocolVersion;
 
-    private NetworkConnectionPool(String poolName, Address address, int poolSize, NetworkConnectionCreator networkConnectionCreator)
+    private NetworkConnectionPool(String poolName, Address address, int poolSize, NetworkConnectionCreator networkConnectionCreator, SelectionStrategy selectionStrategy)
     {
+        this.connections = ConnectionContainer.of(selectionStrategy);
         this.address = address;
         this.poolSize = poolSize;
         this.networkConnectionCreator = networkConnectionCreator;
@@ -46,11 +81,19 @@ public class NetworkConnectionPool implements ReferenceCountedNetworkCloseListen
 
     public static NetworkConnectionPool of(String poolName, Address address, int poolSize, NetworkConnectionCreator networkConnectionCreator)
     {
+        return of(poolName, address, poolSize, networkConnectionCreator, SelectionStrategies.LEAST_IN_FLIGHT.create());
+    }
+
+    public static NetworkConnectionPool of(String poolName, Address address, int poolSize, NetworkConnectionCreator networkConnectionCreator, SelectionStrategy selectionStrategy)
+    {
+        Objects.requireNonNull(selectionStrategy, "selectionStrategy can not be null");
         Objects.requireNonNull(address, "poolName can not be null");
         Objects.requireNonNull(address, "address can not be null");
         networkConnectionCreator = null == networkConnectionCreator ? NetworkConnectionPool::createNetworkConnection : networkConnectionCreator;
         LOG.info(() -> "new NetworkConnectionPool for address: " + address + " with pool size: " + poolSize);
-        return new NetworkConnectionPool(poolName, address, poolSize, networkConnectionCreator);
+        NetworkConnectionPool pool = new NetworkConnectionPool(poolName, address, poolSize, networkConnectionCreator, selectionStrategy);
+        REAPER.scheduleWithFixedDelay(pool::reap, REAP_INTERVAL_MILLIS, REAP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return pool;
     }
 
     public NetworkConnection getOrCreateConnection(Address address, ProtocolVersion protocolVersion, NetworkListener networkListener)
@@ -59,15 +102,20 @@ public class NetworkConnectionPool implements ReferenceCountedNetworkCloseListen
         {
             throw new CasualResourceAdapterException("Address mismatch, have: " + this.address + " got: " + address + " for pool with name: " + poolName);
         }
-        if(disconnected.get())
-        {
-            throw new CasualConnectionException("disconnected");
-        }
-        synchronized (getOrCreateLock)
+        this.protocolVersion = protocolVersion;
+        getOrCreateLock.lock();
+        try
         {
-            // create up to pool size # of connections
-            // after that, randomly choose one - later on we can have some better heuristics for choosing which connection to return
-            if (connections.size() == poolSize)
+            // a spare already carries the reference for its first user
+            ReferenceCountedNetworkConnection spare = pollActiveSpare();
+            if(null != spare)
+            {
+                spare.addListener(networkListener);
+                return spare;
+            }
+            // create up to pool size # of active connections
+            // after that, let the selection strategy choose
+            if (connections.activeCount() >= poolSize)
             {
                 ReferenceCountedNetworkConnection connection = connections.get();
                 connection.increment();
@@ -75,19 +123,181 @@ public class NetworkConnectionPool implements ReferenceCountedNetworkCloseListen
                 return connection;
             }
             ReferenceCountedNetworkConnection connection = networkConnectionCreator.createNetworkConnection(address, protocolVersion, networkListener, this, this);
-            connections.addConnection(connection);
+            addConnection(connection);
             return connection;
         }
+        finally
+        {
+            getOrCreateLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if none of the connections is active, losing one of several connections does not disconnect the pool
+     */
+    public boolean isDisconnected()
+    {
+        return connections.activeCount() == 0;
+    }
+
+    /**
+     * Opens connections, in parallel, until the pool has count active connections, at most pool size
+     * They are kept as spares for the users to come
+     * @return the number of connections opened
+     * @throws CasualConnectionException if any of the connections could not be opened, the ones that could are kept
+     */
+    public int prewarm(int count, ProtocolVersion protocolVersion, Executor executor)
+    {
+        Objects.requireNonNull(protocolVersion, "protocolVersion can not be null");
+        Objects.requireNonNull(executor, "executor can not be null");
+        this.protocolVersion = protocolVersion;
+        int missing = Math.min(count, poolSize) - connections.activeCount();
+        List<CompletableFuture<ReferenceCountedNetworkConnection>> opening = new ArrayList<>();
+        for(int i = 0; i < missing; ++i)
+        {
+            // no user yet, only the pool listens, its users are added as they take the spares
+            opening.add(CompletableFuture.supplyAsync(() -> networkConnectionCreator.createNetworkConnection(address, protocolVersion, null, this, this), executor));
+        }
+        CompletableFuture.allOf(opening.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        int opened = 0;
+        RuntimeException failure = null;
+        getOrCreateLock.lock();
+        try
+        {
+            for(CompletableFuture<ReferenceCountedNetworkConnection> future : opening)
+            {
+                try
+                {
+                    ReferenceCountedNetworkConnection connection = future.join();
+                    if(connections.activeCount() >= poolSize)
+                    {
+                        // users arrived while opening
+                        connection.close();
+                        continue;
+                    }
+                    addConnection(connection);
+                    spares.add(connection);
+                    ++opened;
+                }
+                catch(CompletionException e)
+                {
+                    failure = null == failure ? toRuntimeException(e.getCause()) : failure;
+                }
+            }
+        }
+        finally
+        {
+            getOrCreateLock.unlock();
+        }
+        int openedConnections = opened;
+        LOG.info(() -> "prewarmed: " + poolName + " with: " + openedConnections + " connections");
+        if(null != failure)
+        {
+            throw failure;
+        }
+        return opened;
+    }
+
+    /**
+     * Removes connections that are no longer active and opens replacements for those that still had users
+     * A replacement that can not be opened is retried on the next run
+     */
+    public void reap()
+    {
+        try
+        {
+            List<ReferenceCountedNetworkConnection> removed = connections.removeInactive();
+            removed.forEach(spares::remove);
+            int owed = replacementsOwed.addAndGet((int) removed.stream().filter(connection -> connection.getReferenceCount() > 0).count());
+            if(!removed.isEmpty())
+            {
+                LOG.warning(() -> "removed inactive: " + removed + " from: " + poolName + ", replacements owed: " + owed);
+            }
+            replace();
+        }
+        catch(RuntimeException e)
+        {
+            LOG.log(Level.WARNING, e, () -> "reaping failed for: " + poolName);
+        }
+    }
+
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    /**
+     * Applies to connections handed out from now on, growing adds connections as new users arrive
+     * and shrinking lets the surplus connections go away as their users close them
+     */
+    public void setPoolSize(int poolSize)
+    {
+        if(poolSize <= 0)
+        {
+            throw new IllegalArgumentException("poolSize has to be positive, was: " + poolSize);
+        }
+        this.poolSize = poolSize;
+        LOG.info(() -> "pool size for: " + poolName + " set to: " + poolSize);
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public String getPoolName()
+    {
+        return poolName;
+    }
+
+    public int getActiveCount()
+    {
+        return connections.activeCount();
+    }
+
+    /**
+     * Connections lost since the pool was created
+     */
+    public long getDisconnects()
+    {
+        return disconnects.sum();
+    }
+
+    /**
+     * Connections opened by the pool to replace lost ones
+     */
+    public long getReconnects()
+    {
+        return reconnects.sum();
+    }
+
+    public List<ReferenceCountedNetworkConnection> getConnections()
+    {
+        return connections.getConnections();
+    }
+
+    /**
+     * Requests waiting for replies, over all connections in the pool
+     */
+    public int getInFlight()
+    {
+        return getConnections().stream().mapToInt(ReferenceCountedNetworkConnection::getInFlight).sum();
     }
 
     @Override
     public void closed(ReferenceCountedNetworkConnection networkConnection)
     {
-        synchronized (getOrCreateLock)
+        getOrCreateLock.lock();
+        try
         {
             connections.removeConnection(networkConnection);
+            spares.remove(networkConnection);
             LOG.info(() -> "removed: " + networkConnection + " from: " + this);
         }
+        finally
+        {
+            getOrCreateLock.unlock();
+        }
     }
 
     @Override
@@ -119,7 +329,9 @@ public class NetworkConnectionPool implements ReferenceCountedNetworkCloseListen
                 ", connections=" + connections +
                 ", poolName='" + poolName + '\'' +
                 ", poolSize=" + poolSize +
-                ", disconnected=" + disconnected +
+                ", disconnected=" + isDisconnected() +
+                ", spares=" + spares.size() +
+                ", replacementsOwed=" + replacementsOwed +
                 '}';
     }
 
@@ -130,16 +342,85 @@ public class NetworkConnectionPool implements ReferenceCountedNetworkCloseListen
         if (networkConnection instanceof NettyNetworkConnection)
         {
             NettyNetworkConnection impl = (NettyNetworkConnection) networkConnection;
-            impl.addListener(networkListener);
+            if(null != networkListener)
+            {
+                impl.addListener(networkListener);
+            }
             LOG.info(() -> "created network connection: " + networkConnection + "for address: " + address);
             return ReferenceCountedNetworkConnection.of(impl, referenceCountedNetworkCloseListener);
         }
         throw new CasualResourceAdapterException("Wrong implementation for NetworkConnection, was expecting NettyNetworkConnection but got: " + networkConnection.getClass());
     }
 
+    /**
+     * Called from the network thread, once per lost connection, the actual reaping is left to the reaper
+     */
     @Override
     public void disconnected(Exception reason)
     {
-        disconnected.set(true);
+        disconnects.increment();
+        LOG.warning(() -> "disconnected: " + poolName + " reason: " + reason);
+        REAPER.execute(this::reap);
+    }
+
+    private void addConnection(ReferenceCountedNetworkConnection connection)
+    {
+        connections.addConnection(connection);
+    }
+
+    private static RuntimeException toRuntimeException(Throwable t)
+    {
+        return t instanceof RuntimeException ? (RuntimeException) t : new CasualConnectionException(t);
+    }
+
+    private ReferenceCountedNetworkConnection pollActiveSpare()
+    {
+        ReferenceCountedNetworkConnection spare;
+        while(null != (spare = spares.poll()))
+        {
+            if(spare.isActive())
+            {
+                return spare;
+            }
+        }
+        return null;
+    }
+
+    private void replace()
+    {
+        ProtocolVersion version = protocolVersion;
+        if(null == version)
+        {
+            return;
+        }
+        getOrCreateLock.lock();
+        try
+        {
+            while(replacementsOwed.get() > 0 && connections.activeCount() < poolSize)
+            {
+                // no user yet, only the pool listens, its users are added as they take the spare
+                ReferenceCountedNetworkConnection replacement;
+                try
+                {
+                    replacement = networkConnectionCreator.createNetworkConnection(address, version, null, this, this);
+                }
+                catch(CasualConnectionException e)
+                {
+                    LOG.info(() -> "could not replace connection for: " + poolName + ", will retry: " + e);
+                    return;
+                }
+                addConnection(replacement);
+                spares.add(replacement);
+                replacementsOwed.decrementAndGet();
+                reconnects.increment();
+                LOG.info(() -> "replaced connection for: " + poolName + " with: " + replacement);
+            }
+            // nothing left to replace once the pool is full again
+            replacementsOwed.set(connections.activeCount() >= poolSize ? 0 : replacementsOwed.get());
+        }
+        finally
+        {
+            getOrCreateLock.unlock();
+        }
     }
 }
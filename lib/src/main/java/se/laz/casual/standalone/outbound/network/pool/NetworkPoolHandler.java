@@ -9,18 +9,26 @@ import se.laz.casual.internal.network.NetworkConnection;
 import se.laz.casual.network.ProtocolVersion;
 import se.laz.casual.network.connection.CasualConnectionException;
 import se.laz.casual.network.outbound.NetworkListener;
+import se.laz.casual.standalone.jmx.CasualMBeans;
 import se.laz.casual.standalone.outbound.Address;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 public class NetworkPoolHandler
 {
+    public static final String POOL_SIZE_ENV = "CASUAL_NETWORK_POOL_SIZE";
     private static final Logger log = Logger.getLogger(NetworkPoolHandler.class.getName());
+    private static final int DEFAULT_POOL_SIZE = Optional.ofNullable(System.getenv(POOL_SIZE_ENV)).map(Integer::parseInt).orElse(1);
+    private static final SelectionStrategies SELECTION_STRATEGY = SelectionStrategies.fromEnvironment();
     private static final NetworkPoolHandler instance = new NetworkPoolHandler();
     private final Map<String, NetworkConnectionPool> pools = new ConcurrentHashMap<>();
+    private final Map<Address, Integer> poolSizes = new ConcurrentHashMap<>();
 
     public static NetworkPoolHandler getInstance()
     {
@@ -32,18 +40,67 @@ public class NetworkPoolHandler
         try
         {
             log.info(() -> "poolName: " + poolName + " address: " + address);
-            return pools.computeIfAbsent(poolName, key -> NetworkConnectionPool.of(key, address, poolSize)).getOrCreateConnection(address, protocolVersion, listener);
+            return pools.computeIfAbsent(poolName, key -> createPool(key, address, poolSize)).getOrCreateConnection(address, protocolVersion, listener);
         }
         catch(CasualConnectionException e)
         {
-            log.info(() -> "connection failure for: " + address);
-            log.info(() -> "removing pool: " + poolName);
-            pools.remove(poolName);
+            // the pool stays, it recovers by itself once the address can be reached again
+            log.info(() -> "connection failure for: " + address + " in pool: " + poolName);
             throw e;
         }
     }
 
-    // used by jmx only
+    /**
+     * The name of the pool all callers of the address share
+     */
+    public static String getPoolName(Address address)
+    {
+        return String.format("%s:%s", address.getHostName(), address.getPort());
+    }
+
+    /**
+     * Opens, in parallel, up to connections network connections to the address before any caller needs them
+     * The pool size is raised to connections if it is smaller
+     * @return the number of connections opened
+     */
+    public int prewarm(Address address, ProtocolVersion protocolVersion, int connections, Executor executor)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        if(connections > getPoolSize(address))
+        {
+            setPoolSize(address, connections);
+        }
+        int poolSize = getPoolSize(address);
+        return pools.computeIfAbsent(getPoolName(address), key -> createPool(key, address, poolSize))
+                    .prewarm(connections, protocolVersion, executor);
+    }
+
+    /**
+     * Number of network connections to the address shared by all callers, applies to existing pools as well
+     * Addresses without a pool size use CASUAL_NETWORK_POOL_SIZE, or 1
+     *
+     * A caller is given one of the connections when it is created and sends all its
+     * requests on that connection: a single caller never spreads its requests over the pool, and callers
+     * already created keep their connection when the size is raised, only callers created later use the new ones
+     */
+    public void setPoolSize(Address address, int poolSize)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        if(poolSize <= 0)
+        {
+            throw new IllegalArgumentException("poolSize has to be positive, was: " + poolSize);
+        }
+        poolSizes.put(address, poolSize);
+        pools.values().stream()
+             .filter(pool -> pool.getAddress().equals(address))
+             .forEach(pool -> pool.setPoolSize(poolSize));
+    }
+
+    public int getPoolSize(Address address)
+    {
+        return poolSizes.getOrDefault(address, DEFAULT_POOL_SIZE);
+    }
+
     public NetworkConnectionPool getPool(String poolName)
     {
        return pools.get(poolName);
@@ -54,4 +111,11 @@ public class NetworkPoolHandler
        return Collections.unmodifiableMap(pools);
     }
 
+    private static NetworkConnectionPool createPool(String poolName, Address address, int poolSize)
+    {
+        NetworkConnectionPool pool = NetworkConnectionPool.of(poolName, address, poolSize, null, SELECTION_STRATEGY.create());
+        CasualMBeans.registerNetworkConnectionPool(pool);
+        return pool;
+    }
+
 }
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.network.pool;
+
+/**
+ * What a {@link SelectionStrategy} gets to know about a connection in the pool
+ */
+public interface PooledConnection
+{
+    /**
+     * Number of requests sent on this connection still waiting for their replies
+     */
+    int getInFlight();
+
+    /**
+     * Number of users, callers, sharing this connection
+     */
+    int getReferenceCount();
+}
@@ -18,25 +18,40 @@ import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
-public class ReferenceCountedNetworkConnection implements NetworkConnection
+public class ReferenceCountedNetworkConnection implements NetworkConnection, PooledConnection
 {
     private static final Logger log = Logger.getLogger(ReferenceCountedNetworkConnection.class.getName());
     private final AtomicInteger referenceCount = new AtomicInteger(1);
-    private final NettyNetworkConnection networkConnection;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final NetworkConnection networkConnection;
+    private final Consumer<NetworkListener> listenerRegistration;
     private final ReferenceCountedNetworkCloseListener closeListener;
 
-    private ReferenceCountedNetworkConnection(NettyNetworkConnection networkConnection, ReferenceCountedNetworkCloseListener closeListener)
+    private ReferenceCountedNetworkConnection(NetworkConnection networkConnection, Consumer<NetworkListener> listenerRegistration, ReferenceCountedNetworkCloseListener closeListener)
     {
         this.networkConnection = networkConnection;
+        this.listenerRegistration = listenerRegistration;
         this.closeListener = closeListener;
     }
 
     public static ReferenceCountedNetworkConnection of(NettyNetworkConnection networkConnection, ReferenceCountedNetworkCloseListener closeListener)
     {
         Objects.requireNonNull(networkConnection, "networkConnection can not be null");
-        return new ReferenceCountedNetworkConnection(networkConnection, closeListener);
+        return of(networkConnection, networkConnection::addListener, closeListener);
+    }
+
+    /**
+     * For connections other than netty ones, stubs in benchmarks for instance
+     * @param listenerRegistration registers a listener with the connection
+     */
+    public static ReferenceCountedNetworkConnection of(NetworkConnection networkConnection, Consumer<NetworkListener> listenerRegistration, ReferenceCountedNetworkCloseListener closeListener)
+    {
+        Objects.requireNonNull(networkConnection, "networkConnection can not be null");
+        Objects.requireNonNull(listenerRegistration, "listenerRegistration can not be null");
+        return new ReferenceCountedNetworkConnection(networkConnection, listenerRegistration, closeListener);
     }
 
     public int increment()
@@ -47,13 +62,37 @@ public class ReferenceCountedNetworkConnection implements NetworkConnection
 
     public void addListener(NetworkListener listener)
     {
-       networkConnection.addListener(listener);
+       listenerRegistration.accept(listener);
+    }
+
+    @Override
+    public int getReferenceCount()
+    {
+        return referenceCount.get();
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return inFlight.get();
     }
 
     @Override
     public <T extends CasualNetworkTransmittable, X extends CasualNetworkTransmittable> CompletableFuture<CasualNWMessage<T>> request(CasualNWMessage<X> message)
     {
-        return networkConnection.request(message);
+        inFlight.incrementAndGet();
+        CompletableFuture<CasualNWMessage<T>> reply;
+        try
+        {
+            reply = networkConnection.request(message);
+        }
+        catch(RuntimeException e)
+        {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        reply.whenComplete((v, e) -> inFlight.decrementAndGet());
+        return reply;
     }
 
     @Override
@@ -124,6 +163,7 @@ public class ReferenceCountedNetworkConnection implements NetworkConnection
     {
         return "ReferenceCountedNetworkConnection{" +
                 "referenceCount=" + referenceCount +
+                ", inFlight=" + inFlight +
                 ", networkConnection=" + networkConnection +
                 '}';
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.network.pool;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The selection strategies that come with the pool
+ */
+public enum SelectionStrategies
+{
+    /**
+     * Every connection in turn
+     */
+    ROUND_ROBIN
+    {
+        @Override
+        public SelectionStrategy create()
+        {
+            AtomicInteger next = new AtomicInteger();
+            return new SelectionStrategy()
+            {
+                @Override
+                public <T extends PooledConnection> T select(List<T> connections)
+                {
+                    return connections.get(Math.floorMod(next.getAndIncrement(), connections.size()));
+                }
+            };
+        }
+    },
+    /**
+     * Two connections at random, the one with the fewest requests in flight wins
+     * Close to least in flight in spread while looking at two connections only
+     */
+    POWER_OF_TWO_CHOICES
+    {
+        @Override
+        public SelectionStrategy create()
+        {
+            return new SelectionStrategy()
+            {
+                @Override
+                public <T extends PooledConnection> T select(List<T> connections)
+                {
+                    int size = connections.size();
+                    if(size == 1)
+                    {
+                        return connections.get(0);
+                    }
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    int first = random.nextInt(size);
+                    // second is any index but first
+                    int second = (first + 1 + random.nextInt(size - 1)) % size;
+                    T a = connections.get(first);
+                    T b = connections.get(second);
+                    return LOAD.compare(a, b) <= 0 ? a : b;
+                }
+            };
+        }
+    },
+    /**
+     * Any connection, uniformly at random
+     */
+    RANDOM
+    {
+        @Override
+        public SelectionStrategy create()
+        {
+            return new SelectionStrategy()
+            {
+                @Override
+                public <T extends PooledConnection> T select(List<T> connections)
+                {
+                    return connections.get(ThreadLocalRandom.current().nextInt(connections.size()));
+                }
+            };
+        }
+    },
+    /**
+     * The connection with the fewest requests in flight, on a tie the one shared by the fewest users
+     * Looks at every connection, the scan starts at a random offset so that equally loaded connections share the load
+     */
+    LEAST_IN_FLIGHT
+    {
+        @Override
+        public SelectionStrategy create()
+        {
+            return new SelectionStrategy()
+            {
+                @Override
+                public <T extends PooledConnection> T select(List<T> connections)
+                {
+                    int size = connections.size();
+                    int offset = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+                    T leastLoaded = connections.get(offset);
+                    for(int i = 1; i < size; ++i)
+                    {
+                        T candidate = connections.get((offset + i) % size);
+                        if(LOAD.compare(candidate, leastLoaded) < 0)
+                        {
+                            leastLoaded = candidate;
+                        }
+                    }
+                    return leastLoaded;
+                }
+            };
+        }
+    };
+
+    public static final String SELECTION_STRATEGY_ENV = "CASUAL_NETWORK_POOL_SELECTION";
+    private static final Comparator<PooledConnection> LOAD = Comparator.comparingInt(PooledConnection::getInFlight)
+                                                                        .thenComparingInt(PooledConnection::getReferenceCount);
+
+    /**
+     * A new strategy instance, strategies with state such as round robin should not be shared between pools
+     */
+    public abstract SelectionStrategy create();
+
+    public static SelectionStrategies fromEnvironment()
+    {
+        return Optional.ofNullable(System.getenv(SELECTION_STRATEGY_ENV))
+                       .map(String::trim)
+                       .map(value -> value.toUpperCase(Locale.ROOT))
+                       .map(SelectionStrategies::valueOf)
+                       .orElse(LEAST_IN_FLIGHT);
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.network.pool;
+
+import java.util.List;
+
+/**
+ * Picks one connection out of a pool
+ * Called without any lock held, on an immutable and never empty snapshot of the connections,
+ * so implementations have to be thread safe and should not block
+ */
+@FunctionalInterface
+public interface SelectionStrategy
+{
+    <T extends PooledConnection> T select(List<T> connections);
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.replycache;
+
+/**
+ * Count-min sketch of how often keys were seen recently, the TinyLFU admission filter
+ *
+ * Four rows of counters saturating at 15. After ten times the capacity of increments all counters are halved,
+ * so old popularity fades. Not thread safe, the reply cache guards it with its policy lock.
+ */
+final class FrequencySketch
+{
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L};
+    private final byte[] counters;
+    private final int mask;
+    private final long sampleSize;
+    private long additions;
+
+    private FrequencySketch(int width, long sampleSize)
+    {
+        this.counters = new byte[ROWS * width];
+        this.mask = width - 1;
+        this.sampleSize = sampleSize;
+    }
+
+    static FrequencySketch of(int capacity)
+    {
+        int width = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        return new FrequencySketch(width, 10L * Math.max(capacity, 1));
+    }
+
+    void increment(long hash)
+    {
+        boolean added = false;
+        for(int row = 0; row < ROWS; ++row)
+        {
+            int index = indexOf(hash, row);
+            if(counters[index] < MAX_COUNT)
+            {
+                ++counters[index];
+                added = true;
+            }
+        }
+        if(added && ++additions >= sampleSize)
+        {
+            reset();
+        }
+    }
+
+    int frequency(long hash)
+    {
+        int frequency = MAX_COUNT;
+        for(int row = 0; row < ROWS; ++row)
+        {
+            frequency = Math.min(frequency, counters[indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private void reset()
+    {
+        for(int i = 0; i < counters.length; ++i)
+        {
+            counters[i] = (byte) (counters[i] >>> 1);
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long hash, int row)
+    {
+        long mixed = (hash + SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+        mixed ^= mixed >>> 32;
+        return row * (mask + 1) + (int) (mixed & mask);
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.replycache;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.flags.ServiceReturnState;
+import se.laz.casual.standalone.outbound.Address;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Successful replies of pure lookup services, keyed by service name and request payload, shared by every
+ * caller connected to the same address
+ *
+ * Only services in {@link ReplyCacheConfiguration#getServices()} called with TPNOTRAN are cached, for at most the ttl.
+ * Eviction is W-TinyLFU: new replies enter a small LRU window, and leaving it they only replace the least
+ * recently used reply of the main segmented LRU if their requests were seen more often recently.
+ * Identical calls made while one is on its way to the domain share its reply instead of making their own.
+ * Hits are looked up without locking, their bookkeeping is skipped when the policy lock is contended.
+ * Cached replies are handed to every caller hitting them and must not be modified.
+ */
+public final class ReplyCache
+{
+    private static final Logger LOG = Logger.getLogger(ReplyCache.class.getName());
+    private static final Map<Address, ReplyCache> CACHES = new ConcurrentHashMap<>();
+    private static final Map<Address, ReplyCacheConfiguration> CONFIGURATIONS = new ConcurrentHashMap<>();
+    // estimated bookkeeping per cached reply, on top of the request and reply bytes
+    private static final long ENTRY_OVERHEAD = 256;
+    // about 146 years, never reached yet small enough for the wrapping comparison of nano times
+    private static final long MAX_TTL_NANOS = Long.MAX_VALUE / 2;
+    private final Address address;
+    private final LongSupplier clock;
+    private final Map<ReplyKey, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<ReplyKey, CompletableFuture<ServiceReturn<CasualBuffer>>> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final LinkedHashMap<ReplyKey, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<ReplyKey, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<ReplyKey, Entry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private FrequencySketch sketch;
+    private int windowMax;
+    private int mainMax;
+    private int protectedMax;
+    private volatile long bytes;
+    private volatile ReplyCacheConfiguration configuration;
+
+    private ReplyCache(Address address, ReplyCacheConfiguration configuration, LongSupplier clock)
+    {
+        this.address = address;
+        this.clock = clock;
+        resize(configuration);
+    }
+
+    public static ReplyCache of(Address address)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        return CACHES.computeIfAbsent(address, key -> new ReplyCache(key, CONFIGURATIONS.computeIfAbsent(key, k -> ReplyCacheConfiguration.fromEnvironment()), System::nanoTime));
+    }
+
+    // not shared, for tests
+    static ReplyCache create(Address address, ReplyCacheConfiguration configuration, LongSupplier clock)
+    {
+        return new ReplyCache(address, configuration, clock);
+    }
+
+    /**
+     * Configuration for the cache of the address, the cache is emptied
+     * Addresses without configuration use {@link ReplyCacheConfiguration#fromEnvironment()}
+     */
+    public static void configure(Address address, ReplyCacheConfiguration configuration)
+    {
+        Objects.requireNonNull(address, "address can not be null");
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        CONFIGURATIONS.put(address, configuration);
+        Optional.ofNullable(CACHES.get(address)).ifPresent(cache -> cache.resize(configuration));
+    }
+
+    public static Optional<ReplyCacheStatistics> getStatistics(Address address)
+    {
+        return Optional.ofNullable(CACHES.get(address)).map(ReplyCache::getStatistics);
+    }
+
+    public static List<ReplyCacheStatistics> getAllStatistics()
+    {
+        return CACHES.values().stream()
+                     .map(ReplyCache::getStatistics)
+                     .collect(Collectors.toList());
+    }
+
+    /**
+     * @return true if replies of calls to the service with these flags are cached
+     */
+    public boolean isCacheable(String serviceName, Flag<AtmiFlags> flags)
+    {
+        return flags.isSet(AtmiFlags.TPNOTRAN) && configuration.getServices().contains(serviceName);
+    }
+
+    /**
+     * The cached reply, or the reply of an identical call already pending, or else the reply of call
+     * @param call makes the call to the domain on a miss
+     */
+    public CompletableFuture<ServiceReturn<CasualBuffer>> get(String serviceName, CasualBuffer data, Supplier<CompletableFuture<ServiceReturn<CasualBuffer>>> call)
+    {
+        Objects.requireNonNull(call, "call can not be null");
+        ReplyKey key = ReplyKey.of(serviceName, data);
+        Entry entry = entries.get(key);
+        if(null != entry)
+        {
+            if(!entry.isExpired(clock.getAsLong()))
+            {
+                hits.increment();
+                onHit(entry);
+                return CompletableFuture.completedFuture(entry.reply);
+            }
+            expire(entry);
+        }
+        CompletableFuture<ServiceReturn<CasualBuffer>> flight = new CompletableFuture<>();
+        CompletableFuture<ServiceReturn<CasualBuffer>> pending = inFlight.putIfAbsent(key, flight);
+        if(null != pending)
+        {
+            collapsed.increment();
+            // a copy, so that a caller cancelling its future does not cancel it for the others
+            return pending.copy();
+        }
+        misses.increment();
+        CompletableFuture<ServiceReturn<CasualBuffer>> reply;
+        try
+        {
+            reply = call.get();
+        }
+        catch(RuntimeException e)
+        {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        reply.whenComplete((value, throwable) -> {
+            try
+            {
+                if(null == throwable && value.getServiceReturnState() == ServiceReturnState.TPSUCCESS)
+                {
+                    put(key, value);
+                }
+            }
+            catch(RuntimeException e)
+            {
+                // caching is best effort, the callers get their reply regardless
+                LOG.log(Level.WARNING, e, () -> "could not cache reply of: " + key.getServiceName() + " at: " + address);
+            }
+            finally
+            {
+                // cached before the flight lands, so that no identical call falls in between and misses
+                inFlight.remove(key, flight);
+                if(null == throwable)
+                {
+                    flight.complete(value);
+                }
+                else
+                {
+                    flight.completeExceptionally(throwable);
+                }
+            }
+        });
+        return flight.copy();
+    }
+
+    public void invalidate(String serviceName)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        policyLock.lock();
+        try
+        {
+            entries.values().stream()
+                   .filter(entry -> entry.key.getServiceName().equals(serviceName))
+                   .collect(Collectors.toList())
+                   .forEach(this::remove);
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    public void invalidateAll()
+    {
+        policyLock.lock();
+        try
+        {
+            entries.clear();
+            window.clear();
+            probation.clear();
+            protectedEntries.clear();
+            bytes = 0;
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public ReplyCacheConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    public ReplyCacheStatistics getStatistics()
+    {
+        return ReplyCacheStatistics.of(address, entries.size(), bytes, hits.sum(), misses.sum(), collapsed.sum(), evictions.sum(), rejections.sum(), expirations.sum());
+    }
+
+    private void resize(ReplyCacheConfiguration configuration)
+    {
+        policyLock.lock();
+        try
+        {
+            this.configuration = configuration;
+            int maxEntries = configuration.getMaxEntries();
+            windowMax = Math.max(1, maxEntries / 100);
+            mainMax = Math.max(1, maxEntries - windowMax);
+            protectedMax = Math.max(1, mainMax * 4 / 5);
+            sketch = FrequencySketch.of(maxEntries);
+            invalidateAll();
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+        LOG.finest(() -> "reply cache for: " + address + " configured: " + configuration);
+    }
+
+    private void onHit(Entry entry)
+    {
+        // the hit is served either way, only its effect on eviction is lost
+        if(!policyLock.tryLock())
+        {
+            return;
+        }
+        try
+        {
+            sketch.increment(entry.key.getHash());
+            if(entries.get(entry.key) != entry)
+            {
+                return;
+            }
+            if(entry.segment == Segment.PROBATION)
+            {
+                probation.remove(entry.key);
+                link(entry, Segment.PROTECTED);
+                while(protectedEntries.size() > protectedMax)
+                {
+                    Entry demoted = pollEldest(protectedEntries);
+                    link(demoted, Segment.PROBATION);
+                }
+                return;
+            }
+            // access ordered, the lookup makes it the most recently used
+            segmentOf(entry.segment).get(entry.key);
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    private void put(ReplyKey key, ServiceReturn<CasualBuffer> reply)
+    {
+        ReplyCacheConfiguration current = configuration;
+        long weight = ENTRY_OVERHEAD + key.getSize() + sizeOf(reply);
+        if(weight > current.getMaxBytes())
+        {
+            return;
+        }
+        Entry entry = new Entry(key, reply, weight, clock.getAsLong() + ttlNanos(current.getTtl()));
+        policyLock.lock();
+        try
+        {
+            sketch.increment(key.getHash());
+            Optional.ofNullable(entries.put(key, entry)).ifPresent(this::unlink);
+            link(entry, Segment.WINDOW);
+            bytes += weight;
+            while(window.size() > windowMax)
+            {
+                admit(pollEldest(window));
+            }
+            while(entries.size() > current.getMaxEntries() || bytes > current.getMaxBytes())
+            {
+                Entry victim = eldest(probation).or(() -> eldest(protectedEntries)).orElseGet(() -> eldest(window).orElse(null));
+                if(null == victim)
+                {
+                    break;
+                }
+                remove(victim);
+                evictions.increment();
+            }
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    // the candidate left the window, it gets into the main segment if there is room or it is more popular than the victim
+    private void admit(Entry candidate)
+    {
+        if(probation.size() + protectedEntries.size() < mainMax)
+        {
+            link(candidate, Segment.PROBATION);
+            return;
+        }
+        Entry victim = eldest(probation).orElseGet(() -> eldest(protectedEntries).orElse(null));
+        if(null == victim || victim.isExpired(clock.getAsLong()) || sketch.frequency(candidate.key.getHash()) > sketch.frequency(victim.key.getHash()))
+        {
+            if(null != victim)
+            {
+                remove(victim);
+                evictions.increment();
+            }
+            link(candidate, Segment.PROBATION);
+            return;
+        }
+        entries.remove(candidate.key, candidate);
+        bytes -= candidate.weight;
+        rejections.increment();
+    }
+
+    private void expire(Entry entry)
+    {
+        policyLock.lock();
+        try
+        {
+            if(entries.get(entry.key) == entry)
+            {
+                remove(entry);
+                expirations.increment();
+            }
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    private void remove(Entry entry)
+    {
+        entries.remove(entry.key, entry);
+        unlink(entry);
+    }
+
+    private void link(Entry entry, Segment segment)
+    {
+        entry.segment = segment;
+        segmentOf(segment).put(entry.key, entry);
+    }
+
+    private void unlink(Entry entry)
+    {
+        if(segmentOf(entry.segment).remove(entry.key, entry))
+        {
+            bytes -= entry.weight;
+        }
+    }
+
+    private LinkedHashMap<ReplyKey, Entry> segmentOf(Segment segment)
+    {
+        switch(segment)
+        {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedEntries;
+        }
+    }
+
+    private static Optional<Entry> eldest(LinkedHashMap<ReplyKey, Entry> segment)
+    {
+        Iterator<Entry> iterator = segment.values().iterator();
+        return iterator.hasNext() ? Optional.of(iterator.next()) : Optional.empty();
+    }
+
+    private static Entry pollEldest(LinkedHashMap<ReplyKey, Entry> segment)
+    {
+        Iterator<Entry> iterator = segment.values().iterator();
+        Entry eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    private static long sizeOf(ServiceReturn<CasualBuffer> reply)
+    {
+        CasualBuffer buffer = reply.getReplyBuffer();
+        return null == buffer ? 0 : buffer.getBytes().stream().mapToLong(chunk -> chunk.length).sum();
+    }
+
+    private enum Segment
+    {
+        WINDOW,
+        PROBATION,
+        PROTECTED
+    }
+
+    private static long ttlNanos(Duration ttl)
+    {
+        return ttl.compareTo(Duration.ofNanos(MAX_TTL_NANOS)) >= 0 ? MAX_TTL_NANOS : ttl.toNanos();
+    }
+
+    private static final class Entry
+    {
+        private final ReplyKey key;
+        private final ServiceReturn<CasualBuffer> reply;
+        private final long weight;
+        private final long expiresAtNanos;
+        // guarded by the policy lock
+        private Segment segment;
+
+        private Entry(ReplyKey key, ServiceReturn<CasualBuffer> reply, long weight, long expiresAtNanos)
+        {
+            this.key = key;
+            this.reply = reply;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(long nowNanos)
+        {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.replycache;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public final class ReplyCacheConfiguration
+{
+    public static final String SERVICES_ENV = "CASUAL_REPLY_CACHE_SERVICES";
+    public static final String TTL_ENV = "CASUAL_REPLY_CACHE_TTL_MILLIS";
+    public static final String MAX_ENTRIES_ENV = "CASUAL_REPLY_CACHE_MAX_ENTRIES";
+    public static final String MAX_BYTES_ENV = "CASUAL_REPLY_CACHE_MAX_BYTES";
+    private static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private final Set<String> services;
+    private final Duration ttl;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private ReplyCacheConfiguration(Builder builder)
+    {
+        this.services = Collections.unmodifiableSet(new HashSet<>(builder.services));
+        this.ttl = builder.ttl;
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+    }
+
+    /**
+     * Defaults, overridden by any of the CASUAL_REPLY_CACHE_* environment variables
+     * CASUAL_REPLY_CACHE_SERVICES is a comma separated list, nothing is cached unless it is set
+     */
+    public static ReplyCacheConfiguration fromEnvironment()
+    {
+        return createBuilder()
+                .withServices(getEnv(SERVICES_ENV).map(ReplyCacheConfiguration::parseServices).orElse(Collections.emptySet()))
+                .withTtl(getEnv(TTL_ENV).map(Long::parseLong).map(Duration::ofMillis).orElse(DEFAULT_TTL))
+                .withMaxEntries(getEnv(MAX_ENTRIES_ENV).map(Integer::parseInt).orElse(DEFAULT_MAX_ENTRIES))
+                .withMaxBytes(getEnv(MAX_BYTES_ENV).map(Long::parseLong).orElse(DEFAULT_MAX_BYTES))
+                .build();
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * The services whose replies are cached, they have to be pure lookups
+     */
+    public Set<String> getServices()
+    {
+        return services;
+    }
+
+    public boolean isEnabled()
+    {
+        return !services.isEmpty();
+    }
+
+    /**
+     * How long a reply is served from the cache
+     */
+    public Duration getTtl()
+    {
+        return ttl;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Upper bound of the estimated size of the cached requests and replies
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    private static Set<String> parseServices(String services)
+    {
+        return Arrays.stream(services.split(","))
+                     .map(String::trim)
+                     .filter(name -> !name.isEmpty())
+                     .collect(Collectors.toSet());
+    }
+
+    private static Optional<String> getEnv(String name)
+    {
+        return Optional.ofNullable(System.getenv(name));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReplyCacheConfiguration{" +
+                "services=" + services +
+                ", ttl=" + ttl +
+                ", maxEntries=" + maxEntries +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+
+    public static final class Builder
+    {
+        private Set<String> services = new HashSet<>();
+        private Duration ttl = DEFAULT_TTL;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+
+        private Builder()
+        {}
+
+        public Builder withServices(Set<String> services)
+        {
+            this.services = new HashSet<>(services);
+            return this;
+        }
+
+        public Builder withService(String serviceName)
+        {
+            services.add(serviceName);
+            return this;
+        }
+
+        public Builder withTtl(Duration ttl)
+        {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public Builder withMaxEntries(int maxEntries)
+        {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder withMaxBytes(long maxBytes)
+        {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public ReplyCacheConfiguration build()
+        {
+            Objects.requireNonNull(ttl, "ttl can not be null");
+            if(ttl.isNegative() || ttl.isZero())
+            {
+                throw new IllegalArgumentException("ttl has to be positive, was: " + ttl);
+            }
+            if(maxEntries <= 0 || maxBytes <= 0)
+            {
+                throw new IllegalArgumentException("maxEntries and maxBytes have to be positive, maxEntries: " + maxEntries + " maxBytes: " + maxBytes);
+            }
+            return new ReplyCacheConfiguration(this);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.replycache;
+
+import se.laz.casual.standalone.outbound.Address;
+
+/**
+ * Point in time snapshot of the reply cache for one address
+ */
+public final class ReplyCacheStatistics
+{
+    private final Address address;
+    private final int entries;
+    private final long bytes;
+    private final long hits;
+    private final long misses;
+    private final long collapsed;
+    private final long evictions;
+    private final long rejections;
+    private final long expirations;
+
+    private ReplyCacheStatistics(Address address, int entries, long bytes, long hits, long misses, long collapsed, long evictions, long rejections, long expirations)
+    {
+        this.address = address;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.hits = hits;
+        this.misses = misses;
+        this.collapsed = collapsed;
+        this.evictions = evictions;
+        this.rejections = rejections;
+        this.expirations = expirations;
+    }
+
+    static ReplyCacheStatistics of(Address address, int entries, long bytes, long hits, long misses, long collapsed, long evictions, long rejections, long expirations)
+    {
+        return new ReplyCacheStatistics(address, entries, bytes, hits, misses, collapsed, evictions, rejections, expirations);
+    }
+
+    public Address getAddress()
+    {
+        return address;
+    }
+
+    public int getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Estimated size of the cached requests and replies
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Calls answered from the cache
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Calls that went to the domain, each of them possibly shared by collapsed calls
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Calls that joined an identical call already on its way to the domain
+     */
+    public long getCollapsed()
+    {
+        return collapsed;
+    }
+
+    /**
+     * Cached replies dropped to stay within the entry and byte bounds
+     */
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Replies not admitted to the cache since they were requested less often than the one they would have replaced
+     */
+    public long getRejections()
+    {
+        return rejections;
+    }
+
+    public long getExpirations()
+    {
+        return expirations;
+    }
+
+    /**
+     * Share of the calls that did not go to the domain
+     */
+    public double getHitRatio()
+    {
+        long requests = hits + collapsed + misses;
+        return requests == 0 ? 0 : (double) (hits + collapsed) / requests;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReplyCacheStatistics{" +
+                "address=" + address +
+                ", entries=" + entries +
+                ", bytes=" + bytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", collapsed=" + collapsed +
+                ", evictions=" + evictions +
+                ", rejections=" + rejections +
+                ", expirations=" + expirations +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.outbound.replycache;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Service name and request payload
+ * The payload is kept, not only its hash, so that two requests with colliding hashes never share a reply
+ */
+final class ReplyKey
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final String serviceName;
+    private final String bufferType;
+    private final List<byte[]> payload;
+    private final long hash;
+    private final long size;
+
+    private ReplyKey(String serviceName, String bufferType, List<byte[]> payload, long hash, long size)
+    {
+        this.serviceName = serviceName;
+        this.bufferType = bufferType;
+        this.payload = payload;
+        this.hash = hash;
+        this.size = size;
+    }
+
+    static ReplyKey of(String serviceName, CasualBuffer data)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        Objects.requireNonNull(data, "data can not be null");
+        String bufferType = String.valueOf(data.getType());
+        List<byte[]> payload = new ArrayList<>(data.getBytes().size());
+        long hash = hash(hash(FNV_OFFSET, serviceName.getBytes(StandardCharsets.UTF_8)), bufferType.getBytes(StandardCharsets.UTF_8));
+        long size = (long) serviceName.length() + bufferType.length();
+        for(byte[] bytes : data.getBytes())
+        {
+            // a copy, the caller is free to reuse its buffer once the call returns
+            byte[] copy = bytes.clone();
+            payload.add(copy);
+            hash = hash(hash, copy);
+            size += copy.length;
+        }
+        return new ReplyKey(serviceName, bufferType, payload, hash, size);
+    }
+
+    private static long hash(long hash, byte[] bytes)
+    {
+        long value = hash;
+        for(byte b : bytes)
+        {
+            value ^= b & 0xff;
+            value *= FNV_PRIME;
+        }
+        // marks the end of the chunk so that ["ab", "c"] and ["a", "bc"] differ
+        value ^= bytes.length;
+        return value * FNV_PRIME;
+    }
+
+    String getServiceName()
+    {
+        return serviceName;
+    }
+
+    long getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * Bytes of the service name, buffer type and payload
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+        {
+            return true;
+        }
+        if(o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+        ReplyKey other = (ReplyKey) o;
+        if(hash != other.hash || payload.size() != other.payload.size() || !serviceName.equals(other.serviceName) || !bufferType.equals(other.bufferType))
+        {
+            return false;
+        }
+        for(int i = 0; i < payload.size(); ++i)
+        {
+            if(!Arrays.equals(payload.get(i), other.payload.get(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(hash);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReplyKey{" +
+                "serviceName='" + serviceName + '\'' +
+                ", bufferType='" + bufferType + '\'' +
+                ", hash=" + Long.toHexString(hash) +
+                ", size=" + size +
+                '}';
+    }
+}
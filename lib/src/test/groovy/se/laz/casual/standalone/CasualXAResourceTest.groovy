@@ -0,0 +1,160 @@
+package se.laz.casual.standalone
+
+import se.laz.casual.api.xa.XAReturnCode
+import se.laz.casual.internal.network.NetworkConnection
+import se.laz.casual.jca.DomainId
+import se.laz.casual.network.protocol.messages.CasualNWMessageImpl
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceCommitReplyMessage
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourcePrepareReplyMessage
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackReplyMessage
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackRequestMessage
+import se.laz.casual.standalone.outbound.CasualConnection
+import spock.lang.Specification
+
+import javax.transaction.xa.XAException
+import javax.transaction.xa.XAResource
+import javax.transaction.xa.Xid
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+
+class CasualXAResourceTest extends Specification
+{
+   NetworkConnection networkConnection
+   CasualXAResource xaResource
+   Xid xid
+
+   def setup()
+   {
+      networkConnection = Mock(NetworkConnection) {
+         getDomainId() >> DomainId.of(UUID.randomUUID())
+      }
+      CasualConnection casualConnection = CasualConnection.of(networkConnection)
+      xaResource = CasualXAResource.of(casualConnection, 42)
+      casualConnection.setCasualXAResource(xaResource)
+      xid = xid(1)
+   }
+
+   def 'prepare completes when the reply arrives, not before'()
+   {
+      given:
+      def reply = new CompletableFuture()
+      when:
+      def prepared = xaResource.prepareAsync(xid)
+      then:
+      1 * networkConnection.request(_) >> reply
+      !prepared.isDone()
+      when:
+      reply.complete(CasualNWMessageImpl.of(UUID.randomUUID(), CasualTransactionResourcePrepareReplyMessage.of(UUID.randomUUID(), xid, 42, XAReturnCode.XA_OK)))
+      then:
+      prepared.get() == XAResource.XA_OK
+   }
+
+   def 'an error reply completes the future with the XAException'()
+   {
+      given:
+      networkConnection.request(_) >> CompletableFuture.completedFuture(CasualNWMessageImpl.of(UUID.randomUUID(), CasualTransactionResourceCommitReplyMessage.of(UUID.randomUUID(), xid, 42, XAReturnCode.XAER_RMERR)))
+      when:
+      xaResource.commitAsync(xid, true).join()
+      then:
+      def e = thrown(CompletionException)
+      e.cause instanceof XAException
+      (e.cause as XAException).errorCode == XAException.XAER_RMERR
+   }
+
+   def 'the blocking call throws XAER_RMFAIL when there is no reply'()
+   {
+      given:
+      def reply = new CompletableFuture()
+      reply.completeExceptionally(new IllegalStateException('connection lost'))
+      networkConnection.request(_) >> reply
+      when:
+      xaResource.rollback(xid)
+      then:
+      def e = thrown(XAException)
+      e.errorCode == XAException.XAER_RMFAIL
+   }
+
+   def 'only the branch marked read only votes read only'()
+   {
+      given:
+      def other = xid(2)
+      xaResource.start(xid, XAResource.TMNOFLAGS)
+      xaResource.setReadOnly()
+      xaResource.end(xid, XAResource.TMSUCCESS)
+      xaResource.start(other, XAResource.TMNOFLAGS)
+      xaResource.end(other, XAResource.TMSUCCESS)
+      when:
+      def readOnlyVote = xaResource.prepare(xid)
+      then:
+      0 * networkConnection.request(_)
+      readOnlyVote == XAResource.XA_RDONLY
+      when:
+      def vote = xaResource.prepare(other)
+      then:
+      1 * networkConnection.request(_) >> CompletableFuture.completedFuture(CasualNWMessageImpl.of(UUID.randomUUID(), CasualTransactionResourcePrepareReplyMessage.of(UUID.randomUUID(), other, 42, XAReturnCode.XA_OK)))
+      vote == XAResource.XA_OK
+      !xaResource.isReadOnly(other)
+   }
+
+   def 'set read only without an associated branch does nothing'()
+   {
+      when:
+      xaResource.setReadOnly()
+      then:
+      noExceptionThrown()
+      !xaResource.isReadOnly()
+   }
+
+   def 'the transaction timeout applies to the branches the same thread starts'()
+   {
+      given:
+      def other = xid(2)
+      xaResource.setTransactionTimeout(10)
+      when:
+      def otherTimeout = null
+      def otherRemaining = null
+      Thread.start {
+         otherTimeout = xaResource.getTransactionTimeout()
+         xaResource.start(other, XAResource.TMNOFLAGS)
+         otherRemaining = xaResource.getRemainingTransactionTime()
+      }.join()
+      xaResource.start(xid, XAResource.TMNOFLAGS)
+      then:
+      xaResource.getTransactionTimeout() == 10
+      otherTimeout == 0
+      otherRemaining == Optional.empty()
+      xaResource.getRemainingTransactionTime().get().toSeconds() > 0
+   }
+
+   def 'a branch marked rollback only is rolled back instead of prepared'()
+   {
+      given:
+      xaResource.start(xid, XAResource.TMNOFLAGS)
+      xaResource.setRollbackOnly(xid)
+      xaResource.end(xid, XAResource.TMSUCCESS)
+      when:
+      xaResource.prepare(xid)
+      then:
+      1 * networkConnection.request({ it.getMessage() instanceof CasualTransactionResourceRollbackRequestMessage }) >> CompletableFuture.completedFuture(CasualNWMessageImpl.of(UUID.randomUUID(), CasualTransactionResourceRollbackReplyMessage.of(UUID.randomUUID(), xid, 42, XAReturnCode.XA_OK)))
+      def e = thrown(XAException)
+      e.errorCode == XAException.XA_RBROLLBACK
+      !xaResource.isRollbackOnly(xid)
+   }
+
+   def 'marking a branch that is not active does nothing'()
+   {
+      when:
+      xaResource.setRollbackOnly(xid)
+      then:
+      !xaResource.isRollbackOnly(xid)
+   }
+
+   private Xid xid(int id)
+   {
+      Mock(Xid) {
+         getFormatId() >> 4711
+         getGlobalTransactionId() >> ([id] as byte[])
+         getBranchQualifier() >> ([1] as byte[])
+      }
+   }
+}
@@ -0,0 +1,225 @@
+package se.laz.casual.standalone
+
+import se.laz.casual.api.xa.XID
+import se.laz.casual.internal.network.NetworkConnection
+import se.laz.casual.jca.DomainId
+import se.laz.casual.standalone.outbound.CasualConnection
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import javax.transaction.Transaction
+import javax.transaction.TransactionManager
+import javax.transaction.xa.XAResource
+import javax.transaction.xa.Xid
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TransactionWrapperTest extends Specification
+{
+   CasualXAResource xaResource
+   ThreadLocal<Transaction> currentTransaction = new ThreadLocal<>()
+   TransactionManager transactionManager
+
+   def setup()
+   {
+      NetworkConnection networkConnection = Mock(NetworkConnection) {
+         getDomainId() >> DomainId.of(UUID.randomUUID())
+      }
+      CasualConnection casualConnection = CasualConnection.of(networkConnection)
+      xaResource = CasualXAResource.of(casualConnection, 42)
+      casualConnection.setCasualXAResource(xaResource)
+      transactionManager = Mock(TransactionManager) {
+         getTransaction() >> { currentTransaction.get() }
+      }
+   }
+
+   @Timeout(10)
+   def 'calls in different transactions run concurrently'()
+   {
+      given:
+      def wrapper = TransactionWrapper.of(transactionManager)
+      def bothInside = new CountDownLatch(2)
+      def executor = Executors.newFixedThreadPool(2)
+      // mocks are created up front, not on the worker threads
+      def transactions = [transaction(xid(1 as byte)), transaction(xid(2 as byte))]
+      def call = { int index ->
+         {
+            currentTransaction.set(transactions[index])
+            wrapper.execute({
+               bothInside.countDown()
+               // with one global lock the other thread could never get here
+               bothInside.await(5, TimeUnit.SECONDS)
+            }, xaResource)
+         } as Callable
+      }
+      when:
+      def first = executor.submit(call(0))
+      def second = executor.submit(call(1))
+      then:
+      first.get()
+      second.get()
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'each thread sees its own branch'()
+   {
+      given:
+      def executor = Executors.newSingleThreadExecutor()
+      def mine = xid(3 as byte)
+      def other = xid(4 as byte)
+      when:
+      xaResource.start(mine, XAResource.TMNOFLAGS)
+      def seenByOther = executor.submit({
+         xaResource.start(other, XAResource.TMNOFLAGS)
+         def seen = xaResource.getCurrentXid()
+         xaResource.end(other, XAResource.TMSUCCESS)
+         seen
+      } as Callable).get()
+      then:
+      xaResource.getCurrentXid().is(mine)
+      seenByOther.is(other)
+      when:
+      xaResource.end(mine, XAResource.TMSUCCESS)
+      then:
+      xaResource.getCurrentXid() == XID.NULL_XID
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'transaction state is dropped on completion'()
+   {
+      given:
+      def wrapper = TransactionWrapper.of(transactionManager)
+      def synchronization
+      def transaction = transaction(xid(5 as byte))
+      transaction.registerSynchronization(_) >> { arguments -> synchronization = arguments[0] }
+      currentTransaction.set(transaction)
+      when:
+      wrapper.execute({ 'reply' }, xaResource)
+      then:
+      wrapper.getActiveTransactions() == 1
+      when:
+      synchronization.afterCompletion(javax.transaction.Status.STATUS_COMMITTED)
+      then:
+      wrapper.getActiveTransactions() == 0
+   }
+
+   def 'per transaction enlistment enlists once and delists before completion'()
+   {
+      given:
+      def wrapper = TransactionWrapper.of(transactionManager, EnlistmentMode.PER_TRANSACTION)
+      def executor = Executors.newSingleThreadExecutor()
+      def branch = xid(6 as byte)
+      def synchronization
+      def enlisted = 0
+      def delisted = 0
+      def transaction = Mock(Transaction) {
+         enlistResource(_) >> { arguments -> enlisted++; arguments[0].start(branch, XAResource.TMNOFLAGS); true }
+         delistResource(_, _) >> { arguments -> delisted++; arguments[0].end(branch, arguments[1]); true }
+         registerSynchronization(_) >> { arguments -> synchronization = arguments[0] }
+      }
+      currentTransaction.set(transaction)
+      when:
+      def first = wrapper.execute({ xaResource.getCurrentXid() }, xaResource)
+      def second = wrapper.execute({ xaResource.getCurrentXid() }, xaResource)
+      def fromOtherThread = executor.submit({
+         currentTransaction.set(transaction)
+         wrapper.execute({ xaResource.getCurrentXid() }, xaResource)
+      } as Callable).get()
+      then:
+      enlisted == 1
+      delisted == 0
+      first.is(branch)
+      second.is(branch)
+      fromOtherThread.is(branch)
+      // the thread is not left associated between calls
+      xaResource.getCurrentXid() == XID.NULL_XID
+      when:
+      synchronization.beforeCompletion()
+      synchronization.afterCompletion(javax.transaction.Status.STATUS_COMMITTED)
+      then:
+      delisted == 1
+      wrapper.getActiveTransactions() == 0
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'asynchronous calls keep the branch enlisted until the reply arrives'()
+   {
+      given:
+      def wrapper = TransactionWrapper.of(transactionManager)
+      def branch = xid(7 as byte)
+      def synchronization
+      def enlisted = 0
+      def delisted = 0
+      def transaction = Mock(Transaction) {
+         enlistResource(_) >> { arguments -> enlisted++; arguments[0].start(branch, XAResource.TMNOFLAGS); true }
+         delistResource(_, _) >> { arguments -> delisted++; arguments[0].end(branch, arguments[1]); true }
+         registerSynchronization(_) >> { arguments -> synchronization = arguments[0] }
+      }
+      currentTransaction.set(transaction)
+      def firstReply = new CompletableFuture<String>()
+      def secondReply = new CompletableFuture<String>()
+      when:
+      def first = wrapper.executeAsync({ firstReply }, xaResource)
+      def second = wrapper.executeAsync({ secondReply }, xaResource)
+      then:
+      enlisted == 1
+      delisted == 0
+      // the calling thread is free to start other work
+      xaResource.getCurrentXid() == XID.NULL_XID
+      when:
+      firstReply.complete('first')
+      then:
+      first.get() == 'first'
+      delisted == 0
+      when:
+      secondReply.complete('second')
+      then:
+      second.get() == 'second'
+      delisted == 1
+      when:
+      synchronization.beforeCompletion()
+      then:
+      delisted == 1
+   }
+
+   def 'a failed asynchronous call marks the transaction rollback only'()
+   {
+      given:
+      def wrapper = TransactionWrapper.of(transactionManager)
+      def transaction = transaction(xid(8 as byte))
+      currentTransaction.set(transaction)
+      def reply = new CompletableFuture<String>()
+      when:
+      def result = wrapper.executeAsync({ reply }, xaResource)
+      reply.completeExceptionally(new IllegalStateException('connection lost'))
+      result.join()
+      then:
+      def e = thrown(CompletionException)
+      e.cause instanceof TransactionException
+      1 * transaction.setRollbackOnly()
+   }
+
+   private Transaction transaction(Xid xid)
+   {
+      Mock(Transaction) {
+         enlistResource(_) >> { arguments -> arguments[0].start(xid, XAResource.TMNOFLAGS); true }
+         delistResource(_, _) >> { arguments -> arguments[0].end(xid, arguments[1]); true }
+      }
+   }
+
+   private Xid xid(byte id)
+   {
+      Mock(Xid) {
+         getFormatId() >> 4711
+         getGlobalTransactionId() >> ([id] as byte[])
+         getBranchQualifier() >> ([id] as byte[])
+      }
+   }
+}
@@ -0,0 +1,49 @@
+package se.laz.casual.standalone.jmx
+
+import se.laz.casual.standalone.outbound.Address
+import se.laz.casual.standalone.outbound.Deadlines
+import se.laz.casual.standalone.outbound.network.pool.NetworkConnectionPool
+import se.laz.casual.standalone.outbound.network.pool.NetworkPoolHandler
+import spock.lang.Specification
+
+import javax.management.Attribute
+import java.lang.management.ManagementFactory
+import java.time.Duration
+
+class CasualMBeansTest extends Specification
+{
+   def server = ManagementFactory.getPlatformMBeanServer()
+
+   def 'network connection pool attributes are readable and the pool size writable'()
+   {
+      given:
+      def address = Address.of('jmx.test', 4711)
+      def pool = NetworkConnectionPool.of('jmx.test:4711', address, 2)
+      CasualMBeans.registerNetworkConnectionPool(pool)
+      def name = CasualMBeans.getObjectName('NetworkConnectionPool', 'jmx.test:4711')
+      when:
+      server.setAttribute(name, new Attribute('PoolSize', 5))
+      then:
+      server.getAttribute(name, 'ConnectionCount') == 0
+      server.getAttribute(name, 'InFlight') == 0
+      server.getAttribute(name, 'PoolSize') == 5
+      pool.getPoolSize() == 5
+      NetworkPoolHandler.getInstance().getPoolSize(address) == 5
+   }
+
+   def 'the default call timeout is writable'()
+   {
+      given:
+      def previous = Deadlines.getDefaultTimeout()
+      CasualMBeans.registerRuntime()
+      def name = CasualMBeans.getObjectName('Deadlines', 'default')
+      when:
+      server.setAttribute(name, new Attribute('DefaultCallTimeoutMillis', 1500L))
+      then:
+      Deadlines.getDefaultTimeout() == Optional.of(Duration.ofMillis(1500))
+      server.getAttribute(name, 'DefaultCallTimeoutMillis') == 1500L
+      server.getAttribute(CasualMBeans.getObjectName('CasualResourceManager', 'default'), 'PendingCount') >= 0
+      cleanup:
+      Deadlines.setDefaultTimeout(previous.orElse(null))
+   }
+}
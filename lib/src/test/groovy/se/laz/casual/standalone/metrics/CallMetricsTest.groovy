@@ -0,0 +1,61 @@
+package se.laz.casual.standalone.metrics
+
+import se.laz.casual.network.connection.CasualConnectionException
+import se.laz.casual.standalone.outbound.Address
+import se.laz.casual.standalone.outbound.circuitbreaker.CircuitBreakerOpenException
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletionException
+import java.util.concurrent.TimeUnit
+
+class CallMetricsTest extends Specification
+{
+   def 'calls are recorded per operation, name and outcome'()
+   {
+      given:
+      def metrics = CallMetrics.create(Address.of('metrics.test', 7001))
+      when:
+      3.times { metrics.record(Operation.TPCALL, 'lookup', Outcome.TPSUCCESS, TimeUnit.MILLISECONDS.toNanos(2), 100, 200) }
+      metrics.record(Operation.TPCALL, 'lookup', Outcome.TPFAIL, TimeUnit.MILLISECONDS.toNanos(5), 100, 0)
+      metrics.record(Operation.ENQUEUE, 'orders', Outcome.CONNECTION_ERROR, TimeUnit.MILLISECONDS.toNanos(1), 50, 0)
+      def statistics = metrics.getStatistics()
+      def success = statistics.find { it.getOperation() == Operation.TPCALL && it.getOutcome() == Outcome.TPSUCCESS }
+      then:
+      statistics.size() == 3
+      success.getName() == 'lookup'
+      success.getCount() == 3
+      success.getRequestBytes() == 300
+      success.getReplyBytes() == 600
+      success.getTotalLatency() == Duration.ofMillis(6)
+      Math.abs(success.getLatencyAtPercentile(0.99).toNanos() - TimeUnit.MILLISECONDS.toNanos(2)) <= TimeUnit.MILLISECONDS.toNanos(2) * 0.07
+   }
+
+   def 'statistics are served in the prometheus text format'()
+   {
+      given:
+      def metrics = CallMetrics.create(Address.of('metrics.test', 7002))
+      metrics.record(Operation.DEQUEUE, 'say "hi"', Outcome.TPSUCCESS, 1_000_000, 0, 42)
+      when:
+      def text = PrometheusFormat.format(metrics.getStatistics())
+      def labels = 'address="metrics.test:7002",operation="dequeue",name="say \\"hi\\"",outcome="TPSUCCESS"'
+      then:
+      text.contains('# TYPE casual_call_duration_seconds summary')
+      text.contains("casual_call_duration_seconds{${labels},quantile=\"0.5\"} ")
+      text.contains("casual_call_duration_seconds_count{${labels}} 1\n")
+      text.contains("casual_call_duration_seconds_sum{${labels}} 0.001\n")
+      text.contains("casual_reply_bytes_total{${labels}} 42\n")
+      text.contains("casual_request_bytes_total{${labels}} 0\n")
+   }
+
+   def 'a call rejected by an open circuit is not a connection error'()
+   {
+      expect:
+      Outcome.of(failure) == outcome
+      where:
+      failure                                                            || outcome
+      new CircuitBreakerOpenException('open')                            || Outcome.CIRCUIT_OPEN
+      new CompletionException(new CircuitBreakerOpenException('open'))   || Outcome.CIRCUIT_OPEN
+      new CasualConnectionException('lost')                              || Outcome.CONNECTION_ERROR
+   }
+}
@@ -0,0 +1,48 @@
+package se.laz.casual.standalone.metrics
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class LatencyHistogramTest extends Specification
+{
+   def 'percentiles are within the bucket precision'()
+   {
+      given:
+      def histogram = LatencyHistogram.of(1_000_000)
+      when:
+      (1..1000).each { histogram.record(TimeUnit.MICROSECONDS.toNanos(it)) }
+      then:
+      histogram.getCount() == 1000
+      Math.abs(histogram.getValueAtPercentile(0.5) - 500_000) <= 500_000 * 0.07
+      Math.abs(histogram.getValueAtPercentile(0.95) - 950_000) <= 950_000 * 0.07
+      histogram.getValueAtPercentile(1.0) == 1_000_000
+   }
+
+   def 'counts are halved once decayAfter values are recorded'()
+   {
+      given:
+      def histogram = LatencyHistogram.of(100)
+      when:
+      100.times { histogram.record(1000) }
+      then:
+      histogram.getCount() == 50
+      histogram.getSum() == 50_000
+   }
+
+   def 'a copy is not affected by later values'()
+   {
+      given:
+      def histogram = LatencyHistogram.of()
+      histogram.record(10)
+      histogram.record(30)
+      when:
+      def copy = histogram.copy()
+      histogram.record(1_000)
+      then:
+      copy.getCount() == 2
+      copy.getSum() == 40
+      copy.getMax() == 30
+      histogram.getCount() == 3
+   }
+}
@@ -0,0 +1,70 @@
+package se.laz.casual.standalone.outbound
+
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class DeadlinesTest extends Specification
+{
+   @Unroll
+   def 'requested: #requested with remaining transaction time: #remaining is #expected'()
+   {
+      expect:
+      Deadlines.resolve(requested, remaining) == expected
+      where:
+      requested             | remaining                          || expected
+      Duration.ofSeconds(5) | Optional.empty()                   || Optional.of(Duration.ofSeconds(5))
+      Duration.ofSeconds(5) | Optional.of(Duration.ofSeconds(2)) || Optional.of(Duration.ofSeconds(2))
+      Duration.ofSeconds(1) | Optional.of(Duration.ofSeconds(2)) || Optional.of(Duration.ofSeconds(1))
+      null                  | Optional.of(Duration.ofSeconds(2)) || Optional.of(Duration.ofSeconds(2))
+   }
+
+   @Unroll
+   def 'deadline: #deadline is exhausted: #exhausted'()
+   {
+      expect:
+      Deadlines.isExhausted(deadline) == exhausted
+      where:
+      deadline                                            || exhausted
+      Optional.empty()                                    || false
+      Optional.of(Duration.ofMillis(1))                   || false
+      Optional.of(Duration.ZERO)                          || true
+      Deadlines.resolve(null, Optional.of(Duration.ZERO)) || true
+   }
+
+   def 'a pending request expires'()
+   {
+      given:
+      def pending = new CompletableFuture<String>()
+      def expiredBefore = Deadlines.getExpired()
+      when:
+      Deadlines.expireAfter(pending, Duration.ofMillis(50))
+      pending.get(5, TimeUnit.SECONDS)
+      then:
+      def e = thrown(ExecutionException)
+      e.cause instanceof TimeoutException
+      Deadlines.isExpired(e.cause)
+      Deadlines.getExpired() == expiredBefore + 1
+   }
+
+   def 'a reply in time cancels the deadline'()
+   {
+      given:
+      def pending = new CompletableFuture<String>()
+      when:
+      Deadlines.expireAfter(pending, Duration.ofMinutes(5))
+      pending.complete('reply')
+      then:
+      pending.get() == 'reply'
+      // cancelled deadlines leave the wheel on the next tick
+      new PollingConditions(timeout: 5).eventually {
+         assert Deadlines.getPending() == 0
+      }
+   }
+}
@@ -0,0 +1,178 @@
+package se.laz.casual.standalone.outbound
+
+import se.laz.casual.api.CasualRuntimeException
+import spock.lang.Specification
+
+import javax.transaction.TransactionManager
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ManagedConnectionBagTest extends Specification
+{
+   def address = Address.of('localhost', 7772)
+
+   def 'returned connection is reused'()
+   {
+      given:
+      def bag = ManagedConnectionBag.of(address, configuration(0, 10, Duration.ofMinutes(1), Duration.ofSeconds(1)))
+      def factory = { Mock(CasualManagedConnection) }
+      when:
+      def first = bag.borrow(factory)
+      first.close()
+      def second = bag.borrow(factory)
+      then:
+      first.is(second)
+      bag.getStatistics().getCreated() == 1
+      bag.getStatistics().getBorrows() == 2
+   }
+
+   def 'borrow times out at max size'()
+   {
+      given:
+      def bag = ManagedConnectionBag.of(address, configuration(0, 1, Duration.ofMinutes(1), Duration.ofMillis(50)))
+      def factory = { Mock(CasualManagedConnection) }
+      bag.borrow(factory)
+      when:
+      bag.borrow(factory)
+      then:
+      thrown(CasualRuntimeException)
+      bag.getStatistics().getBorrowTimeouts() == 1
+   }
+
+   def 'waiter gets the returned connection'()
+   {
+      given:
+      def bag = ManagedConnectionBag.of(address, configuration(0, 1, Duration.ofMinutes(1), Duration.ofSeconds(5)))
+      def factory = { Mock(CasualManagedConnection) }
+      def borrowed = bag.borrow(factory)
+      def executor = Executors.newSingleThreadExecutor()
+      when:
+      def waiting = executor.submit({ bag.borrow(factory) } as java.util.concurrent.Callable)
+      Thread.sleep(50)
+      borrowed.close()
+      then:
+      waiting.get(5, TimeUnit.SECONDS).is(borrowed)
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'a connection is never borrowed twice at the same time'()
+   {
+      given:
+      def threads = 32
+      def bag = ManagedConnectionBag.of(address, configuration(0, 8, Duration.ofMinutes(1), Duration.ofSeconds(10)))
+      // mocks are created up front, the factory is called from the worker threads
+      def created = new java.util.concurrent.ConcurrentLinkedQueue((1..8).collect { Mock(CasualManagedConnection) })
+      def factory = { created.poll() }
+      def inUse = ConcurrentHashMap.newKeySet()
+      def doubleBorrows = new java.util.concurrent.atomic.AtomicInteger()
+      def done = new CountDownLatch(threads)
+      def executor = Executors.newFixedThreadPool(threads)
+      when:
+      threads.times {
+         executor.execute({
+            1000.times {
+               def connection = bag.borrow(factory)
+               if(!inUse.add(connection))
+               {
+                  doubleBorrows.incrementAndGet()
+               }
+               inUse.remove(connection)
+               connection.close()
+            }
+            done.countDown()
+         })
+      }
+      done.await(30, TimeUnit.SECONDS)
+      then:
+      doubleBorrows.get() == 0
+      bag.getStatistics().getSize() <= 8
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'waiters get the connections returned while they are not polling'()
+   {
+      given:
+      def threads = 32
+      def bag = ManagedConnectionBag.of(address, configuration(0, 2, Duration.ofMinutes(1), Duration.ofSeconds(5)))
+      def created = new java.util.concurrent.ConcurrentLinkedQueue((1..2).collect { Mock(CasualManagedConnection) })
+      def factory = { created.poll() }
+      def done = new CountDownLatch(threads)
+      def executor = Executors.newFixedThreadPool(threads)
+      when:
+      threads.times {
+         executor.execute({
+            500.times {
+               bag.borrow(factory).close()
+            }
+            done.countDown()
+         })
+      }
+      def finished = done.await(60, TimeUnit.SECONDS)
+      then:
+      finished
+      bag.getStatistics().getBorrowTimeouts() == 0
+      bag.getStatistics().getBorrows() == threads * 500
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'idle connections are evicted down to min size'()
+   {
+      given:
+      def bag = ManagedConnectionBag.of(address, configuration(1, 10, Duration.ofMillis(10), Duration.ofSeconds(1)))
+      def factory = { Mock(CasualManagedConnection) }
+      def connections = (1..3).collect { bag.borrow(factory) }
+      connections.each { it.close() }
+      when:
+      Thread.sleep(50)
+      bag.housekeep()
+      then:
+      bag.getStatistics().getSize() == 1
+      bag.getStatistics().getEvicted() == 2
+   }
+
+   def 'evicting a connection that waits to reconnect stops the reconnect'()
+   {
+      given:
+      def reconnectAddress = Address.of('localhost', 7773)
+      def bag = ManagedConnectionBag.of(address, configuration(0, 10, Duration.ofMillis(10), Duration.ofSeconds(1)))
+      def callerProducer = Mock(CallerProducer) {
+         // the domain stays away, every reconnect attempt fails
+         createCaller(*_) >>> [Mock(Caller)] >> { throw new CasualRuntimeException('connection refused') }
+      }
+      CasualManagedConnectionImpl managedConnection = null
+      def factory = {
+         managedConnection = CasualManagedConnectionImpl.of(Mock(TransactionManager), reconnectAddress.getHostName(), reconnectAddress.getPort(), callerProducer)
+         managedConnection
+      }
+      bag.borrow(factory).close()
+      managedConnection.disconnected(new IOException('lost'))
+      def scheduler = ReconnectScheduler.of(reconnectAddress)
+      when:
+      Thread.sleep(50)
+      bag.housekeep()
+      then:
+      bag.getStatistics().getEvicted() == 1
+      managedConnection.isClosed()
+      scheduler.getWaiting() == 0
+      when:
+      managedConnection.disconnected(new IOException('lost again'))
+      then:
+      scheduler.getWaiting() == 0
+   }
+
+   private static ManagedConnectionPoolConfiguration configuration(int min, int max, Duration idle, Duration borrow)
+   {
+      ManagedConnectionPoolConfiguration.createBuilder()
+              .withMinSize(min)
+              .withMaxSize(max)
+              .withIdleTimeout(idle)
+              .withBorrowTimeout(borrow)
+              .build()
+   }
+}
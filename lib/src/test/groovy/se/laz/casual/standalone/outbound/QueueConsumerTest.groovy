@@ -0,0 +1,157 @@
+package se.laz.casual.standalone.outbound
+
+import se.laz.casual.api.buffer.type.OctetBuffer
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.queue.DequeueReturn
+import se.laz.casual.api.queue.QueueInfo
+import se.laz.casual.api.queue.QueueMessage
+import se.laz.casual.api.queue.QueueOptions
+import spock.lang.Specification
+
+import javax.transaction.TransactionManager
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.Flow
+
+class QueueConsumerTest extends Specification
+{
+   QueueInfo queueInfo = QueueInfo.createBuilder()
+           .withQueueName('consumer.queue')
+           .withOptions(QueueOptions.createBuilder().withBlock(false).build())
+           .build()
+   // runs the drain on the calling thread so the spec is deterministic
+   Executor direct = { it.run() } as Executor
+   List<QueueMessage> received = []
+   List<Throwable> errors = []
+   Flow.Subscription subscription
+
+   def 'prefetches up to the limit ahead of demand'()
+   {
+      given:
+      Caller caller = Mock(Caller)
+      def consumer = QueueConsumer.createBuilder()
+              .withCaller(caller)
+              .withQueueInfo(queueInfo)
+              .withPrefetch(4)
+              .withExecutor(direct)
+              .build()
+      when:
+      consumer.subscribe(subscriber())
+      subscription.request(1)
+      then:
+      // one to satisfy demand and the buffer refilled to four
+      5 * caller.dequeueAsync(queueInfo, _) >> { CompletableFuture.completedFuture(reply(message('payload'))) }
+      received.size() == 1
+      when:
+      subscription.request(2)
+      then:
+      2 * caller.dequeueAsync(queueInfo, _) >> { CompletableFuture.completedFuture(reply(message('payload'))) }
+      received.size() == 3
+      errors.isEmpty()
+   }
+
+   def 'the memory budget limits prefetching'()
+   {
+      given:
+      Caller caller = Mock(Caller)
+      def consumer = QueueConsumer.createBuilder()
+              .withCaller(caller)
+              .withQueueInfo(queueInfo)
+              .withPrefetch(100)
+              .withMaxPrefetchBytes(10)
+              .withExecutor(direct)
+              .build()
+      when:
+      consumer.subscribe(subscriber())
+      subscription.request(1)
+      then:
+      // each payload is 5 bytes, fetching stops once 10 bytes are buffered
+      3 * caller.dequeueAsync(queueInfo, _) >> { CompletableFuture.completedFuture(reply(message('12345'))) }
+      received.size() == 1
+   }
+
+   def 'a failing subscriber rolls the transaction back'()
+   {
+      given:
+      Caller caller = Mock(Caller)
+      TransactionManager transactionManager = Mock(TransactionManager)
+      def consumer = QueueConsumer.createBuilder()
+              .withCaller(caller)
+              .withQueueInfo(queueInfo)
+              .withTransactionManager(transactionManager)
+              .withExecutor(direct)
+              .build()
+      def failOnFirst = true
+      when:
+      consumer.subscribe(subscriber({ if(failOnFirst) { failOnFirst = false; throw new IllegalStateException('processing failed') } }))
+      subscription.request(2)
+      then:
+      2 * caller.dequeue(queueInfo, _) >> reply(message('payload'))
+      2 * transactionManager.begin()
+      1 * transactionManager.rollback()
+      1 * transactionManager.commit()
+      received.size() == 2
+   }
+
+   def 'a subscriber throwing without a transaction cancels the subscription'()
+   {
+      given:
+      Caller caller = Mock(Caller)
+      def consumer = QueueConsumer.createBuilder()
+              .withCaller(caller)
+              .withQueueInfo(queueInfo)
+              .withPrefetch(4)
+              .withExecutor(direct)
+              .build()
+      when:
+      consumer.subscribe(subscriber({ throw new IllegalStateException('processing failed') }))
+      subscription.request(3)
+      then:
+      4 * caller.dequeueAsync(queueInfo, _) >> { CompletableFuture.completedFuture(reply(message('payload'))) }
+      received.size() == 1
+      errors.isEmpty()
+      when:
+      subscription.request(1)
+      then:
+      0 * caller.dequeueAsync(_, _)
+      received.size() == 1
+   }
+
+   def 'a failed dequeue signals onError'()
+   {
+      given:
+      Caller caller = Mock(Caller)
+      caller.dequeueAsync(queueInfo, _) >> { CompletableFuture.completedFuture(DequeueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build()) }
+      def consumer = QueueConsumer.createBuilder()
+              .withCaller(caller)
+              .withQueueInfo(queueInfo)
+              .withExecutor(direct)
+              .build()
+      when:
+      consumer.subscribe(subscriber())
+      subscription.request(1)
+      then:
+      errors.size() == 1
+      errors[0] instanceof QueueOperationFailedException
+   }
+
+   private Flow.Subscriber<QueueMessage> subscriber(Closure onMessage = {})
+   {
+      new Flow.Subscriber<QueueMessage>() {
+         void onSubscribe(Flow.Subscription s) { subscription = s }
+         void onNext(QueueMessage item) { received << item; onMessage(item) }
+         void onError(Throwable throwable) { errors << throwable }
+         void onComplete() {}
+      }
+   }
+
+   private static DequeueReturn reply(QueueMessage message)
+   {
+      DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(message).build()
+   }
+
+   private static QueueMessage message(String payload)
+   {
+      QueueMessage.createBuilder().withPayload(OctetBuffer.of(payload.getBytes())).build()
+   }
+}
@@ -0,0 +1,79 @@
+package se.laz.casual.standalone.outbound
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+class ReconnectSchedulerTest extends Specification
+{
+   ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor()
+   def backoff = { StaggeredOptions.of(Duration.ofMillis(10), Duration.ofMillis(10), 2, Duration.ofMillis(40)) }
+
+   def cleanup()
+   {
+      executor.shutdownNow()
+   }
+
+   def 'one probe at a time while down, everybody reconnected once up'()
+   {
+      given:
+      def scheduler = ReconnectScheduler.create(Address.of('localhost', 7771), executor, backoff)
+      def up = new AtomicBoolean(false)
+      def connects = new AtomicInteger()
+      def reconnected = ConcurrentHashMap.newKeySet()
+      def caller = Stub(Caller)
+      def waiters = (1..100).collect { index ->
+         Stub(ReconnectAble) {
+            setCaller(_) >> { reconnected.add(index) }
+         }
+      }
+      def connect = {
+         connects.incrementAndGet()
+         if(!up.get())
+         {
+            throw new IllegalStateException('down')
+         }
+         caller
+      }
+      when:
+      waiters.each { scheduler.reconnect(it, connect) }
+      waiters.each { scheduler.reconnect(it, connect) }
+      Thread.sleep(200)
+      def whileDown = connects.get()
+      then:
+      scheduler.getWaiting() == 100
+      // one attempt per backoff step, not one per waiter
+      whileDown < 20
+      when:
+      up.set(true)
+      then:
+      new PollingConditions(timeout: 5).eventually {
+         assert reconnected.size() == 100
+         assert scheduler.getWaiting() == 0
+      }
+   }
+
+   def 'cancelled waiters are not reconnected'()
+   {
+      given:
+      def scheduler = ReconnectScheduler.create(Address.of('localhost', 7772), executor, backoff)
+      def reconnected = new AtomicInteger()
+      def caller = Stub(Caller)
+      def waiter = Stub(ReconnectAble) {
+         setCaller(_) >> { reconnected.incrementAndGet() }
+      }
+      when:
+      scheduler.reconnect(waiter, { caller })
+      scheduler.cancel(waiter)
+      Thread.sleep(100)
+      then:
+      reconnected.get() == 0
+      scheduler.getWaiting() == 0
+   }
+}
@@ -66,4 +66,23 @@ class StaggeredOptionsTest extends Specification
       current.get(unit) == subsequentAmount * staggerFactor
    }
 
+   def 'delay is capped'()
+   {
+      given:
+      def unit = ChronoUnit.SECONDS
+      def staggeredOptions = StaggeredOptions.of(Duration.of(1, unit), Duration.of(1, unit), 2, Duration.of(5, unit))
+      when:
+      def delays = (1..6).collect { staggeredOptions.getNext().get(unit) }
+      then:
+      delays == [1, 2, 4, 5, 5, 5]
+   }
+
+   def 'cap shorter than the delays'()
+   {
+      when:
+      StaggeredOptions.of(Duration.ofSeconds(2), Duration.ofSeconds(2), 2, Duration.ofSeconds(1))
+      then:
+      thrown(IllegalArgumentException)
+   }
+
 }
@@ -0,0 +1,217 @@
+package se.laz.casual.standalone.outbound.circuitbreaker
+
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+
+class CircuitBreakerTest extends Specification
+{
+   long now = 0
+   LongSupplier clock = { now } as LongSupplier
+   def configuration = CircuitBreakerConfiguration.createBuilder()
+           .withWindowSize(10)
+           .withMinimumCalls(4)
+           .withFailureRateThreshold(0.5)
+           .withSlowCallRateThreshold(0.5)
+           .withSlowCallDuration(Duration.ofSeconds(1))
+           .withOpenDuration(Duration.ofSeconds(30))
+           .withHalfOpenCalls(2)
+           .build()
+
+   def 'opens on failure rate and fails fast'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      def calls = 0
+      when:
+      4.times { breaker.onResult(0, it % 2 == 0) }
+      def reply = breaker.call({ ++calls; 'called' }, { false }, { 'rejected' })
+      then:
+      breaker.getState() == CircuitState.OPEN
+      reply == 'rejected'
+      calls == 0
+      breaker.getRejectedCalls() == 1
+   }
+
+   def 'stays closed below the minimum number of calls'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      when:
+      3.times { breaker.onResult(0, true) }
+      then:
+      breaker.getState() == CircuitState.CLOSED
+      breaker.tryAcquire()
+   }
+
+   def 'opens on slow call rate'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      when:
+      2.times { breaker.onResult(0, false) }
+      2.times { breaker.onResult(TimeUnit.SECONDS.toNanos(2), false) }
+      then:
+      breaker.getState() == CircuitState.OPEN
+   }
+
+   def 'a circuit not counting slow calls only opens on failures'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock, false)
+      when:
+      4.times { breaker.onResult(TimeUnit.SECONDS.toNanos(2), false) }
+      then:
+      breaker.getState() == CircuitState.CLOSED
+      breaker.getSlowCallRate() == 0.0
+      when:
+      4.times { breaker.onResult(0, true) }
+      then:
+      breaker.getState() == CircuitState.OPEN
+   }
+
+   def 'waiting calls never count as slow'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      when:
+      4.times { breaker.callWaiting({ now += TimeUnit.SECONDS.toNanos(5); 'message' }, { false }, { 'rejected' }) }
+      then:
+      breaker.getState() == CircuitState.CLOSED
+      breaker.getSlowCallRate() == 0.0
+   }
+
+   def 'old outcomes leave the window'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      when:
+      4.times { breaker.onResult(0, true) }
+      then:
+      breaker.getState() == CircuitState.OPEN
+      when:
+      CircuitBreakerConfiguration wide = CircuitBreakerConfiguration.createBuilder().withWindowSize(4).withMinimumCalls(4).build()
+      breaker = CircuitBreaker.of('test', wide, clock)
+      breaker.onResult(0, true)
+      4.times { breaker.onResult(0, false) }
+      then:
+      breaker.getFailureRate() == 0.0
+   }
+
+   def 'half open closes after successful probes and reopens on a failed one'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      4.times { breaker.onResult(0, true) }
+      when:
+      now += TimeUnit.SECONDS.toNanos(31)
+      def first = breaker.tryAcquire()
+      def second = breaker.tryAcquire()
+      def third = breaker.tryAcquire()
+      then:
+      breaker.getState() == CircuitState.HALF_OPEN
+      first
+      second
+      !third
+      when:
+      breaker.onResult(0, false)
+      breaker.onResult(0, false)
+      then:
+      breaker.getState() == CircuitState.CLOSED
+      breaker.getFailureRate() == 0.0
+      when:
+      4.times { breaker.onResult(0, true) }
+      now += TimeUnit.SECONDS.toNanos(31)
+      breaker.tryAcquire()
+      breaker.onResult(0, true)
+      then:
+      breaker.getState() == CircuitState.OPEN
+      !breaker.tryAcquire()
+   }
+
+   def 'unanswered probes open the circuit again'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      4.times { breaker.onResult(0, true) }
+      now += TimeUnit.SECONDS.toNanos(31)
+      2.times { breaker.tryAcquire() }
+      when:
+      now += TimeUnit.SECONDS.toNanos(10)
+      then:
+      !breaker.tryAcquire()
+      breaker.getState() == CircuitState.HALF_OPEN
+      when:
+      now += TimeUnit.SECONDS.toNanos(21)
+      then:
+      !breaker.tryAcquire()
+      breaker.getState() == CircuitState.OPEN
+      when:
+      now += TimeUnit.SECONDS.toNanos(31)
+      then:
+      breaker.tryAcquire()
+      breaker.getState() == CircuitState.HALF_OPEN
+   }
+
+   def 'async failures count'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      when:
+      4.times {
+         breaker.callAsync({ CompletableFuture.failedFuture(new RuntimeException('boom')) }, { false }, { 'rejected' })
+      }
+      def reply = breaker.callAsync({ CompletableFuture.completedFuture('called') }, { false }, { 'rejected' })
+      then:
+      reply.join() == 'rejected'
+   }
+
+   def 'an open circuit fails the async call with what whenOpen throws'()
+   {
+      given:
+      def breaker = CircuitBreaker.of('test', configuration, clock)
+      4.times { breaker.onResult(0, true) }
+      when:
+      def reply = breaker.callAsync({ CompletableFuture.completedFuture('called') }, { false }, { throw new CircuitBreakerOpenException('open') })
+      reply.join()
+      then:
+      def e = thrown(CompletionException)
+      e.getCause() instanceof CircuitBreakerOpenException
+   }
+
+   def 'outcomes recorded concurrently all count'()
+   {
+      given:
+      def threads = 8
+      def breaker = CircuitBreaker.of('test', CircuitBreakerConfiguration.createBuilder()
+              .withWindowSize(threads * 1000)
+              .withMinimumCalls(threads * 1000)
+              .withFailureRateThreshold(1.0)
+              .withSlowCallRateThreshold(1.0)
+              .withSlowCallDuration(Duration.ofSeconds(1))
+              .build(), clock)
+      def start = new CountDownLatch(1)
+      def executor = Executors.newFixedThreadPool(threads)
+      when:
+      def done = (1..threads).collect {
+         executor.submit({
+            start.await()
+            1000.times { breaker.onResult(0, it % 4 == 0) }
+         } as Callable)
+      }
+      start.countDown()
+      done.each { it.get(10, TimeUnit.SECONDS) }
+      then:
+      breaker.getFailureRate() == 0.25
+      breaker.getState() == CircuitState.CLOSED
+      cleanup:
+      executor.shutdownNow()
+   }
+}
@@ -0,0 +1,109 @@
+package se.laz.casual.standalone.outbound.completion
+
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage
+import se.laz.casual.internal.network.NetworkConnection
+import se.laz.casual.standalone.outbound.Deadlines
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class CompletingNetworkConnectionTest extends Specification
+{
+   def 'direct completes on the replying thread and measures the callbacks'()
+   {
+      given:
+      def reply = new CompletableFuture<CasualNWMessage>()
+      def networkConnection = Stub(NetworkConnection) {
+         request(_) >> reply
+      }
+      def connection = CompletingNetworkConnection.of(networkConnection, CompletionMode.DIRECT)
+      def before = CompletingNetworkConnection.getStatistics()
+      Thread callbackThread = null
+      when:
+      connection.request(Stub(CasualNWMessage)).thenRun { callbackThread = Thread.currentThread(); Thread.sleep(5) }
+      reply.complete(Stub(CasualNWMessage))
+      def after = CompletingNetworkConnection.getStatistics()
+      then:
+      callbackThread == Thread.currentThread()
+      after.directCompletions == before.directCompletions + 1
+      after.directCallbackNanos - before.directCallbackNanos >= TimeUnit.MILLISECONDS.toNanos(5)
+   }
+
+   def 'shared pool completes off the replying thread, failures included'()
+   {
+      given:
+      def reply = new CompletableFuture<CasualNWMessage>()
+      def networkConnection = Stub(NetworkConnection) {
+         request(_) >> reply
+      }
+      def connection = CompletingNetworkConnection.of(networkConnection, CompletionMode.SHARED_POOL)
+      def failure = new IllegalStateException('no reply')
+      when:
+      def completed = connection.request(Stub(CasualNWMessage)).handle { value, throwable -> [Thread.currentThread(), throwable] }
+      reply.completeExceptionally(failure)
+      def result = completed.get(5, TimeUnit.SECONDS)
+      then:
+      result[0] != Thread.currentThread()
+      result[0].name.startsWith('casual-completion-')
+      result[1] == failure
+   }
+
+   def 'more nested blocking continuations than pool threads do not deadlock'()
+   {
+      given:
+      def count = CompletionMode.getSharedPoolSize() + 2
+      def outer = (1..count).collect { new CompletableFuture<CasualNWMessage>() }
+      def inner = (1..count).collect { new CompletableFuture<CasualNWMessage>() }
+      def replies = new ConcurrentLinkedQueue<CompletableFuture<CasualNWMessage>>(outer + inner)
+      def networkConnection = Stub(NetworkConnection) {
+         request(_) >> { replies.poll() }
+      }
+      def connection = CompletingNetworkConnection.of(networkConnection, CompletionMode.SHARED_POOL)
+      def message = Stub(CasualNWMessage)
+      def blocked = new CountDownLatch(count)
+      def pending = outer.collect { connection.request(message) }
+      def done = pending.collect { reply ->
+         reply.thenApply { blocked.countDown(); connection.request(message).join() }
+      }
+      when:
+      // the replying thread, it completes the inner replies only once every continuation is blocked on one
+      def io = Thread.start {
+         outer.each { it.complete(message) }
+         blocked.await(5, TimeUnit.SECONDS)
+         inner.each { it.complete(message) }
+      }
+      CompletableFuture.allOf(done as CompletableFuture[]).get(10, TimeUnit.SECONDS)
+      io.join()
+      then:
+      blocked.getCount() == 0
+      done.every { it.isDone() && !it.isCompletedExceptionally() }
+   }
+
+   def 'an expired request is abandoned until the late reply arrives'()
+   {
+      given:
+      def reply = new CompletableFuture<CasualNWMessage>()
+      def networkConnection = Stub(NetworkConnection) {
+         request(_) >> reply
+      }
+      def connection = CompletingNetworkConnection.of(networkConnection, CompletionMode.DIRECT)
+      def before = CompletingNetworkConnection.getAbandonedRequests()
+      when:
+      def pending = connection.request(Stub(CasualNWMessage), Duration.ofMillis(10))
+      pending.handle { value, throwable -> throwable }.get(5, TimeUnit.SECONDS)
+      then:
+      pending.isCompletedExceptionally()
+      !reply.isDone()
+      connection.getAbandoned() == 1
+      CompletingNetworkConnection.getAbandonedRequests() == before + 1
+      when:
+      reply.complete(Stub(CasualNWMessage))
+      then:
+      connection.getAbandoned() == 0
+      CompletingNetworkConnection.getAbandonedRequests() == before
+   }
+}
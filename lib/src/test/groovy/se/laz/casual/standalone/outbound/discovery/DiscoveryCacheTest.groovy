@@ -0,0 +1,150 @@
+package se.laz.casual.standalone.outbound.discovery
+
+import se.laz.casual.api.service.ServiceDetails
+import se.laz.casual.standalone.outbound.Address
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+
+class DiscoveryCacheTest extends Specification
+{
+   long now = 0
+   List<Runnable> scheduledRefreshes = []
+   DiscoveryCache cache
+
+   def setup()
+   {
+      def configuration = DiscoveryCacheConfiguration.createBuilder()
+                                                     .withPositiveTtl(Duration.ofNanos(100))
+                                                     .withNegativeTtl(Duration.ofNanos(10))
+                                                     .withRefreshAhead(Duration.ofNanos(20))
+                                                     .build()
+      cache = DiscoveryCache.create(Address.of('localhost', 7772), configuration, { now }, { scheduledRefreshes << it })
+   }
+
+   def 'found services are cached until the positive ttl expires'()
+   {
+      given:
+      def details = [Mock(ServiceDetails)]
+      def discovery = Mock(Function)
+      when:
+      def first = cache.serviceExists('echo', discovery)
+      now = 50
+      def second = cache.serviceExists('echo', discovery)
+      then:
+      1 * discovery.apply('echo') >> details
+      first
+      second
+      cache.getStatistics().getHits() == 1
+      cache.getStatistics().getMisses() == 1
+      when:
+      now = 100
+      cache.serviceExists('echo', discovery)
+      then:
+      1 * discovery.apply('echo') >> details
+   }
+
+   def 'missing services are cached with the negative ttl'()
+   {
+      given:
+      def discovery = Mock(Function)
+      when:
+      def first = cache.serviceExists('missing', discovery)
+      now = 5
+      def second = cache.serviceExists('missing', discovery)
+      then:
+      1 * discovery.apply('missing') >> []
+      !first
+      !second
+      cache.getStatistics().getNegativeHits() == 1
+      when:
+      now = 10
+      cache.serviceExists('missing', discovery)
+      then:
+      1 * discovery.apply('missing') >> []
+   }
+
+   def 'entries used close to expiry are refreshed in the background once'()
+   {
+      given:
+      def discovery = Mock(Function)
+      def details = [Mock(ServiceDetails)]
+      when:
+      cache.serviceExists('echo', discovery)
+      now = 85
+      cache.serviceExists('echo', discovery)
+      cache.serviceExists('echo', discovery)
+      then:
+      1 * discovery.apply('echo') >> details
+      scheduledRefreshes.size() == 1
+      when:
+      scheduledRefreshes[0].run()
+      now = 150
+      def exists = cache.serviceExists('echo', discovery)
+      then:
+      1 * discovery.apply('echo') >> details
+      exists
+      cache.getStatistics().getRefreshes() == 1
+      cache.getStatistics().getMisses() == 1
+   }
+
+   def 'a failed refresh keeps the old entry'()
+   {
+      given:
+      def discovery = Mock(Function)
+      def details = [Mock(ServiceDetails)]
+      when:
+      cache.serviceExists('echo', discovery)
+      now = 90
+      cache.serviceExists('echo', discovery)
+      scheduledRefreshes[0].run()
+      def exists = cache.serviceExists('echo', discovery)
+      then:
+      1 * discovery.apply('echo') >> details
+      1 * discovery.apply('echo') >> { throw new RuntimeException('connection lost') }
+      exists
+      cache.getStatistics().getRefreshFailures() == 1
+   }
+
+   def 'queues are cached'()
+   {
+      when:
+      def first = cache.queueExists('queue', { true })
+      def second = cache.queueExists('queue', { throw new IllegalStateException('not expected') })
+      then:
+      first
+      second
+   }
+
+   def 'a refresh stuck on one address does not hold up the refreshes of another'()
+   {
+      given:
+      // every hit refreshes
+      def configuration = DiscoveryCacheConfiguration.createBuilder()
+                                                     .withPositiveTtl(Duration.ofMinutes(1))
+                                                     .withNegativeTtl(Duration.ofMinutes(1))
+                                                     .withRefreshAhead(Duration.ofMinutes(1))
+                                                     .build()
+      def slowAddress = Address.of('discovery.slow', 7781)
+      def fastAddress = Address.of('discovery.fast', 7782)
+      DiscoveryCache.configure(slowAddress, configuration)
+      DiscoveryCache.configure(fastAddress, configuration)
+      def details = [Mock(ServiceDetails)]
+      def stuck = new CountDownLatch(1)
+      def refreshed = new CountDownLatch(1)
+      def slowCalls = 0
+      def fastCalls = 0
+      def slow = { name -> if(slowCalls++ > 0) { stuck.await() }; details } as Function
+      def fast = { name -> if(fastCalls++ > 0) { refreshed.countDown() }; details } as Function
+      when:
+      2.times { DiscoveryCache.of(slowAddress).serviceExists('echo', slow) }
+      2.times { DiscoveryCache.of(fastAddress).serviceExists('echo', fast) }
+      then:
+      refreshed.await(5, TimeUnit.SECONDS)
+      cleanup:
+      stuck.countDown()
+   }
+}
@@ -0,0 +1,79 @@
+package se.laz.casual.standalone.outbound.hedging
+
+import se.laz.casual.api.flags.AtmiFlags
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.standalone.outbound.Address
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class HedgingPolicyTest extends Specification
+{
+   def 'a slow call is hedged and the first reply wins'()
+   {
+      given:
+      def policy = configuredPolicy(5000, 1.0)
+      warmUp(policy)
+      def original = new CompletableFuture<String>()
+      def attempts = [original, CompletableFuture.completedFuture('hedged')].iterator()
+      when:
+      def reply = policy.call('lookup', { attempts.next() })
+      then:
+      reply.get(5, TimeUnit.SECONDS) == 'hedged'
+      original.isCancelled()
+      policy.getStatistics().getHedges() == 1
+      policy.getStatistics().getHedgeWins() == 1
+   }
+
+   def 'no duplicates beyond the budget'()
+   {
+      given:
+      def policy = configuredPolicy(5001, 0.0)
+      warmUp(policy)
+      def original = new CompletableFuture<String>()
+      def calls = 0
+      when:
+      def reply = policy.call('lookup', { ++calls; original })
+      then:
+      new PollingConditions(timeout: 5).eventually {
+         assert policy.getStatistics().getDeniedByBudget() == 1
+      }
+      calls == 1
+      !reply.isDone()
+      when:
+      original.complete('original')
+      then:
+      reply.get(5, TimeUnit.SECONDS) == 'original'
+   }
+
+   def 'only TPNOTRAN calls to the listed services are hedgeable'()
+   {
+      given:
+      def address = Address.of('hedging.test', 5002)
+      HedgingPolicy.configure(address, HedgingConfiguration.createBuilder().withServices(['lookup'] as Set).build())
+      def policy = HedgingPolicy.of(address)
+      expect:
+      policy.isHedgeable('lookup', Flag.of(AtmiFlags.TPNOTRAN))
+      !policy.isHedgeable('lookup', Flag.of(AtmiFlags.NOFLAG))
+      !policy.isHedgeable('update', Flag.of(AtmiFlags.TPNOTRAN))
+   }
+
+   private static HedgingPolicy configuredPolicy(int port, double budget)
+   {
+      def address = Address.of('hedging.test', port)
+      HedgingPolicy.configure(address, HedgingConfiguration.createBuilder()
+              .withMinimumSamples(10)
+              .withMinDelay(Duration.ofMillis(20))
+              .withBudget(budget)
+              .build())
+      return HedgingPolicy.of(address)
+   }
+
+   private static void warmUp(HedgingPolicy policy)
+   {
+      10.times { policy.call('lookup', { CompletableFuture.completedFuture('fast') }).join() }
+   }
+}
@@ -0,0 +1,97 @@
+package se.laz.casual.standalone.outbound.network.pool
+
+import se.laz.casual.internal.network.NetworkConnection
+import se.laz.casual.network.connection.CasualConnectionException
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicBoolean
+
+class ConnectionContainerTest extends Specification
+{
+   def container = ConnectionContainer.of()
+
+   def 'get never hands out an inactive connection'()
+   {
+      given:
+      def idleButDead = connection(false)
+      def busy = connection(true)
+      3.times { busy.request(null) }
+      container.addConnection(idleButDead)
+      container.addConnection(busy)
+      expect:
+      container.activeCount() == 1
+      (1..20).every { container.get().is(busy) }
+   }
+
+   def 'get picks the connection with the fewest requests in flight'()
+   {
+      given:
+      def busy = connection(true)
+      def idle = connection(true)
+      2.times { busy.request(null) }
+      container.addConnection(busy)
+      container.addConnection(idle)
+      expect:
+      (1..20).every { container.get().is(idle) }
+   }
+
+   def 'get fails when there are no connections'()
+   {
+      when:
+      container.get()
+      then:
+      thrown(IllegalStateException)
+   }
+
+   def 'get fails when none of the connections is active'()
+   {
+      given:
+      container.addConnection(connection(false))
+      container.addConnection(connection(false))
+      when:
+      container.get()
+      then:
+      thrown(CasualConnectionException)
+   }
+
+   def 'remove inactive returns what it removed and keeps the rest'()
+   {
+      given:
+      def active = connection(true)
+      def inactive = connection(false)
+      container.addConnection(active)
+      container.addConnection(inactive)
+      when:
+      def removed = container.removeInactive()
+      then:
+      removed == [inactive]
+      container.getConnections() == [active]
+      container.removeInactive().isEmpty()
+   }
+
+   def 'readers keep the list they got while connections are added and removed'()
+   {
+      given:
+      def first = connection(true)
+      container.addConnection(first)
+      def snapshot = container.getConnections()
+      when:
+      container.addConnection(connection(true))
+      container.removeConnection(first)
+      then:
+      snapshot == [first]
+      container.size() == 1
+      !container.getConnections().contains(first)
+   }
+
+   private ReferenceCountedNetworkConnection connection(boolean isActive)
+   {
+      def active = new AtomicBoolean(isActive)
+      // replies never arrive, every request stays in flight
+      ReferenceCountedNetworkConnection.of(Stub(NetworkConnection) {
+         isActive() >> { active.get() }
+         request(_) >> { new CompletableFuture() }
+      }, { listener -> }, { connection -> })
+   }
+}
@@ -0,0 +1,180 @@
+package se.laz.casual.standalone.outbound.network.pool
+
+import se.laz.casual.internal.network.NetworkConnection
+import se.laz.casual.network.ProtocolVersion
+import se.laz.casual.network.connection.CasualConnectionException
+import se.laz.casual.network.outbound.NetworkListener
+import se.laz.casual.standalone.outbound.Address
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+
+class NetworkConnectionPoolTest extends Specification
+{
+   def address = Address.of('pool.test', 7771)
+   def user = { reason -> } as NetworkListener
+   def actives = []
+   def listeners = []
+   def ownListeners = []
+   def creatable = Integer.MAX_VALUE
+
+   def 'a user gets a connection that listens to the user and to the pool'()
+   {
+      given:
+      def pool = pool(1)
+      when:
+      def connection = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      then:
+      connection.isActive()
+      listeners == [user]
+      ownListeners == [pool]
+   }
+
+   def 'prewarmed spares are handed out before any connection is opened and only the pool listens to them'()
+   {
+      given:
+      def pool = pool(2)
+      when:
+      def opened = pool.prewarm(2, ProtocolVersion.VERSION_1_0, { it.run() } as Executor)
+      then:
+      opened == 2
+      listeners == [null, null]
+      ownListeners == [pool, pool]
+      when:
+      def first = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      def second = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      then:
+      actives.size() == 2
+      [first, second] as Set == pool.getConnections() as Set
+      first.getReferenceCount() == 1
+      second.getReferenceCount() == 1
+   }
+
+   def 'a dead connection with users is reaped and its replacement is handed to the next user'()
+   {
+      given:
+      def pool = pool(1)
+      def dead = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      actives[0].set(false)
+      when:
+      pool.reap()
+      then:
+      pool.getReconnects() == 1
+      pool.getConnections().size() == 1
+      !pool.getConnections().contains(dead)
+      listeners == [user, null]
+      when:
+      def replacement = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      then:
+      replacement.isActive()
+      replacement != dead
+      actives.size() == 2
+   }
+
+   def 'a replacement that can not be opened is retried on the next reap'()
+   {
+      given:
+      def pool = pool(1)
+      pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      actives[0].set(false)
+      creatable = 1
+      when:
+      pool.reap()
+      then:
+      pool.getReconnects() == 0
+      pool.isDisconnected()
+      when:
+      creatable = Integer.MAX_VALUE
+      pool.reap()
+      then:
+      pool.getReconnects() == 1
+      !pool.isDisconnected()
+   }
+
+   def 'losing one of several connections does not disconnect the pool'()
+   {
+      given:
+      def pool = pool(2)
+      pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      // replacements fail, the connections left are the ones the test keeps
+      creatable = 2
+      when:
+      actives[0].set(false)
+      pool.disconnected(new IOException('lost'))
+      then:
+      pool.getDisconnects() == 1
+      !pool.isDisconnected()
+      new PollingConditions(timeout: 5).eventually {
+         assert pool.getConnections().size() == 1
+      }
+      when:
+      actives[1].set(false)
+      pool.disconnected(new IOException('lost'))
+      then:
+      pool.getDisconnects() == 2
+      pool.isDisconnected()
+   }
+
+   def 'a full pool shares its connections, a user keeps the connection it got when the pool grows'()
+   {
+      given:
+      def pool = pool(1)
+      def first = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      when:
+      def second = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      then:
+      second.is(first)
+      first.getReferenceCount() == 2
+      actives.size() == 1
+      when:
+      pool.setPoolSize(2)
+      def third = pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      then:
+      pool.getPoolSize() == 2
+      actives.size() == 2
+      !third.is(first)
+      first.getReferenceCount() == 2
+      third.getReferenceCount() == 1
+   }
+
+   def 'shrinking the pool closes nothing, new users share the connections left'()
+   {
+      given:
+      def pool = pool(2)
+      pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      when:
+      pool.setPoolSize(1)
+      pool.getOrCreateConnection(address, ProtocolVersion.VERSION_1_0, user)
+      then:
+      actives.size() == 2
+      pool.getConnections().size() == 2
+      pool.getConnections().collect { it.getReferenceCount() }.sum() == 3
+   }
+
+   def 'the pool size has to be positive'()
+   {
+      when:
+      pool(1).setPoolSize(0)
+      then:
+      thrown(IllegalArgumentException)
+   }
+
+   private NetworkConnectionPool pool(int poolSize)
+   {
+      NetworkConnectionPool.of('test', address, poolSize, { connectionAddress, protocolVersion, networkListener, closeListener, ownListener ->
+         if(actives.size() >= creatable)
+         {
+            throw new CasualConnectionException('connection refused')
+         }
+         def active = new AtomicBoolean(true)
+         actives << active
+         listeners << networkListener
+         ownListeners << ownListener
+         ReferenceCountedNetworkConnection.of(Stub(NetworkConnection) { isActive() >> { active.get() } }, { listener -> }, closeListener)
+      } as NetworkConnectionCreator)
+   }
+}
@@ -0,0 +1,66 @@
+package se.laz.casual.standalone.outbound.network.pool
+
+import spock.lang.Specification
+
+class SelectionStrategiesTest extends Specification
+{
+   def 'round robin visits every connection in turn'()
+   {
+      given:
+      def connections = [connection(0), connection(0), connection(0)]
+      def strategy = SelectionStrategies.ROUND_ROBIN.create()
+      when:
+      def selected = (1..6).collect { strategy.select(connections) }
+      then:
+      selected == connections + connections
+   }
+
+   def 'least in flight picks the least loaded, on a tie the least shared'()
+   {
+      given:
+      def busy = connection(10, 1)
+      def shared = connection(2, 5)
+      def idle = connection(2, 1)
+      def strategy = SelectionStrategies.LEAST_IN_FLIGHT.create()
+      expect:
+      (1..20).every { strategy.select([busy, shared, idle]).is(idle) }
+   }
+
+   def 'power of two choices never picks the most loaded of two'()
+   {
+      given:
+      def busy = connection(10)
+      def idle = connection(0)
+      def strategy = SelectionStrategies.POWER_OF_TWO_CHOICES.create()
+      expect:
+      (1..20).every { strategy.select([busy, idle]).is(idle) }
+   }
+
+   def 'every strategy handles a single connection'()
+   {
+      given:
+      def only = connection(3)
+      expect:
+      strategy.create().select([only]).is(only)
+      where:
+      strategy << SelectionStrategies.values()
+   }
+
+   def 'container without connections'()
+   {
+      given:
+      def container = ConnectionContainer.of()
+      when:
+      container.get()
+      then:
+      thrown(IllegalStateException)
+   }
+
+   private PooledConnection connection(int inFlight, int referenceCount = 1)
+   {
+      Stub(PooledConnection) {
+         getInFlight() >> inFlight
+         getReferenceCount() >> referenceCount
+      }
+   }
+}
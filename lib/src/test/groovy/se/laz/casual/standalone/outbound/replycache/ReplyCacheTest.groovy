@@ -0,0 +1,152 @@
+package se.laz.casual.standalone.outbound.replycache
+
+import se.laz.casual.api.buffer.CasualBuffer
+import se.laz.casual.api.buffer.ServiceReturn
+import se.laz.casual.api.buffer.type.OctetBuffer
+import se.laz.casual.api.flags.AtmiFlags
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.api.flags.ServiceReturnState
+import se.laz.casual.standalone.outbound.Address
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.function.LongSupplier
+
+class ReplyCacheTest extends Specification
+{
+   long now = 0
+   LongSupplier clock = { now } as LongSupplier
+   def address = Address.of('reply.cache.test', 7777)
+   def configuration = ReplyCacheConfiguration.createBuilder()
+           .withService('lookup')
+           .withTtl(Duration.ofSeconds(10))
+           .withMaxEntries(100)
+           .build()
+
+   def 'only TPNOTRAN calls to registered services are cacheable'()
+   {
+      given:
+      def cache = ReplyCache.create(address, configuration, clock)
+      expect:
+      cache.isCacheable('lookup', Flag.of(AtmiFlags.TPNOTRAN))
+      !cache.isCacheable('lookup', Flag.of(AtmiFlags.NOFLAG))
+      !cache.isCacheable('update', Flag.of(AtmiFlags.TPNOTRAN))
+   }
+
+   def 'identical requests hit, other payloads miss'()
+   {
+      given:
+      def cache = ReplyCache.create(address, configuration, clock)
+      def calls = 0
+      def call = { ++calls; CompletableFuture.completedFuture(success('reply')) }
+      when:
+      def first = cache.get('lookup', request('a'), call).join()
+      def second = cache.get('lookup', request('a'), call).join()
+      cache.get('lookup', request('b'), call).join()
+      then:
+      calls == 2
+      second.is(first)
+      cache.getStatistics().getHits() == 1
+      cache.getStatistics().getMisses() == 2
+   }
+
+   def 'concurrent identical requests share one call'()
+   {
+      given:
+      def cache = ReplyCache.create(address, configuration, clock)
+      def pending = new CompletableFuture<ServiceReturn<CasualBuffer>>()
+      def calls = 0
+      when:
+      def first = cache.get('lookup', request('a'), { ++calls; pending })
+      def second = cache.get('lookup', request('a'), { ++calls; pending })
+      pending.complete(success('reply'))
+      then:
+      calls == 1
+      first.join().is(second.join())
+      cache.getStatistics().getCollapsed() == 1
+      cache.getStatistics().getEntries() == 1
+   }
+
+   def 'a ttl beyond the nano clock still caches and never leaves a call in flight'()
+   {
+      given:
+      def cache = ReplyCache.create(address, ReplyCacheConfiguration.createBuilder()
+              .withService('lookup')
+              .withTtl(Duration.ofSeconds(Long.MAX_VALUE))
+              .build(), clock)
+      def calls = 0
+      def call = { ++calls; CompletableFuture.completedFuture(success('reply')) }
+      when:
+      cache.get('lookup', request('a'), call).join()
+      now += Duration.ofDays(365).toNanos()
+      def second = cache.get('lookup', request('a'), call)
+      then:
+      second.isDone()
+      calls == 1
+      cache.getStatistics().getHits() == 1
+   }
+
+   def 'replies expire after the ttl and failures are not cached'()
+   {
+      given:
+      def cache = ReplyCache.create(address, configuration, clock)
+      def calls = 0
+      when:
+      cache.get('lookup', request('a'), { ++calls; CompletableFuture.completedFuture(success('reply')) }).join()
+      now += Duration.ofSeconds(11).toNanos()
+      cache.get('lookup', request('a'), { ++calls; CompletableFuture.completedFuture(failure()) }).join()
+      cache.get('lookup', request('a'), { ++calls; CompletableFuture.completedFuture(failure()) }).join()
+      then:
+      calls == 3
+      cache.getStatistics().getExpirations() == 1
+      cache.getStatistics().getEntries() == 0
+   }
+
+   def 'a frequently requested reply survives a scan of one off requests'()
+   {
+      given:
+      def cache = ReplyCache.create(address, configuration, clock)
+      def call = { CompletableFuture.completedFuture(success('reply')) }
+      when:
+      6.times { cache.get('lookup', request('hot'), call).join() }
+      (1..1000).each { cache.get('lookup', request("scan ${it}"), call).join() }
+      def hitsBefore = cache.getStatistics().getHits()
+      cache.get('lookup', request('hot'), call).join()
+      then:
+      cache.getStatistics().getHits() == hitsBefore + 1
+      cache.getStatistics().getEntries() <= 100
+      cache.getStatistics().getEvictions() + cache.getStatistics().getRejections() > 0
+   }
+
+   def 'the byte bound is kept'()
+   {
+      given:
+      def cache = ReplyCache.create(address, ReplyCacheConfiguration.createBuilder()
+              .withService('lookup')
+              .withMaxBytes(16 * 1024)
+              .build(), clock)
+      def call = { CompletableFuture.completedFuture(success('x' * 1024)) }
+      when:
+      (1..100).each { cache.get('lookup', request("request ${it}"), call).join() }
+      then:
+      cache.getStatistics().getBytes() <= 16 * 1024
+      cache.getStatistics().getEntries() > 0
+   }
+
+   private static CasualBuffer request(String payload)
+   {
+      OctetBuffer.of(payload.getBytes())
+   }
+
+   private static ServiceReturn<CasualBuffer> success(String payload)
+   {
+      new ServiceReturn<CasualBuffer>(OctetBuffer.of(payload.getBytes()), ServiceReturnState.TPSUCCESS, ErrorState.OK, 0)
+   }
+
+   private static ServiceReturn<CasualBuffer> failure()
+   {
+      new ServiceReturn<CasualBuffer>(null, ServiceReturnState.TPFAIL, ErrorState.TPESVCERR, 0)
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import se.laz.casual.network.CasualNWMessageDecoder;
+import se.laz.casual.network.CasualNWMessageEncoder;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for a casual domain
+ * Speaks the casual protocol on a local port and answers domain connect, discovery,
+ * service calls, enqueue, dequeue and XA prepare, commit and rollback
+ *
+ * <pre>
+ * try(FakeCasualDomain domain = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder().build()))
+ * {
+ *     Caller caller = CallerProducerImpl.of().createCaller(transactionManager, "localhost", domain.getPort(), listener);
+ *     ...
+ * }
+ * </pre>
+ */
+public final class FakeCasualDomain implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(FakeCasualDomain.class.getName());
+    private final FakeDomainConfiguration configuration;
+    private final InMemoryQueueStore queueStore;
+    private final FakeDomainStatistics statistics;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Channel serverChannel;
+    private final ChannelGroup clients;
+
+    private FakeCasualDomain(FakeDomainConfiguration configuration, InMemoryQueueStore queueStore, FakeDomainStatistics statistics, EventLoopGroup bossGroup, EventLoopGroup workerGroup, Channel serverChannel, ChannelGroup clients)
+    {
+        this.clients = clients;
+        this.configuration = configuration;
+        this.queueStore = queueStore;
+        this.statistics = statistics;
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.serverChannel = serverChannel;
+    }
+
+    public static FakeCasualDomain start(FakeDomainConfiguration configuration)
+    {
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        InMemoryQueueStore queueStore = InMemoryQueueStore.of();
+        FakeDomainStatistics statistics = FakeDomainStatistics.of();
+        ReplyFactory replyFactory = ReplyFactory.of(configuration, queueStore);
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = new NioEventLoopGroup(configuration.getWorkerThreads());
+        ChannelGroup clients = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        try
+        {
+            Channel serverChannel = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>()
+                    {
+                        @Override
+                        protected void initChannel(SocketChannel channel)
+                        {
+                            clients.add(channel);
+                            channel.pipeline().addLast(CasualNWMessageDecoder.of(),
+                                                       CasualNWMessageEncoder.of(),
+                                                       FakeDomainHandler.of(replyFactory, statistics, configuration));
+                        }
+                    })
+                    .bind(new InetSocketAddress(configuration.getPort()))
+                    .syncUninterruptibly()
+                    .channel();
+            FakeCasualDomain domain = new FakeCasualDomain(configuration, queueStore, statistics, bossGroup, workerGroup, serverChannel, clients);
+            LOG.info(() -> "fake casual domain listening on port: " + domain.getPort() + " " + configuration);
+            return domain;
+        }
+        catch(RuntimeException e)
+        {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            throw e;
+        }
+    }
+
+    public int getPort()
+    {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    public FakeDomainConfiguration getConfiguration()
+    {
+        return configuration;
+    }
+
+    public InMemoryQueueStore getQueueStore()
+    {
+        return queueStore;
+    }
+
+    public FakeDomainStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Drops all client connections while still listening, handy for reconnect tests
+     */
+    public void disconnectClients()
+    {
+        LOG.info(() -> "disconnecting " + clients.size() + " clients");
+        clients.close().syncUninterruptibly();
+    }
+
+    @Override
+    public void close()
+    {
+        serverChannel.close().syncUninterruptibly();
+        clients.close().syncUninterruptibly();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+        bossGroup.shutdownGracefully().syncUninterruptibly();
+        LOG.info(() -> "fake casual domain stopped, " + statistics);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs a fake domain until the JVM is stopped
+ * args: [port]
+ * env: FAKE_DOMAIN_LATENCY_MILLIS, FAKE_DOMAIN_REPLY_SIZE, FAKE_DOMAIN_SERVICE_ERROR_RATE, FAKE_DOMAIN_TRANSACTION_ERROR_RATE
+ */
+public final class FakeCasualDomainMain
+{
+    private FakeCasualDomainMain()
+    {}
+
+    public static void main(String... args) throws InterruptedException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7772;
+        FakeDomainConfiguration configuration = FakeDomainConfiguration.createBuilder()
+                                                                       .withPort(port)
+                                                                       .withServiceLatency(Duration.ofMillis(getEnv("FAKE_DOMAIN_LATENCY_MILLIS").map(Long::parseLong).orElse(0L)))
+                                                                       .withReplySize(getEnv("FAKE_DOMAIN_REPLY_SIZE").map(Integer::parseInt).orElse(FakeDomainConfiguration.ECHO))
+                                                                       .withServiceErrorRate(getEnv("FAKE_DOMAIN_SERVICE_ERROR_RATE").map(Double::parseDouble).orElse(0.0))
+                                                                       .withTransactionErrorRate(getEnv("FAKE_DOMAIN_TRANSACTION_ERROR_RATE").map(Double::parseDouble).orElse(0.0))
+                                                                       .build();
+        CountDownLatch stopped = new CountDownLatch(1);
+        FakeCasualDomain domain = FakeCasualDomain.start(configuration);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            domain.close();
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+
+    private static Optional<String> getEnv(String name)
+    {
+        return Optional.ofNullable(System.getenv(name));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+public final class FakeDomainConfiguration
+{
+    /**
+     * Reply size that means - echo the request buffer
+     */
+    public static final int ECHO = -1;
+    private final int port;
+    private final UUID domainId;
+    private final String domainName;
+    private final Duration serviceLatency;
+    private final int replySize;
+    private final double serviceErrorRate;
+    private final double transactionErrorRate;
+    private final Predicate<String> serviceFilter;
+    private final Predicate<String> queueFilter;
+    private final int workerThreads;
+
+    private FakeDomainConfiguration(Builder builder)
+    {
+        this.port = builder.port;
+        this.domainId = builder.domainId;
+        this.domainName = builder.domainName;
+        this.serviceLatency = builder.serviceLatency;
+        this.replySize = builder.replySize;
+        this.serviceErrorRate = builder.serviceErrorRate;
+        this.transactionErrorRate = builder.transactionErrorRate;
+        this.serviceFilter = builder.serviceFilter;
+        this.queueFilter = builder.queueFilter;
+        this.workerThreads = builder.workerThreads;
+    }
+
+    public static Builder createBuilder()
+    {
+        return new Builder();
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public UUID getDomainId()
+    {
+        return domainId;
+    }
+
+    public String getDomainName()
+    {
+        return domainName;
+    }
+
+    public Duration getServiceLatency()
+    {
+        return serviceLatency;
+    }
+
+    public int getReplySize()
+    {
+        return replySize;
+    }
+
+    public double getServiceErrorRate()
+    {
+        return serviceErrorRate;
+    }
+
+    public double getTransactionErrorRate()
+    {
+        return transactionErrorRate;
+    }
+
+    public boolean serviceExists(String serviceName)
+    {
+        return serviceFilter.test(serviceName);
+    }
+
+    public boolean queueExists(String queueName)
+    {
+        return queueFilter.test(queueName);
+    }
+
+    public int getWorkerThreads()
+    {
+        return workerThreads;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FakeDomainConfiguration{" +
+                "port=" + port +
+                ", domainId=" + domainId +
+                ", domainName='" + domainName + '\'' +
+                ", serviceLatency=" + serviceLatency +
+                ", replySize=" + replySize +
+                ", serviceErrorRate=" + serviceErrorRate +
+                ", transactionErrorRate=" + transactionErrorRate +
+                ", workerThreads=" + workerThreads +
+                '}';
+    }
+
+    public static final class Builder
+    {
+        private int port = 0;
+        private UUID domainId = UUID.randomUUID();
+        private String domainName = "fake-casual-domain";
+        private Duration serviceLatency = Duration.ZERO;
+        private int replySize = ECHO;
+        private double serviceErrorRate = 0.0;
+        private double transactionErrorRate = 0.0;
+        private Predicate<String> serviceFilter = name -> true;
+        private Predicate<String> queueFilter = name -> true;
+        private int workerThreads = 0;
+
+        private Builder()
+        {}
+
+        /**
+         * @param port - 0 means any free port, see {@link FakeCasualDomain#getPort()}
+         */
+        public Builder withPort(int port)
+        {
+            this.port = port;
+            return this;
+        }
+
+        public Builder withDomainId(UUID domainId)
+        {
+            this.domainId = domainId;
+            return this;
+        }
+
+        public Builder withDomainName(String domainName)
+        {
+            this.domainName = domainName;
+            return this;
+        }
+
+        public Builder withServiceLatency(Duration serviceLatency)
+        {
+            this.serviceLatency = serviceLatency;
+            return this;
+        }
+
+        /**
+         * @param replySize - size in bytes of service replies, {@link #ECHO} echoes the request buffer
+         */
+        public Builder withReplySize(int replySize)
+        {
+            this.replySize = replySize;
+            return this;
+        }
+
+        /**
+         * @param serviceErrorRate - fraction, 0.0 - 1.0, of service calls that fail with TPESVCFAIL
+         */
+        public Builder withServiceErrorRate(double serviceErrorRate)
+        {
+            this.serviceErrorRate = serviceErrorRate;
+            return this;
+        }
+
+        /**
+         * @param transactionErrorRate - fraction, 0.0 - 1.0, of prepare, commit and rollback requests that fail with XAER_RMFAIL
+         */
+        public Builder withTransactionErrorRate(double transactionErrorRate)
+        {
+            this.transactionErrorRate = transactionErrorRate;
+            return this;
+        }
+
+        /**
+         * Which services discovery reports as existing, by default all of them
+         */
+        public Builder withServiceFilter(Predicate<String> serviceFilter)
+        {
+            this.serviceFilter = serviceFilter;
+            return this;
+        }
+
+        /**
+         * Which queues discovery reports as existing, by default all of them
+         */
+        public Builder withQueueFilter(Predicate<String> queueFilter)
+        {
+            this.queueFilter = queueFilter;
+            return this;
+        }
+
+        /**
+         * @param workerThreads - # of netty worker threads, 0 means netty default
+         */
+        public Builder withWorkerThreads(int workerThreads)
+        {
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        public FakeDomainConfiguration build()
+        {
+            Objects.requireNonNull(domainId, "domainId can not be null");
+            Objects.requireNonNull(domainName, "domainName can not be null");
+            Objects.requireNonNull(serviceLatency, "serviceLatency can not be null");
+            Objects.requireNonNull(serviceFilter, "serviceFilter can not be null");
+            Objects.requireNonNull(queueFilter, "queueFilter can not be null");
+            if(serviceErrorRate < 0.0 || serviceErrorRate > 1.0 || transactionErrorRate < 0.0 || transactionErrorRate > 1.0)
+            {
+                throw new IllegalArgumentException("error rates must be within [0.0, 1.0]");
+            }
+            if(port < 0)
+            {
+                throw new IllegalArgumentException("port can not be negative");
+            }
+            return new FakeDomainConfiguration(this);
+        }
+    }
+}
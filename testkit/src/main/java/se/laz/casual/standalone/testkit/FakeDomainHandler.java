@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage;
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable;
+import se.laz.casual.network.protocol.messages.CasualNWMessageImpl;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainConnectRequestMessage;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryRequestMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualDequeueRequestMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualEnqueueRequestMessage;
+import se.laz.casual.network.protocol.messages.service.CasualServiceCallRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceCommitRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourcePrepareRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackRequestMessage;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Answers every request on the event loop, service calls are delayed by the configured latency
+ * without blocking the event loop
+ */
+final class FakeDomainHandler extends SimpleChannelInboundHandler<CasualNWMessage<CasualNetworkTransmittable>>
+{
+    private static final Logger LOG = Logger.getLogger(FakeDomainHandler.class.getName());
+    private final ReplyFactory replyFactory;
+    private final FakeDomainStatistics statistics;
+    private final long serviceLatencyNanos;
+
+    private FakeDomainHandler(ReplyFactory replyFactory, FakeDomainStatistics statistics, long serviceLatencyNanos)
+    {
+        this.replyFactory = replyFactory;
+        this.statistics = statistics;
+        this.serviceLatencyNanos = serviceLatencyNanos;
+    }
+
+    static FakeDomainHandler of(ReplyFactory replyFactory, FakeDomainStatistics statistics, FakeDomainConfiguration configuration)
+    {
+        return new FakeDomainHandler(replyFactory, statistics, configuration.getServiceLatency().toNanos());
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, CasualNWMessage<CasualNetworkTransmittable> message)
+    {
+        UUID corrid = message.getCorrelationId();
+        CasualNetworkTransmittable request = message.getMessage();
+        if(request instanceof CasualServiceCallRequestMessage)
+        {
+            statistics.serviceCalls().increment();
+            CasualNetworkTransmittable reply = replyFactory.serviceCallReply((CasualServiceCallRequestMessage) request);
+            if(serviceLatencyNanos > 0)
+            {
+                ctx.executor().schedule(() -> reply(ctx, corrid, reply), serviceLatencyNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            reply(ctx, corrid, reply);
+            return;
+        }
+        CasualNetworkTransmittable reply = replyTo(request);
+        if(null == reply)
+        {
+            // there is no reply type that could carry an error for it, the client sees the connection close instead
+            LOG.warning(() -> "fake domain does not handle: " + request.getClass().getName() + ", closing channel: " + ctx.channel());
+            ctx.close();
+            return;
+        }
+        reply(ctx, corrid, reply);
+    }
+
+    /**
+     * @return null if the fake domain does not handle the request
+     */
+    private CasualNetworkTransmittable replyTo(CasualNetworkTransmittable request)
+    {
+        if(request instanceof CasualDomainDiscoveryRequestMessage)
+        {
+            statistics.discoveries().increment();
+            return replyFactory.discoveryReply((CasualDomainDiscoveryRequestMessage) request);
+        }
+        if(request instanceof CasualEnqueueRequestMessage)
+        {
+            statistics.enqueues().increment();
+            return replyFactory.enqueueReply((CasualEnqueueRequestMessage) request);
+        }
+        if(request instanceof CasualDequeueRequestMessage)
+        {
+            statistics.dequeues().increment();
+            return replyFactory.dequeueReply((CasualDequeueRequestMessage) request);
+        }
+        if(request instanceof CasualTransactionResourcePrepareRequestMessage)
+        {
+            statistics.prepares().increment();
+            return replyFactory.prepareReply((CasualTransactionResourcePrepareRequestMessage) request);
+        }
+        if(request instanceof CasualTransactionResourceCommitRequestMessage)
+        {
+            statistics.commits().increment();
+            return replyFactory.commitReply((CasualTransactionResourceCommitRequestMessage) request);
+        }
+        if(request instanceof CasualTransactionResourceRollbackRequestMessage)
+        {
+            statistics.rollbacks().increment();
+            return replyFactory.rollbackReply((CasualTransactionResourceRollbackRequestMessage) request);
+        }
+        if(request instanceof CasualDomainConnectRequestMessage)
+        {
+            statistics.connects().increment();
+            return replyFactory.connectReply((CasualDomainConnectRequestMessage) request);
+        }
+        return null;
+    }
+
+    private static void reply(ChannelHandlerContext ctx, UUID corrid, CasualNetworkTransmittable reply)
+    {
+        ctx.writeAndFlush(CasualNWMessageImpl.of(corrid, reply));
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+    {
+        LOG.log(Level.WARNING, cause, () -> "closing channel: " + ctx.channel());
+        ctx.close();
+    }
+}
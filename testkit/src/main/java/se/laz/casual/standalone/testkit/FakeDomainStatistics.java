@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class FakeDomainStatistics
+{
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder discoveries = new LongAdder();
+    private final LongAdder serviceCalls = new LongAdder();
+    private final LongAdder enqueues = new LongAdder();
+    private final LongAdder dequeues = new LongAdder();
+    private final LongAdder prepares = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+
+    static FakeDomainStatistics of()
+    {
+        return new FakeDomainStatistics();
+    }
+
+    LongAdder connects()
+    {
+        return connects;
+    }
+
+    LongAdder discoveries()
+    {
+        return discoveries;
+    }
+
+    LongAdder serviceCalls()
+    {
+        return serviceCalls;
+    }
+
+    LongAdder enqueues()
+    {
+        return enqueues;
+    }
+
+    LongAdder dequeues()
+    {
+        return dequeues;
+    }
+
+    LongAdder prepares()
+    {
+        return prepares;
+    }
+
+    LongAdder commits()
+    {
+        return commits;
+    }
+
+    LongAdder rollbacks()
+    {
+        return rollbacks;
+    }
+
+    public long getConnects()
+    {
+        return connects.sum();
+    }
+
+    public long getDiscoveries()
+    {
+        return discoveries.sum();
+    }
+
+    public long getServiceCalls()
+    {
+        return serviceCalls.sum();
+    }
+
+    public long getEnqueues()
+    {
+        return enqueues.sum();
+    }
+
+    public long getDequeues()
+    {
+        return dequeues.sum();
+    }
+
+    public long getPrepares()
+    {
+        return prepares.sum();
+    }
+
+    public long getCommits()
+    {
+        return commits.sum();
+    }
+
+    public long getRollbacks()
+    {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FakeDomainStatistics{" +
+                "connects=" + connects +
+                ", discoveries=" + discoveries +
+                ", serviceCalls=" + serviceCalls +
+                ", enqueues=" + enqueues +
+                ", dequeues=" + dequeues +
+                ", prepares=" + prepares +
+                ", commits=" + commits +
+                ", rollbacks=" + rollbacks +
+                '}';
+    }
+}
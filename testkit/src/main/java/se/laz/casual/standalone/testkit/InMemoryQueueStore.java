@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import se.laz.casual.api.queue.QueueMessage;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Queue storage for the fake domain
+ * Messages are visible as soon as they are enqueued, transactions are not taken into account
+ */
+public final class InMemoryQueueStore
+{
+    private final Map<String, Queue<QueueMessage>> queues = new ConcurrentHashMap<>();
+
+    public static InMemoryQueueStore of()
+    {
+        return new InMemoryQueueStore();
+    }
+
+    public void enqueue(String queueName, QueueMessage message)
+    {
+        queues.computeIfAbsent(queueName, key -> new ConcurrentLinkedQueue<>()).add(message);
+    }
+
+    public Optional<QueueMessage> dequeue(String queueName)
+    {
+        Queue<QueueMessage> queue = queues.get(queueName);
+        return null == queue ? Optional.empty() : Optional.ofNullable(queue.poll());
+    }
+
+    public int size(String queueName)
+    {
+        Queue<QueueMessage> queue = queues.get(queueName);
+        return null == queue ? 0 : queue.size();
+    }
+
+    public void clear()
+    {
+        queues.clear();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2023, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.standalone.testkit;
+
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.api.service.TransactionType;
+import se.laz.casual.api.xa.XAReturnCode;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainConnectReplyMessage;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainConnectRequestMessage;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryReplyMessage;
+import se.laz.casual.network.protocol.messages.domain.CasualDomainDiscoveryRequestMessage;
+import se.laz.casual.network.protocol.messages.domain.Queue;
+import se.laz.casual.network.protocol.messages.domain.Service;
+import se.laz.casual.network.protocol.messages.queue.CasualDequeueReplyMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualDequeueRequestMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualEnqueueReplyMessage;
+import se.laz.casual.network.protocol.messages.queue.CasualEnqueueRequestMessage;
+import se.laz.casual.network.protocol.messages.queue.DequeueMessage;
+import se.laz.casual.network.protocol.messages.queue.EnqueueMessage;
+import se.laz.casual.network.protocol.messages.service.CasualServiceCallReplyMessage;
+import se.laz.casual.network.protocol.messages.service.CasualServiceCallRequestMessage;
+import se.laz.casual.network.protocol.messages.service.TransactionState;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceCommitReplyMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceCommitRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourcePrepareReplyMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourcePrepareRequestMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackReplyMessage;
+import se.laz.casual.network.protocol.messages.transaction.CasualTransactionResourceRollbackRequestMessage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+final class ReplyFactory
+{
+    private static final String OCTET_BUFFER_TYPE = "X_OCTET";
+    private final FakeDomainConfiguration configuration;
+    private final InMemoryQueueStore queueStore;
+    private final byte[] fixedReplyPayload;
+
+    private ReplyFactory(FakeDomainConfiguration configuration, InMemoryQueueStore queueStore)
+    {
+        this.configuration = configuration;
+        this.queueStore = queueStore;
+        this.fixedReplyPayload = configuration.getReplySize() == FakeDomainConfiguration.ECHO ? null : new byte[configuration.getReplySize()];
+    }
+
+    static ReplyFactory of(FakeDomainConfiguration configuration, InMemoryQueueStore queueStore)
+    {
+        Objects.requireNonNull(configuration, "configuration can not be null");
+        Objects.requireNonNull(queueStore, "queueStore can not be null");
+        return new ReplyFactory(configuration, queueStore);
+    }
+
+    CasualDomainConnectReplyMessage connectReply(CasualDomainConnectRequestMessage request)
+    {
+        long protocolVersion = request.getProtocols().get(0);
+        return CasualDomainConnectReplyMessage.createBuilder()
+                                              .withExecution(request.getExecution())
+                                              .withDomainId(configuration.getDomainId())
+                                              .withDomainName(configuration.getDomainName())
+                                              .withProtocolVersion(protocolVersion)
+                                              .build();
+    }
+
+    CasualDomainDiscoveryReplyMessage discoveryReply(CasualDomainDiscoveryRequestMessage request)
+    {
+        List<Service> services = request.getServiceNames().stream()
+                                        .filter(configuration::serviceExists)
+                                        .map(name -> Service.of(name, "", TransactionType.AUTOMATIC))
+                                        .collect(Collectors.toList());
+        List<Queue> queues = request.getQueueNames().stream()
+                                    .filter(configuration::queueExists)
+                                    .map(Queue::of)
+                                    .collect(Collectors.toList());
+        return CasualDomainDiscoveryReplyMessage.of(request.getExecution(), configuration.getDomainId(), configuration.getDomainName())
+                                                .setServices(services)
+                                                .setQueues(queues);
+    }
+
+    CasualServiceCallReplyMessage serviceCallReply(CasualServiceCallRequestMessage request)
+    {
+        boolean failed = shouldFail(configuration.getServiceErrorRate());
+        ServiceBuffer buffer = null == fixedReplyPayload ? request.getServiceBuffer() : ServiceBuffer.of(OCTET_BUFFER_TYPE, Collections.singletonList(fixedReplyPayload));
+        return CasualServiceCallReplyMessage.createBuilder()
+                                            .setExecution(request.getExecution())
+                                            .setXid(request.getXid())
+                                            .setError(failed ? ErrorState.TPESVCFAIL : ErrorState.OK)
+                                            .setTransactionState(failed ? TransactionState.ROLLBACK_ONLY : TransactionState.TX_ACTIVE)
+                                            .setServiceBuffer(buffer)
+                                            .build();
+    }
+
+    CasualEnqueueReplyMessage enqueueReply(CasualEnqueueRequestMessage request)
+    {
+        EnqueueMessage enqueueMessage = request.getMessage();
+        UUID id = null == enqueueMessage.getId() ? UUID.randomUUID() : enqueueMessage.getId();
+        QueueMessage message = QueueMessage.createBuilder()
+                                           .withId(id)
+                                           .withCorrelationInformation(enqueueMessage.getCorrelationInformation())
+                                           .withPayload(enqueueMessage.getPayload())
+                                           .build();
+        queueStore.enqueue(request.getQueueName(), message);
+        return CasualEnqueueReplyMessage.createBuilder()
+                                        .withExecution(request.getExecution())
+                                        .withId(id)
+                                        .build();
+    }
+
+    CasualDequeueReplyMessage dequeueReply(CasualDequeueRequestMessage request)
+    {
+        List<DequeueMessage> messages = queueStore.dequeue(request.getQueueName())
+                                                  .map(DequeueMessage::of)
+                                                  .map(Collections::singletonList)
+                                                  .orElseGet(Collections::emptyList);
+        return CasualDequeueReplyMessage.createBuilder()
+                                        .withExecution(request.getExecution())
+                                        .withMessages(messages)
+                                        .build();
+    }
+
+    CasualTransactionResourcePrepareReplyMessage prepareReply(CasualTransactionResourcePrepareRequestMessage request)
+    {
+        return CasualTransactionResourcePrepareReplyMessage.of(request.getExecution(), request.getXid(), request.getResourceId(), transactionReturnCode());
+    }
+
+    CasualTransactionResourceCommitReplyMessage commitReply(CasualTransactionResourceCommitRequestMessage request)
+    {
+        return CasualTransactionResourceCommitReplyMessage.of(request.getExecution(), request.getXid(), request.getResourceId(), transactionReturnCode());
+    }
+
+    CasualTransactionResourceRollbackReplyMessage rollbackReply(CasualTransactionResourceRollbackRequestMessage request)
+    {
+        return CasualTransactionResourceRollbackReplyMessage.of(request.getExecution(), request.getXid(), request.getResourceId(), transactionReturnCode());
+    }
+
+    private XAReturnCode transactionReturnCode()
+    {
+        return shouldFail(configuration.getTransactionErrorRate()) ? XAReturnCode.XAER_RMFAIL : XAReturnCode.XA_OK;
+    }
+
+    // pseudorandom is good enough here
+    @SuppressWarnings("java:S2245")
+    private static boolean shouldFail(double errorRate)
+    {
+        return errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+}
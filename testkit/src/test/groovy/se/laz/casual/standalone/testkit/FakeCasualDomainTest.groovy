@@ -0,0 +1,238 @@
+package se.laz.casual.standalone.testkit
+
+import se.laz.casual.api.buffer.type.OctetBuffer
+import se.laz.casual.api.flags.AtmiFlags
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.api.flags.ServiceReturnState
+import se.laz.casual.api.queue.MessageSelector
+import se.laz.casual.api.queue.QueueInfo
+import se.laz.casual.api.queue.QueueMessage
+import se.laz.casual.api.queue.QueueOptions
+import se.laz.casual.network.outbound.NetworkListener
+import se.laz.casual.standalone.outbound.Address
+import se.laz.casual.standalone.outbound.Caller
+import se.laz.casual.standalone.outbound.CallerProducerImpl
+import se.laz.casual.standalone.outbound.LoadBalancingCaller
+import se.laz.casual.standalone.outbound.ManagedConnectionPool
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import javax.transaction.TransactionManager
+import javax.transaction.xa.XAException
+import javax.transaction.xa.Xid
+import java.time.Duration
+
+class FakeCasualDomainTest extends Specification
+{
+   @Shared
+   FakeCasualDomain domain
+   @Shared
+   Caller caller
+
+   def setupSpec()
+   {
+      domain = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder()
+              .withServiceFilter({ name -> !name.startsWith('missing') })
+              .build())
+      TransactionManager transactionManager = Mock(TransactionManager) {
+         getTransaction() >> null
+      }
+      NetworkListener listener = Mock(NetworkListener)
+      caller = CallerProducerImpl.of().createCaller(transactionManager, 'localhost', domain.getPort(), listener)
+   }
+
+   def cleanupSpec()
+   {
+      caller?.close()
+      domain?.close()
+   }
+
+   def 'service call is echoed'()
+   {
+      given:
+      def payload = 'echo me'.getBytes()
+      when:
+      def reply = caller.tpcall('echo', OctetBuffer.of(payload), Flag.of(AtmiFlags.TPNOTRAN))
+      then:
+      reply.serviceReturnState == ServiceReturnState.TPSUCCESS
+      reply.replyBuffer.getBytes().get(0) == payload
+   }
+
+   def 'unknown service'()
+   {
+      when:
+      def reply = caller.tpcall('missing', OctetBuffer.of('data'.getBytes()), Flag.of(AtmiFlags.TPNOTRAN))
+      then:
+      reply.errorState == ErrorState.TPENOENT
+   }
+
+   def 'batch enqueue returns one reply per message in order'()
+   {
+      given:
+      def queueInfo = QueueInfo.createBuilder()
+              .withQueueName('testkit.batch.queue')
+              .withOptions(QueueOptions.createBuilder().withBlock(false).build())
+              .build()
+      def messages = (1..500).collect { QueueMessage.createBuilder().withPayload(OctetBuffer.of("message ${it}".getBytes())).build() }
+      when:
+      def replies = caller.enqueueBatch(queueInfo, messages, 32)
+      then:
+      replies.size() == 500
+      replies.every { it.errorState == ErrorState.OK }
+      domain.getQueueStore().size('testkit.batch.queue') == 500
+   }
+
+   def 'prewarm discovers everything in one round trip'()
+   {
+      given:
+      def services = (1..300).collect { "prewarm.service.${it}".toString() } + ['missing.prewarm']
+      def queues = (1..40).collect { "prewarm.queue.${it}".toString() }
+      def discoveriesBefore = domain.getStatistics().getDiscoveries()
+      when:
+      caller.prewarm(services, queues)
+      def allServices = services.take(300).every { caller.serviceExists(it) }
+      def missing = caller.serviceExists('missing.prewarm')
+      then:
+      allServices
+      !missing
+      domain.getStatistics().getDiscoveries() == discoveriesBefore + 1
+   }
+
+   def 'enqueue then dequeue'()
+   {
+      given:
+      def queueInfo = QueueInfo.createBuilder()
+              .withQueueName('testkit.queue')
+              .withOptions(QueueOptions.createBuilder().withBlock(false).build())
+              .build()
+      def message = QueueMessage.createBuilder().withPayload(OctetBuffer.of('queued'.getBytes())).build()
+      when:
+      def enqueued = caller.enqueue(queueInfo, message)
+      then:
+      enqueued.errorState == ErrorState.OK
+      domain.getQueueStore().size('testkit.queue') == 1
+      when:
+      def dequeued = caller.dequeue(queueInfo, MessageSelector.of())
+      then:
+      dequeued.errorState == ErrorState.OK
+      dequeued.getQueueMessage().get().getPayload().getBytes().get(0) == 'queued'.getBytes()
+      domain.getQueueStore().size('testkit.queue') == 0
+   }
+
+   def 'xa completion'()
+   {
+      given:
+      Xid xid = Mock(Xid) {
+         getFormatId() >> 4711
+         getGlobalTransactionId() >> ([1, 2, 3] as byte[])
+         getBranchQualifier() >> ([4, 5, 6] as byte[])
+      }
+      def commitsBefore = domain.getStatistics().getCommits()
+      when:
+      caller.getXAResource().commit(xid, true)
+      then:
+      noExceptionThrown()
+      domain.getStatistics().getCommits() == commitsBefore + 1
+   }
+
+   def 'xa failures are reported'()
+   {
+      given:
+      def failingDomain = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder()
+              .withTransactionErrorRate(1.0)
+              .build())
+      def failingCaller = CallerProducerImpl.of().createCaller(Mock(TransactionManager), 'localhost', failingDomain.getPort(), Mock(NetworkListener))
+      Xid xid = Mock(Xid) {
+         getFormatId() >> 4711
+         getGlobalTransactionId() >> ([7, 8] as byte[])
+         getBranchQualifier() >> ([9] as byte[])
+      }
+      when:
+      failingCaller.getXAResource().rollback(xid)
+      then:
+      thrown(XAException)
+      cleanup:
+      failingCaller?.close()
+      failingDomain?.close()
+   }
+
+   def 'a reply that does not arrive within the deadline is TPETIME'()
+   {
+      given:
+      def slowDomain = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder()
+              .withServiceLatency(Duration.ofSeconds(5))
+              .build())
+      def slowCaller = CallerProducerImpl.of().createCaller(Mock(TransactionManager), 'localhost', slowDomain.getPort(), Mock(NetworkListener))
+      when:
+      def reply = slowCaller.tpcall('echo', OctetBuffer.of('slow'.getBytes()), Flag.of(AtmiFlags.TPNOTRAN), Duration.ofMillis(200))
+      then:
+      reply.errorState == ErrorState.TPETIME
+      cleanup:
+      slowCaller?.close()
+      slowDomain?.close()
+   }
+
+   def 'load balancing caller spreads calls and skips a lost domain'()
+   {
+      given:
+      def first = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder().build())
+      def second = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder().build())
+      TransactionManager transactionManager = Mock(TransactionManager) {
+         getTransaction() >> null
+      }
+      def balancer = LoadBalancingCaller.createBuilder()
+              .withTransactionManager(transactionManager)
+              .withAddress(Address.of('localhost', first.getPort()))
+              .withAddress(Address.of('localhost', second.getPort()))
+              .build()
+      def call = { balancer.tpcall('echo', OctetBuffer.of('balanced'.getBytes()), Flag.of(AtmiFlags.TPNOTRAN)) }
+      when:
+      def replies = (1..200).collect { call() }
+      then:
+      replies.every { it.serviceReturnState == ServiceReturnState.TPSUCCESS }
+      first.getStatistics().getServiceCalls() > 0
+      second.getStatistics().getServiceCalls() > 0
+      when:
+      first.close()
+      new PollingConditions(timeout: 5).eventually {
+         assert call().serviceReturnState == ServiceReturnState.TPSUCCESS
+      }
+      def secondBefore = second.getStatistics().getServiceCalls()
+      def afterLoss = (1..50).collect { call() }
+      then:
+      afterLoss.every { it.serviceReturnState == ServiceReturnState.TPSUCCESS }
+      second.getStatistics().getServiceCalls() == secondBefore + 50
+      cleanup:
+      balancer?.close()
+      first?.close()
+      second?.close()
+   }
+
+   def 'prewarm opens network and managed connections up front'()
+   {
+      given:
+      def warmDomain = FakeCasualDomain.start(FakeDomainConfiguration.createBuilder().build())
+      def address = Address.of('localhost', warmDomain.getPort())
+      TransactionManager transactionManager = Mock(TransactionManager) {
+         getTransaction() >> null
+      }
+      when:
+      def statistics = ManagedConnectionPool.prewarm(address, 8, 2, { transactionManager })
+      then:
+      statistics.getSize() == 8
+      statistics.getIdle() == 8
+      warmDomain.getStatistics().getConnects() == 2
+      when:
+      def connection = ManagedConnectionPool.getConnection(address, { transactionManager })
+      def reply = connection.getCaller().get().tpcall('echo', OctetBuffer.of('warm'.getBytes()), Flag.of(AtmiFlags.TPNOTRAN))
+      connection.close()
+      then:
+      reply.serviceReturnState == ServiceReturnState.TPSUCCESS
+      warmDomain.getStatistics().getConnects() == 2
+      ManagedConnectionPool.getStatistics(address).get().getCreated() == 8
+      cleanup:
+      warmDomain?.close()
+   }
+}
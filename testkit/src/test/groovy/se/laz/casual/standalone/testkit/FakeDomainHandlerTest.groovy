@@ -0,0 +1,27 @@
+package se.laz.casual.standalone.testkit
+
+import io.netty.channel.embedded.EmbeddedChannel
+import se.laz.casual.api.network.protocol.messages.CasualNWMessage
+import se.laz.casual.api.network.protocol.messages.CasualNetworkTransmittable
+import spock.lang.Specification
+
+class FakeDomainHandlerTest extends Specification
+{
+   def 'a request the fake domain does not handle closes the channel'()
+   {
+      given:
+      def configuration = FakeDomainConfiguration.createBuilder().build()
+      def handler = FakeDomainHandler.of(ReplyFactory.of(configuration, InMemoryQueueStore.of()), FakeDomainStatistics.of(), configuration)
+      def channel = new EmbeddedChannel(handler)
+      def request = Stub(CasualNWMessage) {
+         getCorrelationId() >> UUID.randomUUID()
+         getMessage() >> Stub(CasualNetworkTransmittable)
+      }
+      when:
+      channel.writeInbound(request)
+      then:
+      noExceptionThrown()
+      !channel.isOpen()
+      channel.readOutbound() == null
+   }
+}